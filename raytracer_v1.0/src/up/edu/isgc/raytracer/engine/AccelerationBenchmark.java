@@ -0,0 +1,188 @@
+/*
+  [1968] - [2020] Centros Culturales de Mexico A.C / Universidad Panamericana
+  All Rights Reserved.
+ */
+package up.edu.isgc.raytracer.engine;
+
+
+import up.edu.isgc.raytracer.materials.LambertMaterial;
+import up.edu.isgc.raytracer.objects.Object3D;
+import up.edu.isgc.raytracer.objects.Polygon;
+import up.edu.isgc.raytracer.objects.Sphere;
+import up.edu.isgc.raytracer.objects.utility.BoundingBox;
+import up.edu.isgc.raytracer.objects.utility.Ray;
+import up.edu.isgc.raytracer.objects.utility.Vector3D;
+import up.edu.isgc.raytracer.tools.HitRecord;
+import up.edu.isgc.raytracer.tools.Intersection;
+import up.edu.isgc.raytracer.tools.acceleration.AccelerationStructureType;
+import up.edu.isgc.raytracer.tools.acceleration.BVHBuildQuality;
+import up.edu.isgc.raytracer.tools.acceleration.IAccelerationStructure;
+
+import java.awt.Color;
+import java.util.Date;
+import java.util.Random;
+
+/**
+ * Compares the build and trace times of every acceleration structure with the bundled .obj files
+ * and with a particle field of spheres (scene level structure of a compiled scene)
+ * The rays are random but reproducible (fixed seed), every structure must find the same number of hits
+ * It must be run from the same folder as Main (the .obj files are read from the objects/ folder)
+ *
+ * @author Homar Cano, Jafet Rodríguez
+ */
+public class AccelerationBenchmark {
+    public static final String[] OBJ_FILES = {"cube", "floor", "ring", "boxes", "small_teapot", "figures",
+            "set01/table", "set01/cutlery", "set01/liquid", "set02/gear", "set02/helix", "set02/pipe"};
+    public static final int RAYS = 200000;
+    public static final int PARTICLES = 20;
+    public static final long SEED = 2020L;
+
+    /**
+     * Driver function for the benchmark
+     * @param args unused
+     */
+    public static void main(String[] args) {
+        System.out.println(new Date() + " acceleration structure benchmark started");
+        System.out.println(String.format("%-16s %-16s %-9s %12s %12s %10s", "model", "structure", "quality", "build (ms)", "Mrays/s", "hits"));
+
+        for (String objFile : OBJ_FILES) {
+            Polygon polygon = new Polygon(Vector3D.ZERO(), objFile, new LambertMaterial(Color.WHITE));
+            Ray[] rays = createRays(polygon.getBoundingBox());
+            for (AccelerationStructureType type : AccelerationStructureType.values()) {
+                for (BVHBuildQuality quality : BVHBuildQuality.values()) {
+                    if (type != AccelerationStructureType.BVH && quality != BVHBuildQuality.FAST) continue;
+                    benchmarkPolygon(objFile, polygon, rays, type, quality);
+                }
+            }
+        }
+
+        Scene particles = createParticleField();
+        BoundingBox particlesBox = BoundingBox.EMPTY();
+        for (Object3D particle : particles.getObjects()) particlesBox = BoundingBox.union(particlesBox, ((Sphere) particle).getBoundingBox());
+        Ray[] rays = createRays(particlesBox);
+        for (AccelerationStructureType type : AccelerationStructureType.values()) {
+            benchmarkScene("particles", particles, rays, type);
+        }
+        System.out.println(new Date() + " acceleration structure benchmark finished");
+    }
+
+    /**
+     * builds a structure for a polygon and casts all the rays against it (the JIT is warmed up with a first round)
+     * @param name the name of the model
+     * @param polygon the Polygon to test
+     * @param rays the rays to cast
+     * @param type the type of acceleration structure
+     * @param quality the build preset
+     */
+    private static void benchmarkPolygon(String name, Polygon polygon, Ray[] rays, AccelerationStructureType type, BVHBuildQuality quality) {
+        polygon.buildAccelerationStructure(type, quality);
+        IAccelerationStructure structure = polygon.buildAccelerationStructure(type, quality);
+        castRays(polygon, rays);
+        long startTime = System.nanoTime();
+        int hits = castRays(polygon, rays);
+        long traceTime = System.nanoTime() - startTime;
+        printResult(name, type, quality, structure.getBuildTime(), traceTime, rays.length, hits);
+    }
+
+    /**
+     * compiles a scene (building a structure for its objects) and casts all the rays against it
+     * @param name the name of the scene
+     * @param scene the Scene to test
+     * @param rays the rays to cast
+     * @param type the type of acceleration structure
+     */
+    private static void benchmarkScene(String name, Scene scene, Ray[] rays, AccelerationStructureType type) {
+        Raytracer raytracer = new Raytracer(1, Main.RENDER_TIMEOUT, Main.LIGHT_FALLOFF_EXPONENT, false);
+        raytracer.setAccelerationStructureType(type);
+        raytracer.setUseFrustumCulling(false);
+        scene.compile(raytracer, new RenderStatistics());
+        CompiledScene compiledScene = scene.compile(raytracer, new RenderStatistics());
+        castRays(compiledScene, rays);
+        long startTime = System.nanoTime();
+        int hits = castRays(compiledScene, rays);
+        long traceTime = System.nanoTime() - startTime;
+        printResult(name, type, BVHBuildQuality.OPTIMIZED, compiledScene.getAccelerationStructure().getBuildTime(), traceTime, rays.length, hits);
+    }
+
+    /**
+     * casts all the rays against a polygon
+     * @param polygon the Polygon to test
+     * @param rays the rays to cast
+     * @return the number of rays that hit the polygon
+     */
+    private static int castRays(Polygon polygon, Ray[] rays) {
+        int hits = 0;
+        for (Ray ray : rays) if (polygon.getObjectIntersection(ray) != null) hits++;
+        return hits;
+    }
+
+    /**
+     * casts all the rays against the objects of a compiled scene
+     * @param scene the CompiledScene to test
+     * @param rays the rays to cast
+     * @return the number of rays that hit an object
+     */
+    private static int castRays(CompiledScene scene, Ray[] rays) {
+        int hits = 0;
+        for (Ray ray : rays) {
+            boolean hit = scene.getAccelerationStructure().intersect(ray, new HitRecord(), (objectId, objectRay, record) -> {
+                Intersection intersection = scene.intersect(objectId, objectRay);
+                if (intersection == null || intersection.getDistance() < 0 || intersection.getDistance() >= record.getDistance()) return false;
+                record.setDistance(intersection.getDistance());
+                return true;
+            });
+            if (hit) hits++;
+        }
+        return hits;
+    }
+
+    /**
+     * creates reproducible random rays that start outside a box and point to a random point inside of it
+     * @param box the box to aim at
+     * @return the rays created
+     */
+    private static Ray[] createRays(BoundingBox box) {
+        Random random = new Random(SEED);
+        Vector3D center = box.getCentroid();
+        Vector3D extent = Vector3D.subtract(box.getMax(), box.getMin());
+        double radius = Vector3D.magnitude(extent);
+        Ray[] rays = new Ray[RAYS];
+        for (int i = 0; i < rays.length; i++) {
+            Vector3D origin = Vector3D.add(center, Vector3D.scalarMultiplication(Vector3D.normalize(new Vector3D(random.nextGaussian(), random.nextGaussian(), random.nextGaussian())), radius));
+            Vector3D target = new Vector3D(box.getMin().getX() + random.nextDouble() * extent.getX(), box.getMin().getY() + random.nextDouble() * extent.getY(), box.getMin().getZ() + random.nextDouble() * extent.getZ());
+            rays[i] = new Ray(origin, Vector3D.subtract(target, origin));
+        }
+        return rays;
+    }
+
+    /**
+     * creates an evenly populated scene with PARTICLES^3 spheres
+     * @return the Scene created
+     */
+    private static Scene createParticleField() {
+        Scene scene = new Scene("particles", Main.IMAGE_EXTENSION);
+        LambertMaterial material = new LambertMaterial(Color.WHITE);
+        Random random = new Random(SEED);
+        for (int x = 0; x < PARTICLES; x++)
+            for (int y = 0; y < PARTICLES; y++)
+                for (int z = 0; z < PARTICLES; z++)
+                    scene.addObject(new Sphere(new Vector3D(x + random.nextDouble() * 0.5d, y + random.nextDouble() * 0.5d, z + random.nextDouble() * 0.5d), 0.1d + random.nextDouble() * 0.2d, material));
+        return scene;
+    }
+
+    /**
+     * shows a row of the results table in the console
+     * @param name the name of the model
+     * @param type the type of acceleration structure
+     * @param quality the build preset
+     * @param buildTime the build time in nanoseconds
+     * @param traceTime the trace time in nanoseconds
+     * @param rays the number of rays cast
+     * @param hits the number of rays that hit the model
+     */
+    private static void printResult(String name, AccelerationStructureType type, BVHBuildQuality quality, long buildTime, long traceTime, int rays, int hits) {
+        String qualityName = type == AccelerationStructureType.BVH ? quality.toString() : "-";
+        System.out.println(String.format("%-16s %-16s %-9s %12.2f %12.3f %10d", name, type, qualityName, buildTime / 1e6, rays / (traceTime / 1e3), hits));
+    }
+
+}
@@ -0,0 +1,343 @@
+/*
+  [1968] - [2020] Centros Culturales de Mexico A.C / Universidad Panamericana
+  All Rights Reserved.
+ */
+package up.edu.isgc.raytracer.engine;
+
+
+import up.edu.isgc.raytracer.objects.Polygon;
+import up.edu.isgc.raytracer.objects.Triangle;
+import up.edu.isgc.raytracer.objects.utility.BoundingBox;
+import up.edu.isgc.raytracer.objects.utility.Ray;
+import up.edu.isgc.raytracer.objects.utility.Vector3D;
+import up.edu.isgc.raytracer.tools.HitRecord;
+import up.edu.isgc.raytracer.tools.IBoundable;
+import up.edu.isgc.raytracer.tools.IIntersectable;
+import up.edu.isgc.raytracer.tools.Intersection;
+import up.edu.isgc.raytracer.tools.acceleration.AccelerationStructureType;
+import up.edu.isgc.raytracer.tools.acceleration.BVHBuildQuality;
+import up.edu.isgc.raytracer.tools.acceleration.IAccelerationStructure;
+
+import java.util.List;
+
+/**
+ * Immutable copy of the triangle mesh of a Polygon stored in flat arrays (9 values per triangle: x, y, z of the vertices A, B and C)
+ * The vertex normals are calculated when the mesh is compiled, so the triangles of the polygon are never read while rendering
+ * Has its own acceleration structure, changes to the polygon do not affect it
+ *
+ * @author Homar Cano, Jafet Rodríguez
+ */
+public final class CompiledMesh implements IIntersectable, IBoundable {
+    /**
+     * private constant used as margin of error (the same one used by the triangles)
+     */
+    private static final double EPSILON = 0.0000001d;
+
+    private final Polygon polygon;
+    private final double[] vertices;
+    private final double[] normals;
+    private final BoundingBox boundingBox;
+    private final IAccelerationStructure accelerationStructure;
+
+    /**
+     * class constructor, copies the triangles of a polygon and builds the acceleration structure of the copy
+     * @param polygon the Polygon to copy
+     * @param type the type of acceleration structure to build
+     * @param quality the build preset used by bounding volume hierarchies
+     */
+    public CompiledMesh(Polygon polygon, AccelerationStructureType type, BVHBuildQuality quality) {
+        this.polygon = polygon;
+        List<Triangle> triangles = polygon.getTriangleMesh();
+        this.vertices = new double[triangles.size() * 9];
+        this.normals = new double[triangles.size() * 9];
+        BoundingBox[] boxes = new BoundingBox[triangles.size()];
+        BoundingBox box = BoundingBox.EMPTY();
+        for (int i = 0; i < triangles.size(); i++) {
+            Triangle triangle = triangles.get(i);
+            copyVectors(triangle.getVertices(), vertices, i * 9);
+            copyVectors(triangle.getNormals(), normals, i * 9);
+            boxes[i] = triangle.getBoundingBox();
+            box = BoundingBox.union(box, boxes[i]);
+        }
+        this.boundingBox = box;
+        this.accelerationStructure = type.build(boxes, quality);
+    }
+
+    /**
+     * class constructor, creates a translated copy of a compiled mesh, the normals are shared and the acceleration structure
+     * is refit over the moved triangles instead of built again
+     * @param mesh the CompiledMesh to copy
+     * @param offset the translation of every vertex
+     */
+    private CompiledMesh(CompiledMesh mesh, Vector3D offset) {
+        this.polygon = mesh.polygon;
+        this.vertices = new double[mesh.vertices.length];
+        this.normals = mesh.normals;
+        double[] translation = {offset.getX(), offset.getY(), offset.getZ()};
+        BoundingBox[] boxes = new BoundingBox[vertices.length / 9];
+        BoundingBox box = BoundingBox.EMPTY();
+        for (int i = 0; i < boxes.length; i++) {
+            boxes[i] = BoundingBox.EMPTY();
+            for (int vertex = i * 9; vertex < i * 9 + 9; vertex += 3) {
+                for (int axis = 0; axis < 3; axis++) vertices[vertex + axis] = mesh.vertices[vertex + axis] + translation[axis];
+                boxes[i] = BoundingBox.union(boxes[i], new Vector3D(vertices[vertex], vertices[vertex + 1], vertices[vertex + 2]));
+            }
+            box = BoundingBox.union(box, boxes[i]);
+        }
+        this.boundingBox = box;
+        this.accelerationStructure = mesh.accelerationStructure.refit(boxes);
+    }
+
+    /**
+     * creates a copy of the mesh moved by an offset, the copy is the same mesh a polygon moved by the offset compiles to
+     * but its acceleration structure is refit from this one (used by the animations)
+     * @param offset the translation of every vertex
+     * @return the translated copy, this mesh is not modified
+     */
+    public CompiledMesh translate(Vector3D offset) {
+        return new CompiledMesh(this, offset);
+    }
+
+    /**
+     * copies three vectors into a flat array
+     * @param vectors the vectors to copy
+     * @param array the flat array
+     * @param offset the index of the first value
+     */
+    private static void copyVectors(Vector3D[] vectors, double[] array, int offset) {
+        for (int i = 0; i < 3; i++) {
+            array[offset + i * 3] = vectors[i].getX();
+            array[offset + i * 3 + 1] = vectors[i].getY();
+            array[offset + i * 3 + 2] = vectors[i].getZ();
+        }
+    }
+
+    /**
+     * calculates the closest intersection with the mesh, the position and normal are only calculated for the closest hit
+     * @param ray the ray used to calculate the intersection
+     * @return the intersection between the ray and the mesh or null if the intersection does not exists
+     */
+    @Override
+    public Intersection getObjectIntersection(Ray ray) {
+        Vector3D origin = ray.getOrigin();
+        Vector3D direction = ray.getDirection();
+        HitRecord hit = new HitRecord();
+        accelerationStructure.intersect(ray, hit, (triangleIndex, triangleRay, record) -> intersectTriangle(triangleIndex, origin, direction, record));
+        if (!hit.hasHit()) return null;
+        return createIntersection(hit, origin, direction);
+    }
+
+    /**
+     * calculates the intersection with a single triangle of the mesh without traversing the acceleration structure, it is
+     * the same intersection getObjectIntersection() returns when the triangle is the closest one
+     * @param triangleIndex the index of the triangle
+     * @param ray the ray used to calculate the intersection
+     * @return the intersection between the ray and the triangle or null if the intersection does not exists
+     */
+    public Intersection getTriangleIntersection(int triangleIndex, Ray ray) {
+        HitRecord hit = new HitRecord();
+        if (!intersectTriangle(triangleIndex, ray.getOrigin(), ray.getDirection(), hit)) return null;
+        return createIntersection(hit, ray.getOrigin(), ray.getDirection());
+    }
+
+    /**
+     * calculates the position and interpolated normal of the closest hit of a ray
+     * @param hit the record of the closest hit
+     * @param origin the origin of the ray
+     * @param direction the normalized direction of the ray
+     * @return the intersection of the hit
+     */
+    private Intersection createIntersection(HitRecord hit, Vector3D origin, Vector3D direction) {
+        int offset = hit.getPrimitiveIndex() * 9;
+        double u = hit.getU();
+        double v = hit.getV();
+        double w = 1.0 - u - v;
+        Vector3D position = Vector3D.add(origin, Vector3D.scalarMultiplication(direction, hit.getDistance()));
+        Vector3D normal = new Vector3D(normals[offset] * w + normals[offset + 3] * v + normals[offset + 6] * u,
+                normals[offset + 1] * w + normals[offset + 4] * v + normals[offset + 7] * u,
+                normals[offset + 2] * w + normals[offset + 5] * v + normals[offset + 8] * u);
+        Intersection intersection = new Intersection(hit.getDistance(), position, normal, polygon);
+        intersection.setPrimitiveIndex(hit.getPrimitiveIndex());
+        intersection.setU(u);
+        intersection.setV(v);
+        return intersection;
+    }
+
+    /**
+     * checks if a ray hits any triangle of the mesh, the search stops with the first hit found
+     * @param ray the ray used to calculate the intersection
+     * @param maxDistance the distance where the ray ends, hits at that distance or farther are ignored
+     * @return true if the ray hits the mesh before the max distance
+     */
+    @Override
+    public boolean isOccluded(Ray ray, double maxDistance) {
+        return findOccluder(ray, maxDistance) >= 0;
+    }
+
+    /**
+     * finds a triangle of the mesh hit by a ray, the search stops with the first hit found
+     * @param ray the ray used to calculate the intersection
+     * @param maxDistance the distance where the ray ends, hits at that distance or farther are ignored
+     * @return the index of the triangle hit or -1 if the ray does not hit the mesh before the max distance
+     */
+    @Override
+    public int findOccluder(Ray ray, double maxDistance) {
+        Vector3D origin = ray.getOrigin();
+        Vector3D direction = ray.getDirection();
+        HitRecord hit = new HitRecord();
+        hit.setDistance(maxDistance);
+        if (!accelerationStructure.isOccluded(ray, hit, (triangleIndex, triangleRay, record) -> intersectTriangle(triangleIndex, origin, direction, record))) return -1;
+        return hit.getPrimitiveIndex();
+    }
+
+    /**
+     * checks if a ray hits a single triangle of the mesh without traversing the acceleration structure
+     * @param triangleIndex the index of the triangle
+     * @param ray the ray used to calculate the intersection
+     * @param maxDistance the distance where the ray ends, hits at that distance or farther are ignored
+     * @return true if the ray hits the triangle before the max distance
+     */
+    @Override
+    public boolean isOccludedBy(int triangleIndex, Ray ray, double maxDistance) {
+        HitRecord hit = new HitRecord();
+        hit.setDistance(maxDistance);
+        return intersectTriangle(triangleIndex, ray.getOrigin(), ray.getDirection(), hit);
+    }
+
+    /**
+     * calculates a ray-triangle intersection with the flat arrays, it accepts exactly the same hits as Triangle.intersect()
+     * @param triangleIndex the index of the triangle
+     * @param origin the origin of the ray
+     * @param direction the normalized direction of the ray
+     * @param hit the record of the closest hit, it is only updated if the triangle is closer
+     * @return true if the triangle is closer than the hit stored in the record
+     * @see <a href="https://cadxfem.org/inf/Fast%20MinimumStorage%20RayTriangle%20Intersection.pdf">Moller-Trumbore intersection algorithm</a>
+     */
+    private boolean intersectTriangle(int triangleIndex, Vector3D origin, Vector3D direction, HitRecord hit) {
+        int offset = triangleIndex * 9;
+        double aX = vertices[offset], aY = vertices[offset + 1], aZ = vertices[offset + 2];
+        double v1v0X = vertices[offset + 3] - aX, v1v0Y = vertices[offset + 4] - aY, v1v0Z = vertices[offset + 5] - aZ;
+        double v2v0X = vertices[offset + 6] - aX, v2v0Y = vertices[offset + 7] - aY, v2v0Z = vertices[offset + 8] - aZ;
+        double directionX = direction.getX(), directionY = direction.getY(), directionZ = direction.getZ();
+
+        double pX = (directionY * v1v0Z) - (directionZ * v1v0Y);
+        double pY = (directionZ * v1v0X) - (directionX * v1v0Z);
+        double pZ = (directionX * v1v0Y) - (directionY * v1v0X);
+        double invertedDeterminant = 1.0 / ((v2v0X * pX) + (v2v0Y * pY) + (v2v0Z * pZ));
+
+        double tX = origin.getX() - aX, tY = origin.getY() - aY, tZ = origin.getZ() - aZ;
+        double u = ((tX * pX) + (tY * pY) + (tZ * pZ)) * invertedDeterminant;
+        if (u < 0 || u > 1) return false;
+
+        double qX = (tY * v2v0Z) - (tZ * v2v0Y);
+        double qY = (tZ * v2v0X) - (tX * v2v0Z);
+        double qZ = (tX * v2v0Y) - (tY * v2v0X);
+        double v = ((directionX * qX) + (directionY * qY) + (directionZ * qZ)) * invertedDeterminant;
+        if (v < 0 || (u + v) > (1.0 + EPSILON)) return false;
+
+        double t = ((qX * v1v0X) + (qY * v1v0Y) + (qZ * v1v0Z)) * invertedDeterminant;
+        if (!(t > 0) || t >= hit.getDistance()) return false;
+        hit.setDistance(t);
+        hit.setU(u);
+        hit.setV(v);
+        hit.setPrimitiveIndex(triangleIndex);
+        return true;
+    }
+
+    /**
+     * class getter
+     * @return the bounding box of the mesh when it was compiled
+     */
+    @Override
+    public BoundingBox getBoundingBox() {
+        return new BoundingBox(Vector3D.clone(boundingBox.getMin()), Vector3D.clone(boundingBox.getMax()));
+    }
+
+    /**
+     * calculates a point of a triangle from its barycentric coordinates
+     * @param triangleIndex the index of the triangle
+     * @param u the barycentric coordinate of the third vertex
+     * @param v the barycentric coordinate of the second vertex
+     * @return the position of the point
+     */
+    public Vector3D getPoint(int triangleIndex, double u, double v) {
+        return interpolate(vertices, triangleIndex, u, v);
+    }
+
+    /**
+     * calculates the interpolated vertex normal of a triangle from its barycentric coordinates
+     * @param triangleIndex the index of the triangle
+     * @param u the barycentric coordinate of the third vertex
+     * @param v the barycentric coordinate of the second vertex
+     * @return the normal of the point (not normalized)
+     */
+    public Vector3D getNormal(int triangleIndex, double u, double v) {
+        return interpolate(normals, triangleIndex, u, v);
+    }
+
+    /**
+     * interpolates the three vectors of a triangle stored in a flat array
+     * @param array the flat array
+     * @param triangleIndex the index of the triangle
+     * @param u the barycentric coordinate of the third vertex
+     * @param v the barycentric coordinate of the second vertex
+     * @return the interpolated vector
+     */
+    private static Vector3D interpolate(double[] array, int triangleIndex, double u, double v) {
+        int offset = triangleIndex * 9;
+        double w = 1.0 - u - v;
+        return new Vector3D(array[offset] * w + array[offset + 3] * v + array[offset + 6] * u,
+                array[offset + 1] * w + array[offset + 4] * v + array[offset + 7] * u,
+                array[offset + 2] * w + array[offset + 5] * v + array[offset + 8] * u);
+    }
+
+    /**
+     * calculates the length of the longest edge of a triangle
+     * @param triangleIndex the index of the triangle
+     * @return the length of the longest edge
+     */
+    public double getLongestEdge(int triangleIndex) {
+        int offset = triangleIndex * 9;
+        double longest = 0d;
+        for (int edge = 0; edge < 3; edge++) {
+            int start = offset + edge * 3;
+            int end = offset + ((edge + 1) % 3) * 3;
+            double x = vertices[end] - vertices[start], y = vertices[end + 1] - vertices[start + 1], z = vertices[end + 2] - vertices[start + 2];
+            longest = Math.max(longest, Math.sqrt(x * x + y * y + z * z));
+        }
+        return longest;
+    }
+
+    /**
+     * class getter
+     * @return the flat array of vertices (9 values per triangle), it must not be modified
+     */
+    double[] getVertexArray() {
+        return vertices;
+    }
+
+    /**
+     * class getter
+     * @return the flat array of vertex normals (9 values per triangle), it must not be modified
+     */
+    double[] getNormalArray() {
+        return normals;
+    }
+
+    /**
+     * class getter
+     * @return the number of triangles of the mesh
+     */
+    public int getTriangleCount() {
+        return vertices.length / 9;
+    }
+
+    /**
+     * class getter
+     * @return the acceleration structure of the mesh
+     */
+    public IAccelerationStructure getAccelerationStructure() {
+        return accelerationStructure;
+    }
+
+}
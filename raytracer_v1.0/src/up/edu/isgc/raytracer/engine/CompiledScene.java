@@ -0,0 +1,560 @@
+/*
+  [1968] - [2020] Centros Culturales de Mexico A.C / Universidad Panamericana
+  All Rights Reserved.
+ */
+package up.edu.isgc.raytracer.engine;
+
+
+import up.edu.isgc.raytracer.lights.Light;
+import up.edu.isgc.raytracer.lights.LightTree;
+import up.edu.isgc.raytracer.materials.Material;
+import up.edu.isgc.raytracer.materials.MaterialParameters;
+import up.edu.isgc.raytracer.objects.Object3D;
+import up.edu.isgc.raytracer.objects.Polygon;
+import up.edu.isgc.raytracer.objects.Sphere;
+import up.edu.isgc.raytracer.objects.utility.BoundingBox;
+import up.edu.isgc.raytracer.objects.utility.Camera;
+import up.edu.isgc.raytracer.objects.utility.Frustum;
+import up.edu.isgc.raytracer.objects.utility.Ray;
+import up.edu.isgc.raytracer.objects.utility.Vector3D;
+import up.edu.isgc.raytracer.tools.IBoundable;
+import up.edu.isgc.raytracer.tools.IIntersectable;
+import up.edu.isgc.raytracer.tools.Intersection;
+import up.edu.isgc.raytracer.tools.acceleration.AccelerationStructureType;
+import up.edu.isgc.raytracer.tools.acceleration.BVHBuildQuality;
+import up.edu.isgc.raytracer.tools.acceleration.IAccelerationStructure;
+import up.edu.isgc.raytracer.tools.sampling.ISampler;
+import up.edu.isgc.raytracer.tools.sampling.SamplerType;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Immutable snapshot of a Scene ready to be rendered, created with Scene.compile()
+ * Stores copies of the geometry (meshes in flat arrays), camera and lights, a table with the parameters of every material
+ * and the acceleration structures built over the copies
+ * Every render thread can share it without synchronization and changes to the scene during a render never affect it
+ *
+ * @author Homar Cano, Jafet Rodríguez
+ */
+public final class CompiledScene {
+    private final String name;
+    private final String extension;
+    private final Camera camera;
+    private final IIntersectable[] objects;
+    private final Vector3D[] objectPositions;
+    private final BoundingBox[] objectBoxes;
+    private final int[] objectMaterials;
+    private final MaterialParameters[] materials;
+    private final Light[] lights;
+    private final LightTree lightTree;
+    private final RenderStatistics statistics;
+    private final IAccelerationStructure accelerationStructure;
+    private final IAccelerationStructure primaryAccelerationStructure;
+    private final IAccelerationStructure shadowAccelerationStructure;
+    private final int[] visibleObjects;
+    private final int[] shadowCasters;
+    private final boolean[] castsShadows;
+    private final boolean[] receivesShadows;
+    private final LightingBake lightingBake;
+    private final IrradianceCache irradianceCache;
+    private final PhotonMap photonMap;
+    private final VisibilityBuffer visibilityBuffer;
+    private final BoundingBox boundingBox;
+    private final ThreadLocal<OccluderCache> occluderCaches;
+    private final ThreadLocal<ISampler> samplers;
+    private final ThreadLocal<double[]> lightSamples;
+    private final ThreadLocal<TileDependencies> tileDependencies;
+
+    /**
+     * class constructor, copies the scene and builds all the acceleration structures
+     * the build time and quality of each structure is stored in the render statistics, the lighting is baked (or loaded),
+     * the caustic photons are traced and the first hits are rasterized at the end if the raytracer uses them
+     * @param scene the Scene to compile
+     * @param raytracer the Raytracer with the configuration of the render (structure type, build quality, culling and light settings)
+     * @param statistics the statistics of the render
+     */
+    CompiledScene(Scene scene, Raytracer raytracer, RenderStatistics statistics) {
+        this(scene, raytracer, statistics, null, null);
+    }
+
+    /**
+     * class constructor, copies the scene and builds all the acceleration structures reusing the compiled meshes already
+     * available for some polygons (a compiled mesh is immutable, so it can be shared by many compiled scenes)
+     * with a previous compilation of the same objects the structures over the objects are refit to their new bounding boxes
+     * instead of built again (used by the animations, where the objects move between frames)
+     * @param scene the Scene to compile
+     * @param raytracer the Raytracer with the configuration of the render (structure type, build quality, culling and light settings)
+     * @param statistics the statistics of the render
+     * @param meshes the compiled mesh of some polygons of the scene, built with the same structure type and quality and
+     *               matching the current geometry of the polygon (null to build every mesh)
+     * @param previous a compilation of the scene with the same objects and configuration whose structures are refit (null to build them)
+     */
+    CompiledScene(Scene scene, Raytracer raytracer, RenderStatistics statistics, Map<Polygon, CompiledMesh> meshes, CompiledScene previous) {
+        AccelerationStructureType type = raytracer.getAccelerationStructureType();
+        BVHBuildQuality quality = raytracer.getBVHBuildQuality();
+        this.name = scene.getName();
+        this.extension = scene.getExtension();
+        this.camera = scene.getCamera() == null ? null : scene.getCamera().copy();
+
+        List<Light> sceneLights = scene.getLights();
+        this.lights = new Light[sceneLights.size()];
+        for (int i = 0; i < lights.length; i++) lights[i] = sceneLights.get(i).copy();
+        this.lightTree = new LightTree(lights, raytracer.getLightFalloffExponent(), raytracer.getLightContributionThreshold());
+        statistics.put("light tree", lightTree.getSummary());
+        this.statistics = statistics;
+        this.occluderCaches = ThreadLocal.withInitial(() -> new OccluderCache(lights.length, statistics));
+        SamplerType samplerType = raytracer.getSamplerType();
+        int samplerSeed = raytracer.getSamplerSeed();
+        this.samplers = ThreadLocal.withInitial(() -> samplerType.create(samplerSeed));
+        this.lightSamples = ThreadLocal.withInitial(() -> new double[2]);
+        statistics.put("sampler", samplerType + " (seed " + samplerSeed + ")");
+        this.tileDependencies = new ThreadLocal<>();
+
+        List<Object3D> sceneObjects = new ArrayList<>(scene.getObjects());
+        this.objects = new IIntersectable[sceneObjects.size()];
+        this.objectPositions = new Vector3D[sceneObjects.size()];
+        this.objectMaterials = new int[sceneObjects.size()];
+        this.receivesShadows = new boolean[sceneObjects.size()];
+        this.castsShadows = new boolean[sceneObjects.size()];
+        boolean[] visibleToCamera = new boolean[sceneObjects.size()];
+        BoundingBox[] boxes = new BoundingBox[sceneObjects.size()];
+        Map<Material, Integer> materialIds = new IdentityHashMap<>();
+        List<MaterialParameters> materialTable = new ArrayList<>();
+        long totalBuildTime = 0L;
+        int polygonIndex = 0;
+        int reusedMeshes = 0;
+
+        for (int id = 0; id < sceneObjects.size(); id++) {
+            Object3D object = sceneObjects.get(id);
+            objectPositions[id] = Vector3D.clone(object.getPosition());
+            castsShadows[id] = object.isCastingShadows();
+            receivesShadows[id] = object.isReceivingShadows();
+            visibleToCamera[id] = object.isVisibleToCamera();
+            if (object instanceof Polygon) {
+                CompiledMesh mesh = meshes == null ? null : meshes.get(object);
+                if (mesh == null) {
+                    mesh = new CompiledMesh((Polygon) object, type, quality);
+                    totalBuildTime += mesh.getAccelerationStructure().getBuildTime();
+                } else {
+                    reusedMeshes++;
+                }
+                statistics.put("polygon " + polygonIndex++ + " structure", mesh.getAccelerationStructure().getSummary());
+                objects[id] = mesh;
+            } else if (object instanceof Sphere) {
+                Sphere sphere = (Sphere) object;
+                objects[id] = new Sphere(Vector3D.clone(sphere.getPosition()), sphere.getRadius(), sphere.getMaterial());
+            }
+            if (objects[id] instanceof IBoundable) boxes[id] = ((IBoundable) objects[id]).getBoundingBox();
+            else boxes[id] = new BoundingBox(Vector3D.clone(objectPositions[id]), Vector3D.clone(objectPositions[id]));
+
+            Material material = object.getMaterial();
+            Integer materialId = material == null ? Integer.valueOf(-1) : materialIds.get(material);
+            if (materialId == null) {
+                materialId = materialTable.size();
+                materialIds.put(material, materialId);
+                materialTable.add(new MaterialParameters(material));
+            }
+            objectMaterials[id] = materialId;
+        }
+        if (meshes != null) statistics.put("reused meshes", reusedMeshes + " of " + polygonIndex);
+        CompiledScene refitted = previous != null && previous.objects.length == boxes.length ? previous : null;
+        this.materials = materialTable.toArray(new MaterialParameters[0]);
+        this.objectBoxes = boxes;
+        BoundingBox sceneBox = BoundingBox.EMPTY();
+        for (BoundingBox box : boxes) sceneBox = BoundingBox.union(sceneBox, box);
+        this.boundingBox = sceneBox;
+
+        this.accelerationStructure = refitted == null ? type.build(boxes, quality) : refitted.accelerationStructure.refit(boxes);
+        totalBuildTime += accelerationStructure.getBuildTime();
+        statistics.put("scene structure", accelerationStructure.getSummary());
+
+        Frustum frustum = raytracer.isUsingFrustumCulling() && camera != null ? new Frustum(camera, raytracer.isUsingClippingPlanes()) : null;
+        boolean[] visible = new boolean[boxes.length];
+        for (int id = 0; id < boxes.length; id++) visible[id] = visibleToCamera[id] && (frustum == null || frustum.intersects(boxes[id]));
+        this.visibleObjects = selectObjects(visible);
+        if (visibleObjects.length < boxes.length) {
+            BoundingBox[] visibleBoxes = selectBoxes(boxes, visibleObjects);
+            this.primaryAccelerationStructure = refitted != null && Arrays.equals(refitted.visibleObjects, visibleObjects)
+                    ? refitted.primaryAccelerationStructure.refit(visibleBoxes) : type.build(visibleBoxes, quality);
+            totalBuildTime += primaryAccelerationStructure.getBuildTime();
+        } else {
+            this.primaryAccelerationStructure = accelerationStructure;
+        }
+        if (frustum != null || visibleObjects.length < boxes.length) {
+            statistics.put("primary ray culling", visibleObjects.length + " of " + boxes.length + " objects visible, " + (boxes.length - visibleObjects.length) + " culled");
+        }
+
+        this.shadowCasters = selectObjects(castsShadows);
+        if (shadowCasters.length < boxes.length) {
+            BoundingBox[] casterBoxes = selectBoxes(boxes, shadowCasters);
+            this.shadowAccelerationStructure = refitted != null && Arrays.equals(refitted.shadowCasters, shadowCasters)
+                    ? refitted.shadowAccelerationStructure.refit(casterBoxes) : type.build(casterBoxes, quality);
+            totalBuildTime += shadowAccelerationStructure.getBuildTime();
+            statistics.put("shadow casters", shadowCasters.length + " of " + boxes.length + " objects");
+        } else {
+            this.shadowAccelerationStructure = accelerationStructure;
+        }
+        statistics.put("materials", String.valueOf(materials.length));
+        statistics.putTime("acceleration structures build time", totalBuildTime);
+
+        this.lightingBake = raytracer.isUsingBakedLighting() ? LightingBake.loadOrBake(this, raytracer.getShadowBias(), raytracer.getBakeTexelSize(), statistics) : null;
+        this.irradianceCache = raytracer.isUsingIrradianceCache() ? new IrradianceCache(boundingBox, raytracer.getIrradianceSamples(), raytracer.getIrradianceCacheAccuracy(), statistics) : null;
+        this.photonMap = raytracer.isUsingCausticPhotonMap() ? PhotonMap.build(this, raytracer.getCausticPhotons(), raytracer.getCausticGatherRadius(), raytracer.getReflectionBias(), raytracer.getRefractionBias(), statistics) : null;
+        this.visibilityBuffer = raytracer.isUsingHybridVisibility() && raytracer.getSamplesPerPixel() == 1 && camera != null
+                ? VisibilityBuffer.rasterize(this, raytracer.isUsingClippingPlanes(), statistics) : null;
+    }
+
+    /**
+     * finds the ids of the objects marked by a flag
+     * @param flags the flag of every object
+     * @return the ids of the objects whose flag is true, in order
+     */
+    private static int[] selectObjects(boolean[] flags) {
+        int[] selected = new int[flags.length];
+        int count = 0;
+        for (int id = 0; id < flags.length; id++) {
+            if (flags[id]) selected[count++] = id;
+        }
+        return Arrays.copyOf(selected, count);
+    }
+
+    /**
+     * collects the bounding boxes of some objects, used to build a structure over them
+     * @param boxes the bounding boxes of every object
+     * @param objectIds the ids of the objects
+     * @return the bounding boxes of the objects, the primitive index of each box is its position in the object ids
+     */
+    private static BoundingBox[] selectBoxes(BoundingBox[] boxes, int[] objectIds) {
+        BoundingBox[] selected = new BoundingBox[objectIds.length];
+        for (int i = 0; i < objectIds.length; i++) selected[i] = boxes[objectIds[i]];
+        return selected;
+    }
+
+    /**
+     * calculates the intersection between a ray and an object of the scene
+     * @param objectId the id of the object
+     * @param ray the Ray used to check the intersection
+     * @return the Intersection with the object (with its id) or null if there is no intersection
+     */
+    public Intersection intersect(int objectId, Ray ray) {
+        IIntersectable object = objects[objectId];
+        if (object == null) return null;
+        Intersection intersection = object.getObjectIntersection(ray);
+        if (intersection != null) intersection.setObjectId(objectId);
+        return intersection;
+    }
+
+    /**
+     * calculates the intersection between a ray and a single triangle of a polygon of the scene (see CompiledMesh.getTriangleIntersection())
+     * @param objectId the id of the polygon
+     * @param triangleIndex the index of the triangle in the compiled mesh of the polygon
+     * @param ray the Ray used to check the intersection
+     * @return the Intersection with the triangle (with the id of the polygon) or null if there is no intersection or the object is not a polygon
+     */
+    public Intersection intersectTriangle(int objectId, int triangleIndex, Ray ray) {
+        if (!(objects[objectId] instanceof CompiledMesh)) return null;
+        Intersection intersection = ((CompiledMesh) objects[objectId]).getTriangleIntersection(triangleIndex, ray);
+        if (intersection != null) intersection.setObjectId(objectId);
+        return intersection;
+    }
+
+    /**
+     * checks if a ray hits an object of the scene without calculating the intersection position and normal
+     * @param objectId the id of the object
+     * @param ray the Ray used to check the intersection
+     * @param maxDistance the distance where the ray ends, hits at that distance or farther are ignored
+     * @return true if the ray hits the object before the max distance
+     */
+    public boolean isOccluded(int objectId, Ray ray, double maxDistance) {
+        IIntersectable object = objects[objectId];
+        return object != null && object.isOccluded(ray, maxDistance);
+    }
+
+    /**
+     * finds a primitive of an object of the scene hit by a ray (see IIntersectable.findOccluder())
+     * @param objectId the id of the object
+     * @param ray the Ray used to check the intersection
+     * @param maxDistance the distance where the ray ends, hits at that distance or farther are ignored
+     * @return the index of the primitive hit or -1 if the ray does not hit the object before the max distance
+     */
+    public int findOccluder(int objectId, Ray ray, double maxDistance) {
+        IIntersectable object = objects[objectId];
+        return object == null ? -1 : object.findOccluder(ray, maxDistance);
+    }
+
+    /**
+     * checks if a ray hits a single primitive of an object of the scene (see IIntersectable.isOccludedBy())
+     * @param objectId the id of the object
+     * @param primitiveIndex the index of the primitive
+     * @param ray the Ray used to check the intersection
+     * @param maxDistance the distance where the ray ends, hits at that distance or farther are ignored
+     * @return true if the ray hits the primitive before the max distance
+     */
+    public boolean isOccludedBy(int objectId, int primitiveIndex, Ray ray, double maxDistance) {
+        IIntersectable object = objects[objectId];
+        return object != null && object.isOccludedBy(primitiveIndex, ray, maxDistance);
+    }
+
+    /**
+     * class getter
+     * @param objectId the id of the object
+     * @return the compiled copy of the object (a CompiledMesh for polygons) or null if the object can not be intersected
+     */
+    IIntersectable getObject(int objectId) {
+        return objects[objectId];
+    }
+
+    /**
+     * class getter
+     * @return the baked visibility of the lights or null if the scene was compiled without baked lighting
+     */
+    LightingBake getLightingBake() {
+        return lightingBake;
+    }
+
+    /**
+     * class getter
+     * @return the irradiance cache filled while rendering or null if the scene was compiled without indirect diffuse lighting
+     */
+    IrradianceCache getIrradianceCache() {
+        return irradianceCache;
+    }
+
+    /**
+     * class getter
+     * @return the caustic photon map or null if the scene was compiled without caustics
+     */
+    PhotonMap getPhotonMap() {
+        return photonMap;
+    }
+
+    /**
+     * class getter
+     * @return the rasterized first hits of the pixels or null if the scene was compiled without hybrid visibility
+     */
+    VisibilityBuffer getVisibilityBuffer() {
+        return visibilityBuffer;
+    }
+
+    /**
+     * class getter
+     * @return the bounding box of every object when the scene was compiled
+     */
+    public BoundingBox getBoundingBox() {
+        return new BoundingBox(Vector3D.clone(boundingBox.getMin()), Vector3D.clone(boundingBox.getMax()));
+    }
+
+    /**
+     * class getter
+     * @return the occluder cache of the current thread, it must only be used by that thread
+     */
+    OccluderCache getOccluderCache() {
+        return occluderCaches.get();
+    }
+
+    /**
+     * class getter
+     * @return the sampler of the current thread, it must only be used by that thread
+     */
+    ISampler getSampler() {
+        return samplers.get();
+    }
+
+    /**
+     * class getter
+     * @return the array of the current thread where the 2D samples of the area lights are drawn, it must only be used by that thread
+     */
+    double[] getLightSample() {
+        return lightSamples.get();
+    }
+
+    /**
+     * class getter
+     * @return the record of the tile rendered by the current thread or null if the dependencies of the tile are not recorded
+     */
+    TileDependencies getTileDependencies() {
+        return tileDependencies.get();
+    }
+    /**
+     * class setter, the rays cast by the current thread are recorded until the record is removed
+     * @param dependencies the record of the tile rendered by the current thread to set (null to stop recording)
+     */
+    void setTileDependencies(TileDependencies dependencies) {
+        if (dependencies == null) tileDependencies.remove();
+        else tileDependencies.set(dependencies);
+    }
+
+    /**
+     * class getter
+     * @return the name of the scene
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * class getter
+     * @return the file extension of the scene
+     */
+    public String getExtension() {
+        return extension;
+    }
+
+    /**
+     * class getter
+     * @return the copy of the main camera of the scene, it must not be modified
+     */
+    public Camera getCamera() {
+        return camera;
+    }
+
+    /**
+     * class getter
+     * @return the total number of objects
+     */
+    public int getObjectCount() {
+        return objects.length;
+    }
+
+    /**
+     * class getter
+     * @param objectId the id of the object
+     * @return the bounding box of the object when the scene was compiled (a point for objects without volume), it must not be modified
+     */
+    public BoundingBox getObjectBoundingBox(int objectId) {
+        return objectBoxes[objectId];
+    }
+
+    /**
+     * class getter
+     * @param objectId the id of the object
+     * @return the position of the object when the scene was compiled, it must not be modified
+     */
+    public Vector3D getObjectPosition(int objectId) {
+        return objectPositions[objectId];
+    }
+
+    /**
+     * class getter
+     * @param objectId the id of the object
+     * @return the parameters of the material of the object or null if the object has no material
+     */
+    public MaterialParameters getMaterial(int objectId) {
+        int materialId = objectMaterials[objectId];
+        return materialId < 0 ? null : materials[materialId];
+    }
+
+    /**
+     * class getter
+     * @return the total number of different materials
+     */
+    public int getMaterialCount() {
+        return materials.length;
+    }
+
+    /**
+     * class getter
+     * @return the total number of lights
+     */
+    public int getLightCount() {
+        return lights.length;
+    }
+
+    /**
+     * class getter
+     * @param index the index of the light
+     * @return the copy of the light, it must not be modified
+     */
+    public Light getLight(int index) {
+        return lights[index];
+    }
+
+    /**
+     * class getter
+     * @return the structure used to find the lights that illuminate a point
+     */
+    public LightTree getLightTree() {
+        return lightTree;
+    }
+
+    /**
+     * class getter
+     * @return the statistics of the render the scene was compiled for (its counters are thread safe)
+     */
+    public RenderStatistics getStatistics() {
+        return statistics;
+    }
+
+    /**
+     * class getter
+     * @return the acceleration structure over all the objects, the primitive index is the object id
+     */
+    public IAccelerationStructure getAccelerationStructure() {
+        return accelerationStructure;
+    }
+
+    /**
+     * class getter
+     * @return the acceleration structure over the objects visible to the camera, the primitive index is translated with getVisibleObject()
+     */
+    public IAccelerationStructure getPrimaryAccelerationStructure() {
+        return primaryAccelerationStructure;
+    }
+
+    /**
+     * class getter
+     * @return the acceleration structure over the objects that cast shadows, the primitive index is translated with getShadowCaster()
+     */
+    public IAccelerationStructure getShadowAccelerationStructure() {
+        return shadowAccelerationStructure;
+    }
+
+    /**
+     * class getter
+     * @param primitiveIndex the primitive index in the shadow acceleration structure
+     * @return the id of the object
+     */
+    public int getShadowCaster(int primitiveIndex) {
+        return shadowCasters[primitiveIndex];
+    }
+
+    /**
+     * class getter
+     * @param objectId the id of the object
+     * @return boolean flag if the object blocks shadow rays
+     */
+    public boolean isCastingShadows(int objectId) {
+        return castsShadows[objectId];
+    }
+
+    /**
+     * class getter
+     * @param objectId the id of the object
+     * @return boolean flag if shadow rays are cast from the surface of the object
+     */
+    public boolean isReceivingShadows(int objectId) {
+        return receivesShadows[objectId];
+    }
+
+    /**
+     * class getter
+     * @param primitiveIndex the primitive index in the primary acceleration structure
+     * @return the id of the object
+     */
+    public int getVisibleObject(int primitiveIndex) {
+        return visibleObjects[primitiveIndex];
+    }
+
+    /**
+     * class getter
+     * @return the total number of objects visible to the camera
+     */
+    public int getVisibleObjectCount() {
+        return visibleObjects.length;
+    }
+
+}
@@ -0,0 +1,297 @@
+/*
+  [1968] - [2020] Centros Culturales de Mexico A.C / Universidad Panamericana
+  All Rights Reserved.
+ */
+package up.edu.isgc.raytracer.engine;
+
+
+import java.util.stream.IntStream;
+
+/**
+ * Removes the noise of the stochastic effects (soft shadows, anti aliasing, light selection, indirect light) from a frame buffer
+ * with an edge avoiding à-trous wavelet filter: a 5x5 B3 spline kernel is applied several times and the distance between
+ * its taps is doubled every iteration, so a large area is filtered with few taps
+ * The weight of each tap is reduced by the difference of the depth, normal and albedo of the first hit, so the edges of the
+ * objects and textures are kept, and by the difference of the luminance relative to the standard deviation of the samples
+ * of the pixel, so only the noise is filtered (pixels whose samples agree, including every pixel rendered with a single sample,
+ * are only mixed with pixels of the same luminance)
+ * The variance is filtered with the colors, so it decreases every iteration
+ * Every iteration is filtered in parallel by tiles
+ *
+ * @author Homar Cano, Jafet Rodríguez
+ * @see <a href="https://jo.dreggn.org/home/2010_atrous.pdf">Edge-Avoiding À-Trous Wavelet Transform for fast Global Illumination Filtering</a>
+ * @see <a href="https://research.nvidia.com/publication/2017-07_spatiotemporal-variance-guided-filtering-real-time-reconstruction-path-traced">Spatiotemporal Variance-Guided Filtering</a>
+ */
+public class Denoiser {
+    /**
+     * constant for the weights of the B3 spline kernel (distance 0, 1 and 2)
+     */
+    private static final double[] KERNEL = {3d / 8d, 1d / 4d, 1d / 16d};
+    /**
+     * constant for the luminance difference always allowed (one step of a 8 bit color channel)
+     */
+    private static final double LUMINANCE_EPSILON = 1e-4d;
+
+    private int iterations;
+    private int tileSize;
+    private double luminanceSigma;
+    private double depthSigma;
+    private double normalSigma;
+    private double albedoSigma;
+
+    /**
+     * class constructor with the default edge stopping values
+     * @param iterations the number of iterations of the filter (the filtered area is 2^(iterations + 2) - 3 pixels wide)
+     */
+    public Denoiser(int iterations) {
+        setIterations(iterations);
+        setTileSize(32);
+        setLuminanceSigma(4d);
+        setDepthSigma(0.05d);
+        setNormalSigma(0.1d);
+        setAlbedoSigma(0.1d);
+    }
+
+    /**
+     * filters the colors of a frame buffer, the pixels without a hit and the edges of the objects (already anti aliased by their samples)
+     * are not changed and are never used by the others
+     * @param frameBuffer the frame buffer to filter, it is not modified
+     * @return a frame buffer with the filtered colors and variances that shares the other buffers of the original one
+     */
+    public FrameBuffer denoise(FrameBuffer frameBuffer) {
+        int width = frameBuffer.getWidth();
+        int height = frameBuffer.getHeight();
+        int tilesX = (width + tileSize - 1) / tileSize;
+        int tilesY = (height + tileSize - 1) / tileSize;
+        float[][] colors = {frameBuffer.getColors().clone(), new float[width * height * 3]};
+        float[][] variances = {frameBuffer.getVariances().clone(), new float[width * height]};
+        int source = 0;
+        for (int iteration = 0; iteration < iterations; iteration++) {
+            int step = 1 << iteration;
+            int input = source;
+            IntStream.range(0, tilesX * tilesY).parallel().forEach(tile -> {
+                int startX = (tile % tilesX) * tileSize;
+                int startY = (tile / tilesX) * tileSize;
+                int endX = Math.min(width, startX + tileSize);
+                int endY = Math.min(height, startY + tileSize);
+                for (int y = startY; y < endY; y++) {
+                    for (int x = startX; x < endX; x++) filterPixel(frameBuffer, colors[input], variances[input], colors[1 - input], variances[1 - input], x, y, step);
+                }
+            });
+            source = 1 - source;
+        }
+        return frameBuffer.withColors(colors[source], variances[source]);
+    }
+
+    /**
+     * filters a pixel with one iteration of the filter
+     * @param frameBuffer the frame buffer with the depth, normal and albedo buffers
+     * @param sourceColors the colors filtered by the previous iteration
+     * @param sourceVariances the variances filtered by the previous iteration
+     * @param targetColors the array where the filtered color is stored
+     * @param targetVariances the array where the filtered variance is stored
+     * @param x the column of the pixel
+     * @param y the row of the pixel
+     * @param step the distance between the taps of the kernel
+     */
+    private void filterPixel(FrameBuffer frameBuffer, float[] sourceColors, float[] sourceVariances, float[] targetColors, float[] targetVariances, int x, int y, int step) {
+        int width = frameBuffer.getWidth();
+        int height = frameBuffer.getHeight();
+        float[] depths = frameBuffer.getDepths();
+        float[] normals = frameBuffer.getNormals();
+        float[] albedos = frameBuffer.getAlbedos();
+        boolean[] edges = frameBuffer.getEdges();
+        int pixel = y * width + x;
+        float depth = depths[pixel];
+        if (depth <= 0f || edges[pixel]) {
+            System.arraycopy(sourceColors, pixel * 3, targetColors, pixel * 3, 3);
+            targetVariances[pixel] = sourceVariances[pixel];
+            return;
+        }
+        double luminance = luminance(sourceColors, pixel);
+        double luminancePhi = luminanceSigma * Math.sqrt(filterVariance(sourceVariances, depths, edges, x, y, width, height)) + LUMINANCE_EPSILON;
+        double depthPhi = depthSigma * depth * step;
+        double normalPhi = normalSigma * normalSigma;
+        double albedoPhi = albedoSigma * albedoSigma;
+
+        double red = 0d;
+        double green = 0d;
+        double blue = 0d;
+        double variance = 0d;
+        double totalWeight = 0d;
+        for (int dy = -2; dy <= 2; dy++) {
+            int tapY = y + dy * step;
+            if (tapY < 0 || tapY >= height) continue;
+            for (int dx = -2; dx <= 2; dx++) {
+                int tapX = x + dx * step;
+                if (tapX < 0 || tapX >= width) continue;
+                int tap = tapY * width + tapX;
+                float tapDepth = depths[tap];
+                if (tapDepth <= 0f || edges[tap]) continue;
+
+                double luminanceDistance = Math.abs(luminance(sourceColors, tap) - luminance);
+                double normalDistance = squaredDistance(normals, pixel, tap);
+                double albedoDistance = squaredDistance(albedos, pixel, tap);
+                double depthDistance = Math.abs(tapDepth - depth);
+                double weight = KERNEL[Math.abs(dx)] * KERNEL[Math.abs(dy)]
+                        * Math.exp(-luminanceDistance / luminancePhi - normalDistance / normalPhi - albedoDistance / albedoPhi - depthDistance / depthPhi);
+
+                red += sourceColors[tap * 3] * weight;
+                green += sourceColors[tap * 3 + 1] * weight;
+                blue += sourceColors[tap * 3 + 2] * weight;
+                variance += sourceVariances[tap] * weight * weight;
+                totalWeight += weight;
+            }
+        }
+        targetColors[pixel * 3] = (float) (red / totalWeight);
+        targetColors[pixel * 3 + 1] = (float) (green / totalWeight);
+        targetColors[pixel * 3 + 2] = (float) (blue / totalWeight);
+        targetVariances[pixel] = (float) (variance / (totalWeight * totalWeight));
+    }
+
+    /**
+     * blurs the variance around a pixel with a 3x3 gaussian kernel, so a pixel whose few samples agree by chance
+     * (an outlier with no variance) still uses the noise level of its neighbours
+     * @param variances the variance of every pixel
+     * @param depths the depth of the first hit of every pixel
+     * @param edges the edge flag of every pixel
+     * @param x the column of the pixel
+     * @param y the row of the pixel
+     * @param width the width of the frame buffer
+     * @param height the height of the frame buffer
+     * @return the blurred variance
+     */
+    private static double filterVariance(float[] variances, float[] depths, boolean[] edges, int x, int y, int width, int height) {
+        double variance = 0d;
+        double totalWeight = 0d;
+        for (int dy = -1; dy <= 1; dy++) {
+            int tapY = y + dy;
+            if (tapY < 0 || tapY >= height) continue;
+            for (int dx = -1; dx <= 1; dx++) {
+                int tapX = x + dx;
+                if (tapX < 0 || tapX >= width || depths[tapY * width + tapX] <= 0f || edges[tapY * width + tapX]) continue;
+                double weight = (dx == 0 ? 0.5d : 0.25d) * (dy == 0 ? 0.5d : 0.25d);
+                variance += variances[tapY * width + tapX] * weight;
+                totalWeight += weight;
+            }
+        }
+        return Math.max(variance / totalWeight, 0d);
+    }
+
+    /**
+     * calculates the luminance of a pixel
+     * @param colors the RGB colors of every pixel
+     * @param pixel the pixel
+     * @return the luminance of the color of the pixel
+     */
+    static double luminance(float[] colors, int pixel) {
+        return 0.2126d * colors[pixel * 3] + 0.7152d * colors[pixel * 3 + 1] + 0.0722d * colors[pixel * 3 + 2];
+    }
+
+    /**
+     * calculates the squared distance between the RGB (or XYZ) values of two pixels
+     * @param values the values of every pixel (3 per pixel)
+     * @param pixelA the first pixel
+     * @param pixelB the second pixel
+     * @return the squared distance
+     */
+    private static double squaredDistance(float[] values, int pixelA, int pixelB) {
+        double distance = 0d;
+        for (int i = 0; i < 3; i++) {
+            double difference = values[pixelA * 3 + i] - values[pixelB * 3 + i];
+            distance += difference * difference;
+        }
+        return distance;
+    }
+
+    /**
+     * class getter
+     * @return the number of iterations of the filter
+     */
+    public int getIterations() {
+        return iterations;
+    }
+    /**
+     * class setter
+     * @param iterations the number of iterations of the filter to set
+     */
+    public void setIterations(int iterations) {
+        this.iterations = Math.max(iterations, 0);
+    }
+
+    /**
+     * class getter
+     * @return the size in pixels of the tiles filtered in parallel
+     */
+    public int getTileSize() {
+        return tileSize;
+    }
+    /**
+     * class setter
+     * @param tileSize the size in pixels of the tiles filtered in parallel to set
+     */
+    public void setTileSize(int tileSize) {
+        this.tileSize = Math.max(tileSize, 1);
+    }
+
+    /**
+     * class getter
+     * @return the luminance difference allowed between two pixels, in standard deviations of the samples of the pixel
+     */
+    public double getLuminanceSigma() {
+        return luminanceSigma;
+    }
+    /**
+     * class setter
+     * @param luminanceSigma the luminance difference allowed between two pixels to set (larger values remove more noise and more detail)
+     */
+    public void setLuminanceSigma(double luminanceSigma) {
+        this.luminanceSigma = luminanceSigma;
+    }
+
+    /**
+     * class getter
+     * @return the depth difference allowed between two pixels, relative to the depth and to the distance between the taps
+     */
+    public double getDepthSigma() {
+        return depthSigma;
+    }
+    /**
+     * class setter
+     * @param depthSigma the depth difference allowed between two pixels to set
+     */
+    public void setDepthSigma(double depthSigma) {
+        this.depthSigma = depthSigma;
+    }
+
+    /**
+     * class getter
+     * @return the normal difference allowed between two pixels
+     */
+    public double getNormalSigma() {
+        return normalSigma;
+    }
+    /**
+     * class setter
+     * @param normalSigma the normal difference allowed between two pixels to set
+     */
+    public void setNormalSigma(double normalSigma) {
+        this.normalSigma = normalSigma;
+    }
+
+    /**
+     * class getter
+     * @return the albedo difference allowed between two pixels
+     */
+    public double getAlbedoSigma() {
+        return albedoSigma;
+    }
+    /**
+     * class setter
+     * @param albedoSigma the albedo difference allowed between two pixels to set
+     */
+    public void setAlbedoSigma(double albedoSigma) {
+        this.albedoSigma = albedoSigma;
+    }
+
+}
@@ -0,0 +1,365 @@
+/*
+  [1968] - [2020] Centros Culturales de Mexico A.C / Universidad Panamericana
+  All Rights Reserved.
+ */
+package up.edu.isgc.raytracer.engine;
+
+
+import java.awt.Color;
+import java.awt.image.BufferedImage;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+
+/**
+ * Stores the result of a render before it is converted to an image: the RGB color of every pixel with float precision
+ * and the buffers of the first hit seen through each pixel (depth, normal and albedo) and the variance of the luminance of its samples,
+ * used to guide the denoiser
+ * The pixels without a hit have a depth of 0 and the pixels whose samples hit different objects (or miss some of them) are marked as edges
+ * Every pixel is written by a single render thread, so no synchronization is needed
+ * The frame buffer of a tile is serializable, so the render workers can send it to the coordinator, and it can also be
+ * written to a render checkpoint with its exact values
+ *
+ * @author Homar Cano, Jafet Rodríguez
+ */
+public final class FrameBuffer implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * constant for the number of floats copied at once when the frame buffer is written or read
+     */
+    private static final int IO_BLOCK = 8192;
+
+    private final int width;
+    private final int height;
+    private final float[] colors;
+    private final float[] variances;
+    private final float[] depths;
+    private final float[] normals;
+    private final float[] albedos;
+    private final boolean[] edges;
+
+    /**
+     * class constructor, creates a black frame buffer without hits
+     * @param width the width in pixels
+     * @param height the height in pixels
+     */
+    public FrameBuffer(int width, int height) {
+        this.width = width;
+        this.height = height;
+        this.colors = new float[width * height * 3];
+        this.variances = new float[width * height];
+        this.depths = new float[width * height];
+        this.normals = new float[width * height * 3];
+        this.albedos = new float[width * height * 3];
+        this.edges = new boolean[width * height];
+    }
+
+    /**
+     * creates a copy of the frame buffer with other colors, the depth, normal, albedo and edge buffers are shared
+     * @param frameBuffer the frame buffer to copy
+     * @param colors the RGB colors of the copy (3 values per pixel)
+     * @param variances the variance of the luminance of every pixel of the copy
+     */
+    private FrameBuffer(FrameBuffer frameBuffer, float[] colors, float[] variances) {
+        this.width = frameBuffer.width;
+        this.height = frameBuffer.height;
+        this.colors = colors;
+        this.variances = variances;
+        this.depths = frameBuffer.depths;
+        this.normals = frameBuffer.normals;
+        this.albedos = frameBuffer.albedos;
+        this.edges = frameBuffer.edges;
+    }
+
+    /**
+     * creates a frame buffer with the same depth, normal, albedo and edge buffers but other colors (used by the filters)
+     * @param colors the RGB colors of the new frame buffer (3 values per pixel)
+     * @param variances the variance of the luminance of every pixel of the new frame buffer
+     * @return the new frame buffer
+     */
+    FrameBuffer withColors(float[] colors, float[] variances) {
+        return new FrameBuffer(this, colors, variances);
+    }
+
+    /**
+     * stores the color of a pixel
+     * @param x the column of the pixel
+     * @param y the row of the pixel
+     * @param red the red value (from 0 to 1)
+     * @param green the green value (from 0 to 1)
+     * @param blue the blue value (from 0 to 1)
+     */
+    public void setColor(int x, int y, float red, float green, float blue) {
+        int index = (y * width + x) * 3;
+        colors[index] = red;
+        colors[index + 1] = green;
+        colors[index + 2] = blue;
+    }
+
+    /**
+     * stores the variance of the luminance of a pixel
+     * @param x the column of the pixel
+     * @param y the row of the pixel
+     * @param variance the variance of the average luminance of the samples of the pixel (0 with a single sample)
+     */
+    public void setVariance(int x, int y, float variance) {
+        variances[y * width + x] = variance;
+    }
+
+    /**
+     * stores the first hit seen through a pixel
+     * @param x the column of the pixel
+     * @param y the row of the pixel
+     * @param depth the distance between the camera and the hit (0 if there is no hit)
+     * @param normalX the x value of the normalized normal
+     * @param normalY the y value of the normalized normal
+     * @param normalZ the z value of the normalized normal
+     * @param albedo the Color of the material of the hit
+     */
+    public void setFirstHit(int x, int y, float depth, float normalX, float normalY, float normalZ, Color albedo) {
+        int pixel = y * width + x;
+        depths[pixel] = depth;
+        normals[pixel * 3] = normalX;
+        normals[pixel * 3 + 1] = normalY;
+        normals[pixel * 3 + 2] = normalZ;
+        albedos[pixel * 3] = albedo.getRed() / 255f;
+        albedos[pixel * 3 + 1] = albedo.getGreen() / 255f;
+        albedos[pixel * 3 + 2] = albedo.getBlue() / 255f;
+    }
+
+    /**
+     * copies every buffer of a tile rendered separately into its position in this frame buffer
+     * @param tile the tile
+     * @param block the frame buffer of the tile (with the size of the tile)
+     */
+    void setTile(Tile tile, FrameBuffer block) {
+        for (int row = 0; row < tile.getHeight(); row++) {
+            int source = row * block.width;
+            int target = (tile.getY() + row) * width + tile.getX();
+            int length = tile.getWidth();
+            System.arraycopy(block.colors, source * 3, colors, target * 3, length * 3);
+            System.arraycopy(block.variances, source, variances, target, length);
+            System.arraycopy(block.depths, source, depths, target, length);
+            System.arraycopy(block.normals, source * 3, normals, target * 3, length * 3);
+            System.arraycopy(block.albedos, source * 3, albedos, target * 3, length * 3);
+            System.arraycopy(block.edges, source, edges, target, length);
+        }
+    }
+
+    /**
+     * copies every buffer of a tile from another frame buffer with the same size (used to reuse the tiles of a previous render)
+     * @param tile the tile
+     * @param source the frame buffer where the tile is copied from
+     */
+    void copyTile(Tile tile, FrameBuffer source) {
+        for (int row = 0; row < tile.getHeight(); row++) {
+            int pixel = (tile.getY() + row) * width + tile.getX();
+            int length = tile.getWidth();
+            System.arraycopy(source.colors, pixel * 3, colors, pixel * 3, length * 3);
+            System.arraycopy(source.variances, pixel, variances, pixel, length);
+            System.arraycopy(source.depths, pixel, depths, pixel, length);
+            System.arraycopy(source.normals, pixel * 3, normals, pixel * 3, length * 3);
+            System.arraycopy(source.albedos, pixel * 3, albedos, pixel * 3, length * 3);
+            System.arraycopy(source.edges, pixel, edges, pixel, length);
+        }
+    }
+
+    /**
+     * copies every buffer of a pixel from another frame buffer (used to reuse the shading of a previous frame)
+     * @param x the column of the pixel in this frame buffer
+     * @param y the row of the pixel in this frame buffer
+     * @param source the frame buffer where the pixel is copied from
+     * @param sourceX the column of the pixel in the source
+     * @param sourceY the row of the pixel in the source
+     */
+    void copyPixel(int x, int y, FrameBuffer source, int sourceX, int sourceY) {
+        int pixel = y * width + x;
+        int sourcePixel = sourceY * source.width + sourceX;
+        System.arraycopy(source.colors, sourcePixel * 3, colors, pixel * 3, 3);
+        variances[pixel] = source.variances[sourcePixel];
+        depths[pixel] = source.depths[sourcePixel];
+        System.arraycopy(source.normals, sourcePixel * 3, normals, pixel * 3, 3);
+        System.arraycopy(source.albedos, sourcePixel * 3, albedos, pixel * 3, 3);
+        edges[pixel] = source.edges[sourcePixel];
+    }
+
+    /**
+     * copies every buffer of the frame buffer, so the copy can be changed without changing it
+     * @return the copy
+     */
+    FrameBuffer copy() {
+        FrameBuffer copy = new FrameBuffer(width, height);
+        System.arraycopy(colors, 0, copy.colors, 0, colors.length);
+        System.arraycopy(variances, 0, copy.variances, 0, variances.length);
+        System.arraycopy(depths, 0, copy.depths, 0, depths.length);
+        System.arraycopy(normals, 0, copy.normals, 0, normals.length);
+        System.arraycopy(albedos, 0, copy.albedos, 0, albedos.length);
+        System.arraycopy(edges, 0, copy.edges, 0, edges.length);
+        return copy;
+    }
+
+    /**
+     * writes every buffer with its exact values (used by the render checkpoints and the render cache)
+     * the values are copied in blocks, the bytes are the same ones written by writeFloat() and writeBoolean()
+     * @param output the stream where the frame buffer is written
+     * @throws IOException if the frame buffer could not be written
+     */
+    void write(DataOutputStream output) throws IOException {
+        output.writeInt(width);
+        output.writeInt(height);
+        ByteBuffer block = ByteBuffer.allocate(IO_BLOCK * Float.BYTES);
+        for (float[] buffer : new float[][]{colors, variances, depths, normals, albedos}) {
+            for (int start = 0; start < buffer.length; start += IO_BLOCK) {
+                int length = Math.min(IO_BLOCK, buffer.length - start);
+                block.clear();
+                block.asFloatBuffer().put(buffer, start, length);
+                output.write(block.array(), 0, length * Float.BYTES);
+            }
+        }
+        byte[] edgeBytes = new byte[edges.length];
+        for (int i = 0; i < edges.length; i++) edgeBytes[i] = (byte) (edges[i] ? 1 : 0);
+        output.write(edgeBytes);
+    }
+
+    /**
+     * reads a frame buffer written with write()
+     * @param input the stream where the frame buffer is read
+     * @return the frame buffer
+     * @throws IOException if the frame buffer could not be read
+     */
+    static FrameBuffer read(DataInputStream input) throws IOException {
+        FrameBuffer frameBuffer = new FrameBuffer(input.readInt(), input.readInt());
+        ByteBuffer block = ByteBuffer.allocate(IO_BLOCK * Float.BYTES);
+        for (float[] buffer : new float[][]{frameBuffer.colors, frameBuffer.variances, frameBuffer.depths, frameBuffer.normals, frameBuffer.albedos}) {
+            for (int start = 0; start < buffer.length; start += IO_BLOCK) {
+                int length = Math.min(IO_BLOCK, buffer.length - start);
+                input.readFully(block.array(), 0, length * Float.BYTES);
+                block.clear();
+                block.asFloatBuffer().get(buffer, start, length);
+            }
+        }
+        byte[] edgeBytes = new byte[frameBuffer.edges.length];
+        input.readFully(edgeBytes);
+        for (int i = 0; i < edgeBytes.length; i++) frameBuffer.edges[i] = edgeBytes[i] != 0;
+        return frameBuffer;
+    }
+
+    /**
+     * marks a pixel as an edge, its samples hit different objects or some of them hit nothing
+     * @param x the column of the pixel
+     * @param y the row of the pixel
+     */
+    public void setEdge(int x, int y) {
+        edges[y * width + x] = true;
+    }
+
+    /**
+     * converts the colors to an image, the values out of the range [0,1] are clamped
+     * @return the image
+     */
+    public BufferedImage toImage() {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int index = (y * width + x) * 3;
+                image.setRGB(x, y, new Color(clamp(colors[index]), clamp(colors[index + 1]), clamp(colors[index + 2])).getRGB());
+            }
+        }
+        return image;
+    }
+
+    /**
+     * calculates the peak signal to noise ratio between the colors of this frame buffer and a reference of the same size,
+     * the colors are clamped to the range [0,1] as in the saved images
+     * @param reference the frame buffer used as reference
+     * @return the PSNR in decibels (positive infinity if both frame buffers have the same colors)
+     */
+    public double calculatePSNR(FrameBuffer reference) {
+        if (reference.width != width || reference.height != height) throw new IllegalArgumentException("the frame buffers have different sizes");
+        double squaredError = 0d;
+        for (int i = 0; i < colors.length; i++) {
+            double difference = clamp(colors[i]) - clamp(reference.colors[i]);
+            squaredError += difference * difference;
+        }
+        if (squaredError == 0d) return Double.POSITIVE_INFINITY;
+        return 10d * Math.log10(colors.length / squaredError);
+    }
+
+    /**
+     * changes a given value to 1 or 0 if it is out of the range [0,1]
+     * @param value the value to change
+     * @return the valued changed if necessary
+     */
+    private static float clamp(float value) {
+        if (value < 0f) return 0f;
+        return Math.min(value, 1f);
+    }
+
+    /**
+     * class getter
+     * @return the width in pixels
+     */
+    public int getWidth() {
+        return width;
+    }
+
+    /**
+     * class getter
+     * @return the height in pixels
+     */
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * class getter
+     * @return the RGB colors (3 values per pixel, row by row), the array is not copied
+     */
+    float[] getColors() {
+        return colors;
+    }
+
+    /**
+     * class getter
+     * @return the variance of the luminance of every pixel, the array is not copied
+     */
+    float[] getVariances() {
+        return variances;
+    }
+
+    /**
+     * class getter
+     * @return the depth of the first hit of every pixel (0 if there is no hit), the array is not copied
+     */
+    float[] getDepths() {
+        return depths;
+    }
+
+    /**
+     * class getter
+     * @return the normal of the first hit of every pixel (3 values per pixel), the array is not copied
+     */
+    float[] getNormals() {
+        return normals;
+    }
+
+    /**
+     * class getter
+     * @return the albedo of the first hit of every pixel (3 values per pixel), the array is not copied
+     */
+    float[] getAlbedos() {
+        return albedos;
+    }
+
+    /**
+     * class getter
+     * @return the edge flag of every pixel, the array is not copied
+     */
+    boolean[] getEdges() {
+        return edges;
+    }
+
+}
@@ -0,0 +1,287 @@
+/*
+  [1968] - [2020] Centros Culturales de Mexico A.C / Universidad Panamericana
+  All Rights Reserved.
+ */
+package up.edu.isgc.raytracer.engine;
+
+
+import up.edu.isgc.raytracer.objects.Object3D;
+import up.edu.isgc.raytracer.objects.Polygon;
+import up.edu.isgc.raytracer.objects.utility.Camera;
+import up.edu.isgc.raytracer.objects.utility.Vector3D;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Renders the frames of an animation of a scene, every object, light or camera with a transform is moved in each frame
+ * The frames are pipelined: while a frame is traced by the render threads the next one is prepared (objects moved and scene
+ * compiled) in a setup thread, and every finished frame is saved by the background image encoder of the raytracer
+ * The meshes of the polygons are compiled once, a moving polygon gets a translated copy of its mesh whose acceleration
+ * structure is refit instead of built again, and the structures over the objects are refit from the previous frame
+ * (they are built again every rebuild interval, because their quality gets worse when the objects move apart)
+ * With a max reuse age the shading of the previous frame is reprojected: the pixels whose center ray hits a point that the
+ * previous frame saw with the same object, depth and normal are copied from it and only the disoccluded or invalid pixels are traced
+ * (see TemporalHistory), a pixel is traced again after its shading was reused max reuse age frames in a row
+ * The positions of the objects are restored when the sequence ends
+ *
+ * @author Homar Cano, Jafet Rodríguez
+ */
+public class FrameSequence {
+    /**
+     * constant for the default number of frames between two builds of the structures over the objects
+     */
+    private static final int DEFAULT_STRUCTURE_REBUILD_INTERVAL = 16;
+    /**
+     * constant for the default number of frames the shading of a pixel can be reused (0 traces every pixel of every frame)
+     */
+    private static final int DEFAULT_MAX_REUSE_AGE = 0;
+
+    private final Raytracer raytracer;
+    private final Scene scene;
+    private final int frameCount;
+    private final Map<Object3D, IFrameTransform> transforms;
+    private final Map<Polygon, CompiledMesh> baseMeshes;
+    private int structureRebuildInterval;
+    private int maxReuseAge;
+
+    /**
+     * class constructor
+     * @param raytracer the Raytracer with the configuration of the renders
+     * @param scene the Scene animated
+     * @param frameCount the number of frames of the sequence
+     */
+    public FrameSequence(Raytracer raytracer, Scene scene, int frameCount) {
+        this.raytracer = raytracer;
+        this.scene = scene;
+        this.frameCount = frameCount;
+        this.transforms = new LinkedHashMap<>();
+        this.baseMeshes = new IdentityHashMap<>();
+        setStructureRebuildInterval(DEFAULT_STRUCTURE_REBUILD_INTERVAL);
+        setMaxReuseAge(DEFAULT_MAX_REUSE_AGE);
+    }
+
+    /**
+     * moves an object of the scene, one of its lights or its camera in every frame, a previous transform of the object is replaced
+     * @param object the Object3D to move
+     * @param transform the translation of the object in every frame
+     */
+    public void setTransform(Object3D object, IFrameTransform transform) {
+        transforms.put(object, transform);
+    }
+
+    /**
+     * renders every frame and saves it with the name of the scene and the number of the frame, then shows the setup and
+     * trace time and the reprojected pixels of every frame in the console
+     */
+    public void raytraceSequence() {
+        List<RenderStatistics> frames = render();
+        if (frames.isEmpty()) return;
+        StringBuilder summary = new StringBuilder(String.format("%n%-8s %16s %16s %16s %16s%n", "frame", "setup", "setup wait", "trace", "reprojected"));
+        for (int frame = 0; frame < frames.size(); frame++) {
+            RenderStatistics statistics = frames.get(frame);
+            String reprojectionRate = statistics.get("reprojection rate");
+            summary.append(String.format("%-8d %16s %16s %16s %16s%n", frame, statistics.get("setup time"), statistics.get("setup wait time"),
+                    statistics.get("trace time"), reprojectionRate == null ? "-" : reprojectionRate));
+        }
+        System.out.println(new Date() + " animation of the scene '" + scene.getName() + "':" + summary);
+    }
+
+    /**
+     * renders every frame of the sequence and saves it in the background with the name of the scene, the number of the frame
+     * and the extension of the scene, it returns when every frame is saved
+     * the setup of a frame (moving the objects and compiling the scene) runs while the previous frame is traced, the setup time,
+     * the time the render threads waited for it, the trace time and the pixels reprojected from the previous frame are stored
+     * in the statistics of each frame
+     * shows a progress log in the console
+     * @return the statistics of every frame rendered, the sequence stops at the first frame that exceeds the timeout
+     */
+    public List<RenderStatistics> render() {
+        List<RenderStatistics> frames = new ArrayList<>();
+        if (!raytracer.isRenderable(scene) || frameCount <= 0) return frames;
+        Map<Object3D, Vector3D> basePositions = new IdentityHashMap<>();
+        for (Object3D object : transforms.keySet()) basePositions.put(object, Vector3D.clone(object.getPosition()));
+        TemporalHistory history = null;
+        ExecutorService setupThread = Executors.newSingleThreadExecutor(runnable -> new Thread(runnable, "frame setup"));
+        try {
+            Future<PreparedFrame> next = setupThread.submit(() -> prepareFrame(0, null, basePositions));
+            for (int frame = 0; frame < frameCount; frame++) {
+                long waitStartTime = System.nanoTime();
+                PreparedFrame current = next.get();
+                long waitTime = System.nanoTime() - waitStartTime;
+                int nextFrame = frame + 1;
+                next = nextFrame < frameCount ? setupThread.submit(() -> prepareFrame(nextFrame, current.compiledScene, basePositions)) : null;
+
+                RenderStatistics statistics = current.statistics;
+                statistics.putTime("setup time", current.setupTime);
+                statistics.putTime("setup wait time", waitTime);
+                System.out.println(new Date() + " rendering the frame " + (frame + 1) + " of " + frameCount + " of the animation of '" + scene.getName() + "'");
+                TemporalHistory frameHistory = getMaxReuseAge() > 0 ? new TemporalHistory(current.compiledScene) : null;
+                FrameBuffer frameBuffer = traceFrame(current.compiledScene, history, frameHistory, statistics);
+                if (frameBuffer == null) break;
+                history = frameHistory;
+                raytracer.saveImage(frameBuffer, getFrameName(frame), scene.getExtension());
+                frames.add(statistics);
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            System.out.println(new Date() + " !! the animation of '" + scene.getName() + "' was interrupted !!");
+        } catch (ExecutionException ex) {
+            System.out.println(new Date() + " !! a frame of the animation of '" + scene.getName() + "' could not be prepared: " + ex.getCause() + " !!");
+        } finally {
+            setupThread.shutdown();
+            try {
+                if (!setupThread.awaitTermination(1, TimeUnit.MINUTES)) setupThread.shutdownNow();
+            } catch (InterruptedException ex) {
+                setupThread.shutdownNow();
+                Thread.currentThread().interrupt();
+            }
+            for (Map.Entry<Object3D, Vector3D> entry : basePositions.entrySet()) entry.getKey().setPosition(entry.getValue());
+            baseMeshes.clear();
+        }
+        raytracer.awaitSavedImages();
+        return frames;
+    }
+
+    /**
+     * moves the objects to their position in a frame and compiles the scene, the meshes and structures are refit when they can
+     * it runs in the setup thread while the previous frame is traced, the compiled scene of that frame is a snapshot so
+     * moving the objects of the scene does not change it
+     * @param frame the index of the frame
+     * @param previous the compiled scene of the previous frame (null for the first one)
+     * @param basePositions the position in the scene of every object with a transform
+     * @return the compiled frame
+     */
+    private PreparedFrame prepareFrame(int frame, CompiledScene previous, Map<Object3D, Vector3D> basePositions) {
+        long startTime = System.nanoTime();
+        RenderStatistics statistics = new RenderStatistics();
+        Map<Polygon, CompiledMesh> meshes = new IdentityHashMap<>();
+        for (Object3D object : scene.getObjects()) {
+            if (!(object instanceof Polygon)) continue;
+            Polygon polygon = (Polygon) object;
+            CompiledMesh mesh = baseMeshes.get(polygon);
+            if (mesh == null) {
+                mesh = new CompiledMesh(polygon, raytracer.getAccelerationStructureType(), raytracer.getBVHBuildQuality());
+                baseMeshes.put(polygon, mesh);
+            }
+            IFrameTransform transform = transforms.get(polygon);
+            meshes.put(polygon, transform == null ? mesh : mesh.translate(transform.getTranslation(frame)));
+        }
+        for (Map.Entry<Object3D, IFrameTransform> entry : transforms.entrySet()) {
+            entry.getKey().setPosition(Vector3D.add(basePositions.get(entry.getKey()), entry.getValue().getTranslation(frame)));
+        }
+        statistics.putTime("mesh update time", System.nanoTime() - startTime);
+
+        boolean rebuild = previous == null || frame % getStructureRebuildInterval() == 0;
+        CompiledScene compiledScene = new CompiledScene(scene, raytracer, statistics, meshes, rebuild ? null : previous);
+        statistics.put("scene structures", rebuild ? "built" : "refit");
+        return new PreparedFrame(compiledScene, statistics, System.nanoTime() - startTime);
+    }
+
+    /**
+     * traces a compiled frame by tiles, exactly like Raytracer.renderScene() renders each pixel, or reusing the shading of the
+     * previous frame when the frame has a history
+     * @param compiledScene the CompiledScene of the frame
+     * @param previous the history of the previous frame or null if there is none
+     * @param history the history where the hits of the frame are recorded or null to trace every pixel
+     * @param statistics the statistics of the frame
+     * @return the frame buffer (denoised if the denoiser is used) or null if the frame exceeds the timeout
+     */
+    private FrameBuffer traceFrame(CompiledScene compiledScene, TemporalHistory previous, TemporalHistory history, RenderStatistics statistics) {
+        Camera camera = compiledScene.getCamera();
+        List<Tile> tiles = Tile.split(camera.getResolutionWidth(), camera.getResolutionHeight(), raytracer.getTileSize());
+        FrameBuffer frameBuffer = new FrameBuffer(camera.getResolutionWidth(), camera.getResolutionHeight());
+        if (history == null) {
+            if (!raytracer.traceTiles(compiledScene, tiles, frameBuffer, new boolean[tiles.size()], (TileDependencies[]) null, null, statistics)) return null;
+            return raytracer.finishRender(frameBuffer, compiledScene.getName(), statistics);
+        }
+
+        Vector3D[][] screenPositions = camera.calculateScreenPositions();
+        int maxAge = getMaxReuseAge();
+        if (!raytracer.traceTiles(compiledScene, tiles, frameBuffer, new boolean[tiles.size()],
+                tile -> raytracer.renderTile(compiledScene, screenPositions, tile, previous, history, maxAge), null, statistics)) return null;
+        history.setFrameBuffer(frameBuffer);
+        statistics.put("reprojection rate", String.format("%.2f%%", 100d * statistics.getCount("reprojected pixels") / (camera.getResolutionWidth() * camera.getResolutionHeight())));
+        return raytracer.finishRender(frameBuffer.copy(), compiledScene.getName(), statistics);
+    }
+
+    /**
+     * gets the name of the image of a frame
+     * @param frame the index of the frame
+     * @return the name of the scene followed by the number of the frame
+     */
+    public String getFrameName(int frame) {
+        return String.format("%s %04d", scene.getName(), frame);
+    }
+
+    /**
+     * class getter
+     * @return the number of frames of the sequence
+     */
+    public int getFrameCount() {
+        return frameCount;
+    }
+
+    /**
+     * class getter
+     * @return the number of frames between two builds of the structures over the objects (they are refit in the other frames)
+     */
+    public int getStructureRebuildInterval() {
+        return structureRebuildInterval;
+    }
+
+    /**
+     * class setter
+     * @param structureRebuildInterval the number of frames between two builds of the structures over the objects (1 builds them every frame)
+     */
+    public void setStructureRebuildInterval(int structureRebuildInterval) {
+        this.structureRebuildInterval = Math.max(structureRebuildInterval, 1);
+    }
+
+    /**
+     * class getter
+     * @return the number of frames the shading of a pixel can be reused before it is traced again (0 traces every pixel of every frame)
+     */
+    public int getMaxReuseAge() {
+        return maxReuseAge;
+    }
+
+    /**
+     * class setter
+     * @param maxReuseAge the number of frames the shading of a pixel can be reused before it is traced again (0 traces every pixel of every frame)
+     */
+    public void setMaxReuseAge(int maxReuseAge) {
+        this.maxReuseAge = Math.max(maxReuseAge, 0);
+    }
+
+    /**
+     * Frame ready to be traced: its compiled scene, its statistics and the time it took to prepare it
+     */
+    private static final class PreparedFrame {
+        private final CompiledScene compiledScene;
+        private final RenderStatistics statistics;
+        private final long setupTime;
+
+        /**
+         * class constructor
+         * @param compiledScene the CompiledScene of the frame
+         * @param statistics the statistics of the frame
+         * @param setupTime the time in ns spent preparing the frame
+         */
+        private PreparedFrame(CompiledScene compiledScene, RenderStatistics statistics, long setupTime) {
+            this.compiledScene = compiledScene;
+            this.statistics = statistics;
+            this.setupTime = setupTime;
+        }
+    }
+
+}
@@ -0,0 +1,23 @@
+/*
+  [1968] - [2020] Centros Culturales de Mexico A.C / Universidad Panamericana
+  All Rights Reserved.
+ */
+package up.edu.isgc.raytracer.engine;
+
+
+import up.edu.isgc.raytracer.objects.utility.Vector3D;
+
+/**
+ * Interface for the movement of an object, light or camera along the frames of a FrameSequence
+ *
+ * @author Homar Cano, Jafet Rodríguez
+ */
+public interface IFrameTransform {
+    /**
+     * method expected to calculate the translation of an object in a frame, relative to its position in the scene
+     *
+     * @param frame the index of the frame (the first frame is 0)
+     * @return the translation of the object in the frame
+     */
+    Vector3D getTranslation(int frame);
+}
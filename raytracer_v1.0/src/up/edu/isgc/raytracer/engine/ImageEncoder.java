@@ -0,0 +1,506 @@
+/*
+  [1968] - [2020] Centros Culturales de Mexico A.C / Universidad Panamericana
+  All Rights Reserved.
+ */
+package up.edu.isgc.raytracer.engine;
+
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.Adler32;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Saves the rendered images in the background, so the next scene is rendered while the last one is encoded
+ * The images are encoded one at a time in the order they are saved; png images are split in bands of rows that are
+ * filtered and compressed in parallel and joined into a single png file
+ * Frame buffers can also be saved with their float colors (no 8 bit conversion) as pfm or OpenEXR (scanline, uncompressed,
+ * 32 bit float RGB) files, other extensions are written with ImageIO
+ * The threads of the encoder stop when they have nothing to do, so the program ends once every image is saved
+ *
+ * @author Homar Cano, Jafet Rodríguez
+ */
+public final class ImageEncoder {
+    /**
+     * constant for the number of uncompressed bytes of a band of rows compressed by a single thread
+     */
+    private static final int BAND_SIZE = 256 * 1024;
+    /**
+     * constant for the time in ms that an idle thread waits for more images before it stops
+     */
+    private static final long KEEP_ALIVE_TIME = 1000L;
+    /**
+     * constant for the modulus of the Adler-32 checksum
+     */
+    private static final int ADLER_BASE = 65521;
+
+    private static final byte[] PNG_SIGNATURE = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'};
+    private static final int EXR_MAGIC_NUMBER = 20000630;
+    private static final int EXR_FLOAT = 2;
+
+    private final ThreadPoolExecutor pipeline;
+    private final ThreadPoolExecutor compressionPool;
+    private int compressionLevel;
+
+    /**
+     * class constructor, no thread is started until an image is saved
+     * @param nThreads the number of threads that compress the bands of a png image
+     */
+    public ImageEncoder(int nThreads) {
+        this.pipeline = createPool(1, "image encoder");
+        this.compressionPool = createPool(Math.max(nThreads, 1), "png compressor");
+        setCompressionLevel(Deflater.DEFAULT_COMPRESSION);
+    }
+
+    /**
+     * creates a pool of threads that stop when they are idle, they are not daemon threads so the images are saved before the program ends
+     * @param nThreads the number of threads
+     * @param name the name of the threads
+     * @return the pool
+     */
+    private static ThreadPoolExecutor createPool(int nThreads, String name) {
+        AtomicInteger threadCount = new AtomicInteger();
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(nThreads, nThreads, KEEP_ALIVE_TIME, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(),
+                runnable -> new Thread(runnable, name + " " + threadCount.getAndIncrement()));
+        pool.allowCoreThreadTimeOut(true);
+        return pool;
+    }
+
+    /**
+     * saves an image in the images/ folder in the background
+     * @param image the BufferedImage to save, it must not change after it is saved
+     * @param name the name of the file
+     * @param extension the extension of the file, it sets the format
+     */
+    public void save(BufferedImage image, String name, String extension) {
+        pipeline.execute(() -> write(name, extension, output -> writeImage(image, extension, output)));
+    }
+
+    /**
+     * saves a frame buffer in the images/ folder in the background, pfm and exr files keep the float colors and the
+     * other formats are converted to an 8 bit image (in the background too)
+     * @param frameBuffer the FrameBuffer to save, it must not change after it is saved
+     * @param name the name of the file
+     * @param extension the extension of the file, it sets the format
+     */
+    public void save(FrameBuffer frameBuffer, String name, String extension) {
+        if (extension.equalsIgnoreCase("pfm")) {
+            pipeline.execute(() -> write(name, extension, output -> writePFM(frameBuffer, output)));
+        } else if (extension.equalsIgnoreCase("exr")) {
+            pipeline.execute(() -> write(name, extension, output -> writeEXR(frameBuffer, output)));
+        } else {
+            pipeline.execute(() -> write(name, extension, output -> writeImage(frameBuffer.toImage(), extension, output)));
+        }
+    }
+
+    /**
+     * waits until every image saved before this call is written
+     */
+    public void await() {
+        try {
+            // the images are written in order by a single thread, so they are written when a task added after them runs
+            pipeline.submit(() -> { }).get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException ex) {
+            throw new IllegalStateException("the images could not be awaited", ex);
+        }
+    }
+
+    /**
+     * writes a file of the images/ folder, the folder is created if it does not exist and the errors are shown in the console
+     * @param name the name of the file
+     * @param extension the extension of the file
+     * @param encoding the encoding of the image
+     */
+    private void write(String name, String extension, ImageWriting encoding) {
+        File outputFile = new File("images/" + name + "." + extension);
+        File folder = outputFile.getParentFile();
+        if (!folder.exists() && !folder.mkdirs()) {
+            System.out.println(new Date() + " !! the folder '" + folder.getPath() + "' could not be created !!");
+            return;
+        }
+        try (OutputStream output = new BufferedOutputStream(new FileOutputStream(outputFile))) {
+            encoding.write(output);
+            System.out.println(new Date() + " finished saving the image '" + name + "." + extension + "'");
+        } catch (IOException | RuntimeException ex) {
+            System.out.println(new Date() + " !! an error occurred saving the image '" + name + "." + extension + "' !!");
+            ex.printStackTrace();
+        }
+    }
+
+    /**
+     * encodes an 8 bit image, as png with writePNG() or with ImageIO for the other formats
+     * @param image the image
+     * @param extension the extension of the file, it sets the format
+     * @param output the stream where the image is written
+     * @throws IOException if the image could not be written or there is no writer for the format
+     */
+    private void writeImage(BufferedImage image, String extension, OutputStream output) throws IOException {
+        if (extension.equalsIgnoreCase("png")) {
+            writePNG(image, output);
+        } else if (!ImageIO.write(image, extension, output)) {
+            throw new IOException("there is no writer for the format '" + extension + "'");
+        }
+    }
+
+    /**
+     * encodes an image as an 8 bit RGB png, the rows are split in bands that are filtered and compressed in parallel
+     * (each band is a separate deflate block flushed to a byte boundary, so the bands are joined into one zlib stream)
+     * every row uses the png filter with the smallest sum of absolute differences
+     * @param image the image
+     * @param output the stream where the png is written
+     * @throws IOException if the png could not be written or a band could not be compressed
+     */
+    public void writePNG(BufferedImage image, OutputStream output) throws IOException {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        int rowsPerBand = Math.max(BAND_SIZE / (width * 3 + 1), 1);
+        List<Future<Band>> bands = new ArrayList<>();
+        for (int y = 0; y < height; y += rowsPerBand) {
+            int firstRow = y;
+            int lastRow = Math.min(y + rowsPerBand, height);
+            boolean last = lastRow == height;
+            bands.add(compressionPool.submit(() -> compressBand(image, firstRow, lastRow, last)));
+        }
+
+        DataOutputStream data = new DataOutputStream(output);
+        data.write(PNG_SIGNATURE);
+        ByteBuffer header = ByteBuffer.allocate(13);
+        header.putInt(width).putInt(height).put((byte) 8).put((byte) 2).put((byte) 0).put((byte) 0).put((byte) 0);
+        writeChunk(data, "IHDR", header.array(), header.array().length);
+        writeChunk(data, "IDAT", new byte[]{0x78, 0x01}, 2);
+        long adler = 1L;
+        try {
+            for (Future<Band> future : bands) {
+                Band band = future.get();
+                writeChunk(data, "IDAT", band.bytes, band.length);
+                adler = combineAdler(adler, band.adler, band.uncompressedLength);
+            }
+        } catch (InterruptedException ex) {
+            for (Future<Band> future : bands) future.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new IOException("the png encoding was interrupted", ex);
+        } catch (ExecutionException ex) {
+            throw new IOException("a band of the png could not be compressed", ex.getCause());
+        }
+        writeChunk(data, "IDAT", ByteBuffer.allocate(4).putInt((int) adler).array(), 4);
+        writeChunk(data, "IEND", new byte[0], 0);
+        data.flush();
+    }
+
+    /**
+     * filters and compresses a band of rows of a png
+     * @param image the image
+     * @param firstRow the first row of the band
+     * @param lastRow the row after the last row of the band
+     * @param last true if it is the last band of the image (its deflate block is final)
+     * @return the compressed band
+     */
+    private Band compressBand(BufferedImage image, int firstRow, int lastRow, boolean last) {
+        int width = image.getWidth();
+        int rowLength = width * 3;
+        int[] pixels = new int[width];
+        byte[] previousRow = new byte[rowLength];
+        byte[] row = new byte[rowLength];
+        if (firstRow > 0) readRow(image, firstRow - 1, pixels, previousRow);
+        byte[][] candidates = new byte[5][rowLength + 1];
+        byte[] filtered = new byte[(rowLength + 1) * (lastRow - firstRow)];
+        for (int y = firstRow; y < lastRow; y++) {
+            readRow(image, y, pixels, row);
+            byte[] best = filterRow(row, previousRow, candidates);
+            System.arraycopy(best, 0, filtered, (y - firstRow) * (rowLength + 1), rowLength + 1);
+            byte[] swap = previousRow;
+            previousRow = row;
+            row = swap;
+        }
+
+        Adler32 adler = new Adler32();
+        adler.update(filtered);
+        Deflater deflater = new Deflater(getCompressionLevel(), true);
+        try {
+            deflater.setInput(filtered);
+            if (last) deflater.finish();
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(filtered.length / 2 + 64);
+            byte[] buffer = new byte[64 * 1024];
+            int flush = last ? Deflater.NO_FLUSH : Deflater.SYNC_FLUSH;
+            while (true) {
+                int length = deflater.deflate(buffer, 0, buffer.length, flush);
+                bytes.write(buffer, 0, length);
+                if (last ? deflater.finished() : length < buffer.length) break;
+            }
+            return new Band(bytes.toByteArray(), bytes.size(), adler.getValue(), filtered.length);
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /**
+     * reads the RGB bytes of a row of an image
+     * @param image the image
+     * @param y the row
+     * @param pixels the array used to read the pixels (one per column)
+     * @param row the array where the bytes are stored (three per column)
+     */
+    private static void readRow(BufferedImage image, int y, int[] pixels, byte[] row) {
+        image.getRGB(0, y, pixels.length, 1, pixels, 0, pixels.length);
+        for (int x = 0; x < pixels.length; x++) {
+            row[x * 3] = (byte) (pixels[x] >> 16);
+            row[x * 3 + 1] = (byte) (pixels[x] >> 8);
+            row[x * 3 + 2] = (byte) pixels[x];
+        }
+    }
+
+    /**
+     * applies the five png filters to a row and chooses the one with the smallest sum of absolute differences, a filter
+     * stops as soon as its sum is not smaller than the best one
+     * @param row the bytes of the row
+     * @param previousRow the bytes of the row above (zeros for the first row)
+     * @param candidates the arrays where every filtered row is stored (its first byte is the filter type)
+     * @return the chosen filtered row
+     */
+    private static byte[] filterRow(byte[] row, byte[] previousRow, byte[][] candidates) {
+        int length = row.length;
+        long bestSum = Long.MAX_VALUE;
+        byte[] best = null;
+        for (int type = 0; type < candidates.length; type++) {
+            byte[] candidate = candidates[type];
+            candidate[0] = (byte) type;
+            long sum = 0L;
+            for (int i = 0; i < length && sum < bestSum; i++) {
+                int current = row[i] & 0xFF;
+                int predictor;
+                if (type == 0) {
+                    predictor = 0;
+                } else if (type == 2) {
+                    predictor = previousRow[i] & 0xFF;
+                } else {
+                    int left = i >= 3 ? row[i - 3] & 0xFF : 0;
+                    if (type == 1) {
+                        predictor = left;
+                    } else if (type == 3) {
+                        predictor = (left + (previousRow[i] & 0xFF)) >> 1;
+                    } else {
+                        predictor = paeth(left, previousRow[i] & 0xFF, i >= 3 ? previousRow[i - 3] & 0xFF : 0);
+                    }
+                }
+                byte value = (byte) (current - predictor);
+                candidate[i + 1] = value;
+                sum += value < 0 ? -value : value;
+            }
+            if (sum < bestSum) {
+                bestSum = sum;
+                best = candidate;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * calculates the Paeth predictor of a byte of a png
+     * @param left the byte to the left
+     * @param up the byte above
+     * @param upLeft the byte above to the left
+     * @return the neighbor closest to left + up - upLeft
+     */
+    private static int paeth(int left, int up, int upLeft) {
+        int estimate = left + up - upLeft;
+        int leftDistance = Math.abs(estimate - left);
+        int upDistance = Math.abs(estimate - up);
+        int upLeftDistance = Math.abs(estimate - upLeft);
+        if (leftDistance <= upDistance && leftDistance <= upLeftDistance) return left;
+        return upDistance <= upLeftDistance ? up : upLeft;
+    }
+
+    /**
+     * combines the Adler-32 checksums of two consecutive blocks of bytes
+     * @param first the checksum of the first block
+     * @param second the checksum of the second block
+     * @param secondLength the length of the second block
+     * @return the checksum of both blocks
+     */
+    private static long combineAdler(long first, long second, long secondLength) {
+        long remainder = secondLength % ADLER_BASE;
+        long sum1 = first & 0xFFFF;
+        long sum2 = (remainder * sum1) % ADLER_BASE;
+        sum1 += (second & 0xFFFF) + ADLER_BASE - 1;
+        sum2 += ((first >> 16) & 0xFFFF) + ((second >> 16) & 0xFFFF) + ADLER_BASE - remainder;
+        sum1 %= ADLER_BASE;
+        sum2 %= ADLER_BASE;
+        return sum1 | (sum2 << 16);
+    }
+
+    /**
+     * writes a chunk of a png with its length and checksum
+     * @param output the stream of the png
+     * @param type the type of the chunk
+     * @param bytes the data of the chunk
+     * @param length the number of bytes of data
+     * @throws IOException if the chunk could not be written
+     */
+    private static void writeChunk(DataOutputStream output, String type, byte[] bytes, int length) throws IOException {
+        byte[] typeBytes = type.getBytes(StandardCharsets.US_ASCII);
+        CRC32 crc = new CRC32();
+        crc.update(typeBytes);
+        crc.update(bytes, 0, length);
+        output.writeInt(length);
+        output.write(typeBytes);
+        output.write(bytes, 0, length);
+        output.writeInt((int) crc.getValue());
+    }
+
+    /**
+     * encodes the float colors of a frame buffer as a pfm (portable float map) file, little endian and with the rows from bottom to top
+     * @param frameBuffer the frame buffer
+     * @param output the stream where the pfm is written
+     * @throws IOException if the pfm could not be written
+     */
+    public void writePFM(FrameBuffer frameBuffer, OutputStream output) throws IOException {
+        int width = frameBuffer.getWidth();
+        int height = frameBuffer.getHeight();
+        float[] colors = frameBuffer.getColors();
+        output.write(("PF\n" + width + " " + height + "\n-1.0\n").getBytes(StandardCharsets.US_ASCII));
+        ByteBuffer row = ByteBuffer.allocate(width * 3 * 4).order(ByteOrder.LITTLE_ENDIAN);
+        for (int y = height - 1; y >= 0; y--) {
+            row.clear();
+            for (int i = y * width * 3; i < (y + 1) * width * 3; i++) row.putFloat(colors[i]);
+            output.write(row.array());
+        }
+    }
+
+    /**
+     * encodes the float colors of a frame buffer as an OpenEXR file: single part, scanlines without compression and the
+     * B, G and R channels as 32 bit floats
+     * @param frameBuffer the frame buffer
+     * @param output the stream where the exr is written
+     * @throws IOException if the exr could not be written
+     */
+    public void writeEXR(FrameBuffer frameBuffer, OutputStream output) throws IOException {
+        int width = frameBuffer.getWidth();
+        int height = frameBuffer.getHeight();
+        float[] colors = frameBuffer.getColors();
+
+        ByteBuffer channels = ByteBuffer.allocate(3 * 18 + 1).order(ByteOrder.LITTLE_ENDIAN);
+        for (char channel : new char[]{'B', 'G', 'R'}) {
+            channels.put((byte) channel).put((byte) 0).putInt(EXR_FLOAT).put(new byte[4]).putInt(1).putInt(1);
+        }
+        channels.put((byte) 0);
+        ByteBuffer window = ByteBuffer.allocate(16).order(ByteOrder.LITTLE_ENDIAN).putInt(0).putInt(0).putInt(width - 1).putInt(height - 1);
+
+        ByteArrayOutputStream header = new ByteArrayOutputStream();
+        header.write(ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN).putInt(EXR_MAGIC_NUMBER).putInt(2).array());
+        writeAttribute(header, "channels", "chlist", channels.array());
+        writeAttribute(header, "compression", "compression", new byte[]{0});
+        writeAttribute(header, "dataWindow", "box2i", window.array());
+        writeAttribute(header, "displayWindow", "box2i", window.array());
+        writeAttribute(header, "lineOrder", "lineOrder", new byte[]{0});
+        writeAttribute(header, "pixelAspectRatio", "float", ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN).putFloat(1f).array());
+        writeAttribute(header, "screenWindowCenter", "v2f", new byte[8]);
+        writeAttribute(header, "screenWindowWidth", "float", ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN).putFloat(1f).array());
+        header.write(0);
+        output.write(header.toByteArray());
+
+        int rowLength = width * 3 * 4;
+        ByteBuffer offsets = ByteBuffer.allocate(height * 8).order(ByteOrder.LITTLE_ENDIAN);
+        long offset = header.size() + height * 8L;
+        for (int y = 0; y < height; y++) {
+            offsets.putLong(offset);
+            offset += 8L + rowLength;
+        }
+        output.write(offsets.array());
+
+        ByteBuffer row = ByteBuffer.allocate(8 + rowLength).order(ByteOrder.LITTLE_ENDIAN);
+        for (int y = 0; y < height; y++) {
+            row.clear();
+            row.putInt(y).putInt(rowLength);
+            for (int channel = 2; channel >= 0; channel--) {
+                for (int x = 0; x < width; x++) row.putFloat(colors[(y * width + x) * 3 + channel]);
+            }
+            output.write(row.array());
+        }
+    }
+
+    /**
+     * writes an attribute of the header of an OpenEXR file
+     * @param header the stream of the header
+     * @param name the name of the attribute
+     * @param type the type of the attribute
+     * @param value the bytes of the value
+     * @throws IOException if the attribute could not be written
+     */
+    private static void writeAttribute(ByteArrayOutputStream header, String name, String type, byte[] value) throws IOException {
+        header.write(name.getBytes(StandardCharsets.US_ASCII));
+        header.write(0);
+        header.write(type.getBytes(StandardCharsets.US_ASCII));
+        header.write(0);
+        header.write(ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN).putInt(value.length).array());
+        header.write(value);
+    }
+
+    /**
+     * class getter
+     * @return the deflate level of the png images (from 0 to 9, -1 for the default level)
+     */
+    public int getCompressionLevel() {
+        return compressionLevel;
+    }
+    /**
+     * class setter
+     * @param compressionLevel the deflate level of the png images to set (from 0 to 9, -1 for the default level)
+     */
+    public void setCompressionLevel(int compressionLevel) {
+        this.compressionLevel = Math.max(Math.min(compressionLevel, Deflater.BEST_COMPRESSION), Deflater.DEFAULT_COMPRESSION);
+    }
+
+    /**
+     * Encoding of an image into a stream, it can throw an IOException
+     */
+    private interface ImageWriting {
+        void write(OutputStream output) throws IOException;
+    }
+
+    /**
+     * Compressed band of rows of a png with the checksum of its uncompressed bytes
+     */
+    private static final class Band {
+        private final byte[] bytes;
+        private final int length;
+        private final long adler;
+        private final long uncompressedLength;
+
+        /**
+         * class constructor
+         * @param bytes the compressed bytes
+         * @param length the number of compressed bytes
+         * @param adler the Adler-32 checksum of the uncompressed bytes
+         * @param uncompressedLength the number of uncompressed bytes
+         */
+        private Band(byte[] bytes, int length, long adler, long uncompressedLength) {
+            this.bytes = bytes;
+            this.length = length;
+            this.adler = adler;
+            this.uncompressedLength = uncompressedLength;
+        }
+    }
+
+}
@@ -0,0 +1,147 @@
+/*
+  [1968] - [2020] Centros Culturales de Mexico A.C / Universidad Panamericana
+  All Rights Reserved.
+ */
+package up.edu.isgc.raytracer.engine;
+
+
+import up.edu.isgc.raytracer.objects.Object3D;
+import up.edu.isgc.raytracer.objects.Polygon;
+import up.edu.isgc.raytracer.objects.utility.Camera;
+
+import java.util.Date;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Renders a scene again and again while it is edited, only the tiles that an edit can change are traced again
+ * The last render is kept in memory with the dependencies of every tile (the objects touched by its rays, its shaded points and the
+ * space they crossed, see TileDependencies), after an edit the objects, materials and lights are compared with the last render
+ * (see SceneContent) and the tiles that the changes can not reach are copied from its frame buffer
+ * The compiled meshes of the polygons whose geometry did not change are reused, so their acceleration structures are not built again
+ * Every pixel is rendered exactly like Raytracer.renderScene() does it, so the image is the same as a full render of the edited scene
+ * A change in the camera or the configuration of the raytracer renders the whole image again, and like the render cache
+ * tiles are not reused with baked lighting, the irradiance cache or the caustic photon map
+ *
+ * @author Homar Cano, Jafet Rodríguez
+ */
+public class IncrementalRenderer {
+    /**
+     * constant for the version of the renders kept, it is part of the view hash
+     */
+    private static final int CONTENT_VERSION = 1;
+
+    private final Raytracer raytracer;
+    private final Scene scene;
+    private final Map<String, CompiledMesh> meshes;
+    private SceneContent content;
+    private FrameBuffer frameBuffer;
+    private TileDependencies[] dependencies;
+
+    /**
+     * class constructor
+     * @param raytracer the Raytracer with the configuration of the renders
+     * @param scene the Scene that is edited between renders
+     */
+    public IncrementalRenderer(Raytracer raytracer, Scene scene) {
+        this.raytracer = raytracer;
+        this.scene = scene;
+        this.meshes = new HashMap<>();
+    }
+
+    /**
+     * renders the scene and saves it with its name and extension
+     * shows a progress log in the console
+     */
+    public void raytraceScene() {
+        RenderStatistics statistics = new RenderStatistics();
+        FrameBuffer rendered = render(statistics);
+        if (rendered == null) return;
+        statistics.print(scene.getName());
+        raytracer.saveImage(rendered, scene.getName(), scene.getExtension());
+    }
+
+    /**
+     * renders the scene with its current content, the tiles of the last render that the edits since then can not change are
+     * reused and the rest are traced (the whole image the first time), the frame buffer is denoised at the end if the denoiser is used
+     * shows a progress log in the console
+     * @param statistics the statistics of the render
+     * @return the frame buffer rendered or null if the scene can not be rendered or the render exceeds the timeout
+     */
+    public FrameBuffer render(RenderStatistics statistics) {
+        if (!raytracer.isRenderable(scene)) return null;
+        SceneContent current = SceneContent.of(scene, raytracer, CONTENT_VERSION);
+        statistics.putTime("hash time", current.getHashTime());
+        boolean sameView = content != null && content.getViewHash().equals(current.getViewHash());
+        if (!sameView) meshes.clear();
+        if (sameView && content.getHash().equals(current.getHash())) {
+            System.out.println(new Date() + " the scene '" + scene.getName() + "' did not change since the last render");
+            statistics.setProgress(100);
+            statistics.put("samples per pixel", String.valueOf(raytracer.getSamplesPerPixel()));
+            statistics.put("retraced tiles", "0 of " + dependencies.length);
+            return raytracer.finishRender(frameBuffer.copy(), scene.getName(), statistics);
+        }
+
+        System.out.println(new Date() + " compiling the scene (" + raytracer.getAccelerationStructureType() + ", " + raytracer.getBVHBuildQuality() + ")...");
+        long startTime = System.nanoTime();
+        String[] geometryHashes = current.getGeometryHashes();
+        List<Object3D> objects = scene.getObjects();
+        Map<Polygon, CompiledMesh> compiledMeshes = new IdentityHashMap<>();
+        for (int id = 0; id < objects.size(); id++) {
+            CompiledMesh mesh = meshes.get(geometryHashes[id]);
+            if (mesh != null && objects.get(id) instanceof Polygon) compiledMeshes.put((Polygon) objects.get(id), mesh);
+        }
+        CompiledScene compiledScene = new CompiledScene(scene, raytracer, statistics, compiledMeshes, null);
+        meshes.clear();
+        for (int id = 0; id < objects.size(); id++) {
+            if (compiledScene.getObject(id) instanceof CompiledMesh) meshes.put(geometryHashes[id], (CompiledMesh) compiledScene.getObject(id));
+        }
+        statistics.putTime("compile time", System.nanoTime() - startTime);
+
+        Camera camera = compiledScene.getCamera();
+        List<Tile> tiles = Tile.split(camera.getResolutionWidth(), camera.getResolutionHeight(), raytracer.getTileSize());
+        FrameBuffer rendered = new FrameBuffer(camera.getResolutionWidth(), camera.getResolutionHeight());
+        boolean[] finished = new boolean[tiles.size()];
+        TileDependencies[] renderedDependencies = new TileDependencies[tiles.size()];
+        int reusedTiles = 0;
+        if (sameView) {
+            startTime = System.nanoTime();
+            reusedTiles = current.reuseTiles(content, frameBuffer, dependencies, compiledScene, tiles, rendered, finished, renderedDependencies);
+            statistics.putTime("tile reuse time", System.nanoTime() - startTime);
+            System.out.println(new Date() + " reusing " + reusedTiles + " of " + tiles.size() + " tiles from the last render");
+        }
+
+        if (!raytracer.traceTiles(compiledScene, tiles, rendered, finished, renderedDependencies, null, statistics)) {
+            content = null;
+            frameBuffer = null;
+            dependencies = null;
+            return null;
+        }
+        content = current;
+        frameBuffer = rendered;
+        dependencies = renderedDependencies;
+        statistics.put("retraced tiles", (tiles.size() - reusedTiles) + " of " + tiles.size());
+        return raytracer.finishRender(rendered.copy(), scene.getName(), statistics);
+    }
+
+    /**
+     * forgets the last render, so the next render traces the whole image and builds every mesh
+     */
+    public void reset() {
+        content = null;
+        frameBuffer = null;
+        dependencies = null;
+        meshes.clear();
+    }
+
+    /**
+     * class getter
+     * @return the Scene that is edited between renders
+     */
+    public Scene getScene() {
+        return scene;
+    }
+
+}
@@ -0,0 +1,370 @@
+/*
+  [1968] - [2020] Centros Culturales de Mexico A.C / Universidad Panamericana
+  All Rights Reserved.
+ */
+package up.edu.isgc.raytracer.engine;
+
+
+import up.edu.isgc.raytracer.objects.utility.BoundingBox;
+import up.edu.isgc.raytracer.objects.utility.Vector3D;
+import up.edu.isgc.raytracer.tools.sampling.ISampler;
+
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Caches the indirect irradiance of diffuse surfaces in sparse records, each record is calculated with stratified hemisphere
+ * samples and is reused by the points inside its validity radius (the harmonic mean distance of the samples, reduced where
+ * the translational gradient is strong), the irradiance between records is interpolated with their gradients
+ * The records are stored in an octree that every render thread can read and insert into without a global lock,
+ * the children and the record lists of each node are only changed with compare and set
+ *
+ * @author Homar Cano, Jafet Rodríguez
+ * @see <a href="https://www.graphics.cornell.edu/~jaroslav/papers/2008-irradiance_caching_class/">Practical Global Illumination with Irradiance Caching</a>
+ */
+final class IrradianceCache {
+    /**
+     * constants for the limits of the validity radius of a record (fractions of the size of the scene)
+     */
+    private static final double MIN_RADIUS_FRACTION = 0.002d;
+    private static final double MAX_RADIUS_FRACTION = 0.1d;
+    /**
+     * constant for the maximum depth of the octree
+     */
+    private static final int MAX_DEPTH = 20;
+
+    /**
+     * Function used to calculate the radiance arriving to a point from a direction (a hemisphere sample)
+     */
+    @FunctionalInterface
+    interface IRadianceSampler {
+        /**
+         * method expected to calculate the radiance arriving from a direction
+         * @param origin the origin of the sample ray
+         * @param direction the normalized direction of the sample ray
+         * @param radiance the array where the RGB radiance is stored (black if nothing is hit)
+         * @return the distance to the surface hit or positive infinity if nothing is hit
+         */
+        double sample(Vector3D origin, Vector3D direction, double[] radiance);
+    }
+
+    private final double accuracy;
+    private final double minRadius;
+    private final double maxRadius;
+    private final int thetaSamples;
+    private final int phiSamples;
+    private final Node root;
+    private final LongAdder records;
+    private final LongAdder interpolations;
+
+    /**
+     * class constructor, creates an empty cache
+     * @param bounds the bounding box of the scene, it is the root of the octree
+     * @param samples the number of hemisphere samples of each record
+     * @param accuracy the maximum error allowed when a record is reused (smaller values create more records)
+     * @param statistics the statistics of the render where the records and interpolations are counted
+     */
+    IrradianceCache(BoundingBox bounds, int samples, double accuracy, RenderStatistics statistics) {
+        this.accuracy = accuracy;
+        Vector3D min = bounds.isEmpty() ? Vector3D.ZERO() : bounds.getMin();
+        Vector3D max = bounds.isEmpty() ? Vector3D.ZERO() : bounds.getMax();
+        double size = Math.max(Vector3D.magnitude(Vector3D.subtract(max, min)), 1e-6);
+        this.minRadius = size * MIN_RADIUS_FRACTION;
+        this.maxRadius = size * MAX_RADIUS_FRACTION;
+        this.thetaSamples = Math.max(1, (int) Math.round(Math.sqrt(samples / Math.PI)));
+        this.phiSamples = Math.max(1, (int) Math.round((double) samples / thetaSamples));
+        double halfSize = Math.max(Math.max(max.getX() - min.getX(), max.getY() - min.getY()), max.getZ() - min.getZ()) / 2d + 1e-6;
+        this.root = new Node((min.getX() + max.getX()) / 2d, (min.getY() + max.getY()) / 2d, (min.getZ() + max.getZ()) / 2d, halfSize);
+        this.records = statistics.getCounter("irradiance records");
+        this.interpolations = statistics.getCounter("irradiance interpolations");
+    }
+
+    /**
+     * calculates the irradiance in a point, it is interpolated from the cached records or a new record is calculated
+     * @param position the position of the point
+     * @param normal the normalized normal of the surface in the point
+     * @param origin the origin of the hemisphere samples if a new record is needed (the point moved by a bias)
+     * @param radianceSampler the function used to calculate the radiance of each hemisphere sample
+     * @param sampler the sampler of the current thread used to jitter the samples (so a record only depends on the pixel sample that creates it)
+     * @param irradiance the array where the RGB irradiance is stored
+     */
+    void getIrradiance(Vector3D position, Vector3D normal, Vector3D origin, IRadianceSampler radianceSampler, ISampler sampler, double[] irradiance) {
+        if (interpolate(position, normal, irradiance)) {
+            interpolations.increment();
+            return;
+        }
+        Record record = createRecord(position, normal, origin, radianceSampler, sampler);
+        insert(record);
+        records.increment();
+        System.arraycopy(record.irradiance, 0, irradiance, 0, 3);
+    }
+
+    /**
+     * interpolates the irradiance of the records whose validity region contains a point
+     * @param position the position of the point
+     * @param normal the normalized normal of the surface in the point
+     * @param irradiance the array where the RGB irradiance is stored
+     * @return false if no record can be used
+     */
+    boolean interpolate(Vector3D position, Vector3D normal, double[] irradiance) {
+        double[] sum = new double[4];
+        interpolate(root, position.getX(), position.getY(), position.getZ(), normal, sum, true);
+        if (!(sum[3] > 0d)) return false;
+        for (int channel = 0; channel < 3; channel++) irradiance[channel] = Math.max(0d, sum[channel] / sum[3]);
+        return true;
+    }
+
+    /**
+     * adds the weighted irradiance of the records of a node and its children
+     * @param node the node of the octree
+     * @param x the x coordinate of the point
+     * @param y the y coordinate of the point
+     * @param z the z coordinate of the point
+     * @param normal the normalized normal of the surface in the point
+     * @param sum the weighted sum of the irradiance (RGB) and the sum of the weights
+     * @param isRoot a boolean flag for the root, it is always visited because it stores the records outside the octree
+     */
+    private void interpolate(Node node, double x, double y, double z, Vector3D normal, double[] sum, boolean isRoot) {
+        double reach = node.halfSize * 2d;
+        if (!isRoot && (Math.abs(x - node.centerX) > reach || Math.abs(y - node.centerY) > reach || Math.abs(z - node.centerZ) > reach)) return;
+
+        for (RecordList list = node.records.get(); list != null; list = list.next) {
+            Record record = list.record;
+            double dx = x - record.position.getX(), dy = y - record.position.getY(), dz = z - record.position.getZ();
+            double normalDot = Vector3D.dotProduct(normal, record.normal);
+            double error = Math.sqrt(dx * dx + dy * dy + dz * dz) / record.radius + Math.sqrt(Math.max(0d, 1d - normalDot));
+            if (error >= accuracy) continue;
+            double inFront = (dx * (normal.getX() + record.normal.getX()) + dy * (normal.getY() + record.normal.getY()) + dz * (normal.getZ() + record.normal.getZ())) / 2d;
+            if (inFront < -0.01d * record.radius) continue;
+
+            double weight = error > 0d ? 1d / error - 1d / accuracy : Double.MAX_VALUE / 4d;
+            Vector3D axis = Vector3D.crossProduct(record.normal, normal);
+            for (int channel = 0; channel < 3; channel++) {
+                int g = channel * 3;
+                double value = record.irradiance[channel]
+                        + axis.getX() * record.rotationalGradient[g] + axis.getY() * record.rotationalGradient[g + 1] + axis.getZ() * record.rotationalGradient[g + 2]
+                        + dx * record.translationalGradient[g] + dy * record.translationalGradient[g + 1] + dz * record.translationalGradient[g + 2];
+                sum[channel] += weight * value;
+            }
+            sum[3] += weight;
+        }
+
+        for (int i = 0; i < 8; i++) {
+            Node child = node.children.get(i);
+            if (child != null) interpolate(child, x, y, z, normal, sum, false);
+        }
+    }
+
+    /**
+     * calculates a new record with stratified cosine weighted hemisphere samples
+     * @param position the position of the record
+     * @param normal the normalized normal of the surface
+     * @param origin the origin of the hemisphere samples
+     * @param radianceSampler the function used to calculate the radiance of each sample
+     * @param sampler the sampler of the current thread used to jitter the samples
+     * @return the record
+     */
+    private Record createRecord(Vector3D position, Vector3D normal, Vector3D origin, IRadianceSampler radianceSampler, ISampler sampler) {
+        int m = thetaSamples;
+        int n = phiSamples;
+        Vector3D tangent = Vector3D.normalize(Math.abs(normal.getX()) > 0.9d ? Vector3D.crossProduct(normal, new Vector3D(0, 1, 0)) : Vector3D.crossProduct(normal, new Vector3D(1, 0, 0)));
+        Vector3D bitangent = Vector3D.crossProduct(normal, tangent);
+
+        double[][] radiance = new double[m * n][3];
+        double[] distances = new double[m * n];
+        double[] thetas = new double[m * n];
+        double inverseDistanceSum = 0d;
+        double[] irradiance = new double[3];
+        double[] jitter = new double[2];
+        for (int j = 0; j < m; j++) {
+            for (int k = 0; k < n; k++) {
+                int sample = j * n + k;
+                sampler.get2D(jitter);
+                double theta = Math.acos(Math.sqrt(1d - (j + jitter[0]) / m));
+                double phi = 2d * Math.PI * (k + jitter[1]) / n;
+                Vector3D direction = toWorld(tangent, bitangent, normal, theta, phi);
+                distances[sample] = radianceSampler.sample(origin, direction, radiance[sample]);
+                thetas[sample] = theta;
+                inverseDistanceSum += 1d / distances[sample];
+                for (int channel = 0; channel < 3; channel++) irradiance[channel] += radiance[sample][channel];
+            }
+        }
+        for (int channel = 0; channel < 3; channel++) irradiance[channel] *= Math.PI / (m * n);
+
+        double[] translationalGradient = new double[9];
+        double[] rotationalGradient = new double[9];
+        for (int k = 0; k < n; k++) {
+            double phiCenter = 2d * Math.PI * (k + 0.5d) / n;
+            double phiMinus = 2d * Math.PI * k / n;
+            Vector3D u = toWorld(tangent, bitangent, normal, Math.PI / 2d, phiCenter);
+            Vector3D vMinus = toWorld(tangent, bitangent, normal, Math.PI / 2d, phiMinus + Math.PI / 2d);
+            Vector3D v = toWorld(tangent, bitangent, normal, Math.PI / 2d, phiCenter + Math.PI / 2d);
+            int previousK = (k + n - 1) % n;
+            for (int j = 0; j < m; j++) {
+                int sample = j * n + k;
+                double cosMinus = Math.sqrt(1d - (double) j / m);
+                double sinMinus = Math.sqrt((double) j / m);
+                double cosPlus = Math.sqrt(1d - (double) (j + 1) / m);
+                for (int channel = 0; channel < 3; channel++) {
+                    double value = radiance[sample][channel];
+                    if (j > 0) {
+                        int below = (j - 1) * n + k;
+                        double factor = (2d * Math.PI / n) * sinMinus * cosMinus * cosMinus / Math.min(distances[sample], distances[below]) * (value - radiance[below][channel]);
+                        addScaled(translationalGradient, channel, u, factor);
+                    }
+                    if (n > 1) {
+                        int side = j * n + previousK;
+                        double factor = (cosMinus - cosPlus) / (Math.max(Math.sin(thetas[sample]), 1e-6) * Math.min(distances[sample], distances[side])) * (value - radiance[side][channel]);
+                        addScaled(translationalGradient, channel, vMinus, factor);
+                    }
+                    addScaled(rotationalGradient, channel, v, -Math.tan(thetas[sample]) * value * Math.PI / (m * n));
+                }
+            }
+        }
+
+        double radius = inverseDistanceSum > 0d ? (m * n) / inverseDistanceSum : maxRadius;
+        for (int channel = 0; channel < 3; channel++) {
+            int g = channel * 3;
+            double gradient = Math.sqrt(translationalGradient[g] * translationalGradient[g] + translationalGradient[g + 1] * translationalGradient[g + 1] + translationalGradient[g + 2] * translationalGradient[g + 2]);
+            if (gradient > 0d && irradiance[channel] > 0d) radius = Math.min(radius, irradiance[channel] / gradient);
+        }
+        radius = Math.max(minRadius, Math.min(maxRadius, radius));
+        return new Record(Vector3D.clone(position), Vector3D.clone(normal), radius, irradiance, translationalGradient, rotationalGradient);
+    }
+
+    /**
+     * calculates a direction of the hemisphere in world coordinates
+     * @param tangent the first axis of the base plane
+     * @param bitangent the second axis of the base plane
+     * @param normal the normal of the hemisphere
+     * @param theta the angle from the normal
+     * @param phi the angle in the base plane
+     * @return the normalized direction
+     */
+    private static Vector3D toWorld(Vector3D tangent, Vector3D bitangent, Vector3D normal, double theta, double phi) {
+        double sinTheta = Math.sin(theta);
+        Vector3D direction = Vector3D.add(Vector3D.scalarMultiplication(tangent, sinTheta * Math.cos(phi)), Vector3D.scalarMultiplication(bitangent, sinTheta * Math.sin(phi)));
+        return Vector3D.normalize(Vector3D.add(direction, Vector3D.scalarMultiplication(normal, Math.cos(theta))));
+    }
+
+    /**
+     * adds a scaled vector to the gradient of a color channel
+     * @param gradient the gradients of the three channels (x, y, z of each one)
+     * @param channel the color channel
+     * @param vector the vector to add
+     * @param scale the scale of the vector
+     */
+    private static void addScaled(double[] gradient, int channel, Vector3D vector, double scale) {
+        if (Double.isNaN(scale) || Double.isInfinite(scale)) return;
+        gradient[channel * 3] += vector.getX() * scale;
+        gradient[channel * 3 + 1] += vector.getY() * scale;
+        gradient[channel * 3 + 2] += vector.getZ() * scale;
+    }
+
+    /**
+     * inserts a record in the node whose size matches its validity region, creating the nodes that do not exist yet
+     * records outside the octree are stored in the root
+     * @param record the record to insert
+     */
+    private void insert(Record record) {
+        double reach = record.radius * accuracy;
+        double x = record.position.getX(), y = record.position.getY(), z = record.position.getZ();
+        Node node = root;
+        boolean inside = Math.abs(x - root.centerX) <= root.halfSize && Math.abs(y - root.centerY) <= root.halfSize && Math.abs(z - root.centerZ) <= root.halfSize;
+        for (int depth = 0; inside && depth < MAX_DEPTH && node.halfSize / 2d >= reach; depth++) {
+            int octant = (x >= node.centerX ? 1 : 0) | (y >= node.centerY ? 2 : 0) | (z >= node.centerZ ? 4 : 0);
+            Node child = node.children.get(octant);
+            if (child == null) {
+                double childHalfSize = node.halfSize / 2d;
+                Node created = new Node(node.centerX + ((octant & 1) != 0 ? childHalfSize : -childHalfSize),
+                        node.centerY + ((octant & 2) != 0 ? childHalfSize : -childHalfSize),
+                        node.centerZ + ((octant & 4) != 0 ? childHalfSize : -childHalfSize), childHalfSize);
+                child = node.children.compareAndSet(octant, null, created) ? created : node.children.get(octant);
+            }
+            node = child;
+        }
+
+        while (true) {
+            RecordList head = node.records.get();
+            if (node.records.compareAndSet(head, new RecordList(record, head))) return;
+        }
+    }
+
+    /**
+     * Node of the octree, a cube with up to 8 children and the records whose validity region fits its size
+     */
+    private static final class Node {
+        private final double centerX;
+        private final double centerY;
+        private final double centerZ;
+        private final double halfSize;
+        private final AtomicReferenceArray<Node> children;
+        private final AtomicReference<RecordList> records;
+
+        /**
+         * class constructor
+         * @param centerX the x coordinate of the center of the cube
+         * @param centerY the y coordinate of the center of the cube
+         * @param centerZ the z coordinate of the center of the cube
+         * @param halfSize half of the size of the cube
+         */
+        private Node(double centerX, double centerY, double centerZ, double halfSize) {
+            this.centerX = centerX;
+            this.centerY = centerY;
+            this.centerZ = centerZ;
+            this.halfSize = halfSize;
+            this.children = new AtomicReferenceArray<>(8);
+            this.records = new AtomicReference<>();
+        }
+    }
+
+    /**
+     * Immutable linked list of records, new records are pushed to the head
+     */
+    private static final class RecordList {
+        private final Record record;
+        private final RecordList next;
+
+        /**
+         * class constructor
+         * @param record the record of the head
+         * @param next the rest of the list
+         */
+        private RecordList(Record record, RecordList next) {
+            this.record = record;
+            this.next = next;
+        }
+    }
+
+    /**
+     * Immutable irradiance record with its position, normal, validity radius, irradiance and gradients (x, y, z per channel)
+     */
+    private static final class Record {
+        private final Vector3D position;
+        private final Vector3D normal;
+        private final double radius;
+        private final double[] irradiance;
+        private final double[] translationalGradient;
+        private final double[] rotationalGradient;
+
+        /**
+         * class constructor
+         * @param position the position of the record
+         * @param normal the normalized normal of the surface
+         * @param radius the validity radius
+         * @param irradiance the RGB irradiance
+         * @param translationalGradient the change of the irradiance with the position
+         * @param rotationalGradient the change of the irradiance with the rotation of the normal
+         */
+        private Record(Vector3D position, Vector3D normal, double radius, double[] irradiance, double[] translationalGradient, double[] rotationalGradient) {
+            this.position = position;
+            this.normal = normal;
+            this.radius = radius;
+            this.irradiance = irradiance;
+            this.translationalGradient = translationalGradient;
+            this.rotationalGradient = rotationalGradient;
+        }
+    }
+
+}
@@ -0,0 +1,464 @@
+/*
+  [1968] - [2020] Centros Culturales de Mexico A.C / Universidad Panamericana
+  All Rights Reserved.
+ */
+package up.edu.isgc.raytracer.engine;
+
+
+import up.edu.isgc.raytracer.lights.Light;
+import up.edu.isgc.raytracer.objects.Sphere;
+import up.edu.isgc.raytracer.objects.utility.Ray;
+import up.edu.isgc.raytracer.objects.utility.Vector3D;
+import up.edu.isgc.raytracer.tools.HitRecord;
+import up.edu.isgc.raytracer.tools.IIntersectable;
+import up.edu.isgc.raytracer.tools.Intersection;
+import up.edu.isgc.raytracer.tools.utility.ContentHash;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Date;
+import java.util.Random;
+import java.util.stream.IntStream;
+
+/**
+ * Stores the visibility of every light baked over the surfaces of a static scene, so renders of the same scene
+ * (e.g. a camera path) look it up instead of casting shadow rays
+ * Each triangle of a mesh is divided into a lattice of points over its barycentric coordinates and each sphere into a
+ * latitude-longitude grid, the resolution depends on the size of the surface and the texel size
+ * The values between the points are interpolated, so the shadows are only as sharp as the texel size
+ * The bake is saved in the bakes/ folder with a hash of the lights, geometry and settings, a bake with a different hash is never used
+ *
+ * @author Homar Cano, Jafet Rodríguez
+ */
+final class LightingBake {
+    /**
+     * constant for the version of the file format, it is part of the hash
+     */
+    private static final int FILE_VERSION = 2;
+    /**
+     * constant for the maximum number of subdivisions of a triangle edge
+     */
+    private static final int MAX_TRIANGLE_RESOLUTION = 256;
+    /**
+     * constant for the minimum and maximum number of latitude subdivisions of a sphere
+     */
+    private static final int MIN_SPHERE_RESOLUTION = 4;
+    private static final int MAX_SPHERE_RESOLUTION = 512;
+
+    private static final byte NOT_BAKED = 0;
+    private static final byte MESH = 1;
+    private static final byte SPHERE = 2;
+
+    private final String hash;
+    private final int lightCount;
+    private final byte[] kinds;
+    private final int[][] resolutions;
+    private final int[][] offsets;
+    private final float[][] visibility;
+    private final Vector3D[] centers;
+
+    /**
+     * class constructor
+     * @param hash the hash of the content of the scene
+     * @param lightCount the number of lights of the scene
+     * @param kinds the kind of surface of every object (not baked, mesh or sphere)
+     * @param resolutions the resolution of every triangle of a mesh or the latitude resolution of a sphere
+     * @param offsets the index of the first point of every triangle of a mesh
+     * @param visibility the visibility of every light in every point of every object
+     * @param scene the CompiledScene of the bake, used to find the center of the spheres
+     */
+    private LightingBake(String hash, int lightCount, byte[] kinds, int[][] resolutions, int[][] offsets, float[][] visibility, CompiledScene scene) {
+        this.hash = hash;
+        this.lightCount = lightCount;
+        this.kinds = kinds;
+        this.resolutions = resolutions;
+        this.offsets = offsets;
+        this.visibility = visibility;
+        this.centers = new Vector3D[kinds.length];
+        for (int id = 0; id < kinds.length; id++) {
+            if (kinds[id] == SPHERE) centers[id] = ((Sphere) scene.getObject(id)).getPosition();
+        }
+    }
+
+    /**
+     * loads the bake of a scene from the bakes/ folder, if it does not exist or the scene changed the lighting is baked and saved again
+     * @param scene the CompiledScene to bake, its acceleration structures must be built
+     * @param shadowBias the bias used for the shadow rays
+     * @param texelSize the distance between the baked points
+     * @param statistics the statistics of the render
+     * @return the bake of the scene
+     */
+    static LightingBake loadOrBake(CompiledScene scene, double shadowBias, double texelSize, RenderStatistics statistics) {
+        String hash = hashScene(scene, shadowBias, texelSize);
+        File file = new File("bakes/" + scene.getName() + ".bake");
+        LightingBake bake = load(file, hash, scene);
+        if (bake != null) {
+            System.out.println(new Date() + " loaded the baked lighting '" + file.getName() + "'");
+            statistics.put("baked lighting", "loaded from " + file.getPath());
+            return bake;
+        }
+
+        System.out.println(new Date() + " baking the lighting of the scene '" + scene.getName() + "'...");
+        long startTime = System.nanoTime();
+        bake = bake(scene, hash, shadowBias, texelSize);
+        statistics.put("baked lighting", bake.getPointCount() + " points baked for " + bake.lightCount + " lights");
+        statistics.putTime("bake time", System.nanoTime() - startTime);
+        bake.save(file);
+        return bake;
+    }
+
+    /**
+     * calculates the hash of everything that changes the baked visibility: lights, geometry, shadow flags and settings
+     * @param scene the CompiledScene to bake
+     * @param shadowBias the bias used for the shadow rays
+     * @param texelSize the distance between the baked points
+     * @return the hash of the scene
+     */
+    private static String hashScene(CompiledScene scene, double shadowBias, double texelSize) {
+        ContentHash hash = new ContentHash().add(FILE_VERSION).add(shadowBias).add(texelSize);
+        hash.add(scene.getLightCount());
+        for (int i = 0; i < scene.getLightCount(); i++) scene.getLight(i).addToHash(hash);
+        hash.add(scene.getObjectCount());
+        for (int id = 0; id < scene.getObjectCount(); id++) {
+            IIntersectable object = scene.getObject(id);
+            hash.add(scene.isCastingShadows(id)).add(scene.isReceivingShadows(id));
+            if (object instanceof CompiledMesh) {
+                hash.add(((CompiledMesh) object).getVertexArray()).add(((CompiledMesh) object).getNormalArray());
+            } else if (object instanceof Sphere) {
+                hash.add(((Sphere) object).getPosition()).add(((Sphere) object).getRadius());
+            } else {
+                hash.add(object == null ? "null" : object.getClass().getName());
+            }
+        }
+        return hash.toHex();
+    }
+
+    /**
+     * bakes the visibility of every light over the objects that receive shadows
+     * @param scene the CompiledScene to bake
+     * @param hash the hash of the scene
+     * @param shadowBias the bias used for the shadow rays
+     * @param texelSize the distance between the baked points
+     * @return the bake of the scene
+     */
+    private static LightingBake bake(CompiledScene scene, String hash, double shadowBias, double texelSize) {
+        int objectCount = scene.getObjectCount();
+        int lightCount = scene.getLightCount();
+        byte[] kinds = new byte[objectCount];
+        int[][] resolutions = new int[objectCount][];
+        int[][] offsets = new int[objectCount][];
+        float[][] visibility = new float[objectCount][];
+
+        for (int id = 0; id < objectCount; id++) {
+            IIntersectable object = scene.getObject(id);
+            if (!scene.isReceivingShadows(id)) continue;
+            if (object instanceof CompiledMesh) {
+                CompiledMesh mesh = (CompiledMesh) object;
+                int triangleCount = mesh.getTriangleCount();
+                int[] triangleResolutions = new int[triangleCount];
+                int[] triangleOffsets = new int[triangleCount];
+                int pointCount = 0;
+                for (int triangle = 0; triangle < triangleCount; triangle++) {
+                    int resolution = (int) Math.ceil(mesh.getLongestEdge(triangle) / texelSize);
+                    triangleResolutions[triangle] = Math.max(1, Math.min(MAX_TRIANGLE_RESOLUTION, resolution));
+                    triangleOffsets[triangle] = pointCount;
+                    pointCount += latticeSize(triangleResolutions[triangle]);
+                }
+                float[] values = new float[pointCount * lightCount];
+                IntStream.range(0, triangleCount).parallel().forEach(triangle -> {
+                    int resolution = triangleResolutions[triangle];
+                    for (int i = 0; i <= resolution; i++) {
+                        for (int j = 0; i + j <= resolution; j++) {
+                            double v = (double) i / resolution;
+                            double u = (double) j / resolution;
+                            int point = triangleOffsets[triangle] + latticeIndex(resolution, i, j);
+                            bakePoint(scene, mesh.getPoint(triangle, u, v), mesh.getNormal(triangle, u, v), shadowBias, values, point * lightCount);
+                        }
+                    }
+                });
+                kinds[id] = MESH;
+                resolutions[id] = triangleResolutions;
+                offsets[id] = triangleOffsets;
+                visibility[id] = values;
+            } else if (object instanceof Sphere) {
+                Sphere sphere = (Sphere) object;
+                int resolution = (int) Math.ceil(Math.PI * sphere.getRadius() / texelSize);
+                int latitudes = Math.max(MIN_SPHERE_RESOLUTION, Math.min(MAX_SPHERE_RESOLUTION, resolution));
+                int longitudes = latitudes * 2;
+                float[] values = new float[(latitudes + 1) * longitudes * lightCount];
+                IntStream.rangeClosed(0, latitudes).parallel().forEach(latitude -> {
+                    for (int longitude = 0; longitude < longitudes; longitude++) {
+                        Vector3D normal = sphereDirection(latitude, latitudes, longitude, longitudes);
+                        Vector3D point = Vector3D.add(sphere.getPosition(), Vector3D.scalarMultiplication(normal, sphere.getRadius()));
+                        bakePoint(scene, point, normal, shadowBias, values, (latitude * longitudes + longitude) * lightCount);
+                    }
+                });
+                kinds[id] = SPHERE;
+                resolutions[id] = new int[]{latitudes};
+                offsets[id] = new int[]{0};
+                visibility[id] = values;
+            }
+        }
+        return new LightingBake(hash, lightCount, kinds, resolutions, offsets, visibility, scene);
+    }
+
+    /**
+     * calculates the visibility of every light in a point with the same shadow rays used while rendering
+     * area lights use every stratified sample with a random generator seeded by the point, so the bake is repeatable
+     * @param scene the CompiledScene to bake
+     * @param point the point of the surface
+     * @param normal the normal of the surface in the point
+     * @param shadowBias the bias used for the shadow rays
+     * @param values the array where the visibility is stored
+     * @param offset the index of the value of the first light
+     */
+    private static void bakePoint(CompiledScene scene, Vector3D point, Vector3D normal, double shadowBias, float[] values, int offset) {
+        Vector3D shadowOrigin = Vector3D.add(point, Vector3D.scalarMultiplication(normal, shadowBias));
+        Random random = new Random(offset);
+        for (int lightIndex = 0; lightIndex < scene.getLightCount(); lightIndex++) {
+            Light light = scene.getLight(lightIndex);
+            int samples = light.getShadowSamples();
+            int visibleSamples = 0;
+            if (samples <= 1) {
+                if (!isOccluded(new Ray(shadowOrigin, light.getPosition()), Double.POSITIVE_INFINITY, scene)) visibleSamples++;
+            } else {
+                for (int sample = 0; sample < samples; sample++) {
+                    Vector3D toSample = Vector3D.subtract(light.getSamplePosition(sample, samples, random), shadowOrigin);
+                    if (!isOccluded(new Ray(shadowOrigin, toSample), Vector3D.magnitude(toSample), scene)) visibleSamples++;
+                }
+            }
+            values[offset + lightIndex] = (float) visibleSamples / Math.max(samples, 1);
+        }
+    }
+
+    /**
+     * checks if any object in the scene that casts shadows is hit by a given shadow Ray
+     * @param ray the Ray used to check an intersection with an object
+     * @param maxDistance the distance where the ray ends, the objects at that distance or farther do not block it
+     * @param scene the CompiledScene with the objects to be checked
+     * @return true if the ray hits an object
+     */
+    private static boolean isOccluded(Ray ray, double maxDistance, CompiledScene scene) {
+        HitRecord occluder = new HitRecord();
+        occluder.setDistance(maxDistance);
+        return scene.getShadowAccelerationStructure().isOccluded(ray, occluder, (casterIndex, objectRay, hit) -> scene.isOccluded(scene.getShadowCaster(casterIndex), objectRay, maxDistance));
+    }
+
+    /**
+     * looks up the baked visibility of a light in a point of the scene
+     * @param intersection the Intersection of the point (calculated with the compiled scene)
+     * @param lightIndex the index of the light
+     * @return the fraction of the light visible from the point or -1 if the object of the point was not baked
+     */
+    double getVisibility(Intersection intersection, int lightIndex) {
+        int id = intersection.getObjectId();
+        if (id < 0) return -1d;
+        switch (kinds[id]) {
+            case MESH:
+                return getMeshVisibility(id, intersection.getPrimitiveIndex(), intersection.getU(), intersection.getV(), lightIndex);
+            case SPHERE:
+                return getSphereVisibility(id, intersection, lightIndex);
+            default:
+                return -1d;
+        }
+    }
+
+    /**
+     * interpolates the visibility of a light inside a triangle with the three closest points of its lattice
+     * @param id the id of the object
+     * @param triangle the index of the triangle
+     * @param u the barycentric coordinate of the third vertex
+     * @param v the barycentric coordinate of the second vertex
+     * @param lightIndex the index of the light
+     * @return the interpolated visibility
+     */
+    private double getMeshVisibility(int id, int triangle, double u, double v, int lightIndex) {
+        if (triangle < 0) return -1d;
+        int resolution = resolutions[id][triangle];
+        int offset = offsets[id][triangle];
+        float[] values = visibility[id];
+        double s = Math.max(0d, Math.min(resolution, v * resolution));
+        double t = Math.max(0d, Math.min(resolution - s, u * resolution));
+        int i = Math.min((int) s, resolution - 1);
+        int j = Math.min((int) t, resolution - 1 - i);
+        double fs = s - i;
+        double ft = t - j;
+        if (fs + ft <= 1d) {
+            return (1d - fs - ft) * values[(offset + latticeIndex(resolution, i, j)) * lightCount + lightIndex]
+                    + fs * values[(offset + latticeIndex(resolution, i + 1, j)) * lightCount + lightIndex]
+                    + ft * values[(offset + latticeIndex(resolution, i, j + 1)) * lightCount + lightIndex];
+        }
+        return (fs + ft - 1d) * values[(offset + latticeIndex(resolution, i + 1, j + 1)) * lightCount + lightIndex]
+                + (1d - fs) * values[(offset + latticeIndex(resolution, i, j + 1)) * lightCount + lightIndex]
+                + (1d - ft) * values[(offset + latticeIndex(resolution, i + 1, j)) * lightCount + lightIndex];
+    }
+
+    /**
+     * interpolates the visibility of a light on a sphere with the four closest points of its grid
+     * @param id the id of the object
+     * @param intersection the Intersection of the point
+     * @param lightIndex the index of the light
+     * @return the interpolated visibility
+     */
+    private double getSphereVisibility(int id, Intersection intersection, int lightIndex) {
+        Vector3D direction = Vector3D.normalize(Vector3D.subtract(intersection.getPosition(), centers[id]));
+        int latitudes = resolutions[id][0];
+        int longitudes = latitudes * 2;
+        float[] values = visibility[id];
+
+        double latitude = Math.acos(Math.max(-1d, Math.min(1d, direction.getZ()))) / Math.PI * latitudes;
+        double longitude = (Math.atan2(direction.getY(), direction.getX()) + Math.PI) / (2d * Math.PI) * longitudes;
+        int row = Math.min((int) latitude, latitudes - 1);
+        int column = (int) Math.floor(longitude);
+        double fRow = latitude - row;
+        double fColumn = longitude - column;
+        int column0 = Math.floorMod(column, longitudes);
+        int column1 = Math.floorMod(column + 1, longitudes);
+
+        double top = (1d - fColumn) * values[(row * longitudes + column0) * lightCount + lightIndex]
+                + fColumn * values[(row * longitudes + column1) * lightCount + lightIndex];
+        double bottom = (1d - fColumn) * values[((row + 1) * longitudes + column0) * lightCount + lightIndex]
+                + fColumn * values[((row + 1) * longitudes + column1) * lightCount + lightIndex];
+        return (1d - fRow) * top + fRow * bottom;
+    }
+
+    /**
+     * calculates the direction of a point of the latitude-longitude grid of a sphere
+     * @param latitude the latitude index (0 is the +z pole)
+     * @param latitudes the number of latitude subdivisions
+     * @param longitude the longitude index
+     * @param longitudes the number of longitude subdivisions
+     * @return the normalized direction from the center of the sphere
+     */
+    private static Vector3D sphereDirection(int latitude, int latitudes, int longitude, int longitudes) {
+        double theta = Math.PI * latitude / latitudes;
+        double phi = 2d * Math.PI * longitude / longitudes - Math.PI;
+        return new Vector3D(Math.sin(theta) * Math.cos(phi), Math.sin(theta) * Math.sin(phi), Math.cos(theta));
+    }
+
+    /**
+     * calculates the number of points of the lattice of a triangle
+     * @param resolution the number of subdivisions of each edge
+     * @return the number of points
+     */
+    private static int latticeSize(int resolution) {
+        return (resolution + 1) * (resolution + 2) / 2;
+    }
+
+    /**
+     * calculates the index of a point of the lattice of a triangle, the point is A + (B - A) * i / resolution + (C - A) * j / resolution
+     * @param resolution the number of subdivisions of each edge
+     * @param i the subdivision along the edge AB
+     * @param j the subdivision along the edge AC
+     * @return the index of the point
+     */
+    private static int latticeIndex(int resolution, int i, int j) {
+        return i * (resolution + 1) - i * (i - 1) / 2 + j;
+    }
+
+    /**
+     * class getter
+     * @return the number of points baked
+     */
+    long getPointCount() {
+        long points = 0L;
+        for (float[] values : visibility) {
+            if (values != null && lightCount > 0) points += values.length / lightCount;
+        }
+        return points;
+    }
+
+    /**
+     * saves the bake in a file, the folder is created if it does not exist
+     * @param file the file where the bake is saved
+     */
+    private void save(File file) {
+        File folder = file.getParentFile();
+        if (folder != null && !folder.exists() && !folder.mkdirs()) {
+            System.out.println(new Date() + " !! the folder '" + folder.getPath() + "' could not be created !!");
+            return;
+        }
+        try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+            output.writeInt(FILE_VERSION);
+            output.writeUTF(hash);
+            output.writeInt(lightCount);
+            output.writeInt(kinds.length);
+            for (int id = 0; id < kinds.length; id++) {
+                output.writeByte(kinds[id]);
+                if (kinds[id] == NOT_BAKED) continue;
+                writeInts(output, resolutions[id]);
+                writeInts(output, offsets[id]);
+                output.writeInt(visibility[id].length);
+                for (float value : visibility[id]) output.writeFloat(value);
+            }
+            System.out.println(new Date() + " finished saving the baked lighting '" + file.getName() + "'");
+        } catch (IOException ioe) {
+            System.out.println(new Date() + " !! an error occurred saving the baked lighting '" + file.getName() + "' !!");
+            ioe.printStackTrace();
+        }
+    }
+
+    /**
+     * loads a bake from a file
+     * @param file the file of the bake
+     * @param hash the hash of the scene, the bake is only loaded if it has the same hash
+     * @param scene the CompiledScene of the bake
+     * @return the bake or null if the file does not exist, is not valid or has a different hash
+     */
+    private static LightingBake load(File file, String hash, CompiledScene scene) {
+        if (!file.isFile()) return null;
+        try (DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (input.readInt() != FILE_VERSION || !hash.equals(input.readUTF())) return null;
+            int lightCount = input.readInt();
+            int objectCount = input.readInt();
+            if (lightCount != scene.getLightCount() || objectCount != scene.getObjectCount()) return null;
+            byte[] kinds = new byte[objectCount];
+            int[][] resolutions = new int[objectCount][];
+            int[][] offsets = new int[objectCount][];
+            float[][] visibility = new float[objectCount][];
+            for (int id = 0; id < objectCount; id++) {
+                kinds[id] = input.readByte();
+                if (kinds[id] == NOT_BAKED) continue;
+                resolutions[id] = readInts(input);
+                offsets[id] = readInts(input);
+                visibility[id] = new float[input.readInt()];
+                for (int i = 0; i < visibility[id].length; i++) visibility[id][i] = input.readFloat();
+                if (kinds[id] == SPHERE && !(scene.getObject(id) instanceof Sphere)) return null;
+            }
+            return new LightingBake(hash, lightCount, kinds, resolutions, offsets, visibility, scene);
+        } catch (IOException ioe) {
+            System.out.println(new Date() + " !! the baked lighting '" + file.getName() + "' could not be read, baking it again !!");
+            return null;
+        }
+    }
+
+    /**
+     * writes an array of integers with its length
+     * @param output the stream where the array is written
+     * @param values the array to write
+     * @throws IOException if the array could not be written
+     */
+    private static void writeInts(DataOutputStream output, int[] values) throws IOException {
+        output.writeInt(values.length);
+        for (int value : values) output.writeInt(value);
+    }
+
+    /**
+     * reads an array of integers written with writeInts()
+     * @param input the stream where the array is read
+     * @return the array
+     * @throws IOException if the array could not be read
+     */
+    private static int[] readInts(DataInputStream input) throws IOException {
+        int[] values = new int[input.readInt()];
+        for (int i = 0; i < values.length; i++) values[i] = input.readInt();
+        return values;
+    }
+
+}
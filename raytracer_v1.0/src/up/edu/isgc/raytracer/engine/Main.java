@@ -9,6 +9,9 @@ import up.edu.isgc.raytracer.lights.*;
 import up.edu.isgc.raytracer.materials.*;
 import up.edu.isgc.raytracer.objects.*;
 import up.edu.isgc.raytracer.objects.utility.*;
+import up.edu.isgc.raytracer.tools.acceleration.AccelerationStructureType;
+import up.edu.isgc.raytracer.tools.acceleration.BVHBuildQuality;
+import up.edu.isgc.raytracer.tools.sampling.SamplerType;
 
 import java.awt.Color;
 import java.text.SimpleDateFormat;
@@ -29,11 +32,26 @@ import java.util.TimeZone;
  *  <li>Multiple camera and render parameters</li>
  *  <li>Importing a 3D object with an .obj file</li>
  *  <li>Point and directional lights</li>
+ *  <li>Rectangle and sphere area lights with soft shadows</li>
  *  <li>Shadows and light fall off</li>
  *  <li>Implementation of the Blinn-Phong model</li>
  *  <li>Refraction and Reflection</li>
+ *  <li>Indirect diffuse light with an irradiance cache (optional)</li>
+ *  <li>Caustics with a photon map (optional)</li>
+ *  <li>Anti aliasing with multiple samples per pixel and an edge avoiding denoiser (optional)</li>
+ *  <li>Progressive path tracing with a time budget and a noise target (optional)</li>
+ *  <li>Reproducible quasi-Monte Carlo sampling (Sobol, Halton and blue noise)</li>
+ *  <li>Hybrid visibility, the first hits of the primary rays are rasterized into a visibility buffer instead of cast (optional)</li>
  *  <li>Different types of materials</li>
  *  <li>Multi threading for better performance</li>
+ *  <li>Checkpoints of long renders, a render stopped by a crash or a restart is resumed (optional)</li>
+ *  <li>Content addressed render cache, repeated scenes are not rendered again and edited scenes reuse the unchanged tiles (optional)</li>
+ *  <li>Incremental rendering of edited scenes, only the tiles that an edit can change are traced again</li>
+ *  <li>Animation sequences with per-frame transforms, refit acceleration structures and the next frame prepared while the current one renders</li>
+ *  <li>Temporal reprojection in animations, the shading of the pixels that still see the same point is reused for a few frames (optional)</li>
+ *  <li>Distributed rendering by tiles with render workers in other processes or machines (optional)</li>
+ *  <li>HTTP render server with a priority job queue and preemptible tile scheduling (optional)</li>
+ *  <li>Images saved in the background (parallel png compression) and HDR pfm and exr outputs</li>
  *  <li>Progress and status updates are shown in console</li>
  * </ul>
  *
@@ -49,8 +67,47 @@ public class Main {
     // raytracer settings
     public static final int N_THREADS = 12;
     public static final int RENDER_TIMEOUT = 21600000;
+    public static final int CHECKPOINT_INTERVAL = 0; // ms between the saves of the checkpoints/ folder (0 to render without checkpoints)
+    public static final long RENDER_CACHE_SIZE = 0L; // bytes of the cache/ folder (0 to render without the cache, it does not use the hybrid visibility)
     public static final float LIGHT_FALLOFF_EXPONENT = 2f;
+    public static final double LIGHT_CONTRIBUTION_THRESHOLD = 1d / 255d; // one step of a 8 bit color channel
+    public static final int MAX_LIGHTS_PER_HIT = 0;
+    public static final boolean USE_BAKED_LIGHTING = false;
+    public static final double BAKE_TEXEL_SIZE = 0.05d;
+    public static final boolean USE_IRRADIANCE_CACHE = false;
+    public static final int IRRADIANCE_SAMPLES = 64;
+    public static final double IRRADIANCE_CACHE_ACCURACY = 0.3d;
+    public static final boolean USE_CAUSTIC_PHOTON_MAP = false;
+    public static final int CAUSTIC_PHOTONS = 200000;
+    public static final double CAUSTIC_GATHER_RADIUS = 0.1d;
+    public static final int AREA_LIGHT_SAMPLES = 16;
+    public static final int SAMPLES_PER_PIXEL = 1;
+    public static final boolean USE_DENOISER = false;
+    public static final int DENOISER_ITERATIONS = 5;
+    public static final int PATH_TRACING_TIME_BUDGET = 600000;
+    public static final double PATH_TRACING_NOISE_TARGET = 0.02d;
+    public static final int PATH_TRACING_SAVE_INTERVAL = 60000;
+    public static final int MAX_PATH_DEPTH = 5;
+    public static final SamplerType SAMPLER_TYPE = SamplerType.SOBOL;
     public static final boolean USE_CLIPPING_PLANES = true;
+    public static final boolean USE_FRUSTUM_CULLING = true;
+    public static final boolean USE_HYBRID_VISIBILITY = false;
+    public static final BVHBuildQuality BVH_BUILD_QUALITY = BVHBuildQuality.OPTIMIZED;
+    public static final AccelerationStructureType ACCELERATION_STRUCTURE = AccelerationStructureType.BVH;
+
+    // distributed render settings (the workers are started with RenderWorker)
+    public static final String COORDINATOR_ADDRESS = "127.0.0.1"; // 0.0.0.0 to accept workers of other machines (private network only)
+    public static final int COORDINATOR_PORT = 7070;
+    public static final int TILE_SIZE = 32;
+    public static final int TILE_TIMEOUT = 60000;
+
+    // render server settings (the server is started with RenderServer)
+    public static final String RENDER_SERVER_ADDRESS = "127.0.0.1";
+    public static final int RENDER_SERVER_PORT = 8080;
+    public static final int MAX_JOB_IMAGE_SIZE = 2048;
+    public static final int MAX_JOB_SAMPLES_PER_PIXEL = 64;
+    public static final int MAX_CONCURRENT_RENDERS = 4;
+    public static final int RENDER_QUEUE_CAPACITY = 16;
 
     // camera settings
     public static final Vector3D CAMERA_POSITION = new Vector3D(0, 0, -8);
@@ -70,6 +127,30 @@ public class Main {
         dateFormat.setTimeZone(TimeZone.getTimeZone(TIME_ZONE));
 
         Raytracer raytracer = new Raytracer(N_THREADS, RENDER_TIMEOUT, LIGHT_FALLOFF_EXPONENT, USE_CLIPPING_PLANES);
+        raytracer.setBVHBuildQuality(BVH_BUILD_QUALITY);
+        raytracer.setAccelerationStructureType(ACCELERATION_STRUCTURE);
+        raytracer.setUseFrustumCulling(USE_FRUSTUM_CULLING);
+        raytracer.setUseHybridVisibility(USE_HYBRID_VISIBILITY);
+        raytracer.setLightContributionThreshold(LIGHT_CONTRIBUTION_THRESHOLD);
+        raytracer.setMaxLightsPerHit(MAX_LIGHTS_PER_HIT);
+        raytracer.setUseBakedLighting(USE_BAKED_LIGHTING);
+        raytracer.setBakeTexelSize(BAKE_TEXEL_SIZE);
+        raytracer.setUseIrradianceCache(USE_IRRADIANCE_CACHE);
+        raytracer.setIrradianceSamples(IRRADIANCE_SAMPLES);
+        raytracer.setIrradianceCacheAccuracy(IRRADIANCE_CACHE_ACCURACY);
+        raytracer.setUseCausticPhotonMap(USE_CAUSTIC_PHOTON_MAP);
+        raytracer.setCausticPhotons(CAUSTIC_PHOTONS);
+        raytracer.setCausticGatherRadius(CAUSTIC_GATHER_RADIUS);
+        raytracer.setSamplesPerPixel(SAMPLES_PER_PIXEL);
+        raytracer.setUseDenoiser(USE_DENOISER);
+        raytracer.setDenoiserIterations(DENOISER_ITERATIONS);
+        raytracer.setTimeBudget(PATH_TRACING_TIME_BUDGET);
+        raytracer.setNoiseTarget(PATH_TRACING_NOISE_TARGET);
+        raytracer.setProgressiveSaveInterval(PATH_TRACING_SAVE_INTERVAL);
+        raytracer.setCheckpointInterval(CHECKPOINT_INTERVAL);
+        raytracer.setRenderCacheSize(RENDER_CACHE_SIZE);
+        raytracer.setMaxPathDepth(MAX_PATH_DEPTH);
+        raytracer.setSamplerType(SAMPLER_TYPE);
         Scene scene = new Scene("Sample Scene DOMENIC", IMAGE_EXTENSION);
 
         //camera and lights
@@ -105,6 +186,18 @@ public class Main {
         raytracer.setShadowBias(0.0003d);
         //raytracer.raytraceScene(createSampleScene05());
 
+        // soft shadows
+        raytracer.setShadowBias(0.075d);
+        //raytracer.raytraceScene(createSampleScene06());
+        //raytracer.pathTraceScene(createSampleScene06());
+
+        // distributed render
+        //RenderCoordinator coordinator = new RenderCoordinator(raytracer, COORDINATOR_PORT);
+        //coordinator.setBindAddress(COORDINATOR_ADDRESS);
+        //coordinator.setTileSize(TILE_SIZE);
+        //coordinator.setTileTimeout(TILE_TIMEOUT);
+        //coordinator.raytraceScene(createSampleScene06());
+
         // table set
         raytracer.setShadowBias(0.0000001d);
         //raytracer.raytraceScene(createScene01());
@@ -115,6 +208,7 @@ public class Main {
         // bunny and other objects
         //raytracer.raytraceScene(createScene03());
 
+        raytracer.awaitSavedImages();
         Date endDate = new Date();
         String totalTime = dateFormat.format(new Date(endDate.getTime() - startDate.getTime()));
         System.out.println(endDate + " the program finished in a total time of " + totalTime);
@@ -222,6 +316,27 @@ public class Main {
         return scene;
     }
 
+    public static Scene createSampleScene06() {
+        Scene scene = new Scene("Sample Scene 06", IMAGE_EXTENSION);
+
+        //camera and lights
+        scene.setCamera(new Camera(CAMERA_POSITION, FOV, FOV, IMAGE_SIZE, IMAGE_SIZE, FAR_CLIPPING_PLANE, NEAR_CLIPPING_PLANE));
+        scene.addLight(new RectangleAreaLight(new Vector3D(-1f,1f,-0.5f), new Vector3D(1.5f,0f,0f), new Vector3D(0f,0f,1.5f), Color.WHITE, 3f, AREA_LIGHT_SAMPLES));
+        scene.addLight(new SphereAreaLight(new Vector3D(1.5f,0.5f,0f), 0.4d, Color.WHITE, 2f, AREA_LIGHT_SAMPLES));
+
+        //materials
+        Material lambertGray = new LambertMaterial(Color.GRAY);
+        Material shinyRed = new BlinnPhongMaterial(Color.RED, 0.05d, 0.45d, 0.2d, 100d);
+
+        //objects
+        scene.addObject(new Sphere(new Vector3D(0f,-1.25f,2f), 0.75d, shinyRed));
+        Polygon floor = new Polygon(new Vector3D(0f,-2f,5f), "floor", lambertGray);
+        floor.setCastsShadows(false);
+        scene.addObject(floor);
+
+        return scene;
+    }
+
     public static Scene createScene01() {
         Scene scene = new Scene("Scene 01", IMAGE_EXTENSION);
 
@@ -0,0 +1,80 @@
+/*
+  [1968] - [2020] Centros Culturales de Mexico A.C / Universidad Panamericana
+  All Rights Reserved.
+ */
+package up.edu.isgc.raytracer.engine;
+
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Remembers the last object and primitive that blocked a shadow ray of each light
+ * Neighbouring points are usually blocked by the same primitive, so it is tested before the full occlusion query
+ * Each render thread has its own cache (see CompiledScene.getOccluderCache()), so it is not synchronized
+ *
+ * @author Homar Cano, Jafet Rodríguez
+ */
+final class OccluderCache {
+    private final int[] objectIds;
+    private final int[] primitiveIndices;
+    private final LongAdder hits;
+    private final LongAdder misses;
+
+    /**
+     * class constructor, creates an empty cache
+     * @param lightCount the number of lights of the scene
+     * @param statistics the statistics of the render where the hits and misses are counted
+     */
+    OccluderCache(int lightCount, RenderStatistics statistics) {
+        this.objectIds = new int[lightCount];
+        this.primitiveIndices = new int[lightCount];
+        this.hits = statistics.getCounter("occluder cache hits");
+        this.misses = statistics.getCounter("occluder cache misses");
+        Arrays.fill(objectIds, -1);
+    }
+
+    /**
+     * class getter
+     * @param lightIndex the index of the light
+     * @return the id of the last object that blocked the light or -1 if there is none
+     */
+    int getObjectId(int lightIndex) {
+        return objectIds[lightIndex];
+    }
+
+    /**
+     * class getter
+     * @param lightIndex the index of the light
+     * @return the index of the last primitive that blocked the light
+     */
+    int getPrimitiveIndex(int lightIndex) {
+        return primitiveIndices[lightIndex];
+    }
+
+    /**
+     * stores the occluder of a light, replacing the previous one
+     * @param lightIndex the index of the light
+     * @param objectId the id of the object that blocked the light
+     * @param primitiveIndex the index of the primitive that blocked the light
+     */
+    void store(int lightIndex, int objectId, int primitiveIndex) {
+        objectIds[lightIndex] = objectId;
+        primitiveIndices[lightIndex] = primitiveIndex;
+    }
+
+    /**
+     * counts a shadow ray blocked by the cached occluder
+     */
+    void recordHit() {
+        hits.increment();
+    }
+
+    /**
+     * counts a shadow ray that needed the full occlusion query
+     */
+    void recordMiss() {
+        misses.increment();
+    }
+
+}
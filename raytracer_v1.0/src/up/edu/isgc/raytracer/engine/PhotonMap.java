@@ -0,0 +1,708 @@
+/*
+  [1968] - [2020] Centros Culturales de Mexico A.C / Universidad Panamericana
+  All Rights Reserved.
+ */
+package up.edu.isgc.raytracer.engine;
+
+
+import up.edu.isgc.raytracer.lights.DirectionalLight;
+import up.edu.isgc.raytracer.lights.Light;
+import up.edu.isgc.raytracer.materials.MaterialParameters;
+import up.edu.isgc.raytracer.objects.utility.BoundingBox;
+import up.edu.isgc.raytracer.objects.utility.Ray;
+import up.edu.isgc.raytracer.objects.utility.Vector3D;
+import up.edu.isgc.raytracer.tools.HitRecord;
+import up.edu.isgc.raytracer.tools.IBoundable;
+import up.edu.isgc.raytracer.tools.IIntersectable;
+import up.edu.isgc.raytracer.tools.Intersection;
+
+import java.awt.Color;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.IntStream;
+
+/**
+ * Caustic photon map, created before the render by shooting photons from the lights towards the reflective and refractive objects
+ * A photon is only stored when it reaches a diffuse surface after at least one specular bounce (light, specular, diffuse paths),
+ * the rest of the light is already calculated by the ray tracer
+ * The photons are stored in flat arrays (position, shared exponent power and a packed direction) ordered as a balanced kd-tree,
+ * the median of each range is its node so no child pointers are needed, and the tree is built in parallel
+ * The irradiance of a point is estimated with its nearest photons (inside the gather radius) and a cone filter
+ * The photon power uses an inverse square falloff, so the caustics match the direct light when the falloff exponent is 2
+ *
+ * @author Homar Cano, Jafet Rodríguez
+ * @see <a href="http://graphics.stanford.edu/~henrik/papers/book/">Realistic Image Synthesis Using Photon Mapping</a>
+ */
+final class PhotonMap {
+    /**
+     * constant for the number of photons traced by each parallel task
+     */
+    private static final int PHOTONS_PER_TASK = 4096;
+    /**
+     * constant for the maximum number of bounces of a photon
+     */
+    private static final int MAX_BOUNCES = 8;
+    /**
+     * constant for the fraction of the emitted power under which a photon is discarded
+     */
+    private static final double MIN_POWER_FRACTION = 0.001d;
+    /**
+     * constant for the number of nearest photons used to estimate the irradiance
+     */
+    private static final int GATHER_COUNT = 64;
+    /**
+     * constant for the cone filter used in the estimate (1 is the sharpest filter)
+     */
+    private static final double CONE_FILTER = 1.1d;
+    /**
+     * constant for the minimum size of a range of the kd-tree built in its own task
+     */
+    private static final int PARALLEL_BUILD_SIZE = 16384;
+    /**
+     * lookup tables used to decode the packed directions
+     */
+    private static final double[] COS_THETA = new double[256];
+    private static final double[] SIN_THETA = new double[256];
+    private static final double[] COS_PHI = new double[256];
+    private static final double[] SIN_PHI = new double[256];
+
+    static {
+        for (int i = 0; i < 256; i++) {
+            double theta = (i + 0.5d) * Math.PI / 256d;
+            double phi = (i + 0.5d) * 2d * Math.PI / 256d - Math.PI;
+            COS_THETA[i] = Math.cos(theta);
+            SIN_THETA[i] = Math.sin(theta);
+            COS_PHI[i] = Math.cos(phi);
+            SIN_PHI[i] = Math.sin(phi);
+        }
+    }
+
+    private final float[] positions;
+    private final int[] powers;
+    private final short[] directions;
+    private final byte[] axes;
+    private final int count;
+    private final double gatherRadius;
+    private final ThreadLocal<Gather> gathers;
+    private final LongAdder lookups;
+
+    /**
+     * class constructor
+     * @param positions the positions of the photons (3 values per photon) in kd-tree order
+     * @param powers the power of the photons with a shared exponent
+     * @param directions the packed directions of the photons
+     * @param axes the split axis of each node of the kd-tree
+     * @param gatherRadius the maximum distance between a point and the photons used in its estimate
+     * @param statistics the statistics of the render where the lookups are counted
+     */
+    private PhotonMap(float[] positions, int[] powers, short[] directions, byte[] axes, double gatherRadius, RenderStatistics statistics) {
+        this.positions = positions;
+        this.powers = powers;
+        this.directions = directions;
+        this.axes = axes;
+        this.count = powers.length;
+        this.gatherRadius = gatherRadius;
+        this.gathers = ThreadLocal.withInitial(() -> new Gather(GATHER_COUNT));
+        this.lookups = statistics.getCounter("caustic photon lookups");
+    }
+
+    /**
+     * traces the caustic photons of a scene and builds the photon map
+     * the photons of each light are aimed at the bounding sphere of every reflective and refractive object, so none are wasted
+     * in empty directions, and every photon carries the same share of the power that reaches those spheres
+     * @param scene the CompiledScene used to trace the photons
+     * @param photonCount the number of photons emitted
+     * @param gatherRadius the maximum distance between a point and the photons used in its estimate
+     * @param reflectionBias the bias used for the reflected photons
+     * @param refractionBias the bias used for the refracted photons
+     * @param statistics the statistics of the render
+     * @return the photon map (it may be empty)
+     */
+    static PhotonMap build(CompiledScene scene, int photonCount, double gatherRadius, double reflectionBias, double refractionBias, RenderStatistics statistics) {
+        System.out.println(new Date() + " tracing caustic photons...");
+        long startTime = System.nanoTime();
+
+        List<Emitter> emitters = new ArrayList<>();
+        double totalFlux = 0d;
+        for (int lightIndex = 0; lightIndex < scene.getLightCount(); lightIndex++) {
+            Light light = scene.getLight(lightIndex);
+            if (light.getIntensity() <= 0f) continue;
+            for (int id = 0; id < scene.getObjectCount(); id++) {
+                MaterialParameters material = scene.getMaterial(id);
+                IIntersectable object = scene.getObject(id);
+                if (material == null || !(material.isReflective() || material.isRefractive()) || !(object instanceof IBoundable)) continue;
+                BoundingBox box = ((IBoundable) object).getBoundingBox();
+                Vector3D center = Vector3D.scalarMultiplication(Vector3D.add(box.getMin(), box.getMax()), 0.5d);
+                double radius = Vector3D.magnitude(Vector3D.subtract(box.getMax(), box.getMin())) / 2d;
+                Emitter emitter = new Emitter(light, center, radius);
+                if (!(emitter.flux > 0d)) continue;
+                emitters.add(emitter);
+                totalFlux += emitter.flux;
+            }
+        }
+
+        int emitted = 0;
+        int[] firstPhotons = new int[emitters.size()];
+        for (int i = 0; i < emitters.size(); i++) {
+            Emitter emitter = emitters.get(i);
+            firstPhotons[i] = emitted;
+            emitter.photons = (int) Math.round(photonCount * emitter.flux / totalFlux);
+            emitted += emitter.photons;
+        }
+
+        BoundingBox sceneBox = scene.getBoundingBox();
+        double sceneSize = sceneBox.isEmpty() ? 0d : Vector3D.magnitude(Vector3D.subtract(sceneBox.getMax(), sceneBox.getMin()));
+        int totalPhotons = emitted;
+        int tasks = (totalPhotons + PHOTONS_PER_TASK - 1) / PHOTONS_PER_TASK;
+        PhotonBuffer[] buffers = IntStream.range(0, tasks).parallel().mapToObj(task -> {
+            PhotonBuffer buffer = new PhotonBuffer();
+            Random random = new Random(task);
+            int end = Math.min(totalPhotons, (task + 1) * PHOTONS_PER_TASK);
+            for (int photon = task * PHOTONS_PER_TASK; photon < end; photon++) {
+                int emitterIndex = Arrays.binarySearch(firstPhotons, photon);
+                if (emitterIndex < 0) emitterIndex = -emitterIndex - 2;
+                // emitters without photons share their first photon with the next one
+                while (emitterIndex + 1 < firstPhotons.length && firstPhotons[emitterIndex + 1] <= photon) emitterIndex++;
+                Emitter emitter = emitters.get(emitterIndex);
+                emitter.emit(photon - firstPhotons[emitterIndex], sceneSize, random, scene, reflectionBias, refractionBias, buffer);
+            }
+            return buffer;
+        }).toArray(PhotonBuffer[]::new);
+
+        int stored = 0;
+        for (PhotonBuffer buffer : buffers) stored += buffer.count;
+        float[] bufferPositions = new float[stored * 3];
+        float[] bufferPowers = new float[stored * 3];
+        short[] bufferDirections = new short[stored];
+        int offset = 0;
+        for (PhotonBuffer buffer : buffers) {
+            System.arraycopy(buffer.positions, 0, bufferPositions, offset * 3, buffer.count * 3);
+            System.arraycopy(buffer.powers, 0, bufferPowers, offset * 3, buffer.count * 3);
+            System.arraycopy(buffer.directions, 0, bufferDirections, offset, buffer.count);
+            offset += buffer.count;
+        }
+
+        int[] order = new int[stored];
+        for (int i = 0; i < stored; i++) order[i] = i;
+        byte[] axes = new byte[stored];
+        ForkJoinPool.commonPool().invoke(new BuildTask(bufferPositions, order, axes, 0, stored));
+
+        float[] positions = new float[stored * 3];
+        int[] powers = new int[stored];
+        short[] directions = new short[stored];
+        for (int node = 0; node < stored; node++) {
+            int photon = order[node];
+            System.arraycopy(bufferPositions, photon * 3, positions, node * 3, 3);
+            powers[node] = encodePower(bufferPowers[photon * 3], bufferPowers[photon * 3 + 1], bufferPowers[photon * 3 + 2]);
+            directions[node] = bufferDirections[photon];
+        }
+
+        long bytes = (long) stored * (3 * Float.BYTES + Integer.BYTES + Short.BYTES + Byte.BYTES);
+        statistics.put("caustic photon map", stored + " photons stored from " + emitted + " emitted, " + (bytes + 1023) / 1024 + " KB");
+        statistics.putTime("caustic photon map build time", System.nanoTime() - startTime);
+        System.out.println(new Date() + " finished tracing " + stored + " caustic photons");
+        return new PhotonMap(positions, powers, directions, axes, gatherRadius, statistics);
+    }
+
+    /**
+     * traces a photon through the scene, it is stored in every diffuse surface reached after a specular bounce
+     * and it continues through reflective surfaces, refractive objects are crossed until the photon leaves them
+     * @param scene the CompiledScene used to trace the photon
+     * @param origin the origin of the photon
+     * @param direction the direction of the photon
+     * @param power the RGB power of the photon (it is modified)
+     * @param reflectionBias the bias used for the reflected photons
+     * @param refractionBias the bias used for the refracted photons
+     * @param buffer the buffer where the photons are stored
+     */
+    private static void trace(CompiledScene scene, Vector3D origin, Vector3D direction, double[] power, double reflectionBias, double refractionBias, PhotonBuffer buffer) {
+        double minPower = Math.max(power[0], Math.max(power[1], power[2])) * MIN_POWER_FRACTION;
+        boolean specularPath = false;
+        int insideObject = -1;
+        for (int bounce = 0; bounce <= MAX_BOUNCES; bounce++) {
+            Ray ray = new Ray(origin, direction);
+            direction = ray.getDirection();
+            Intersection intersection = insideObject < 0 ? raycast(ray, scene) : exitIntersection(ray, insideObject, scene);
+            if (intersection == null) return;
+            MaterialParameters material = scene.getMaterial(intersection.getObjectId());
+            if (material == null) return;
+            Vector3D position = intersection.getPosition();
+            Vector3D normal = Vector3D.normalize(intersection.getNormal());
+
+            if (material.isRefractive()) {
+                double cosine = Vector3D.dotProduct(normal, direction);
+                boolean entering = cosine < 0d;
+                double refractionIndex = entering ? 1d / material.getRefractionCoefficient() : material.getRefractionCoefficient();
+                Vector3D refractionNormal = entering ? normal : Vector3D.scalarMultiplication(normal, -1d);
+                cosine = Math.min(Math.abs(cosine), 1d);
+                double totalInternalRefraction = 1d - refractionIndex * refractionIndex * (1d - cosine * cosine);
+                if (totalInternalRefraction < 0d) {
+                    direction = reflect(direction, normal);
+                    origin = Vector3D.add(position, Vector3D.scalarMultiplication(direction, refractionBias));
+                    continue;
+                }
+                direction = Vector3D.add(Vector3D.scalarMultiplication(direction, refractionIndex), Vector3D.scalarMultiplication(refractionNormal, refractionIndex * cosine - Math.sqrt(totalInternalRefraction)));
+                origin = Vector3D.add(position, Vector3D.scalarMultiplication(direction, refractionBias));
+                if (entering) {
+                    scale(power, Math.min(material.getRefractionMultiplier(), 1d));
+                    insideObject = intersection.getObjectId();
+                } else {
+                    insideObject = -1;
+                }
+            } else {
+                if (specularPath && material.getDiffuseCoefficient() > 0d) buffer.add(position, direction, power);
+                if (!material.isReflective()) return;
+                scale(power, Math.min(material.getReflectionCoefficient(), 1d));
+                direction = reflect(direction, normal);
+                origin = Vector3D.add(position, Vector3D.scalarMultiplication(direction, reflectionBias));
+            }
+            specularPath = true;
+            if (Math.max(power[0], Math.max(power[1], power[2])) < minPower) return;
+        }
+    }
+
+    /**
+     * finds the closest object hit by a photon
+     * @param ray the Ray of the photon
+     * @param scene the CompiledScene with the objects to be checked
+     * @return the closest Intersection or null if the photon leaves the scene
+     */
+    private static Intersection raycast(Ray ray, CompiledScene scene) {
+        Intersection[] closestIntersection = new Intersection[1];
+        scene.getAccelerationStructure().intersect(ray, new HitRecord(), (objectId, objectRay, hit) -> {
+            Intersection intersection = scene.intersect(objectId, objectRay);
+            if (intersection == null || intersection.getDistance() < 0 || intersection.getDistance() >= hit.getDistance()) return false;
+            hit.setDistance(intersection.getDistance());
+            hit.setObjectIndex(objectId);
+            closestIntersection[0] = intersection;
+            return true;
+        });
+        return closestIntersection[0];
+    }
+
+    /**
+     * finds the point where a photon leaves a refractive object, the other objects are ignored
+     * spheres report the hit behind the origin of a ray that starts inside them, so convex objects are also checked from the other side
+     * @param ray the Ray of the photon (inside the object)
+     * @param objectId the id of the object
+     * @param scene the CompiledScene with the object
+     * @return the Intersection where the photon leaves the object or null if it is not found
+     */
+    static Intersection exitIntersection(Ray ray, int objectId, CompiledScene scene) {
+        Intersection exit = scene.intersect(objectId, ray);
+        if (exit != null && exit.getDistance() > 0d) return exit;
+        IIntersectable object = scene.getObject(objectId);
+        if (!(object instanceof IBoundable)) return null;
+        BoundingBox box = ((IBoundable) object).getBoundingBox();
+        double length = 2d * Vector3D.magnitude(Vector3D.subtract(box.getMax(), box.getMin()));
+        Vector3D farPoint = Vector3D.add(ray.getOrigin(), Vector3D.scalarMultiplication(ray.getDirection(), length));
+        Intersection backIntersection = scene.intersect(objectId, new Ray(farPoint, Vector3D.scalarMultiplication(ray.getDirection(), -1d)));
+        if (backIntersection == null || backIntersection.getDistance() < 0d || backIntersection.getDistance() >= length) return null;
+        backIntersection.setDistance(length - backIntersection.getDistance());
+        return backIntersection;
+    }
+
+    /**
+     * reflects a direction with the normal of a surface
+     * @param direction the direction to reflect
+     * @param normal the normal of the surface
+     * @return the reflected direction
+     */
+    static Vector3D reflect(Vector3D direction, Vector3D normal) {
+        return Vector3D.subtract(direction, Vector3D.scalarMultiplication(normal, 2d * Vector3D.dotProduct(direction, normal)));
+    }
+
+    /**
+     * multiplies the RGB values of a power with a coefficient
+     * @param power the power to multiply
+     * @param coefficient the scalar used in the multiplication
+     */
+    private static void scale(double[] power, double coefficient) {
+        for (int i = 0; i < 3; i++) power[i] *= coefficient;
+    }
+
+    /**
+     * estimates the caustic irradiance of a point of a diffuse surface with the nearest photons, only the photons that
+     * arrive to the front of the surface are used and the closest ones have a larger weight (cone filter)
+     * @param position the position of the point
+     * @param normal the normalized normal of the surface
+     * @param irradiance the array where the RGB irradiance is stored
+     * @return true if any photon was found
+     */
+    boolean getIrradiance(Vector3D position, Vector3D normal, double[] irradiance) {
+        irradiance[0] = irradiance[1] = irradiance[2] = 0d;
+        if (count == 0) return false;
+        lookups.increment();
+        Gather gather = gathers.get();
+        gather.reset(gatherRadius * gatherRadius);
+        locate(0, count, position.getX(), position.getY(), position.getZ(), gather);
+        if (gather.count == 0) return false;
+
+        double radius = Math.sqrt(gather.maxDistance);
+        boolean found = false;
+        for (int i = 0; i < gather.count; i++) {
+            int node = gather.photons[i];
+            int direction = directions[node];
+            int theta = (direction >>> 8) & 0xFF;
+            int phi = direction & 0xFF;
+            double dot = SIN_THETA[theta] * COS_PHI[phi] * normal.getX() + SIN_THETA[theta] * SIN_PHI[phi] * normal.getY() + COS_THETA[theta] * normal.getZ();
+            if (dot >= 0d) continue;
+            double weight = 1d - Math.sqrt(gather.distances[i]) / (CONE_FILTER * radius);
+            int power = powers[node];
+            double exponentScale = Math.scalb(1d, (power & 0xFF) - 136);
+            irradiance[0] += weight * (((power >>> 24) & 0xFF) + 0.5d) * exponentScale;
+            irradiance[1] += weight * (((power >>> 16) & 0xFF) + 0.5d) * exponentScale;
+            irradiance[2] += weight * (((power >>> 8) & 0xFF) + 0.5d) * exponentScale;
+            found = true;
+        }
+        double area = (1d - 2d / (3d * CONE_FILTER)) * Math.PI * gather.maxDistance;
+        for (int i = 0; i < 3; i++) irradiance[i] /= area;
+        return found;
+    }
+
+    /**
+     * searches the nearest photons of a point in a range of the kd-tree, the side of the median that contains the point is searched first
+     * @param start the first node of the range
+     * @param end the end of the range (exclusive)
+     * @param x the x coordinate of the point
+     * @param y the y coordinate of the point
+     * @param z the z coordinate of the point
+     * @param gather the nearest photons found
+     */
+    private void locate(int start, int end, double x, double y, double z, Gather gather) {
+        if (start >= end) return;
+        int median = (start + end) >>> 1;
+        int axis = axes[median];
+        double dx = x - positions[median * 3];
+        double dy = y - positions[median * 3 + 1];
+        double dz = z - positions[median * 3 + 2];
+        double delta = axis == 0 ? dx : axis == 1 ? dy : dz;
+        if (delta < 0d) locate(start, median, x, y, z, gather);
+        else locate(median + 1, end, x, y, z, gather);
+
+        double distance = dx * dx + dy * dy + dz * dz;
+        if (distance < gather.maxDistance) gather.add(median, distance);
+
+        if (delta * delta < gather.maxDistance) {
+            if (delta < 0d) locate(median + 1, end, x, y, z, gather);
+            else locate(start, median, x, y, z, gather);
+        }
+    }
+
+    /**
+     * packs a RGB power in an integer, each component uses 8 bits and they share an 8 bit exponent
+     * @param red the red power
+     * @param green the green power
+     * @param blue the blue power
+     * @return the packed power
+     */
+    private static int encodePower(double red, double green, double blue) {
+        double max = Math.max(red, Math.max(green, blue));
+        if (!(max > 1e-30d)) return 0;
+        int exponent = Math.getExponent(max) + 1;
+        double scale = Math.scalb(256d, -exponent);
+        return ((int) (red * scale) << 24) | ((int) (green * scale) << 16) | ((int) (blue * scale) << 8) | (exponent + 128);
+    }
+
+    /**
+     * packs a normalized direction in 16 bits, 8 bits for the polar angle and 8 bits for the azimuth
+     * @param direction the direction to pack
+     * @return the packed direction
+     */
+    private static short encodeDirection(Vector3D direction) {
+        int theta = Math.min(255, (int) (Math.acos(Math.max(-1d, Math.min(1d, direction.getZ()))) * 256d / Math.PI));
+        int phi = Math.min(255, (int) ((Math.atan2(direction.getY(), direction.getX()) + Math.PI) * 256d / (2d * Math.PI)));
+        return (short) ((theta << 8) | phi);
+    }
+
+    /**
+     * class getter
+     * @return the number of photons stored
+     */
+    int getPhotonCount() {
+        return count;
+    }
+
+    /**
+     * Photons emitted by a light towards the bounding sphere of a specular object
+     */
+    private static final class Emitter {
+        private final Light light;
+        private final Vector3D center;
+        private final double radius;
+        private final double flux;
+        private int photons;
+
+        /**
+         * class constructor, calculates the power of the light that reaches the sphere
+         * @param light the light that emits the photons
+         * @param center the center of the bounding sphere of the object
+         * @param radius the radius of the bounding sphere of the object
+         */
+        private Emitter(Light light, Vector3D center, double radius) {
+            this.light = light;
+            this.center = center;
+            this.radius = radius;
+            if (light instanceof DirectionalLight) {
+                this.flux = light.getIntensity() * Math.PI * radius * radius;
+            } else {
+                this.flux = light.getIntensity() * solidAngle(Vector3D.magnitude(Vector3D.subtract(center, light.getPosition())));
+            }
+        }
+
+        /**
+         * calculates the solid angle of the bounding sphere seen from a point
+         * @param distance the distance between the point and the center of the sphere
+         * @return the solid angle (4 pi if the point is inside the sphere)
+         */
+        private double solidAngle(double distance) {
+            if (distance <= radius) return 4d * Math.PI;
+            return 2d * Math.PI * (1d - Math.sqrt(1d - radius * radius / (distance * distance)));
+        }
+
+        /**
+         * emits and traces a photon, directional lights use a disk in front of the sphere and the other lights use the cone
+         * that contains the sphere (area lights emit from a stratified point of their surface)
+         * @param photon the index of the photon in this emitter
+         * @param sceneSize the size of the scene, used to move the photons of directional lights outside of it
+         * @param random the random number generator
+         * @param scene the CompiledScene used to trace the photon
+         * @param reflectionBias the bias used for the reflected photons
+         * @param refractionBias the bias used for the refracted photons
+         * @param buffer the buffer where the photons are stored
+         */
+        private void emit(int photon, double sceneSize, Random random, CompiledScene scene, double reflectionBias, double refractionBias, PhotonBuffer buffer) {
+            Vector3D origin;
+            Vector3D direction;
+            double photonFlux;
+            if (light instanceof DirectionalLight) {
+                direction = Vector3D.normalize(((DirectionalLight) light).getDirection());
+                Vector3D[] basis = basis(direction);
+                double diskRadius = radius * Math.sqrt(random.nextDouble());
+                double angle = 2d * Math.PI * random.nextDouble();
+                Vector3D diskPoint = Vector3D.add(Vector3D.scalarMultiplication(basis[0], diskRadius * Math.cos(angle)), Vector3D.scalarMultiplication(basis[1], diskRadius * Math.sin(angle)));
+                origin = Vector3D.add(Vector3D.add(center, diskPoint), Vector3D.scalarMultiplication(direction, -(radius + sceneSize)));
+                photonFlux = flux / photons;
+            } else {
+                int samples = light.getShadowSamples();
+                origin = light.getSamplePosition(photon % samples, samples, random);
+                Vector3D toCenter = Vector3D.subtract(center, origin);
+                double distance = Vector3D.magnitude(toCenter);
+                double cosMax = distance <= radius ? -1d : Math.sqrt(1d - radius * radius / (distance * distance));
+                double cosTheta = 1d - random.nextDouble() * (1d - cosMax);
+                double sinTheta = Math.sqrt(Math.max(0d, 1d - cosTheta * cosTheta));
+                double angle = 2d * Math.PI * random.nextDouble();
+                Vector3D axis = distance > 0d ? Vector3D.scalarMultiplication(toCenter, 1d / distance) : new Vector3D(0d, 0d, 1d);
+                Vector3D[] basis = basis(axis);
+                direction = Vector3D.add(Vector3D.scalarMultiplication(axis, cosTheta), Vector3D.add(Vector3D.scalarMultiplication(basis[0], sinTheta * Math.cos(angle)), Vector3D.scalarMultiplication(basis[1], sinTheta * Math.sin(angle))));
+                photonFlux = light.getIntensity() * solidAngle(distance) / photons;
+            }
+            Color color = light.getColor();
+            double[] power = new double[]{photonFlux * color.getRed() / 255d, photonFlux * color.getGreen() / 255d, photonFlux * color.getBlue() / 255d};
+            trace(scene, origin, direction, power, reflectionBias, refractionBias, buffer);
+        }
+
+        /**
+         * creates two vectors perpendicular to a direction and to each other
+         * @param direction the normalized direction
+         * @return the two perpendicular normalized vectors
+         */
+        private static Vector3D[] basis(Vector3D direction) {
+            Vector3D helper = Math.abs(direction.getX()) > 0.9d ? new Vector3D(0d, 1d, 0d) : new Vector3D(1d, 0d, 0d);
+            Vector3D tangent = Vector3D.normalize(Vector3D.crossProduct(helper, direction));
+            return new Vector3D[]{tangent, Vector3D.crossProduct(direction, tangent)};
+        }
+    }
+
+    /**
+     * Growable arrays with the photons stored by a task before the kd-tree is built
+     */
+    private static final class PhotonBuffer {
+        private float[] positions = new float[3 * 256];
+        private float[] powers = new float[3 * 256];
+        private short[] directions = new short[256];
+        private int count;
+
+        /**
+         * stores a photon
+         * @param position the position of the photon
+         * @param direction the normalized direction of the photon
+         * @param power the RGB power of the photon
+         */
+        private void add(Vector3D position, Vector3D direction, double[] power) {
+            if (count == directions.length) {
+                positions = Arrays.copyOf(positions, positions.length * 2);
+                powers = Arrays.copyOf(powers, powers.length * 2);
+                directions = Arrays.copyOf(directions, directions.length * 2);
+            }
+            positions[count * 3] = (float) position.getX();
+            positions[count * 3 + 1] = (float) position.getY();
+            positions[count * 3 + 2] = (float) position.getZ();
+            for (int i = 0; i < 3; i++) powers[count * 3 + i] = (float) power[i];
+            directions[count] = encodeDirection(direction);
+            count++;
+        }
+    }
+
+    /**
+     * Task that places the median photon of a range (on the axis with the largest extent) in the middle of the range,
+     * the smaller photons before it and the larger ones after it, then builds both halves (in parallel for large ranges)
+     */
+    private static final class BuildTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final float[] positions;
+        private final int[] order;
+        private final byte[] axes;
+        private final int start;
+        private final int end;
+
+        /**
+         * class constructor
+         * @param positions the positions of the photons
+         * @param order the photons in kd-tree order (it is modified)
+         * @param axes the split axis of each node (it is modified)
+         * @param start the first node of the range
+         * @param end the end of the range (exclusive)
+         */
+        private BuildTask(float[] positions, int[] order, byte[] axes, int start, int end) {
+            this.positions = positions;
+            this.order = order;
+            this.axes = axes;
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        protected void compute() {
+            build(start, end);
+        }
+
+        /**
+         * builds the kd-tree of a range
+         * @param start the first node of the range
+         * @param end the end of the range (exclusive)
+         */
+        private void build(int start, int end) {
+            if (end - start <= 0) return;
+            float[] min = {Float.POSITIVE_INFINITY, Float.POSITIVE_INFINITY, Float.POSITIVE_INFINITY};
+            float[] max = {Float.NEGATIVE_INFINITY, Float.NEGATIVE_INFINITY, Float.NEGATIVE_INFINITY};
+            for (int node = start; node < end; node++) {
+                for (int axis = 0; axis < 3; axis++) {
+                    float value = positions[order[node] * 3 + axis];
+                    min[axis] = Math.min(min[axis], value);
+                    max[axis] = Math.max(max[axis], value);
+                }
+            }
+            int axis = 0;
+            for (int i = 1; i < 3; i++) if (max[i] - min[i] > max[axis] - min[axis]) axis = i;
+
+            int median = (start + end) >>> 1;
+            select(start, end - 1, median, axis);
+            axes[median] = (byte) axis;
+            if (end - start > PARALLEL_BUILD_SIZE) {
+                invokeAll(new BuildTask(positions, order, axes, start, median), new BuildTask(positions, order, axes, median + 1, end));
+            } else {
+                build(start, median);
+                build(median + 1, end);
+            }
+        }
+
+        /**
+         * partially sorts a range so the photon in the given node is the one a full sort would place there (quickselect)
+         * @param low the first node of the range
+         * @param high the last node of the range (inclusive)
+         * @param target the node to place
+         * @param axis the axis used to compare the photons
+         */
+        private void select(int low, int high, int target, int axis) {
+            while (high > low) {
+                float pivot = positions[order[(low + high) >>> 1] * 3 + axis];
+                int i = low;
+                int j = high;
+                while (i <= j) {
+                    while (positions[order[i] * 3 + axis] < pivot) i++;
+                    while (positions[order[j] * 3 + axis] > pivot) j--;
+                    if (i <= j) {
+                        int swap = order[i];
+                        order[i++] = order[j];
+                        order[j--] = swap;
+                    }
+                }
+                if (target <= j) high = j;
+                else if (target >= i) low = i;
+                else return;
+            }
+        }
+    }
+
+    /**
+     * Nearest photons of a query, kept in a max heap so the farthest one is replaced first, each render thread reuses its own
+     */
+    private static final class Gather {
+        private final int[] photons;
+        private final double[] distances;
+        private int count;
+        private double maxDistance;
+
+        /**
+         * class constructor
+         * @param capacity the maximum number of photons
+         */
+        private Gather(int capacity) {
+            this.photons = new int[capacity];
+            this.distances = new double[capacity];
+        }
+
+        /**
+         * removes every photon
+         * @param maxDistance the maximum squared distance of the photons
+         */
+        private void reset(double maxDistance) {
+            this.count = 0;
+            this.maxDistance = maxDistance;
+        }
+
+        /**
+         * adds a photon closer than the maximum distance, when the heap is full the farthest photon is replaced
+         * and the maximum distance shrinks to the new farthest one
+         * @param photon the node of the photon
+         * @param distance the squared distance to the photon
+         */
+        private void add(int photon, double distance) {
+            if (count < photons.length) {
+                int child = count++;
+                while (child > 0) {
+                    int parent = (child - 1) / 2;
+                    if (distances[parent] >= distance) break;
+                    photons[child] = photons[parent];
+                    distances[child] = distances[parent];
+                    child = parent;
+                }
+                photons[child] = photon;
+                distances[child] = distance;
+                if (count == photons.length) maxDistance = distances[0];
+                return;
+            }
+            int parent = 0;
+            while (true) {
+                int child = parent * 2 + 1;
+                if (child >= count) break;
+                if (child + 1 < count && distances[child + 1] > distances[child]) child++;
+                if (distances[child] <= distance) break;
+                photons[parent] = photons[child];
+                distances[parent] = distances[child];
+                parent = child;
+            }
+            photons[parent] = photon;
+            distances[parent] = distance;
+            maxDistance = distances[0];
+        }
+    }
+
+}
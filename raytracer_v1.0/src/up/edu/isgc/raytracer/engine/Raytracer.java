@@ -10,38 +10,103 @@ import up.edu.isgc.raytracer.materials.*;
 import up.edu.isgc.raytracer.objects.*;
 import up.edu.isgc.raytracer.objects.utility.*;
 import up.edu.isgc.raytracer.tools.*;
+import up.edu.isgc.raytracer.tools.acceleration.AccelerationStructureType;
+import up.edu.isgc.raytracer.tools.acceleration.BVHBuildQuality;
+import up.edu.isgc.raytracer.tools.acceleration.IAccelerationStructure;
+import up.edu.isgc.raytracer.tools.sampling.ISampler;
+import up.edu.isgc.raytracer.tools.sampling.SamplerType;
+import up.edu.isgc.raytracer.tools.utility.ContentHash;
 
-import javax.imageio.ImageIO;
 import java.awt.Color;
 import java.awt.image.BufferedImage;
-import java.io.File;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Date;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
 
 /**
  * Renders a image with a given scene, camera and configuration
  * Shows a progress log in the console
  * Uses multi threading for better performance and lower render times
+ * The configuration is serializable, so the render coordinator can send it to the render workers
  *
  * @author Homar Cano, Jafet Rodríguez
  */
-public class Raytracer {
+public class Raytracer implements Serializable {
+    private static final long serialVersionUID = 1L;
+
     /**
      * constant for a initial bias value (used for shadows, reflection and refraction)
      */
     private static final double DEFAULT_BIAS = 0.000001d;
+    /**
+     * constant for a initial distance between the points of the baked lighting
+     */
+    private static final double DEFAULT_BAKE_TEXEL_SIZE = 0.05d;
+    /**
+     * constant for the passes rendered before the noise target of the progressive render is checked
+     */
+    private static final int MIN_PROGRESSIVE_PASSES = 4;
+    /**
+     * constant for the bounces of a path before it can be terminated by russian roulette
+     */
+    private static final int MIN_ROULETTE_BOUNCES = 3;
+    /**
+     * constant for the highest probability of a path to survive the russian roulette
+     */
+    private static final double MAX_ROULETTE_SURVIVAL = 0.95d;
+    /**
+     * constant for the time in ms between two checks of the progress of a render
+     */
+    private static final int PROGRESS_INTERVAL = 50;
 
     private int nThreads;
     private int timeout;
     private float lightFalloffExponent;
     private boolean useClippingPlanes;
+    private boolean useFrustumCulling;
+    private boolean useHybridVisibility;
+    private double lightContributionThreshold;
+    private int maxLightsPerHit;
+    private boolean useBakedLighting;
+    private boolean useIrradianceCache;
+    private int irradianceSamples;
+    private double irradianceCacheAccuracy;
+    private boolean useCausticPhotonMap;
+    private int causticPhotons;
+    private double causticGatherRadius;
+    private int samplesPerPixel;
+    private boolean useDenoiser;
+    private int denoiserIterations;
+    private int timeBudget;
+    private double noiseTarget;
+    private int progressiveSaveInterval;
+    private int checkpointInterval;
+    private long renderCacheSize;
+    private int maxPathDepth;
+    private SamplerType samplerType;
+    private int samplerSeed;
+    private int tileSize;
+    private double bakeTexelSize;
     private double shadowBias;
     private double reflectionBias;
     private double refractionBias;
+    private BVHBuildQuality bvhBuildQuality;
+    private AccelerationStructureType accelerationStructureType;
+    private transient ImageEncoder imageEncoder;
 
     /**
      * class constructor
@@ -55,28 +120,75 @@ public class Raytracer {
         setTimeout(timeout);
         setLightFalloffExponent(lightFalloffExponent);
         setUseClippingPlanes(useClippingPlanes);
+        setUseFrustumCulling(true);
+        setUseHybridVisibility(false);
+        setLightContributionThreshold(0d);
+        setMaxLightsPerHit(0);
+        setUseBakedLighting(false);
+        setBakeTexelSize(DEFAULT_BAKE_TEXEL_SIZE);
+        setUseIrradianceCache(false);
+        setIrradianceSamples(64);
+        setIrradianceCacheAccuracy(0.3d);
+        setUseCausticPhotonMap(false);
+        setCausticPhotons(200000);
+        setCausticGatherRadius(0.1d);
+        setSamplesPerPixel(1);
+        setUseDenoiser(false);
+        setDenoiserIterations(5);
+        setTimeBudget(60000);
+        setNoiseTarget(0d);
+        setProgressiveSaveInterval(0);
+        setCheckpointInterval(0);
+        setRenderCacheSize(0L);
+        setMaxPathDepth(5);
+        setSamplerType(SamplerType.SOBOL);
+        setSamplerSeed(0);
+        setTileSize(32);
         setShadowBias(DEFAULT_BIAS);
         setReflectionBias(DEFAULT_BIAS);
         setRefractionBias(DEFAULT_BIAS);
+        setBVHBuildQuality(BVHBuildQuality.OPTIMIZED);
+        setAccelerationStructureType(AccelerationStructureType.BVH);
     }
 
     /**
      * saves a BufferedImage into a file with a given name and extension
-     * the file will be saved in the images/ folder
-     * @param image the BufferedImage to save
+     * the file will be saved in the images/ folder in the background, while the next scene is rendered
+     * @param image the BufferedImage to save, it must not change after it is saved
      * @param name the name of the file
      * @param extension the extension of the file
      */
     public void saveImage(BufferedImage image, String name, String extension) {
         if(image == null) return;
-        File outputFile = new File("images/" + name + "." + extension);
-        try {
-            ImageIO.write(image, extension, outputFile);
-            System.out.println(new Date() + " finished saving the image '" + name + "." + extension + "'");
-        } catch (IOException ioe) {
-            System.out.println(new Date() + " !! an error occurred saving the image '" + name + "." + extension + "' !!");
-            ioe.printStackTrace();
-        }
+        getImageEncoder().save(image, name, extension);
+    }
+
+    /**
+     * saves a FrameBuffer into a file with a given name and extension, the pfm and exr extensions keep the float colors
+     * the file will be saved in the images/ folder in the background, while the next scene is rendered
+     * @param frameBuffer the FrameBuffer to save, it must not change after it is saved
+     * @param name the name of the file
+     * @param extension the extension of the file
+     */
+    public void saveImage(FrameBuffer frameBuffer, String name, String extension) {
+        if(frameBuffer == null) return;
+        getImageEncoder().save(frameBuffer, name, extension);
+    }
+
+    /**
+     * waits until every image saved by this raytracer is written
+     */
+    public void awaitSavedImages() {
+        getImageEncoder().await();
+    }
+
+    /**
+     * class getter, the encoder is created the first time it is used (it is not copied with the configuration)
+     * @return the encoder that saves the images of this raytracer
+     */
+    private synchronized ImageEncoder getImageEncoder() {
+        if (imageEncoder == null) imageEncoder = new ImageEncoder(getNumberOfThreads());
+        return imageEncoder;
     }
 
     /**
@@ -85,25 +197,57 @@ public class Raytracer {
      * @param scene the Scene to render (using the ray tracing algorithm)
      */
     public void raytraceScene(Scene scene) {
-        if (scene == null) {
-            System.out.println(new Date() + "!! there is no scene to raytrace !!");
-            return;
-        }
-        Camera mainCamera = scene.getCamera();
-        if(mainCamera == null) {
-            System.out.println(new Date() + "!! there is no camera for the scene !!");
-            return;
+        RenderStatistics statistics = new RenderStatistics();
+        FrameBuffer frameBuffer = renderScene(scene, statistics);
+        if (frameBuffer == null) return;
+        statistics.print(scene.getName());
+        saveImage(frameBuffer, scene.getName(), scene.getExtension());
+    }
+
+    /**
+     * renders a scene into a frame buffer, each pixel is the average of the samples per pixel (jittered inside the pixel
+     * when there is more than one) and the frame buffer is denoised at the end if the denoiser is used
+     * with a checkpoint interval the scene is rendered by tiles that are saved in a checkpoint, so a render of the same
+     * scene stopped before it finished is resumed
+     * with a render cache a scene with the same content is read from the cache without compiling it, otherwise the scene is
+     * rendered by tiles and the tiles of the last render of the same view that the changes can not reach are reused
+     * shows a progress log in the console
+     * @param scene the Scene to render (using the ray tracing algorithm)
+     * @param statistics the statistics of the render
+     * @return the frame buffer rendered or null if the scene can not be rendered or the render exceeds the timeout
+     */
+    public FrameBuffer renderScene(Scene scene, RenderStatistics statistics) {
+        if (!isRenderable(scene)) return null;
+        RenderCache cache = getRenderCacheSize() > 0 ? RenderCache.open(scene, this) : null;
+        if (cache != null) {
+            long startTime = System.nanoTime();
+            FrameBuffer cached = cache.load();
+            if (cached != null) {
+                statistics.setProgress(100);
+                statistics.putTime("cache load time", System.nanoTime() - startTime);
+                statistics.put("samples per pixel", String.valueOf(getSamplesPerPixel()));
+                statistics.put("reused tiles", "all");
+                cache.addStatistics(statistics);
+                return finishRender(cached, scene.getName(), statistics);
+            }
         }
+        CompiledScene compiledScene = compileScene(scene, statistics);
+        RenderCheckpoint checkpoint = getCheckpointInterval() > 0 ? RenderCheckpoint.open(scene, this, false) : null;
+        if (checkpoint != null || cache != null) return renderTiles(compiledScene, checkpoint, cache, statistics);
+        Camera mainCamera = compiledScene.getCamera();
 
-        BufferedImage image = new BufferedImage(mainCamera.getResolutionWidth(), mainCamera.getResolutionHeight(), BufferedImage.TYPE_INT_RGB);
+        SampleAccumulator accumulator = new SampleAccumulator(mainCamera.getResolutionWidth(), mainCamera.getResolutionHeight());
         ThreadPoolExecutor threadPool = new ThreadPoolExecutor(getNumberOfThreads(), getNumberOfThreads(), 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>());
         Vector3D[][] screenPositions = mainCamera.calculateScreenPositions();
-        String sceneName = scene.getName();
+        double[] screenLimits = mainCamera.calculateScreenLimits();
+        double pixelWidth = (screenLimits[1] - screenLimits[0]) / mainCamera.getResolutionWidth();
+        double pixelHeight = (screenLimits[3] - screenLimits[2]) / mainCamera.getResolutionHeight();
+        String sceneName = compiledScene.getName();
 
         System.out.println(new Date() + " assigning tasks to thread pool...");
         for (int x = 0; x < screenPositions.length; x++) {
             for (int y = 0; y < screenPositions[x].length; y++) {
-                threadPool.execute(getPixelColor(x, y, screenPositions, mainCamera, scene.getObjects(), scene.getLights(), image));
+                threadPool.execute(getPixelColor(x, y, screenPositions, pixelWidth, pixelHeight, compiledScene, accumulator));
             }
         }
         threadPool.shutdown();
@@ -111,147 +255,1069 @@ public class Raytracer {
         long startDateTime = new Date().getTime();
         int percentage = 0;
         while (percentage < 100) {
+            try {
+                threadPool.awaitTermination(PROGRESS_INTERVAL, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
             int newPercentage = Math.round((float) threadPool.getCompletedTaskCount() / threadPool.getTaskCount() * 100f);
             if (percentage < newPercentage) {
                 System.out.println(new Date() + " raytracing the scene '" + sceneName + "': " + percentage + "%");
                 percentage = newPercentage;
+                statistics.setProgress(percentage);
             }
 
             if (new Date().getTime() - startDateTime > getTimeout()) {
                 System.out.println("!! Execution Timeout - The raytracing of '" + sceneName + "' exceeded the time limit !!");
                 System.out.println(new Date() + " attempting to interrupt all threads");
+                threadPool.shutdownNow();
+                try {
+                    threadPool.awaitTermination(30, TimeUnit.SECONDS);
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+                return null;
+            }
+        }
+
+        try {
+            threadPool.awaitTermination(getTimeout(), TimeUnit.MILLISECONDS);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        System.out.println(new Date() + " raytracing the scene '" + sceneName + "': 100%");
+        statistics.putTime("trace time", (new Date().getTime() - startDateTime) * 1000000L);
+        statistics.put("samples per pixel", String.valueOf(getSamplesPerPixel()));
+        return finishRender(accumulator.toFrameBuffer(), sceneName, statistics);
+    }
+
+    /**
+     * renders the tiles of a scene that are not in its checkpoint or in the render cache into a frame buffer, each finished
+     * tile is handed to the checkpoint and the checkpoint is written in the background every checkpoint interval
+     * with a render cache the dependencies of every tile are recorded and the frame buffer is saved in the cache at the end
+     * each pixel is rendered exactly like renderScene() does it without checkpoints, so a resumed render is the same image
+     * shows a progress log in the console
+     * @param compiledScene the CompiledScene to render
+     * @param checkpoint the checkpoint of the render or null if the render has no checkpoints
+     * @param cache the render cache or null if the render is not cached
+     * @param statistics the statistics of the render
+     * @return the frame buffer rendered or null if the render exceeds the timeout or it is interrupted (its checkpoint is kept)
+     */
+    private FrameBuffer renderTiles(CompiledScene compiledScene, RenderCheckpoint checkpoint, RenderCache cache, RenderStatistics statistics) {
+        Camera mainCamera = compiledScene.getCamera();
+        List<Tile> tiles = Tile.split(mainCamera.getResolutionWidth(), mainCamera.getResolutionHeight(), getTileSize());
+        FrameBuffer frameBuffer = new FrameBuffer(mainCamera.getResolutionWidth(), mainCamera.getResolutionHeight());
+        boolean[] finished = checkpoint == null ? new boolean[tiles.size()] : checkpoint.resumeTiles(tiles, frameBuffer);
+        TileDependencies[] dependencies = cache == null ? null : new TileDependencies[tiles.size()];
+        int cachedTiles = cache == null ? 0 : cache.reuseTiles(compiledScene, tiles, frameBuffer, finished, dependencies);
+        int resumedTiles = 0;
+        for (boolean tileFinished : finished) {
+            if (tileFinished) resumedTiles++;
+        }
+
+        if (!traceTiles(compiledScene, tiles, frameBuffer, finished, dependencies, checkpoint, statistics)) return null;
+        if (checkpoint != null) {
+            statistics.put("resumed tiles", (resumedTiles - cachedTiles) + " of " + tiles.size());
+            checkpoint.addStatistics(statistics);
+        }
+        if (cache != null) {
+            long storeStartTime = System.nanoTime();
+            cache.store(frameBuffer, dependencies);
+            statistics.putTime("cache store time", System.nanoTime() - storeStartTime);
+            statistics.put("reused tiles", cachedTiles + " of " + tiles.size());
+            cache.addStatistics(statistics);
+        }
+        return finishRender(frameBuffer, compiledScene.getName(), statistics);
+    }
+
+    /**
+     * traces the tiles of a scene that are not finished into a frame buffer with the thread pool, each finished tile is handed
+     * to the checkpoint and the checkpoint is written in the background every checkpoint interval
+     * shows a progress log in the console
+     * @param compiledScene the CompiledScene to render
+     * @param tiles the tiles of the image
+     * @param frameBuffer the frame buffer where the tiles are written
+     * @param finished the finished flag of every tile, the finished tiles are not traced
+     * @param dependencies the array where the dependencies of every traced tile are recorded or null to not record them
+     * @param checkpoint the checkpoint of the render or null if the render has no checkpoints
+     * @param statistics the statistics of the render
+     * @return false if the render exceeds the timeout or it is interrupted (its checkpoint is kept)
+     */
+    boolean traceTiles(CompiledScene compiledScene, List<Tile> tiles, FrameBuffer frameBuffer, boolean[] finished, TileDependencies[] dependencies,
+                       RenderCheckpoint checkpoint, RenderStatistics statistics) {
+        Vector3D[][] screenPositions = compiledScene.getCamera().calculateScreenPositions();
+        return traceTiles(compiledScene, tiles, frameBuffer, finished, tile -> {
+            if (dependencies == null) return renderTile(compiledScene, screenPositions, tile);
+            TileDependencies tileDependencies = new TileDependencies();
+            FrameBuffer block = renderTile(compiledScene, screenPositions, tile, tileDependencies);
+            dependencies[tile.getIndex()] = tileDependencies;
+            return block;
+        }, checkpoint, statistics);
+    }
+
+    /**
+     * traces the tiles of a scene that are not finished into a frame buffer with the thread pool and a given tile renderer
+     * each finished tile is handed to the checkpoint and the checkpoint is written in the background every checkpoint interval
+     * shows a progress log in the console
+     * @param compiledScene the CompiledScene to render
+     * @param tiles the tiles of the image
+     * @param frameBuffer the frame buffer where the tiles are written
+     * @param finished the finished flag of every tile, the finished tiles are not traced
+     * @param tileRenderer the function that renders a tile into a frame buffer with the size of the tile, it is called by the render threads
+     * @param checkpoint the checkpoint of the render or null if the render has no checkpoints
+     * @param statistics the statistics of the render
+     * @return false if the render exceeds the timeout or it is interrupted (its checkpoint is kept)
+     */
+    boolean traceTiles(CompiledScene compiledScene, List<Tile> tiles, FrameBuffer frameBuffer, boolean[] finished, Function<Tile, FrameBuffer> tileRenderer,
+                       RenderCheckpoint checkpoint, RenderStatistics statistics) {
+        String sceneName = compiledScene.getName();
+        ThreadPoolExecutor threadPool = new ThreadPoolExecutor(getNumberOfThreads(), getNumberOfThreads(), 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>());
+        long startTime = System.nanoTime();
+        int resumedTiles = 0;
+        for (Tile tile : tiles) {
+            if (finished[tile.getIndex()]) {
+                resumedTiles++;
+                continue;
+            }
+            threadPool.execute(() -> {
+                FrameBuffer block = tileRenderer.apply(tile);
+                frameBuffer.setTile(tile, block);
+                if (checkpoint != null) checkpoint.addTile(tile, block);
+            });
+        }
+        threadPool.shutdown();
+
+        int percentage = 0;
+        while (!threadPool.isTerminated()) {
+            boolean interrupted = false;
+            try {
+                threadPool.awaitTermination(PROGRESS_INTERVAL, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                interrupted = true;
+            }
+            if (checkpoint != null) checkpoint.saveTilesIfDue();
+            int newPercentage = Math.round((float) (resumedTiles + threadPool.getCompletedTaskCount()) / tiles.size() * 100f);
+            if (percentage < newPercentage) {
+                System.out.println(new Date() + " raytracing the scene '" + sceneName + "': " + percentage + "%");
+                percentage = newPercentage;
+                statistics.setProgress(percentage);
+            }
+
+            boolean timedOut = System.nanoTime() - startTime > getTimeout() * 1000000L;
+            if (timedOut || interrupted) {
+                System.out.println(timedOut ? "!! Execution Timeout - The raytracing of '" + sceneName + "' exceeded the time limit !!"
+                        : new Date() + " !! the raytracing of '" + sceneName + "' was interrupted !!");
+                threadPool.shutdownNow();
                 try {
-                    if (!threadPool.awaitTermination(30, TimeUnit.SECONDS)) threadPool.shutdownNow();
+                    threadPool.awaitTermination(30, TimeUnit.SECONDS);
                 } catch (InterruptedException ex) {
-                    threadPool.shutdownNow();
                     Thread.currentThread().interrupt();
                 }
-                System.exit(-1);
+                if (checkpoint != null) checkpoint.close();
+                return false;
             }
         }
+        if (checkpoint != null) checkpoint.delete();
+        System.out.println(new Date() + " raytracing the scene '" + sceneName + "': 100%");
+        statistics.setProgress(100);
+        statistics.putTime("trace time", System.nanoTime() - startTime);
+        statistics.put("samples per pixel", String.valueOf(getSamplesPerPixel()));
+        return true;
+    }
+
+    /**
+     * renders a scene with the progressive path tracer and saves it with its name and extension
+     * shows a progress log in the console
+     * @param scene the Scene to render (using the path tracing algorithm)
+     */
+    public void pathTraceScene(Scene scene) {
+        RenderStatistics statistics = new RenderStatistics();
+        FrameBuffer frameBuffer = renderProgressive(scene, statistics);
+        if (frameBuffer == null) return;
+        statistics.print(scene.getName());
+        saveImage(frameBuffer, scene.getName(), scene.getExtension());
+    }
+
+    /**
+     * renders a scene into a frame buffer with the progressive path tracer, every pass adds one jittered sample to each pixel
+     * (the rows of the image are traced in parallel) and the samples of all the passes are averaged
+     * the render stops after the pass that reaches the noise target (the average relative error of the pixels) or when
+     * the next pass would exceed the time budget, the best image so far is saved every save interval
+     * with a checkpoint interval the samples are saved in a checkpoint between the passes, so a render of the same scene
+     * stopped before it finished is resumed with its passes and time
+     * the frame buffer is denoised at the end if the denoiser is used
+     * shows a progress log in the console
+     * @param scene the Scene to render (using the path tracing algorithm)
+     * @param statistics the statistics of the render
+     * @return the frame buffer rendered or null if the scene can not be rendered
+     */
+    public FrameBuffer renderProgressive(Scene scene, RenderStatistics statistics) {
+        if (!isRenderable(scene)) return null;
+        CompiledScene compiledScene = compileScene(scene, statistics);
+        Camera mainCamera = compiledScene.getCamera();
+
+        RenderCheckpoint checkpoint = getCheckpointInterval() > 0 ? RenderCheckpoint.open(scene, this, true) : null;
+        SampleAccumulator resumedSamples = checkpoint != null ? checkpoint.resumeSamples() : null;
+        SampleAccumulator accumulator = resumedSamples != null ? resumedSamples : new SampleAccumulator(mainCamera.getResolutionWidth(), mainCamera.getResolutionHeight());
+        ThreadPoolExecutor threadPool = new ThreadPoolExecutor(getNumberOfThreads(), getNumberOfThreads(), 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>());
+        Vector3D[][] screenPositions = mainCamera.calculateScreenPositions();
+        double[] screenLimits = mainCamera.calculateScreenLimits();
+        double pixelWidth = (screenLimits[1] - screenLimits[0]) / mainCamera.getResolutionWidth();
+        double pixelHeight = (screenLimits[3] - screenLimits[2]) / mainCamera.getResolutionHeight();
+        String sceneName = compiledScene.getName();
 
+        int[] passIndex = new int[1];
+        List<Callable<Void>> rows = new ArrayList<>();
+        for (int y = 0; y < accumulator.getHeight(); y++) {
+            int row = y;
+            rows.add(() -> {
+                ISampler sampler = compiledScene.getSampler();
+                double[] jitter = new double[2];
+                for (int x = 0; x < accumulator.getWidth(); x++) {
+                    sampler.startPixelSample(x, row, passIndex[0]);
+                    sampler.get2D(jitter);
+                    traceSample(x, row, (jitter[0] - 0.5d) * pixelWidth, (jitter[1] - 0.5d) * pixelHeight, screenPositions, compiledScene, accumulator, true);
+                }
+                return null;
+            });
+        }
+
+        int resumedPasses = resumedSamples != null ? checkpoint.getResumedPasses() : 0;
+        long startTime = System.nanoTime() - (resumedSamples != null ? checkpoint.getResumedTraceTime() : 0L);
+        long timeBudget = getTimeBudget() * 1000000L;
+        long saveInterval = getProgressiveSaveInterval() * 1000000L;
+        long nextSaveTime = System.nanoTime() + saveInterval;
+        int passes = resumedPasses;
+        double relativeError = Double.POSITIVE_INFINITY;
+        String stopReason;
+        while (true) {
+            long passStartTime = System.nanoTime();
+            passIndex[0] = passes;
+            try {
+                threadPool.invokeAll(rows);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                stopReason = "interrupted";
+                break;
+            }
+            passes++;
+            long time = System.nanoTime();
+            relativeError = accumulator.getRelativeError();
+            statistics.setProgress((int) ((time - startTime) * 100L / Math.max(timeBudget, 1L)));
+            System.out.println(new Date() + " path tracing the scene '" + sceneName + "': " + passes + " spp, relative error " + String.format("%.4f", relativeError));
+            if (checkpoint != null) checkpoint.saveSamplesIfDue(accumulator, passes, time - startTime);
+
+            if (saveInterval > 0L && time >= nextSaveTime) {
+                saveImage(accumulator.toFrameBuffer(), sceneName, scene.getExtension());
+                nextSaveTime = System.nanoTime() + saveInterval;
+            }
+            if (getNoiseTarget() > 0d && passes >= MIN_PROGRESSIVE_PASSES && relativeError <= getNoiseTarget()) {
+                stopReason = "noise target reached";
+                break;
+            }
+            if (System.nanoTime() - startTime + (time - passStartTime) > timeBudget) {
+                stopReason = "time budget reached";
+                break;
+            }
+        }
+        threadPool.shutdown();
+        if (checkpoint != null) {
+            if (Thread.currentThread().isInterrupted()) {
+                checkpoint.close();
+            } else {
+                checkpoint.delete();
+            }
+        }
+
+        long traceTime = System.nanoTime() - startTime;
+        System.out.println(new Date() + " path tracing the scene '" + sceneName + "': " + stopReason);
+        statistics.setProgress(100);
+        statistics.putTime("trace time", traceTime);
+        statistics.put("samples per pixel", String.valueOf(passes));
+        statistics.put("relative error", String.format("%.4f", relativeError));
+        statistics.put("stop reason", stopReason);
+        statistics.put("samples per second", String.format("%.0f", accumulator.getSampleCount() / (traceTime / 1e9d)));
+        statistics.put("path rays per sample", String.format("%.2f", (double) statistics.getCount("path rays") / Math.max(accumulator.getSampleCount(), 1L)));
+        if (checkpoint != null) {
+            statistics.put("resumed passes", String.valueOf(resumedPasses));
+            checkpoint.addStatistics(statistics);
+        }
+        return finishRender(accumulator.toFrameBuffer(), sceneName, statistics);
+    }
+
+    /**
+     * renders a scene into a frame buffer with the threads of a tile scheduler shared with other renders, the tiles of the
+     * scene are rendered when no render with a higher priority has pending tiles (instead of the threads of this raytracer)
+     * each pixel is rendered exactly like renderScene() does it and the frame buffer is denoised at the end if the denoiser is used
+     * shows a progress log in the console
+     * @param scene the Scene to render (using the ray tracing algorithm)
+     * @param statistics the statistics of the render
+     * @param scheduler the scheduler that renders the tiles
+     * @param priority the priority of the render, renders with a higher priority take the threads first
+     * @return the frame buffer rendered or null if the scene can not be rendered, a tile fails or the render exceeds the timeout
+     */
+    public FrameBuffer renderScene(Scene scene, RenderStatistics statistics, TileScheduler scheduler, int priority) {
+        if (!isRenderable(scene)) return null;
+        CompiledScene compiledScene = compileScene(scene, statistics);
+        Camera mainCamera = compiledScene.getCamera();
+        String sceneName = compiledScene.getName();
+        List<Tile> tiles = Tile.split(mainCamera.getResolutionWidth(), mainCamera.getResolutionHeight(), getTileSize());
+
+        long startTime = System.nanoTime();
+        ScheduledJob job = scheduler.submit(this, compiledScene, mainCamera.calculateScreenPositions(), tiles, priority);
+        int percentage = 0;
+        try {
+            while (!job.await(PROGRESS_INTERVAL)) {
+                int newPercentage = job.getProgress();
+                if (percentage < newPercentage) {
+                    System.out.println(new Date() + " raytracing the scene '" + sceneName + "' (priority " + priority + "): " + percentage + "%");
+                    percentage = newPercentage;
+                    statistics.setProgress(percentage);
+                }
+                if (System.nanoTime() - startTime > getTimeout() * 1000000L) {
+                    System.out.println("!! Execution Timeout - The raytracing of '" + sceneName + "' exceeded the time limit !!");
+                    job.cancel();
+                    return null;
+                }
+            }
+        } catch (InterruptedException ex) {
+            job.cancel();
+            Thread.currentThread().interrupt();
+            return null;
+        }
+        if (job.getError() != null) {
+            System.out.println(new Date() + " !! the raytracing of '" + sceneName + "' failed: " + job.getError() + " !!");
+            return null;
+        }
         System.out.println(new Date() + " raytracing the scene '" + sceneName + "': 100%");
-        saveImage(image, sceneName, scene.getExtension());
+        statistics.setProgress(100);
+        statistics.putTime("trace time", System.nanoTime() - startTime);
+        statistics.putTime("dispatch latency", job.getDispatchLatency());
+        statistics.put("samples per pixel", String.valueOf(getSamplesPerPixel()));
+        statistics.put("priority", String.valueOf(priority));
+        statistics.put("tiles", String.valueOf(job.getTileCount()));
+        return finishRender(job.getFrameBuffer(), sceneName, statistics);
+    }
+
+    /**
+     * renders a tile of a compiled scene into a frame buffer with the size of the tile, each pixel is rendered exactly
+     * like renderScene() does it, so the tiles of a distributed render form the same image as a local render
+     * the frame buffer is not denoised (the denoiser needs the whole image)
+     * @param scene the CompiledScene with all the objects, lights, camera and acceleration structures
+     * @param screenPositions a bi-dimensional Vector3D array with all the (x, y, z) positions corresponding to a (i, j) pixel in the image
+     * @param tile the tile to render
+     * @param threadPool the thread pool in which the pixels of the tile are rendered
+     * @return the frame buffer of the tile
+     * @throws InterruptedException if the thread is interrupted while the pixels are rendered
+     */
+    FrameBuffer renderTile(CompiledScene scene, Vector3D[][] screenPositions, Tile tile, ExecutorService threadPool) throws InterruptedException {
+        Camera mainCamera = scene.getCamera();
+        double[] screenLimits = mainCamera.calculateScreenLimits();
+        double pixelWidth = (screenLimits[1] - screenLimits[0]) / mainCamera.getResolutionWidth();
+        double pixelHeight = (screenLimits[3] - screenLimits[2]) / mainCamera.getResolutionHeight();
+
+        SampleAccumulator accumulator = new SampleAccumulator(tile.getX(), tile.getY(), tile.getWidth(), tile.getHeight());
+        List<Callable<Object>> pixels = new ArrayList<>();
+        for (int x = tile.getX(); x < tile.getX() + tile.getWidth(); x++) {
+            for (int y = tile.getY(); y < tile.getY() + tile.getHeight(); y++) {
+                pixels.add(Executors.callable(getPixelColor(x, y, screenPositions, pixelWidth, pixelHeight, scene, accumulator)));
+            }
+        }
+        threadPool.invokeAll(pixels);
+        return accumulator.toFrameBuffer();
+    }
+
+    /**
+     * renders a tile of a compiled scene into a frame buffer with the size of the tile in the current thread
+     * @param scene the CompiledScene with all the objects, lights, camera and acceleration structures
+     * @param screenPositions a bi-dimensional Vector3D array with all the (x, y, z) positions corresponding to a (i, j) pixel in the image
+     * @param tile the tile to render
+     * @return the frame buffer of the tile
+     */
+    FrameBuffer renderTile(CompiledScene scene, Vector3D[][] screenPositions, Tile tile) {
+        Camera mainCamera = scene.getCamera();
+        double[] screenLimits = mainCamera.calculateScreenLimits();
+        double pixelWidth = (screenLimits[1] - screenLimits[0]) / mainCamera.getResolutionWidth();
+        double pixelHeight = (screenLimits[3] - screenLimits[2]) / mainCamera.getResolutionHeight();
+
+        SampleAccumulator accumulator = new SampleAccumulator(tile.getX(), tile.getY(), tile.getWidth(), tile.getHeight());
+        for (int y = tile.getY(); y < tile.getY() + tile.getHeight(); y++) {
+            for (int x = tile.getX(); x < tile.getX() + tile.getWidth(); x++) {
+                getPixelColor(x, y, screenPositions, pixelWidth, pixelHeight, scene, accumulator).run();
+            }
+        }
+        return accumulator.toFrameBuffer();
+    }
+
+    /**
+     * renders a tile of a compiled scene in the current thread recording the objects and lights touched by its rays
+     * @param scene the CompiledScene with all the objects, lights, camera and acceleration structures
+     * @param screenPositions a bi-dimensional Vector3D array with all the (x, y, z) positions corresponding to a (i, j) pixel in the image
+     * @param tile the tile to render
+     * @param dependencies the record where the dependencies of the tile are added
+     * @return the frame buffer of the tile
+     */
+    FrameBuffer renderTile(CompiledScene scene, Vector3D[][] screenPositions, Tile tile, TileDependencies dependencies) {
+        scene.setTileDependencies(dependencies);
+        try {
+            return renderTile(scene, screenPositions, tile);
+        } finally {
+            scene.setTileDependencies(null);
+        }
+    }
+
+    /**
+     * renders a tile of a frame of an animation in the current thread reusing the shading of the previous frame
+     * the center ray of every pixel is cast first, if the point it hits was seen by a valid pixel of the previous frame (see
+     * TemporalHistory) the pixel is copied from that frame, otherwise it is rendered like renderTile() does it (with 1 sample
+     * per pixel the center hit is shaded, so the ray is not cast again)
+     * the hit of every pixel is recorded in the history of the frame with the age of its shading
+     * @param scene the CompiledScene of the frame
+     * @param screenPositions a bi-dimensional Vector3D array with all the (x, y, z) positions corresponding to a (i, j) pixel in the image
+     * @param tile the tile to render
+     * @param previous the history of the previous frame or null if there is none
+     * @param history the history of the frame where the hits of the pixels are recorded
+     * @param maxReuseAge the number of frames the shading of a pixel can be reused
+     * @return the frame buffer of the tile
+     */
+    FrameBuffer renderTile(CompiledScene scene, Vector3D[][] screenPositions, Tile tile, TemporalHistory previous, TemporalHistory history, int maxReuseAge) {
+        Camera mainCamera = scene.getCamera();
+        Vector3D cameraPosition = mainCamera.getPosition();
+        double[] screenLimits = mainCamera.calculateScreenLimits();
+        double pixelWidth = (screenLimits[1] - screenLimits[0]) / mainCamera.getResolutionWidth();
+        double pixelHeight = (screenLimits[3] - screenLimits[2]) / mainCamera.getResolutionHeight();
+        LongAdder reprojectedPixels = scene.getStatistics().getCounter("reprojected pixels");
+        boolean centerSample = getSamplesPerPixel() == 1;
+
+        int[] reusedPixels = new int[tile.getWidth() * tile.getHeight()];
+        SampleAccumulator accumulator = new SampleAccumulator(tile.getX(), tile.getY(), tile.getWidth(), tile.getHeight());
+        for (int y = tile.getY(); y < tile.getY() + tile.getHeight(); y++) {
+            for (int x = tile.getX(); x < tile.getX() + tile.getWidth(); x++) {
+                Intersection hit = castPrimaryRay(x, y, new Ray(cameraPosition, Vector3D.add(screenPositions[x][y], cameraPosition)), true, scene);
+                int reusedPixel = hit == null || previous == null ? -1 : previous.findReusablePixel(scene, hit, maxReuseAge);
+                reusedPixels[(y - tile.getY()) * tile.getWidth() + x - tile.getX()] = reusedPixel;
+                if (reusedPixel >= 0) {
+                    history.record(x, y, hit, previous.getAge(reusedPixel) + 1);
+                    reprojectedPixels.increment();
+                } else {
+                    history.record(x, y, hit, 0);
+                    if (centerSample) {
+                        scene.getSampler().startPixelSample(x, y, 0);
+                        shadeSample(x, y, hit, cameraPosition, scene, accumulator, false);
+                    } else {
+                        getPixelColor(x, y, screenPositions, pixelWidth, pixelHeight, scene, accumulator).run();
+                    }
+                }
+            }
+        }
+        FrameBuffer block = accumulator.toFrameBuffer();
+        for (int pixel = 0; pixel < reusedPixels.length; pixel++) {
+            int reusedPixel = reusedPixels[pixel];
+            if (reusedPixel < 0) continue;
+            block.copyPixel(pixel % tile.getWidth(), pixel / tile.getWidth(), previous.getFrameBuffer(),
+                    reusedPixel % previous.getWidth(), reusedPixel / previous.getWidth());
+        }
+        return block;
+    }
+
+    /**
+     * checks if a scene can be rendered, it must exist and have a camera
+     * @param scene the Scene to check
+     * @return true if the scene can be rendered
+     */
+    boolean isRenderable(Scene scene) {
+        if (scene == null) {
+            System.out.println(new Date() + "!! there is no scene to raytrace !!");
+            return false;
+        }
+        if(scene.getCamera() == null) {
+            System.out.println(new Date() + "!! there is no camera for the scene !!");
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * adds the shadow ray statistics of a finished render and denoises its frame buffer if the denoiser is used
+     * @param frameBuffer the frame buffer rendered
+     * @param sceneName the name of the scene
+     * @param statistics the statistics of the render
+     * @return the final frame buffer
+     */
+    FrameBuffer finishRender(FrameBuffer frameBuffer, String sceneName, RenderStatistics statistics) {
+        statistics.put("shadow rays per pixel", String.format("%.2f", (double) statistics.getCount("shadow rays") / (frameBuffer.getWidth() * frameBuffer.getHeight())));
+        long occluderCacheQueries = statistics.getCount("occluder cache hits") + statistics.getCount("occluder cache misses");
+        if (occluderCacheQueries > 0) statistics.put("occluder cache hit rate", String.format("%.2f%%", 100d * statistics.getCount("occluder cache hits") / occluderCacheQueries));
+
+        if (isUsingDenoiser()) {
+            System.out.println(new Date() + " denoising the scene '" + sceneName + "'...");
+            long denoiseStartTime = System.nanoTime();
+            frameBuffer = new Denoiser(getDenoiserIterations()).denoise(frameBuffer);
+            statistics.putTime("denoise time", System.nanoTime() - denoiseStartTime);
+        }
+        return frameBuffer;
+    }
+
+    /**
+     * copies the configuration of this raytracer, so a render can change it without changing the other renders
+     * @return a raytracer with the same configuration
+     */
+    Raytracer copy() {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            try (ObjectOutputStream output = new ObjectOutputStream(bytes)) {
+                output.writeObject(this);
+            }
+            try (ObjectInputStream input = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+                return (Raytracer) input.readObject();
+            }
+        } catch (IOException | ClassNotFoundException ex) {
+            throw new IllegalStateException("the configuration of the raytracer can not be copied", ex);
+        }
+    }
+
+    /**
+     * adds the configuration that changes the pixels of a render to a hash, the settings that only change how long it takes
+     * (threads, timeout, time budget, checkpoints, cache, hybrid visibility...) or the denoising at the end are ignored
+     * the tile size is added because the tiles of a render are kept by their index
+     * @param hash the hash where the configuration is added
+     */
+    void addToHash(ContentHash hash) {
+        hash.add((double) getLightFalloffExponent()).add(isUsingClippingPlanes()).add(isUsingFrustumCulling())
+                .add(getLightContributionThreshold()).add(getMaxLightsPerHit())
+                .add(isUsingBakedLighting()).add(getBakeTexelSize())
+                .add(isUsingIrradianceCache()).add(getIrradianceSamples()).add(getIrradianceCacheAccuracy())
+                .add(isUsingCausticPhotonMap()).add(getCausticPhotons()).add(getCausticGatherRadius())
+                .add(getSamplesPerPixel()).add(getMaxPathDepth()).add(getSamplerType().name()).add(getSamplerSeed()).add(getTileSize())
+                .add(getShadowBias()).add(getReflectionBias()).add(getRefractionBias())
+                .add(getAccelerationStructureType().name()).add(getBVHBuildQuality().name());
+    }
+
+    /**
+     * creates the immutable snapshot of the scene used by every render thread, building the acceleration structures
+     * with the current structure type and build quality, objects outside the camera frustum are removed from the primary rays
+     * @param scene the Scene to prepare
+     * @param statistics the statistics of the render
+     * @return the compiled scene
+     */
+    private CompiledScene compileScene(Scene scene, RenderStatistics statistics) {
+        System.out.println(new Date() + " compiling the scene (" + getAccelerationStructureType() + ", " + getBVHBuildQuality() + ")...");
+        long startTime = System.nanoTime();
+        CompiledScene compiledScene = scene.compile(this, statistics);
+        statistics.putTime("compile time", System.nanoTime() - startTime);
+        return compiledScene;
     }
 
     /**
-     * calculates the pixel color of a given i, j coordinate pair of the image
+     * calculates the pixel color of a given i, j coordinate pair of the image, with more than one sample per pixel the samples
+     * are stratified and jittered inside the pixel with the first two dimensions of the sampler
      * @param i the width's pixel index of the image
      * @param j the height's pixel index of the image
      * @param screenPositions a bi-dimensional Vector3D array with all the (x, y, z) positions corresponding to a (i, j) pixel in the image
-     * @param mainCamera the main Camera of the scene
-     * @param objects a list with all the Object3D objects in the scene
-     * @param lights a list with all the Light objects in the scene
-     * @param image the image in which the pixel color will be written
+     * @param pixelWidth the width of a pixel in the screen
+     * @param pixelHeight the height of a pixel in the screen
+     * @param scene the CompiledScene with all the objects, lights, camera and acceleration structures
+     * @param accumulator the accumulator in which the samples of the pixel will be added
      * @return lambda function of a Runnable task
      */
-    private synchronized Runnable getPixelColor(int i, int j, Vector3D[][] screenPositions, Camera mainCamera, ArrayList<Object3D> objects, ArrayList<Light> lights, BufferedImage image) {
+    private synchronized Runnable getPixelColor(int i, int j, Vector3D[][] screenPositions, double pixelWidth, double pixelHeight, CompiledScene scene, SampleAccumulator accumulator) {
         return () -> {
-            Vector3D cameraPosition = mainCamera.getPosition();
-            double x = screenPositions[i][j].getX() + cameraPosition.getX();
-            double y = screenPositions[i][j].getY() + cameraPosition.getY();
-            double z = screenPositions[i][j].getZ() + cameraPosition.getZ();
-
-            Vector3D screenPosition = new Vector3D(x, y, z);
-            Ray primaryRay = new Ray(cameraPosition, screenPosition);
-            Intersection closestIntersection = raycast(primaryRay, objects, mainCamera);
-
-            if (closestIntersection != null) {
-                Color pixelColor = shade(closestIntersection, objects, lights, mainCamera);
-                image.setRGB(i, j, pixelColor.getRGB());
-            } else {
-                image.setRGB(i, j, Color.BLACK.getRGB());
+            int samples = getSamplesPerPixel();
+            int columns = (int) Math.ceil(Math.sqrt(samples));
+            int rows = (samples + columns - 1) / columns;
+            ISampler sampler = scene.getSampler();
+            double[] jitter = new double[2];
+            for (int sample = 0; sample < samples; sample++) {
+                sampler.startPixelSample(i, j, sample);
+                double offsetX = 0d;
+                double offsetY = 0d;
+                if (samples > 1) {
+                    sampler.get2D(jitter);
+                    offsetX = ((sample % columns + jitter[0]) / columns - 0.5d) * pixelWidth;
+                    offsetY = ((sample / columns + jitter[1]) / rows - 0.5d) * pixelHeight;
+                }
+                traceSample(i, j, offsetX, offsetY, screenPositions, scene, accumulator, false);
             }
         };
     }
 
+    /**
+     * traces one sample of a pixel and adds its color and first hit to the accumulator
+     * @param i the width's pixel index of the image
+     * @param j the height's pixel index of the image
+     * @param offsetX the horizontal offset of the sample from the center of the pixel in the screen
+     * @param offsetY the vertical offset of the sample from the center of the pixel in the screen
+     * @param screenPositions a bi-dimensional Vector3D array with all the (x, y, z) positions corresponding to a (i, j) pixel in the image
+     * @param scene the CompiledScene with all the objects, lights, camera and acceleration structures
+     * @param accumulator the accumulator in which the sample will be added
+     * @param pathTracing a boolean flag to determine if the sample is shaded with the path tracer or with shade()
+     */
+    private void traceSample(int i, int j, double offsetX, double offsetY, Vector3D[][] screenPositions, CompiledScene scene, SampleAccumulator accumulator, boolean pathTracing) {
+        Vector3D cameraPosition = scene.getCamera().getPosition();
+        double x = screenPositions[i][j].getX() + offsetX + cameraPosition.getX();
+        double y = screenPositions[i][j].getY() - offsetY + cameraPosition.getY();
+        double z = screenPositions[i][j].getZ() + cameraPosition.getZ();
+
+        Vector3D screenPosition = new Vector3D(x, y, z);
+        Ray primaryRay = new Ray(cameraPosition, screenPosition);
+        shadeSample(i, j, castPrimaryRay(i, j, primaryRay, offsetX == 0d && offsetY == 0d, scene), cameraPosition, scene, accumulator, pathTracing);
+    }
+
+    /**
+     * shades the first hit of a sample of a pixel and adds its color and first hit to the accumulator
+     * @param i the width's pixel index of the image
+     * @param j the height's pixel index of the image
+     * @param closestIntersection the first hit of the primary ray of the sample or null if the ray does not hit an object
+     * @param cameraPosition the origin of the primary ray
+     * @param scene the CompiledScene with all the objects, lights, camera and acceleration structures
+     * @param accumulator the accumulator in which the sample will be added
+     * @param pathTracing a boolean flag to determine if the sample is shaded with the path tracer or with shade()
+     */
+    private void shadeSample(int i, int j, Intersection closestIntersection, Vector3D cameraPosition, CompiledScene scene, SampleAccumulator accumulator, boolean pathTracing) {
+        if (closestIntersection == null) {
+            accumulator.addMiss(i, j);
+            return;
+        }
+
+        double[] color = new double[3];
+        if (pathTracing) {
+            tracePath(closestIntersection, cameraPosition, scene, scene.getSampler(), color);
+        } else {
+            Color pixelColor = shade(closestIntersection, scene);
+            color[0] = normalizeColor(pixelColor.getRed());
+            color[1] = normalizeColor(pixelColor.getGreen());
+            color[2] = normalizeColor(pixelColor.getBlue());
+        }
+        Vector3D hitNormal = Vector3D.normalize(closestIntersection.getNormal());
+        MaterialParameters material = scene.getMaterial(closestIntersection.getObjectId());
+        Color materialColor = material == null ? Color.BLACK : material.getColor();
+        accumulator.addSample(i, j, color[0], color[1], color[2], closestIntersection.getObjectId(), closestIntersection.getDistance(),
+                hitNormal.getX(), hitNormal.getY(), hitNormal.getZ(), materialColor);
+    }
+
+    /**
+     * calculates the radiance of a path that starts in the first hit of a primary ray (Monte Carlo path tracing)
+     * the direct light (Blinn-Phong with the same shadows as shade()) is added in every point of the path and the path
+     * continues in one direction chosen randomly: a cosine weighted diffuse bounce, a mirror reflection or a refraction,
+     * each one with a probability proportional to its weight in the material (the rest of the probability absorbs the path)
+     * refractive objects are crossed until the path leaves them, after a few bounces the dark paths are terminated by russian roulette
+     * @param intersection the first Intersection of the path
+     * @param origin the origin of the primary ray (the camera position)
+     * @param scene the CompiledScene with all the objects, lights, camera and acceleration structures
+     * @param sampler the sampler of the current thread, every bounce draws the same four dimensions (roulette, choice and direction)
+     * @param radiance the array where the RGB radiance of the path is added
+     * @see <a href="https://www.pbr-book.org/3ed-2018/Light_Transport_I_Surface_Reflection/Path_Tracing">Path Tracing</a>
+     */
+    private void tracePath(Intersection intersection, Vector3D origin, CompiledScene scene, ISampler sampler, double[] radiance) {
+        LongAdder pathRays = scene.getStatistics().getCounter("path rays");
+        double[] throughput = {1d, 1d, 1d};
+        double[] directionSample = new double[2];
+        int insideObject = -1;
+        for (int bounce = 0; intersection != null; bounce++) {
+            MaterialParameters material = scene.getMaterial(intersection.getObjectId());
+            if (material == null) return;
+            Vector3D position = intersection.getPosition();
+            Vector3D normal = Vector3D.normalize(intersection.getNormal());
+            Vector3D direction = Vector3D.normalize(Vector3D.subtract(position, origin));
+            if (insideObject < 0) {
+                Color directColor = getDirectColor(intersection, scene);
+                radiance[0] += throughput[0] * normalizeColor(directColor.getRed());
+                radiance[1] += throughput[1] * normalizeColor(directColor.getGreen());
+                radiance[2] += throughput[2] * normalizeColor(directColor.getBlue());
+            }
+            if (bounce >= getMaxPathDepth()) return;
+
+            double roulette = sampler.get1D();
+            double choice = sampler.get1D();
+            sampler.get2D(directionSample);
+            if (bounce >= MIN_ROULETTE_BOUNCES) {
+                double survival = Math.min(Math.max(throughput[0], Math.max(throughput[1], throughput[2])), MAX_ROULETTE_SURVIVAL);
+                if (roulette >= survival) return;
+                for (int channel = 0; channel < 3; channel++) throughput[channel] /= survival;
+            }
+
+            if (insideObject >= 0 || material.isRefractive()) {
+                if (insideObject < 0) {
+                    double multiplier = material.getRefractionMultiplier();
+                    if (multiplier < 1d && choice >= multiplier) return;
+                    if (multiplier > 1d) for (int channel = 0; channel < 3; channel++) throughput[channel] *= multiplier;
+                }
+                double cosine = Vector3D.dotProduct(normal, direction);
+                boolean entering = cosine < 0d;
+                double refractionIndex = entering ? 1d / material.getRefractionCoefficient() : material.getRefractionCoefficient();
+                Vector3D refractionNormal = entering ? normal : Vector3D.scalarMultiplication(normal, -1d);
+                cosine = Math.min(Math.abs(cosine), 1d);
+                double totalInternalRefraction = 1d - refractionIndex * refractionIndex * (1d - cosine * cosine);
+                if (totalInternalRefraction < 0d) {
+                    direction = PhotonMap.reflect(direction, normal);
+                } else {
+                    direction = Vector3D.add(Vector3D.scalarMultiplication(direction, refractionIndex), Vector3D.scalarMultiplication(refractionNormal, refractionIndex * cosine - Math.sqrt(totalInternalRefraction)));
+                    insideObject = entering ? intersection.getObjectId() : -1;
+                }
+                origin = Vector3D.add(position, Vector3D.scalarMultiplication(direction, getRefractionBias()));
+            } else {
+                Color objectColor = material.getColor();
+                double[] albedo = {normalizeColor(objectColor.getRed()), normalizeColor(objectColor.getGreen()), normalizeColor(objectColor.getBlue())};
+                double diffuseWeight = material.getDiffuseCoefficient() * (albedo[0] + albedo[1] + albedo[2]) / 3d;
+                double reflectionWeight = material.isReflective() ? material.getReflectionCoefficient() : 0d;
+                double totalWeight = diffuseWeight + reflectionWeight;
+                double scale = Math.max(totalWeight, 1d);
+                choice *= scale;
+                if (choice >= totalWeight) return;
+
+                if (choice < diffuseWeight) {
+                    for (int channel = 0; channel < 3; channel++) throughput[channel] *= albedo[channel] * material.getDiffuseCoefficient() * scale / diffuseWeight;
+                    if (Vector3D.dotProduct(normal, direction) > 0d) normal = Vector3D.scalarMultiplication(normal, -1d);
+                    direction = sampleCosineDirection(normal, directionSample[0], directionSample[1]);
+                    origin = Vector3D.add(position, Vector3D.scalarMultiplication(normal, getShadowBias()));
+                } else {
+                    for (int channel = 0; channel < 3; channel++) throughput[channel] *= scale;
+                    direction = PhotonMap.reflect(direction, normal);
+                    origin = Vector3D.add(position, Vector3D.scalarMultiplication(direction, getReflectionBias()));
+                }
+            }
+
+            Ray ray = new Ray(origin, direction);
+            pathRays.increment();
+            intersection = insideObject < 0 ? raycast(ray, scene, false) : PhotonMap.exitIntersection(ray, insideObject, scene);
+        }
+    }
+
+    /**
+     * chooses a random direction in the hemisphere of a normal with a probability proportional to the cosine of its angle
+     * with the normal, so the cosine of the diffuse reflection is already included in the probability
+     * @param normal the normalized normal of the surface
+     * @param u the first sample value (from 0 to 1), the distance from the normal
+     * @param v the second sample value (from 0 to 1), the angle around the normal
+     * @return the normalized direction
+     */
+    private static Vector3D sampleCosineDirection(Vector3D normal, double u, double v) {
+        Vector3D tangent = Vector3D.normalize(Math.abs(normal.getX()) > 0.9d ? Vector3D.crossProduct(normal, new Vector3D(0, 1, 0)) : Vector3D.crossProduct(normal, new Vector3D(1, 0, 0)));
+        Vector3D bitangent = Vector3D.crossProduct(normal, tangent);
+        double radius = Math.sqrt(u);
+        double phi = 2d * Math.PI * v;
+        double height = Math.sqrt(Math.max(1d - radius * radius, 0d));
+        Vector3D direction = Vector3D.add(Vector3D.scalarMultiplication(tangent, radius * Math.cos(phi)), Vector3D.scalarMultiplication(bitangent, radius * Math.sin(phi)));
+        return Vector3D.normalize(Vector3D.add(direction, Vector3D.scalarMultiplication(normal, height)));
+    }
+
     /**
      * shades a point in the scene using Blinn-Phon, Reflection and Refraction
+     * the diffuse light is only calculated for the lights whose influence reaches the point (see getColor()), the ambient,
+     * specular, reflected and refracted Colors are not attenuated, so they are added for every light
+     * if more lights than the maximum lights per hit reach the point some of them are chosen randomly (see shadeWithLightSelection())
+     * the reflection ray and the refracted Color do not depend on the light, so they are calculated once and used for every light
+     * with the irradiance cache, the indirect diffuse light is added once to the points of LambertMaterial surfaces
+     * and with the caustic photon map, the caustics are added once to the points of diffuse surfaces that are not refractive
      * @param intersection the Intersection of the point to shade
-     * @param objects a list with all the Object3D objects in the scene
-     * @param lights a list with all the Light objects in the scene
-     * @param camera the main Camera of the scene
+     * @param scene the CompiledScene with all the objects, lights, camera and acceleration structures
      * @return the Color of the point in the scene according to the shading used
      * @see <a href="http://web.cse.ohio-state.edu/~shen.94/681/Site/Slides_files/reflection_refraction.pdf">Reflection and Refraction</a>
      */
-    private Color shade(Intersection intersection, ArrayList<Object3D> objects, ArrayList<Light> lights, Camera camera) {
-        Material objectMaterial = intersection.getObject().getMaterial();
+    private Color shade(Intersection intersection, CompiledScene scene) {
+        MaterialParameters objectMaterial = scene.getMaterial(intersection.getObjectId());
+        int[] lights = new int[scene.getLightCount()];
+        int lightCount = scene.getLightTree().gatherLights(intersection.getPosition(), lights);
+        TileDependencies dependencies = scene.getTileDependencies();
+        if (dependencies != null) dependencies.addShadedPoint();
+        RenderStatistics statistics = scene.getStatistics();
+        statistics.getCounter("shaded points").increment();
         Color pixelColor = Color.BLACK;
+        // INDIRECT DIFFUSE
+        if (scene.getIrradianceCache() != null && objectMaterial.isLambertian()) pixelColor = getIndirectColor(intersection, objectMaterial, scene);
+        // CAUSTICS
+        if (scene.getPhotonMap() != null && objectMaterial.getDiffuseCoefficient() > 0d && !objectMaterial.isRefractive()) pixelColor = addColor(pixelColor, getCausticColor(intersection, objectMaterial, scene));
+        if (getMaxLightsPerHit() > 0 && lightCount > getMaxLightsPerHit()) {
+            statistics.getCounter("lights evaluated").add(getMaxLightsPerHit());
+            return addColor(pixelColor, shadeWithLightSelection(intersection, objectMaterial, scene, lights, lightCount));
+        }
+        statistics.getCounter("lights evaluated").add(lightCount);
 
-        for (Light light : lights) {
+        Intersection reflectionIntersection = objectMaterial.isReflective() ? castReflectionRay(intersection, scene) : null;
+        Color refractedColor = null;
+        for (int lightIndex = 0; lightIndex < scene.getLightCount(); lightIndex++) {
             // BLINN-PHONG
-            Color objectColor = getColor(intersection, objects, light, camera);
+            Color objectColor = getColor(intersection, scene, lightIndex);
             pixelColor = addColor(pixelColor, objectColor);
             // REFLECTION
-            if (objectMaterial instanceof ReflectiveMaterial) pixelColor = addColor(pixelColor, getReflectedColor(intersection, objectMaterial, objects, light, camera));
+            if (objectMaterial.isReflective()) pixelColor = addColor(pixelColor, getReflectedColor(reflectionIntersection, objectMaterial, scene, lightIndex));
             // REFRACTION
-            if (objectMaterial instanceof RefractiveMaterial) pixelColor = addColor(pixelColor, getRefractedColor(intersection, objectMaterial, objects, lights, camera));
+            if (objectMaterial.isRefractive()) {
+                if (refractedColor == null) refractedColor = getRefractedColor(intersection, objectMaterial, scene);
+                pixelColor = addColor(pixelColor, refractedColor);
+            }
         }
 
         return pixelColor;
     }
 
+    /**
+     * calculates the indirect diffuse Color of a point with the irradiance cache, the irradiance is interpolated from
+     * the cached records or a new record is calculated with hemisphere samples
+     * the radiance of each sample is the direct light (Blinn-Phong) of the surface it hits, so only one bounce is calculated
+     * @param intersection the Intersection of the point to shade
+     * @param objectMaterial the material parameters of the object in the point to shade
+     * @param scene the CompiledScene with all the objects, lights, camera and acceleration structures
+     * @return the indirect diffuse Color of the point
+     */
+    private Color getIndirectColor(Intersection intersection, MaterialParameters objectMaterial, CompiledScene scene) {
+        Vector3D normal = Vector3D.normalize(intersection.getNormal());
+        Vector3D origin = Vector3D.add(intersection.getPosition(), Vector3D.scalarMultiplication(normal, getShadowBias()));
+        double[] irradiance = new double[3];
+        scene.getIrradianceCache().getIrradiance(intersection.getPosition(), normal, origin, (sampleOrigin, direction, radiance) -> {
+            Intersection sampleIntersection = raycast(new Ray(sampleOrigin, direction), scene, false);
+            if (sampleIntersection == null) return Double.POSITIVE_INFINITY;
+            Color directColor = getDirectColor(sampleIntersection, scene);
+            radiance[0] = normalizeColor(directColor.getRed());
+            radiance[1] = normalizeColor(directColor.getGreen());
+            radiance[2] = normalizeColor(directColor.getBlue());
+            return sampleIntersection.getDistance();
+        }, scene.getSampler(), irradiance);
+
+        Color irradianceColor = new Color(clamp((float) (irradiance[0] / Math.PI)), clamp((float) (irradiance[1] / Math.PI)), clamp((float) (irradiance[2] / Math.PI)));
+        return multiplyColor(multiplyColors(objectMaterial.getColor(), irradianceColor), objectMaterial.getDiffuseCoefficient());
+    }
+
+    /**
+     * calculates the Color of the caustics in a point with the irradiance estimated by the caustic photon map,
+     * it is reflected like the diffuse component of the Blinn-Phong model
+     * @param intersection the Intersection of the point to shade
+     * @param objectMaterial the material parameters of the object in the point to shade
+     * @param scene the CompiledScene with all the objects, lights, camera and acceleration structures
+     * @return the Color of the caustics in the point
+     */
+    private Color getCausticColor(Intersection intersection, MaterialParameters objectMaterial, CompiledScene scene) {
+        double[] irradiance = new double[3];
+        if (!scene.getPhotonMap().getIrradiance(intersection.getPosition(), Vector3D.normalize(intersection.getNormal()), irradiance)) return Color.BLACK;
+        Color objectColor = objectMaterial.getColor();
+        double diffuseCoefficient = objectMaterial.getDiffuseCoefficient();
+        float red = clamp((float) (normalizeColor(objectColor.getRed()) * irradiance[0] * diffuseCoefficient));
+        float green = clamp((float) (normalizeColor(objectColor.getGreen()) * irradiance[1] * diffuseCoefficient));
+        float blue = clamp((float) (normalizeColor(objectColor.getBlue()) * irradiance[2] * diffuseCoefficient));
+        return new Color(red, green, blue);
+    }
+
+    /**
+     * calculates the direct light (Blinn-Phong) of a point with every light, without reflection or refraction
+     * @param intersection the Intersection of the point
+     * @param scene the CompiledScene with all the objects, lights, camera and acceleration structures
+     * @return the direct Color of the point
+     */
+    private Color getDirectColor(Intersection intersection, CompiledScene scene) {
+        TileDependencies dependencies = scene.getTileDependencies();
+        if (dependencies != null) dependencies.addShadedPoint();
+        Color directColor = Color.BLACK;
+        for (int lightIndex = 0; lightIndex < scene.getLightCount(); lightIndex++) directColor = addColor(directColor, getColor(intersection, scene, lightIndex));
+        return directColor;
+    }
+
+    /**
+     * shades a point choosing randomly the maximum lights per hit from the lights that reach it
+     * each light is chosen with a probability proportional to its attenuated intensity and its Color is divided by that probability
+     * so the expected Color is the same one calculated with every light that reaches the point, the Colors of the lights
+     * that do not reach it (without their diffuse light) are added to every point
+     * @param intersection the Intersection of the point to shade
+     * @param objectMaterial the material parameters of the object in the point to shade
+     * @param scene the CompiledScene with all the objects, lights, camera and acceleration structures
+     * @param lights the indices of the lights that reach the point
+     * @param lightCount the number of light indices
+     * @return the Color of the point in the scene
+     */
+    private Color shadeWithLightSelection(Intersection intersection, MaterialParameters objectMaterial, CompiledScene scene, int[] lights, int lightCount) {
+        double[] cumulativeWeights = new double[lightCount];
+        double totalWeight = 0d;
+        for (int i = 0; i < lightCount; i++) {
+            Light light = scene.getLight(lights[i]);
+            double distance = Math.max(light.getFalloffDistance(intersection.getPosition()), DEFAULT_BIAS);
+            totalWeight += Math.max(light.getIntensity(), 0f) / Math.pow(distance, getLightFalloffExponent());
+            cumulativeWeights[i] = totalWeight;
+        }
+        boolean uniform = !(totalWeight > 0d) || Double.isInfinite(totalWeight);
+
+        Color pixelColor = Color.BLACK;
+        Intersection reflectionIntersection = objectMaterial.isReflective() ? castReflectionRay(intersection, scene) : null;
+        Color refractedColor = null;
+        ISampler sampler = scene.getSampler();
+        int samples = getMaxLightsPerHit();
+        for (int sample = 0; sample < samples; sample++) {
+            int chosen;
+            double probability;
+            if (uniform) {
+                chosen = Math.min((int) (sampler.get1D() * lightCount), lightCount - 1);
+                probability = 1d / lightCount;
+            } else {
+                double target = sampler.get1D() * totalWeight;
+                chosen = 0;
+                while (chosen < lightCount - 1 && cumulativeWeights[chosen] <= target) chosen++;
+                probability = (cumulativeWeights[chosen] - (chosen == 0 ? 0d : cumulativeWeights[chosen - 1])) / totalWeight;
+            }
+
+            Color lightColor = getColor(intersection, scene, lights[chosen]);
+            if (objectMaterial.isReflective()) lightColor = addColor(lightColor, getReflectedColor(reflectionIntersection, objectMaterial, scene, lights[chosen]));
+            if (objectMaterial.isRefractive()) {
+                if (refractedColor == null) refractedColor = getRefractedColor(intersection, objectMaterial, scene);
+                lightColor = addColor(lightColor, refractedColor);
+            }
+            pixelColor = addColor(pixelColor, multiplyColor(lightColor, 1d / (samples * probability)));
+        }
+
+        int reachingLight = 0;
+        for (int lightIndex = 0; lightIndex < scene.getLightCount(); lightIndex++) {
+            if (reachingLight < lightCount && lights[reachingLight] == lightIndex) {
+                reachingLight++;
+                continue;
+            }
+            pixelColor = addColor(pixelColor, getColor(intersection, scene, lightIndex));
+            if (objectMaterial.isReflective()) pixelColor = addColor(pixelColor, getReflectedColor(reflectionIntersection, objectMaterial, scene, lightIndex));
+            if (objectMaterial.isRefractive()) {
+                if (refractedColor == null) refractedColor = getRefractedColor(intersection, objectMaterial, scene);
+                pixelColor = addColor(pixelColor, refractedColor);
+            }
+        }
+        return pixelColor;
+    }
+
+    /**
+     * finds the closest hit of a primary ray, the hit of a ray through the center of a pixel is taken from the visibility
+     * buffer of the scene when the buffer can resolve it (see VisibilityBuffer), any other primary ray is cast
+     * the rays are always cast while the dependencies of a tile are recorded
+     * @param i the width's pixel index of the image
+     * @param j the height's pixel index of the image
+     * @param ray the primary Ray of the pixel
+     * @param pixelCenter a boolean flag to determine if the ray goes through the center of the pixel
+     * @param scene the CompiledScene with the objects to be checked
+     * @return the closest Intersection in the direction of the given ray or null if the ray hits nothing
+     */
+    private Intersection castPrimaryRay(int i, int j, Ray ray, boolean pixelCenter, CompiledScene scene) {
+        VisibilityBuffer visibilityBuffer = scene.getVisibilityBuffer();
+        if (visibilityBuffer == null || !pixelCenter || scene.getTileDependencies() != null) return raycast(ray, scene);
+        if (visibilityBuffer.isEmpty(i, j)) return null;
+        Intersection intersection = visibilityBuffer.intersect(i, j, ray, scene);
+        return intersection != null ? intersection : raycast(ray, scene);
+    }
+
     /**
      * helper function for raycast() with fewer arguments used only with primary rays
-     * checks each Object3D in the Scene to find the closest one in the direction of a given Ray
+     * checks each visible object in the scene to find the closest one in the direction of a given Ray
      * @param ray the Ray used to check an intersection with an object
-     * @param objects a list with all the Object3D objects to be checked
-     * @param camera the main Camera of the scene
+     * @param scene the CompiledScene with the objects to be checked
      * @return the closest Intersection in the direction of the given ray or null if
      */
-    private Intersection raycast(Ray ray, ArrayList<Object3D> objects, Camera camera) {
-        return raycast(ray, objects, camera, true);
+    private Intersection raycast(Ray ray, CompiledScene scene) {
+        return raycast(ray, scene, true);
     }
 
     /**
-     * checks each Object3D in the Scene to find the closest one in the direction of a given Ray
+     * checks the objects of the scene to find the closest one in the direction of a given Ray
+     * primary rays only check the objects visible to the camera
      * @param ray the Ray used to check an intersection with an object
-     * @param objects a list with all the Object3D objects to be checked
-     * @param camera the main Camera of the scene
+     * @param scene the CompiledScene with the objects to be checked
      * @param primaryCast a boolean flag to determine if the ray cast is used with primary rays or not
      * @return the closest Intersection in the direction of the given ray or null if
      */
-    private Intersection raycast(Ray ray, ArrayList<Object3D> objects, Camera camera, boolean primaryCast) {
-        Intersection closestIntersection = null;
-        for (Object3D object : objects) {
-            Intersection intersection =  null;
-            if (object instanceof up.edu.isgc.raytracer.objects.Polygon) intersection = ((Polygon) object).getObjectIntersection(ray);
-            else if (object instanceof Sphere) intersection = ((Sphere) object).getObjectIntersection(ray);
-            if (intersection != null) {
-                double distance = intersection.getDistance();
-                if (distance >= 0 && (closestIntersection == null || distance < closestIntersection.getDistance())) {
-                    if (!isUsingClippingPlanes() || !primaryCast) closestIntersection = intersection;
-                    else if (distance < camera.getFarClippingPlane() && distance > camera.getNearClippingPlane()) closestIntersection = intersection;
-                }
-            }
+    private Intersection raycast(Ray ray, CompiledScene scene, boolean primaryCast) {
+        Camera camera = scene.getCamera();
+        IAccelerationStructure structure = primaryCast ? scene.getPrimaryAccelerationStructure() : scene.getAccelerationStructure();
+        Intersection[] closestIntersection = new Intersection[1];
+        structure.intersect(ray, new HitRecord(), (primitiveIndex, objectRay, hit) -> {
+            int objectId = primaryCast ? scene.getVisibleObject(primitiveIndex) : primitiveIndex;
+            Intersection intersection = scene.intersect(objectId, objectRay);
+            if (intersection == null || !isValidHit(intersection.getDistance(), hit.getDistance(), camera, primaryCast)) return false;
+            hit.setDistance(intersection.getDistance());
+            hit.setObjectIndex(objectId);
+            closestIntersection[0] = intersection;
+            return true;
+        });
+        TileDependencies dependencies = scene.getTileDependencies();
+        if (dependencies != null) {
+            Intersection closest = closestIntersection[0];
+            dependencies.addRay(ray, primaryCast, closest == null ? -1 : closest.getObjectId(), closest == null ? 0d : closest.getDistance());
         }
-        return closestIntersection;
+        return closestIntersection[0];
     }
 
     /**
-     * calculates the Color showed by a reflection in a given point of the scene
-     * @param objectIntersection the Intersection of the point to shade
-     * @param material the Material of the object that causes the reflection
-     * @param objects a list with all the Object3D objects in the scene
-     * @param light a light used to illuminate the reflected Color
+     * checks if any object in the scene that casts shadows is hit by a given shadow Ray
+     * the primitive that blocked the last shadow ray of the light in the current thread is tested first, the full search
+     * stops with the first hit and no position or normal is calculated
+     * @param ray the Ray used to check an intersection with an object
+     * @param maxDistance the distance where the ray ends (the distance to an area light sample), the objects at that distance or farther do not block it
+     * @param scene the CompiledScene with the objects to be checked
+     * @param lightIndex the index of the light the ray goes to
+     * @return true if the ray hits an object
+     */
+    private boolean isOccluded(Ray ray, double maxDistance, CompiledScene scene, int lightIndex) {
+        OccluderCache cache = scene.getOccluderCache();
+        int cachedObject = cache.getObjectId(lightIndex);
+        TileDependencies dependencies = scene.getTileDependencies();
+        if (cachedObject >= 0 && scene.isOccludedBy(cachedObject, cache.getPrimitiveIndex(lightIndex), ray, maxDistance)) {
+            cache.recordHit();
+            if (dependencies != null) dependencies.addShadowRay(ray, maxDistance, lightIndex, cachedObject);
+            return true;
+        }
+        cache.recordMiss();
+
+        HitRecord occluder = new HitRecord();
+        occluder.setDistance(maxDistance);
+        boolean occluded = scene.getShadowAccelerationStructure().isOccluded(ray, occluder, (casterIndex, objectRay, hit) -> {
+            int objectId = scene.getShadowCaster(casterIndex);
+            int primitiveIndex = scene.findOccluder(objectId, objectRay, maxDistance);
+            if (primitiveIndex < 0) return false;
+            hit.setObjectIndex(objectId);
+            hit.setPrimitiveIndex(primitiveIndex);
+            return true;
+        });
+        if (occluded) cache.store(lightIndex, occluder.getObjectIndex(), occluder.getPrimitiveIndex());
+        if (dependencies != null) dependencies.addShadowRay(ray, maxDistance, lightIndex, occluded ? occluder.getObjectIndex() : -1);
+        return occluded;
+    }
+
+    /**
+     * checks if the distance of a hit is valid and closer than the closest one, primary rays also check the clipping planes
+     * @param distance the distance of the hit
+     * @param closestDistance the distance of the closest hit found
      * @param camera the main Camera of the scene
-     * @return the reflected Color of the given point
+     * @param primaryCast a boolean flag to determine if the ray cast is used with primary rays or not
+     * @return true if the hit should replace the closest one
+     */
+    private boolean isValidHit(double distance, double closestDistance, Camera camera, boolean primaryCast) {
+        if (distance < 0 || distance >= closestDistance) return false;
+        if (!isUsingClippingPlanes() || !primaryCast) return true;
+        return distance < camera.getFarClippingPlane() && distance > camera.getNearClippingPlane();
+    }
+
+    /**
+     * casts the reflection ray of a given point of the scene, the same hit is illuminated by every light (see getReflectedColor())
+     * @param objectIntersection the Intersection of the point to shade
+     * @param scene the CompiledScene with all the objects, lights, camera and acceleration structures
+     * @return the Intersection of the reflection ray or null if it hits nothing
      */
-    private Color getReflectedColor(Intersection objectIntersection, Material material, ArrayList<Object3D> objects, Light light, Camera camera) {
+    private Intersection castReflectionRay(Intersection objectIntersection, CompiledScene scene) {
         Vector3D intersectionPosition = objectIntersection.getPosition();
         Vector3D intersectionNormal = objectIntersection.getNormal();
 
-        Vector3D viewDirection = Vector3D.subtract(intersectionPosition, camera.getPosition());
+        Vector3D viewDirection = Vector3D.subtract(intersectionPosition, scene.getCamera().getPosition());
         double normalValue = -2.0 * Vector3D.dotProduct(intersectionNormal, viewDirection);
         Vector3D reflection = Vector3D.scalarMultiplication(intersectionNormal, normalValue);
         reflection = Vector3D.add(viewDirection, reflection);
 
         Ray reflectionRay = new Ray(Vector3D.add(intersectionPosition, Vector3D.scalarMultiplication(reflection, getReflectionBias())), reflection);
-        Intersection reflectionIntersection = raycast(reflectionRay, objects, camera, false);
+        return raycast(reflectionRay, scene, false);
+    }
 
+    /**
+     * calculates the Color showed by a reflection in a given point of the scene
+     * @param reflectionIntersection the Intersection of the reflection ray of the point (see castReflectionRay()) or null if it hits nothing
+     * @param material the material parameters of the object that causes the reflection
+     * @param scene the CompiledScene with all the objects, lights, camera and acceleration structures
+     * @param lightIndex the index of the light used to illuminate the reflected Color
+     * @return the reflected Color of the given point
+     */
+    private Color getReflectedColor(Intersection reflectionIntersection, MaterialParameters material, CompiledScene scene, int lightIndex) {
         if (reflectionIntersection != null) {
-            Color reflectionColor = getColor(reflectionIntersection, objects, light, camera);
-            return multiplyColor(reflectionColor, ((ReflectiveMaterial) material).getReflectionCoefficient());
+            Color reflectionColor = getColor(reflectionIntersection, scene, lightIndex);
+            return multiplyColor(reflectionColor, material.getReflectionCoefficient());
         } else {
             return Color.BLACK;
         }
@@ -260,18 +1326,16 @@ public class Raytracer {
     /**
      * calculates the Color visible when a refraction occurs in a given point of the scene
      * @param objectIntersection the Intersection of the point to shade
-     * @param material the Material of the object that causes the refraction
-     * @param objects a list with all the Object3D objects in the scene
-     * @param lights a list with all the Light objects in the scene
-     * @param camera the main Camera of the scene
+     * @param material the material parameters of the object that causes the refraction
+     * @param scene the CompiledScene with all the objects, lights, camera and acceleration structures
      * @return the Color visible through the refraction of the given point
      * @see <a href="https://www.scratchapixel.com/lessons/3d-basic-rendering/introduction-to-shading/reflection-refraction-fresnel">Reflection, Refraction (Transmission) and Fresnel</a>
      */
-    private Color getRefractedColor(Intersection objectIntersection, Material material, ArrayList<Object3D> objects, ArrayList<Light> lights, Camera camera) {
-        Vector3D viewDirection = Vector3D.subtract(objectIntersection.getPosition(), camera.getPosition());
+    private Color getRefractedColor(Intersection objectIntersection, MaterialParameters material, CompiledScene scene) {
+        Vector3D viewDirection = Vector3D.subtract(objectIntersection.getPosition(), scene.getCamera().getPosition());
         Vector3D intersectionNormal = objectIntersection.getNormal();
 
-        double refractionCoefficient = ((RefractiveMaterial) material).getRefractionCoefficient();
+        double refractionCoefficient = material.getRefractionCoefficient();
         double refractionAngleValue = Vector3D.dotProduct(objectIntersection.getNormal(), Vector3D.normalize(viewDirection));
 
         if (refractionAngleValue < -1) refractionAngleValue = -1;
@@ -289,10 +1353,10 @@ public class Raytracer {
         if (totalInternalRefraction > 0) {
             Vector3D refractionVector = Vector3D.add(Vector3D.scalarMultiplication(viewDirection, mediumRefractionIndex), Vector3D.scalarMultiplication(intersectionNormal, (mediumRefractionIndex * refractionAngleValue - Math.sqrt(totalInternalRefraction))));
             Ray refractionRay = new Ray(Vector3D.add(objectIntersection.getPosition(), Vector3D.scalarMultiplication(refractionVector, getRefractionBias())), refractionVector);
-            Intersection refraction = raycast(refractionRay, objects, camera, false);
+            Intersection refraction = raycast(refractionRay, scene, false);
             if (refraction != null) {
-                Color refractionColor = shade(refraction, objects, lights, camera);
-                return multiplyColor(refractionColor, ((RefractiveMaterial) material).getRefractionMultiplier());
+                Color refractionColor = shade(refraction, scene);
+                return multiplyColor(refractionColor, material.getRefractionMultiplier());
             }
         }
         return Color.BLACK;
@@ -300,51 +1364,115 @@ public class Raytracer {
 
     /**
      * calculates the Color of a given point using the Blinn-Phong model
+     * the diffuse component is only calculated if the influence of the light reaches the point, farther it is under the
+     * light contribution threshold, the ambient and specular components are not attenuated so they are always calculated
+     * no shadow ray is cast when the diffuse and specular components are already black (e.g. the surface faces away
+     * from the light) or when the object does not receive shadows, with baked lighting the visibility is looked up instead
      * @param objectIntersection the Intersection of the point to shade
-     * @param objects a list with all the Object3D objects in the scene
-     * @param light a light used to illuminate the given point
-     * @param camera the main Camera of the scene
+     * @param scene the CompiledScene with all the objects, lights, camera and acceleration structures
+     * @param lightIndex the index of the light used to illuminate the given point
      * @return the Color of the given point
      * @see <a href="https://www.scratchapixel.com/lessons/3d-basic-rendering/phong-shader-BRDF">The Phong Model</a>
      * @see <a href="https://learnopengl.com/Advanced-Lighting/Advanced-Lighting">Blinn-Phong Lighting</a>
      */
-    private Color getColor(Intersection objectIntersection, ArrayList<Object3D> objects, Light light, Camera camera) {
-        Material objectMaterial = objectIntersection.getObject().getMaterial();
+    private Color getColor(Intersection objectIntersection, CompiledScene scene, int lightIndex) {
+        MaterialParameters objectMaterial = scene.getMaterial(objectIntersection.getObjectId());
+        Light light = scene.getLight(lightIndex);
+
+        Color objectColor = objectMaterial.getColor();
+        Color pixelColor = Color.BLACK;
+
+        pixelColor = addColor(pixelColor, multiplyColor(calculateAmbientColor(objectMaterial), objectMaterial.getAmbientCoefficient()));
 
-        Color objectColor = objectIntersection.getObject().getColor();
-        Color pixelColor = Color.BLACK;
+        Color diffuseColor = scene.getLightTree().reaches(lightIndex, objectIntersection.getPosition())
+                ? multiplyColor(calculateDiffuseColor(objectIntersection, light, objectColor), objectMaterial.getDiffuseCoefficient()) : Color.BLACK;
+        Color specularColor = multiplyColor(calculateSpecularColor(objectIntersection, objectMaterial, scene, light), objectMaterial.getSpecularCoefficient());
+        if (isBlack(diffuseColor) && isBlack(specularColor) || !scene.isReceivingShadows(objectIntersection.getObjectId())) {
+            scene.getStatistics().getCounter("shadow rays skipped").add(light.getProbeSamples());
+            pixelColor = addColor(pixelColor, diffuseColor);
+            return addColor(pixelColor, specularColor);
+        }
 
-        double ambientCoefficient = 0d;
-        double diffuseCoefficient = 1d;
-        double specularCoefficient = 0d;
+        LightingBake lightingBake = scene.getLightingBake();
+        double visibility = lightingBake == null ? -1d : lightingBake.getVisibility(objectIntersection, lightIndex);
+        if (visibility < 0d) {
+            Vector3D shadowOrigin = Vector3D.add(objectIntersection.getPosition(), Vector3D.scalarMultiplication(objectIntersection.getNormal(), getShadowBias()));
+            visibility = calculateVisibility(shadowOrigin, scene, lightIndex);
+        } else {
+            scene.getStatistics().getCounter("baked visibility lookups").increment();
+        }
 
-        if (objectMaterial instanceof BlinnPhongMaterial) {
-            ambientCoefficient = ((BlinnPhongMaterial) objectMaterial).getAmbientCoefficient();
-            diffuseCoefficient = ((BlinnPhongMaterial) objectMaterial).getDiffuseCoefficient();
-            specularCoefficient = ((BlinnPhongMaterial) objectMaterial).getSpecularCoefficient();
+        if (visibility > 0d) {
+            pixelColor = addColor(pixelColor, visibility < 1d ? multiplyColor(diffuseColor, visibility) : diffuseColor);
+            pixelColor = addColor(pixelColor, visibility < 1d ? multiplyColor(specularColor, visibility) : specularColor);
         }
 
-        pixelColor = addColor(pixelColor, multiplyColor(calculateAmbientColor(objectIntersection), ambientCoefficient));
+        return pixelColor;
+    }
+
+    /**
+     * calculates the visible fraction of a light from a given point with shadow rays
+     * lights without area use a single shadow ray, area lights cast a few probe rays first and only when the probes disagree
+     * (the point is in the penumbra) every stratified sample is cast, so fully lit and fully shadowed points stay cheap
+     * the single shadow ray keeps the original direction (the light position) and length (infinite), the rays of the area
+     * light samples go from the point to the sample and end there
+     * @param shadowOrigin the origin of the shadow rays (the point moved by the shadow bias)
+     * @param scene the CompiledScene with all the objects, lights, camera and acceleration structures
+     * @param lightIndex the index of the light to check
+     * @return the fraction of the shadow rays that reach the light, from 0 (in shadow) to 1 (fully lit)
+     */
+    private double calculateVisibility(Vector3D shadowOrigin, CompiledScene scene, int lightIndex) {
+        Light light = scene.getLight(lightIndex);
+        int samples = light.getShadowSamples();
+        LongAdder shadowRays = scene.getStatistics().getCounter("shadow rays");
+        if (samples <= 1) {
+            shadowRays.increment();
+            return isOccluded(new Ray(shadowOrigin, light.getPosition()), Double.POSITIVE_INFINITY, scene, lightIndex) ? 0d : 1d;
+        }
 
-        Vector3D shadowOrigin = Vector3D.add(objectIntersection.getPosition(), Vector3D.scalarMultiplication(objectIntersection.getNormal(), getShadowBias()));
-        Ray shadowRay = new Ray(shadowOrigin, light.getPosition());
-        Intersection shadowIntersection = raycast(shadowRay, objects, camera, false);
+        ISampler sampler = scene.getSampler();
+        double[] lightSample = scene.getLightSample();
+        int probes = light.getProbeSamples();
+        int visibleSamples = 0;
+        for (int probe = 0; probe < probes; probe++) {
+            sampler.get2D(lightSample);
+            if (isSampleVisible(shadowOrigin, light.getSamplePosition(probe, probes, lightSample[0], lightSample[1]), scene, lightIndex)) visibleSamples++;
+        }
+        if (visibleSamples == 0 || visibleSamples == probes) {
+            shadowRays.add(probes);
+            return visibleSamples == 0 ? 0d : 1d;
+        }
 
-        if (shadowIntersection == null) {
-            pixelColor = addColor(pixelColor, multiplyColor(calculateDiffuseColor(objectIntersection, light, objectColor), diffuseCoefficient));
-            pixelColor = addColor(pixelColor, multiplyColor(calculateSpecularColor(objectIntersection, light, camera), specularCoefficient));
+        for (int sample = 0; sample < samples; sample++) {
+            sampler.get2D(lightSample);
+            if (isSampleVisible(shadowOrigin, light.getSamplePosition(sample, samples, lightSample[0], lightSample[1]), scene, lightIndex)) visibleSamples++;
         }
+        shadowRays.add(probes + samples);
+        scene.getStatistics().getCounter("penumbra points").increment();
+        return (double) visibleSamples / (probes + samples);
+    }
 
-        return pixelColor;
+    /**
+     * checks if a sample of an area light can be seen from a point, the shadow ray goes from the point to the sample
+     * and only the objects between them block it
+     * @param shadowOrigin the origin of the shadow ray (the point moved by the shadow bias)
+     * @param samplePosition the position of the light sample
+     * @param scene the CompiledScene with all the objects, lights, camera and acceleration structures
+     * @param lightIndex the index of the light of the sample
+     * @return true if no object blocks the shadow ray
+     */
+    private boolean isSampleVisible(Vector3D shadowOrigin, Vector3D samplePosition, CompiledScene scene, int lightIndex) {
+        Vector3D toSample = Vector3D.subtract(samplePosition, shadowOrigin);
+        return !isOccluded(new Ray(shadowOrigin, toSample), Vector3D.magnitude(toSample), scene, lightIndex);
     }
 
     /**
      * calculates the ambient Color component of the Blinn-Phong model in a given point
-     * @param intersection the Intersection of the point to shade
+     * @param material the material parameters of the object in the point to shade
      * @return the ambient Color component
      */
-    private Color calculateAmbientColor(Intersection intersection) {
-        return intersection.getObject().getColor();
+    private Color calculateAmbientColor(MaterialParameters material) {
+        return material.getColor();
     }
 
     /**
@@ -359,8 +1487,7 @@ public class Raytracer {
         float lambertianSurfaceValue = (float) light.getLambertianSurfaceValue(intersection);
         double lightIntensity = light.getIntensity();
         Color lightColor = light.getColor();
-        double distanceFromPointToLight = Vector3D.magnitude(Vector3D.subtract(intersection.getPosition(), light.getPosition()));
-        if (light instanceof DirectionalLight) distanceFromPointToLight = 1d;
+        double distanceFromPointToLight = light.getFalloffDistance(intersection.getPosition());
         lightIntensity /= Math.pow(distanceFromPointToLight, getLightFalloffExponent());
         Color newColor = multiplyColor(objectColor, lightIntensity * lambertianSurfaceValue);
         newColor = multiplyColors(newColor, lightColor);
@@ -371,21 +1498,19 @@ public class Raytracer {
     /**
      * calculates the specular Color component of the Blinn-Phong model in a given point
      * @param intersection the Intersection of the point to shade
+     * @param material the material parameters of the object in the point to shade
+     * @param scene the CompiledScene with the object positions and the camera
      * @param light a light used to illuminate the given point
-     * @param camera the main Camera of the scene
      * @return the specular Color component
      */
-    private Color calculateSpecularColor(Intersection intersection, Light light, Camera camera) {
+    private Color calculateSpecularColor(Intersection intersection, MaterialParameters material, CompiledScene scene, Light light) {
         Vector3D surfaceNormal = Vector3D.normalize(intersection.getNormal());
-        Object3D object = intersection.getObject();
-        Color objectColor = object.getColor();
+        Vector3D objectPosition = scene.getObjectPosition(intersection.getObjectId());
+        Color objectColor = material.getColor();
         Color specularColor = Color.BLACK;
-        Material objMaterial = object.getMaterial();
-        double shininessFactor;
-        if (objMaterial instanceof BlinnPhongMaterial) shininessFactor = ((BlinnPhongMaterial) objMaterial).getShininess();
-        else shininessFactor = 0d;
-        Vector3D lightDirection = Vector3D.normalize(Vector3D.subtract(light.getPosition(), object.getPosition()));
-        Vector3D viewDirection = Vector3D.normalize(Vector3D.subtract(camera.getPosition(), object.getPosition()));
+        double shininessFactor = material.getShininess();
+        Vector3D lightDirection = Vector3D.normalize(Vector3D.subtract(light.getPosition(), objectPosition));
+        Vector3D viewDirection = Vector3D.normalize(Vector3D.subtract(scene.getCamera().getPosition(), objectPosition));
         Vector3D halfDirection = Vector3D.normalize(Vector3D.add(lightDirection, viewDirection));
         double blinnPhongValue = Math.pow(Math.max(Vector3D.dotProduct(surfaceNormal, halfDirection), 0d), shininessFactor);
         Color newColor = multiplyColor(objectColor, blinnPhongValue);
@@ -418,6 +1543,15 @@ public class Raytracer {
         return new Color(clamp(colorValuesA[0]), clamp(colorValuesA[1]), clamp(colorValuesA[2]));
     }
 
+    /**
+     * checks if a Color has no contribution
+     * @param color the Color to check
+     * @return true if the RGB values of the Color are 0
+     */
+    private boolean isBlack(Color color) {
+        return (color.getRGB() & 0xFFFFFF) == 0;
+    }
+
     /**
      * adds the RGB values of two Colors
      * @param colorA the first Color to add
@@ -510,6 +1644,368 @@ public class Raytracer {
     public void setUseClippingPlanes(boolean useClippingPlanes) {
         this.useClippingPlanes = useClippingPlanes;
     }
+    /**
+     * class getter
+     * @return boolean flag if the objects outside the camera frustum are removed from the primary rays
+     */
+    public boolean isUsingFrustumCulling() {
+        return useFrustumCulling;
+    }
+    /**
+     * class setter
+     * @param useFrustumCulling boolean flag for culling the objects outside the camera frustum to set
+     */
+    public void setUseFrustumCulling(boolean useFrustumCulling) {
+        this.useFrustumCulling = useFrustumCulling;
+    }
+
+    /**
+     * class getter
+     * @return boolean flag if the first hits of the primary rays are rasterized into a visibility buffer (only with 1 sample
+     * per pixel and without the render cache, the tiles of a cached render record the objects hit by their primary rays)
+     */
+    public boolean isUsingHybridVisibility() {
+        return useHybridVisibility;
+    }
+    /**
+     * class setter
+     * @param useHybridVisibility boolean flag for rasterizing the first hits of the primary rays to set, the image does not change
+     */
+    public void setUseHybridVisibility(boolean useHybridVisibility) {
+        this.useHybridVisibility = useHybridVisibility;
+    }
+
+    /**
+     * class getter
+     * @return the minimum attenuated light intensity considered a contribution
+     */
+    public double getLightContributionThreshold() {
+        return lightContributionThreshold;
+    }
+    /**
+     * class setter
+     * @param lightContributionThreshold the minimum attenuated light intensity to set, the diffuse light of a light is not calculated farther than its influence radius (0 to calculate it for every light)
+     */
+    public void setLightContributionThreshold(double lightContributionThreshold) {
+        this.lightContributionThreshold = lightContributionThreshold;
+    }
+
+    /**
+     * class getter
+     * @return the maximum number of lights evaluated per hit (0 for every light)
+     */
+    public int getMaxLightsPerHit() {
+        return maxLightsPerHit;
+    }
+    /**
+     * class setter
+     * @param maxLightsPerHit the maximum number of lights evaluated per hit to set, when more lights reach a point they are chosen randomly (0 for every light)
+     */
+    public void setMaxLightsPerHit(int maxLightsPerHit) {
+        this.maxLightsPerHit = maxLightsPerHit;
+    }
+
+    /**
+     * class getter
+     * @return boolean flag if the visibility of the lights is baked over the surfaces (and saved in the bakes/ folder)
+     */
+    public boolean isUsingBakedLighting() {
+        return useBakedLighting;
+    }
+    /**
+     * class setter
+     * @param useBakedLighting boolean flag for baking the visibility of the lights to set
+     */
+    public void setUseBakedLighting(boolean useBakedLighting) {
+        this.useBakedLighting = useBakedLighting;
+    }
+
+    /**
+     * class getter
+     * @return the distance between the points of the baked lighting
+     */
+    public double getBakeTexelSize() {
+        return bakeTexelSize;
+    }
+    /**
+     * class setter
+     * @param bakeTexelSize the distance between the points of the baked lighting to set
+     */
+    public void setBakeTexelSize(double bakeTexelSize) {
+        this.bakeTexelSize = bakeTexelSize;
+    }
+
+    /**
+     * class getter
+     * @return boolean flag if the indirect diffuse light of LambertMaterial surfaces is calculated with an irradiance cache
+     */
+    public boolean isUsingIrradianceCache() {
+        return useIrradianceCache;
+    }
+    /**
+     * class setter
+     * @param useIrradianceCache boolean flag for calculating the indirect diffuse light to set
+     */
+    public void setUseIrradianceCache(boolean useIrradianceCache) {
+        this.useIrradianceCache = useIrradianceCache;
+    }
+
+    /**
+     * class getter
+     * @return the number of hemisphere samples of each irradiance record
+     */
+    public int getIrradianceSamples() {
+        return irradianceSamples;
+    }
+    /**
+     * class setter
+     * @param irradianceSamples the number of hemisphere samples of each irradiance record to set
+     */
+    public void setIrradianceSamples(int irradianceSamples) {
+        this.irradianceSamples = irradianceSamples;
+    }
+
+    /**
+     * class getter
+     * @return the maximum error allowed when an irradiance record is reused
+     */
+    public double getIrradianceCacheAccuracy() {
+        return irradianceCacheAccuracy;
+    }
+    /**
+     * class setter
+     * @param irradianceCacheAccuracy the maximum error allowed when an irradiance record is reused to set (smaller values create more records)
+     */
+    public void setIrradianceCacheAccuracy(double irradianceCacheAccuracy) {
+        this.irradianceCacheAccuracy = irradianceCacheAccuracy;
+    }
+
+    /**
+     * class getter
+     * @return boolean flag if the caustics are calculated with a photon map traced before the render
+     */
+    public boolean isUsingCausticPhotonMap() {
+        return useCausticPhotonMap;
+    }
+    /**
+     * class setter
+     * @param useCausticPhotonMap boolean flag for calculating the caustics to set
+     */
+    public void setUseCausticPhotonMap(boolean useCausticPhotonMap) {
+        this.useCausticPhotonMap = useCausticPhotonMap;
+    }
+
+    /**
+     * class getter
+     * @return the number of photons emitted towards the reflective and refractive objects
+     */
+    public int getCausticPhotons() {
+        return causticPhotons;
+    }
+    /**
+     * class setter
+     * @param causticPhotons the number of photons emitted towards the reflective and refractive objects to set
+     */
+    public void setCausticPhotons(int causticPhotons) {
+        this.causticPhotons = causticPhotons;
+    }
+
+    /**
+     * class getter
+     * @return the maximum distance between a point and the photons used to estimate its caustics
+     */
+    public double getCausticGatherRadius() {
+        return causticGatherRadius;
+    }
+    /**
+     * class setter
+     * @param causticGatherRadius the maximum distance between a point and the photons used to estimate its caustics to set
+     * (larger values give smoother but blurrier caustics)
+     */
+    public void setCausticGatherRadius(double causticGatherRadius) {
+        this.causticGatherRadius = causticGatherRadius;
+    }
+
+    /**
+     * class getter
+     * @return the number of samples (primary rays) averaged in each pixel
+     */
+    public int getSamplesPerPixel() {
+        return samplesPerPixel;
+    }
+    /**
+     * class setter
+     * @param samplesPerPixel the number of samples averaged in each pixel to set (at least 1)
+     */
+    public void setSamplesPerPixel(int samplesPerPixel) {
+        this.samplesPerPixel = Math.max(samplesPerPixel, 1);
+    }
+
+    /**
+     * class getter
+     * @return boolean flag if the rendered frame buffer is filtered with the edge avoiding denoiser
+     */
+    public boolean isUsingDenoiser() {
+        return useDenoiser;
+    }
+    /**
+     * class setter
+     * @param useDenoiser boolean flag for filtering the rendered frame buffer to set
+     */
+    public void setUseDenoiser(boolean useDenoiser) {
+        this.useDenoiser = useDenoiser;
+    }
+
+    /**
+     * class getter
+     * @return the number of iterations of the denoiser
+     */
+    public int getDenoiserIterations() {
+        return denoiserIterations;
+    }
+    /**
+     * class setter
+     * @param denoiserIterations the number of iterations of the denoiser to set (each one doubles the filtered area)
+     */
+    public void setDenoiserIterations(int denoiserIterations) {
+        this.denoiserIterations = denoiserIterations;
+    }
+
+    /**
+     * class getter
+     * @return the maximum time in ms of a progressive render
+     */
+    public int getTimeBudget() {
+        return timeBudget;
+    }
+    /**
+     * class setter
+     * @param timeBudget the maximum time in ms of a progressive render to set
+     */
+    public void setTimeBudget(int timeBudget) {
+        this.timeBudget = Math.max(timeBudget, 0);
+    }
+
+    /**
+     * class getter
+     * @return the average relative error of the pixels that stops a progressive render (0 if it is not used)
+     */
+    public double getNoiseTarget() {
+        return noiseTarget;
+    }
+    /**
+     * class setter
+     * @param noiseTarget the average relative error of the pixels that stops a progressive render to set (0 to render for the whole time budget)
+     */
+    public void setNoiseTarget(double noiseTarget) {
+        this.noiseTarget = Math.max(noiseTarget, 0d);
+    }
+
+    /**
+     * class getter
+     * @return the time in ms between the images saved during a progressive render (0 if only the final image is saved)
+     */
+    public int getProgressiveSaveInterval() {
+        return progressiveSaveInterval;
+    }
+    /**
+     * class setter
+     * @param progressiveSaveInterval the time in ms between the images saved during a progressive render to set
+     */
+    public void setProgressiveSaveInterval(int progressiveSaveInterval) {
+        this.progressiveSaveInterval = Math.max(progressiveSaveInterval, 0);
+    }
+
+    /**
+     * class getter
+     * @return the minimum time in ms between the checkpoints of a render (0 if no checkpoints are saved)
+     */
+    public int getCheckpointInterval() {
+        return checkpointInterval;
+    }
+    /**
+     * class setter
+     * @param checkpointInterval the minimum time in ms between the checkpoints of a render to set (0 to render without checkpoints)
+     */
+    public void setCheckpointInterval(int checkpointInterval) {
+        this.checkpointInterval = Math.max(checkpointInterval, 0);
+    }
+
+    /**
+     * class getter
+     * @return the maximum size in bytes of the render cache (0 if the renders are not cached)
+     */
+    public long getRenderCacheSize() {
+        return renderCacheSize;
+    }
+    /**
+     * class setter
+     * @param renderCacheSize the maximum size in bytes of the render cache to set (0 to render without the cache)
+     */
+    public void setRenderCacheSize(long renderCacheSize) {
+        this.renderCacheSize = Math.max(renderCacheSize, 0L);
+    }
+
+    /**
+     * class getter
+     * @return the maximum number of bounces of a path
+     */
+    public int getMaxPathDepth() {
+        return maxPathDepth;
+    }
+    /**
+     * class setter
+     * @param maxPathDepth the maximum number of bounces of a path to set
+     */
+    public void setMaxPathDepth(int maxPathDepth) {
+        this.maxPathDepth = Math.max(maxPathDepth, 0);
+    }
+
+    /**
+     * class getter
+     * @return the type of sampler used for the anti aliasing, area lights, light selection and paths
+     */
+    public SamplerType getSamplerType() {
+        return samplerType;
+    }
+    /**
+     * class setter
+     * @param samplerType the type of sampler to set
+     */
+    public void setSamplerType(SamplerType samplerType) {
+        this.samplerType = samplerType;
+    }
+
+    /**
+     * class getter
+     * @return the seed of the sampler, renders with the same seed are identical
+     */
+    public int getSamplerSeed() {
+        return samplerSeed;
+    }
+    /**
+     * class setter
+     * @param samplerSeed the seed of the sampler to set
+     */
+    public void setSamplerSeed(int samplerSeed) {
+        this.samplerSeed = samplerSeed;
+    }
+
+    /**
+     * class getter
+     * @return the size in pixels of the tiles rendered by a tile scheduler
+     */
+    public int getTileSize() {
+        return tileSize;
+    }
+    /**
+     * class setter
+     * @param tileSize the size in pixels of the tiles rendered by a tile scheduler to set (smaller tiles give the threads to other renders sooner)
+     */
+    public void setTileSize(int tileSize) {
+        this.tileSize = Math.max(tileSize, 1);
+    }
+
     /**
      * class getter
      * @return the shadow bias value
@@ -555,4 +2051,34 @@ public class Raytracer {
         this.refractionBias = refractionBias;
     }
 
+    /**
+     * class getter
+     * @return the build preset used for the bounding volume hierarchies
+     */
+    public BVHBuildQuality getBVHBuildQuality() {
+        return bvhBuildQuality;
+    }
+    /**
+     * class setter
+     * @param bvhBuildQuality the build preset to set (FAST for previews, OPTIMIZED for final renders)
+     */
+    public void setBVHBuildQuality(BVHBuildQuality bvhBuildQuality) {
+        this.bvhBuildQuality = bvhBuildQuality;
+    }
+
+    /**
+     * class getter
+     * @return the type of acceleration structure used for the objects and meshes
+     */
+    public AccelerationStructureType getAccelerationStructureType() {
+        return accelerationStructureType;
+    }
+    /**
+     * class setter
+     * @param accelerationStructureType the type of acceleration structure to set (BVH, GRID or TWO_LEVEL_GRID)
+     */
+    public void setAccelerationStructureType(AccelerationStructureType accelerationStructureType) {
+        this.accelerationStructureType = accelerationStructureType;
+    }
+
 }
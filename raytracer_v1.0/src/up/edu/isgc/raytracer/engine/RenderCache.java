@@ -0,0 +1,254 @@
+/*
+  [1968] - [2020] Centros Culturales de Mexico A.C / Universidad Panamericana
+  All Rights Reserved.
+ */
+package up.edu.isgc.raytracer.engine;
+
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Content addressed cache of finished renders in the cache/ folder, a scene rendered again with the same objects, materials,
+ * lights, camera and configuration is read from the cache instead of rendered
+ * Every render is saved with a hash of its content (the geometry of every object, including the triangles of the meshes,
+ * its material, the lights, the camera and the configuration of the raytracer) with the frame buffer before denoising and
+ * the dependencies of each tile (see TileDependencies)
+ * The last render of each view (same camera and configuration) is remembered, so when only some objects, materials or lights
+ * change the tiles that the change can not reach are copied from that render and only the rest is traced
+ * Tiles are not reused with baked lighting, the irradiance cache or the caustic photon map, because they depend on the whole scene
+ * The least recently used files are deleted when the folder is bigger than the maximum size
+ *
+ * @author Homar Cano, Jafet Rodríguez
+ */
+final class RenderCache {
+    /**
+     * constant for the version of the file format, it is part of the hash
+     */
+    private static final int FILE_VERSION = 3;
+
+    private final File folder;
+    private final long maxSize;
+    private final SceneContent content;
+    private int evictedFiles;
+
+    /**
+     * class constructor
+     * @param folder the folder of the cache
+     * @param maxSize the maximum size of the folder in bytes
+     * @param content the hashes of the render
+     */
+    private RenderCache(File folder, long maxSize, SceneContent content) {
+        this.folder = folder;
+        this.maxSize = maxSize;
+        this.content = content;
+    }
+
+    /**
+     * calculates the hashes of a render, the scene does not have to be compiled
+     * @param scene the Scene to render
+     * @param raytracer the Raytracer with the configuration of the render
+     * @return the cache of the render
+     */
+    static RenderCache open(Scene scene, Raytracer raytracer) {
+        return new RenderCache(new File("cache"), raytracer.getRenderCacheSize(), SceneContent.of(scene, raytracer, FILE_VERSION));
+    }
+
+    /**
+     * reads the frame buffer of a render with the same hash, it becomes the most recently used file
+     * @return the frame buffer (before denoising) or null if the render is not in the cache
+     */
+    FrameBuffer load() {
+        File file = getRenderFile(content.getHash());
+        if (!file.isFile()) return null;
+        try (DataInputStream input = openRender(file)) {
+            if (input == null) return null;
+            SceneContent.readHashes(input);
+            FrameBuffer frameBuffer = FrameBuffer.read(input);
+            touch(file);
+            System.out.println(new Date() + " the render was found in the cache (" + content.getHash().substring(0, 12) + ")");
+            return frameBuffer;
+        } catch (IOException ex) {
+            System.out.println(new Date() + " !! the cached render '" + file.getName() + "' could not be read: " + ex + " !!");
+            return null;
+        }
+    }
+
+    /**
+     * copies the tiles of the last render of the same view that can not be changed by the differences between both scenes
+     * @param scene the CompiledScene of this render
+     * @param tiles the tiles of the image
+     * @param frameBuffer the frame buffer of the render
+     * @param finished the finished flag of every tile, the reused tiles are marked
+     * @param dependencies the dependencies of every tile, the dependencies of the reused tiles are copied
+     * @return the number of tiles reused
+     */
+    int reuseTiles(CompiledScene scene, List<Tile> tiles, FrameBuffer frameBuffer, boolean[] finished, TileDependencies[] dependencies) {
+        if (!content.isReusingTiles()) return 0;
+        File viewFile = new File(folder, content.getViewHash() + ".view");
+        if (!viewFile.isFile()) return 0;
+        File file;
+        try {
+            file = getRenderFile(new String(Files.readAllBytes(viewFile.toPath()), StandardCharsets.UTF_8).trim());
+        } catch (IOException ex) {
+            return 0;
+        }
+        if (!file.isFile()) return 0;
+
+        int reusedTiles;
+        try (DataInputStream input = openRender(file)) {
+            if (input == null) return 0;
+            SceneContent previous = SceneContent.readHashes(input);
+            FrameBuffer previousFrameBuffer = FrameBuffer.read(input);
+            TileDependencies[] previousDependencies = new TileDependencies[input.readInt()];
+            for (int i = 0; i < previousDependencies.length; i++) {
+                if (input.readBoolean()) previousDependencies[i] = TileDependencies.read(input);
+            }
+            reusedTiles = content.reuseTiles(previous, previousFrameBuffer, previousDependencies, scene, tiles, frameBuffer, finished, dependencies);
+            touch(file);
+        } catch (IOException ex) {
+            System.out.println(new Date() + " !! the cached render '" + file.getName() + "' could not be read: " + ex + " !!");
+            return 0;
+        }
+        System.out.println(new Date() + " reusing " + reusedTiles + " of " + tiles.size() + " tiles from the cached render " + file.getName().substring(0, 12));
+        return reusedTiles;
+    }
+
+    /**
+     * saves a finished render in the cache as the last render of its view and deletes the least recently used files
+     * if the folder is bigger than the maximum size
+     * @param frameBuffer the frame buffer of the render (before denoising)
+     * @param dependencies the dependencies of every tile (null if a tile was not recorded)
+     */
+    void store(FrameBuffer frameBuffer, TileDependencies[] dependencies) {
+        if (!folder.exists() && !folder.mkdirs()) {
+            System.out.println(new Date() + " !! the folder '" + folder.getPath() + "' could not be created !!");
+            return;
+        }
+        String hash = content.getHash();
+        File file = getRenderFile(hash);
+        File temporaryFile = new File(file.getPath() + ".tmp");
+        try {
+            try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temporaryFile)))) {
+                output.writeInt(FILE_VERSION);
+                output.writeUTF(hash);
+                Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+                try {
+                    DeflaterOutputStream compressed = new DeflaterOutputStream(output, deflater);
+                    DataOutputStream body = new DataOutputStream(new BufferedOutputStream(compressed));
+                    content.writeHashes(body);
+                    frameBuffer.write(body);
+                    int tileCount = content.isReusingTiles() && dependencies != null ? dependencies.length : 0;
+                    body.writeInt(tileCount);
+                    for (int i = 0; i < tileCount; i++) {
+                        body.writeBoolean(dependencies[i] != null);
+                        if (dependencies[i] != null) dependencies[i].write(body);
+                    }
+                    body.flush();
+                    compressed.finish();
+                } finally {
+                    deflater.end();
+                }
+            }
+            Files.move(temporaryFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            File viewFile = new File(folder, content.getViewHash() + ".view");
+            File temporaryViewFile = new File(viewFile.getPath() + ".tmp");
+            Files.write(temporaryViewFile.toPath(), hash.getBytes(StandardCharsets.UTF_8));
+            Files.move(temporaryViewFile.toPath(), viewFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException ioe) {
+            System.out.println(new Date() + " !! an error occurred saving the render '" + file.getName() + "' in the cache !!");
+            ioe.printStackTrace();
+            return;
+        }
+        evict();
+    }
+
+    /**
+     * deletes the least recently used renders until they are not bigger than the maximum size, the view files and the
+     * temporary files of other renders are not deleted
+     */
+    private void evict() {
+        File[] files = folder.listFiles((directory, name) -> name.endsWith(".render"));
+        if (files == null) return;
+        long size = 0L;
+        for (File file : files) size += file.length();
+        if (size <= maxSize) return;
+        Arrays.sort(files, Comparator.comparingLong(File::lastModified));
+        for (File file : files) {
+            if (size <= maxSize) break;
+            long length = file.length();
+            if (file.delete()) {
+                size -= length;
+                evictedFiles++;
+            }
+        }
+    }
+
+    /**
+     * adds the time spent hashing the render, the size of the cache and the number of files deleted to the statistics
+     * @param statistics the statistics of the render
+     */
+    void addStatistics(RenderStatistics statistics) {
+        statistics.put("cache key", content.getHash().substring(0, 12));
+        statistics.putTime("cache hash time", content.getHashTime());
+        File[] files = folder.listFiles(File::isFile);
+        long size = 0L;
+        if (files != null) for (File file : files) size += file.length();
+        statistics.put("cache size", String.format("%.2f MB", size / 1e6));
+        if (evictedFiles > 0) statistics.put("cache files evicted", String.valueOf(evictedFiles));
+    }
+
+    /**
+     * gets the file of a render in the cache
+     * @param renderHash the hash of the render
+     * @return the file
+     */
+    private File getRenderFile(String renderHash) {
+        return new File(folder, renderHash + ".render");
+    }
+
+    /**
+     * opens the file of a render and checks its header
+     * @param file the file
+     * @return the stream of the compressed content or null if the file is not a valid render
+     * @throws IOException if the file could not be read
+     */
+    private static DataInputStream openRender(File file) throws IOException {
+        DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        try {
+            if (input.readInt() != FILE_VERSION || !file.getName().equals(input.readUTF() + ".render")) {
+                input.close();
+                return null;
+            }
+            return new DataInputStream(new BufferedInputStream(new InflaterInputStream(input)));
+        } catch (IOException | RuntimeException ex) {
+            input.close();
+            throw ex;
+        }
+    }
+
+    /**
+     * marks a file as the most recently used
+     * @param file the file
+     */
+    private static void touch(File file) {
+        if (!file.setLastModified(System.currentTimeMillis())) System.out.println(new Date() + " !! the cached render '" + file.getName() + "' could not be touched !!");
+    }
+
+}
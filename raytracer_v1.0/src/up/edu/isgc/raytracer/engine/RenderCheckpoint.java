@@ -0,0 +1,443 @@
+/*
+  [1968] - [2020] Centros Culturales de Mexico A.C / Universidad Panamericana
+  All Rights Reserved.
+ */
+package up.edu.isgc.raytracer.engine;
+
+
+import up.edu.isgc.raytracer.tools.utility.ContentHash;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Saves the finished part of a long render in the checkpoints/ folder, so a render stopped by a crash or a restart continues
+ * where it stopped instead of starting again
+ * A ray traced render appends its finished tiles to the file and a progressive render replaces the file with the sums of its
+ * samples after a pass; the file starts with a hash of the scene and the configuration of the raytracer, a checkpoint with a
+ * different hash is never used
+ * The data is compressed and written by a background thread, the render threads only hand their results to the checkpoint
+ * A file cut by a crash keeps every tile written before the last one
+ *
+ * @author Homar Cano, Jafet Rodríguez
+ */
+final class RenderCheckpoint {
+    /**
+     * constant for the version of the file format, it is part of the hash
+     */
+    private static final int FILE_VERSION = 2;
+
+    private static final byte TILES = 1;
+    private static final byte SAMPLES = 2;
+
+    private final File file;
+    private final String hash;
+    private final byte kind;
+    private final int width;
+    private final int height;
+    private final long interval;
+    private final ExecutorService writer;
+    private final List<Tile> newTiles;
+    private final List<FrameBuffer> newBlocks;
+    private long nextWriteTime;
+    private boolean writing;
+    private boolean started;
+    private int resumedPasses;
+    private long resumedTraceTime;
+    private int writes;
+    private long writeTime;
+    private long fileSize;
+
+    /**
+     * class constructor, the file is not read or written until the render asks for it
+     * @param file the file of the checkpoint
+     * @param hash the hash of the scene and the configuration of the raytracer
+     * @param kind the kind of checkpoint (tiles or samples)
+     * @param width the width of the image in pixels
+     * @param height the height of the image in pixels
+     * @param interval the minimum time in ms between two writes
+     */
+    private RenderCheckpoint(File file, String hash, byte kind, int width, int height, int interval) {
+        this.file = file;
+        this.hash = hash;
+        this.kind = kind;
+        this.width = width;
+        this.height = height;
+        this.interval = interval * 1000000L;
+        this.writer = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "checkpoint writer " + file.getName());
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.newTiles = new ArrayList<>();
+        this.newBlocks = new ArrayList<>();
+        this.nextWriteTime = System.nanoTime() + this.interval;
+    }
+
+    /**
+     * creates the checkpoint of a render, its file is checkpoints/ followed by the name of the scene
+     * @param scene the Scene to render
+     * @param raytracer the Raytracer with the configuration of the render
+     * @param progressive true for a progressive render (the samples are saved) or false for a ray traced render (the tiles are saved)
+     * @return the checkpoint
+     */
+    static RenderCheckpoint open(Scene scene, Raytracer raytracer, boolean progressive) {
+        byte kind = progressive ? SAMPLES : TILES;
+        return new RenderCheckpoint(new File("checkpoints/" + scene.getName() + ".checkpoint"), hashRender(scene, raytracer, kind), kind,
+                scene.getCamera().getResolutionWidth(), scene.getCamera().getResolutionHeight(), raytracer.getCheckpointInterval());
+    }
+
+    /**
+     * calculates the hash of everything that changes the pixels of a render: the content of the scene (see SceneContent)
+     * and the kind of checkpoint, the settings that only change how long it takes (threads, timeout, time budget...) or the
+     * denoising at the end are ignored
+     * @param scene the Scene to render
+     * @param raytracer the Raytracer with the configuration of the render
+     * @param kind the kind of checkpoint
+     * @return the hash of the render
+     */
+    private static String hashRender(Scene scene, Raytracer raytracer, byte kind) {
+        return new ContentHash().add(SceneContent.of(scene, raytracer, FILE_VERSION).getHash()).add(kind).toHex();
+    }
+
+    /**
+     * reads the tiles saved by a previous render of the same scene and copies them into the frame buffer, the file is cut
+     * after the last complete tile so the next tiles are appended after it
+     * @param tiles the tiles of the image
+     * @param frameBuffer the frame buffer of the render
+     * @return the finished flag of every tile
+     */
+    boolean[] resumeTiles(List<Tile> tiles, FrameBuffer frameBuffer) {
+        boolean[] finished = new boolean[tiles.size()];
+        if (!file.isFile()) return finished;
+        int resumedTiles = 0;
+        long validLength = 0L;
+        try {
+            byte[] content = Files.readAllBytes(file.toPath());
+            ByteArrayInputStream bytes = new ByteArrayInputStream(content);
+            DataInputStream input = new DataInputStream(bytes);
+            if (!readHeader(input)) return finished;
+            validLength = content.length - bytes.available();
+            started = true;
+            try {
+                while (bytes.available() > 0) {
+                    int index = input.readInt();
+                    byte[] compressed = new byte[input.readInt()];
+                    input.readFully(compressed);
+                    FrameBuffer block = decompress(compressed);
+                    Tile tile = tiles.get(index);
+                    if (block.getWidth() != tile.getWidth() || block.getHeight() != tile.getHeight()) break;
+                    frameBuffer.setTile(tile, block);
+                    if (!finished[index]) resumedTiles++;
+                    finished[index] = true;
+                    validLength = content.length - bytes.available();
+                }
+            } catch (IOException | IndexOutOfBoundsException | NegativeArraySizeException ex) {
+                // the last tile was cut by a crash, it is rendered again
+            }
+            if (validLength < content.length) {
+                try (RandomAccessFile output = new RandomAccessFile(file, "rw")) {
+                    output.setLength(validLength);
+                }
+            }
+            fileSize = validLength;
+        } catch (IOException ex) {
+            System.out.println(new Date() + " !! the checkpoint '" + file.getName() + "' could not be read, the render starts again: " + ex + " !!");
+            started = false;
+            return new boolean[tiles.size()];
+        }
+        System.out.println(new Date() + " resuming the render from the checkpoint '" + file.getName() + "': " + resumedTiles + " of " + tiles.size() + " tiles");
+        return finished;
+    }
+
+    /**
+     * reads the samples saved by a previous progressive render of the same scene
+     * @return the accumulator with the samples or null if there is no valid checkpoint
+     */
+    SampleAccumulator resumeSamples() {
+        if (!file.isFile()) return null;
+        try (DataInputStream input = new DataInputStream(new ByteArrayInputStream(Files.readAllBytes(file.toPath())))) {
+            if (!readHeader(input)) return null;
+            int passes = input.readInt();
+            long traceTime = input.readLong();
+            SampleAccumulator accumulator = new SampleAccumulator(width, height);
+            try (DataInputStream samples = new DataInputStream(new BufferedInputStream(new InflaterInputStream(input)))) {
+                accumulator.read(samples);
+            }
+            resumedPasses = passes;
+            resumedTraceTime = traceTime;
+            started = true;
+            fileSize = file.length();
+            System.out.println(new Date() + " resuming the render from the checkpoint '" + file.getName() + "': " + passes + " passes");
+            return accumulator;
+        } catch (IOException ex) {
+            System.out.println(new Date() + " !! the checkpoint '" + file.getName() + "' could not be read, the render starts again: " + ex + " !!");
+            return null;
+        }
+    }
+
+    /**
+     * adds a finished tile, it is written with the next checkpoint (called by the render threads)
+     * @param tile the tile
+     * @param block the frame buffer of the tile, it must not change after it is added
+     */
+    synchronized void addTile(Tile tile, FrameBuffer block) {
+        newTiles.add(tile);
+        newBlocks.add(block);
+    }
+
+    /**
+     * appends the tiles finished since the last checkpoint in the background, if the interval passed and the last write is finished
+     */
+    synchronized void saveTilesIfDue() {
+        if (writing || newTiles.isEmpty() || System.nanoTime() < nextWriteTime) return;
+        startTileWrite();
+    }
+
+    /**
+     * replaces the saved samples with the samples of a progressive render in the background, if the interval passed and the
+     * last write is finished, the sums are copied so the next pass can start right away
+     * @param accumulator the accumulator of the render, it must not change while it is copied
+     * @param passes the number of passes in the accumulator
+     * @param traceTime the time in ns spent tracing the passes (including the time of the resumed renders)
+     */
+    synchronized void saveSamplesIfDue(SampleAccumulator accumulator, int passes, long traceTime) {
+        if (writing || System.nanoTime() < nextWriteTime) return;
+        SampleAccumulator samples = accumulator.copy();
+        writing = true;
+        writer.execute(() -> writeSamples(samples, passes, traceTime));
+    }
+
+    /**
+     * writes the tiles that are not saved yet and waits for every write, used when a render stops before it is finished
+     */
+    void close() {
+        synchronized (this) {
+            if (!newTiles.isEmpty()) startTileWrite();
+        }
+        awaitWriter();
+        System.out.println(new Date() + " the render can be resumed from the checkpoint '" + file.getName() + "'");
+    }
+
+    /**
+     * waits for every write and deletes the file, used when a render is finished
+     */
+    void delete() {
+        synchronized (this) {
+            newTiles.clear();
+            newBlocks.clear();
+        }
+        awaitWriter();
+        if (file.exists() && !file.delete()) System.out.println(new Date() + " !! the checkpoint '" + file.getName() + "' could not be deleted !!");
+    }
+
+    /**
+     * adds the number of checkpoints written, the time spent writing them and the size of the file to the statistics
+     * @param statistics the statistics of the render
+     */
+    synchronized void addStatistics(RenderStatistics statistics) {
+        statistics.put("checkpoint writes", String.valueOf(writes));
+        statistics.putTime("checkpoint write time", writeTime);
+        statistics.put("checkpoint size", String.format("%.2f MB", fileSize / 1e6));
+    }
+
+    /**
+     * class getter
+     * @return the number of passes of the resumed progressive render (0 if it was not resumed)
+     */
+    int getResumedPasses() {
+        return resumedPasses;
+    }
+
+    /**
+     * class getter
+     * @return the time in ns spent tracing the passes of the resumed progressive render (0 if it was not resumed)
+     */
+    long getResumedTraceTime() {
+        return resumedTraceTime;
+    }
+
+    /**
+     * takes the tiles that are not saved yet and appends them in the background, the caller must hold the lock of the checkpoint
+     */
+    private void startTileWrite() {
+        List<Tile> tiles = new ArrayList<>(newTiles);
+        List<FrameBuffer> blocks = new ArrayList<>(newBlocks);
+        newTiles.clear();
+        newBlocks.clear();
+        writing = true;
+        writer.execute(() -> writeTiles(tiles, blocks));
+    }
+
+    /**
+     * appends tiles to the file, the file is created with its header if this render did not start it (runs in the writer thread)
+     * @param tiles the tiles
+     * @param blocks the frame buffer of every tile
+     */
+    private void writeTiles(List<Tile> tiles, List<FrameBuffer> blocks) {
+        long startTime = System.nanoTime();
+        if (createFolder()) {
+            try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, started)))) {
+                if (!started) writeHeader(output);
+                for (int i = 0; i < tiles.size(); i++) {
+                    byte[] compressed = compress(blocks.get(i));
+                    output.writeInt(tiles.get(i).getIndex());
+                    output.writeInt(compressed.length);
+                    output.write(compressed);
+                }
+                started = true;
+            } catch (IOException ioe) {
+                System.out.println(new Date() + " !! an error occurred saving the checkpoint '" + file.getName() + "' !!");
+                ioe.printStackTrace();
+            }
+        }
+        finishWrite(startTime);
+    }
+
+    /**
+     * replaces the file with the samples of a progressive render, the samples are written to a temporary file that is then
+     * moved over the last checkpoint, so a crash while writing keeps the last checkpoint (runs in the writer thread)
+     * @param accumulator the copy of the samples
+     * @param passes the number of passes in the samples
+     * @param traceTime the time in ns spent tracing the passes
+     */
+    private void writeSamples(SampleAccumulator accumulator, int passes, long traceTime) {
+        long startTime = System.nanoTime();
+        if (createFolder()) {
+            File temporaryFile = new File(file.getPath() + ".tmp");
+            try {
+                try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temporaryFile)))) {
+                    writeHeader(output);
+                    output.writeInt(passes);
+                    output.writeLong(traceTime);
+                    Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+                    try {
+                        DeflaterOutputStream compressed = new DeflaterOutputStream(output, deflater);
+                        DataOutputStream samples = new DataOutputStream(new BufferedOutputStream(compressed));
+                        accumulator.write(samples);
+                        samples.flush();
+                        compressed.finish();
+                    } finally {
+                        deflater.end();
+                    }
+                }
+                Files.move(temporaryFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                started = true;
+            } catch (IOException ioe) {
+                System.out.println(new Date() + " !! an error occurred saving the checkpoint '" + file.getName() + "' !!");
+                ioe.printStackTrace();
+            }
+        }
+        finishWrite(startTime);
+    }
+
+    /**
+     * counts a finished write and allows the next one after the interval
+     * @param startTime the time when the write started
+     */
+    private synchronized void finishWrite(long startTime) {
+        long time = System.nanoTime();
+        writes++;
+        writeTime += time - startTime;
+        fileSize = file.length();
+        nextWriteTime = time + interval;
+        writing = false;
+    }
+
+    /**
+     * stops the writer thread after its pending writes and waits for them
+     */
+    private void awaitWriter() {
+        writer.shutdown();
+        try {
+            if (!writer.awaitTermination(1, TimeUnit.MINUTES)) System.out.println(new Date() + " !! the checkpoint '" + file.getName() + "' is still being written !!");
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * writes the header of the file: version, hash, kind and size of the image
+     * @param output the stream of the file
+     * @throws IOException if the header could not be written
+     */
+    private void writeHeader(DataOutputStream output) throws IOException {
+        output.writeInt(FILE_VERSION);
+        output.writeUTF(hash);
+        output.writeByte(kind);
+        output.writeInt(width);
+        output.writeInt(height);
+    }
+
+    /**
+     * reads the header of the file and checks that it belongs to this render
+     * @param input the stream of the file
+     * @return true if the file has the same version, hash, kind and size of the image
+     * @throws IOException if the header could not be read
+     */
+    private boolean readHeader(DataInputStream input) throws IOException {
+        return input.readInt() == FILE_VERSION && hash.equals(input.readUTF()) && input.readByte() == kind && input.readInt() == width && input.readInt() == height;
+    }
+
+    /**
+     * creates the folder of the file if it does not exist
+     * @return true if the folder exists
+     */
+    private boolean createFolder() {
+        File folder = file.getParentFile();
+        if (folder != null && !folder.exists() && !folder.mkdirs()) {
+            System.out.println(new Date() + " !! the folder '" + folder.getPath() + "' could not be created !!");
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * compresses the buffers of a tile
+     * @param block the frame buffer of the tile
+     * @return the compressed bytes
+     * @throws IOException if the tile could not be written
+     */
+    private static byte[] compress(FrameBuffer block) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new DeflaterOutputStream(bytes, deflater)))) {
+            block.write(output);
+        } finally {
+            deflater.end();
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * decompresses the buffers of a tile written with compress()
+     * @param compressed the compressed bytes
+     * @return the frame buffer of the tile
+     * @throws IOException if the tile could not be read
+     */
+    private static FrameBuffer decompress(byte[] compressed) throws IOException {
+        try (DataInputStream input = new DataInputStream(new BufferedInputStream(new InflaterInputStream(new ByteArrayInputStream(compressed))))) {
+            return FrameBuffer.read(input);
+        }
+    }
+
+}
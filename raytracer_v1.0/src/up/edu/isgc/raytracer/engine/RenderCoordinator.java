@@ -0,0 +1,439 @@
+/*
+  [1968] - [2020] Centros Culturales de Mexico A.C / Universidad Panamericana
+  All Rights Reserved.
+ */
+package up.edu.isgc.raytracer.engine;
+
+
+import up.edu.isgc.raytracer.objects.utility.Camera;
+import up.edu.isgc.raytracer.tools.utility.ContentHash;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.io.ObjectInputFilter;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Renders a scene with several render workers (other processes, in this or other machines) instead of the threads of a single Raytracer
+ * The coordinator listens on a TCP port, every worker that connects receives the configuration of the Raytracer and the
+ * serialized scene (only if the worker does not have a scene with the same content hash yet) and then asks for tiles
+ * until the image is finished; the tiles are handed out one by one, so faster workers render more of them
+ * The frame buffers of the tiles are merged into the image, a tile whose worker dies (or takes more than the tile timeout)
+ * is handed out again to another worker
+ * Every pixel is rendered like a local render does it, so the image is the same with any number of workers
+ * The coordinator listens on the loopback address by default, the workers of other machines need another bind address and
+ * a private network: the connections are not authenticated, only the classes of the scene, the configuration and the tiles
+ * are deserialized and the size of the streams is limited
+ *
+ * @author Homar Cano, Jafet Rodríguez
+ * @see RenderWorker
+ */
+public class RenderCoordinator {
+    /**
+     * constant for the time in ms the coordinator waits for a new worker before it checks the progress
+     */
+    private static final int ACCEPT_TIMEOUT = 100;
+    /**
+     * constant for the address in which the coordinator listens by default (only the workers of the same machine can connect)
+     */
+    public static final String DEFAULT_BIND_ADDRESS = "127.0.0.1";
+    /**
+     * constant for the default time in ms a worker can take to render a tile before it is handed out again
+     */
+    public static final int DEFAULT_TILE_TIMEOUT = 60000;
+    /**
+     * constant for the classes that can be read from a socket by the coordinator and the workers (the scene, the configuration,
+     * the tiles and their frame buffers) and the limits of the streams (depth of the object graph, length of the arrays,
+     * number of objects and bytes), every other class is rejected
+     */
+    static final ObjectInputFilter STREAM_FILTER = ObjectInputFilter.Config.createFilter("maxdepth=20;maxarray=16777216;maxrefs=16777216;maxbytes=1073741824;"
+            + "up.edu.isgc.raytracer.engine.Scene;up.edu.isgc.raytracer.engine.Raytracer;up.edu.isgc.raytracer.engine.Tile;up.edu.isgc.raytracer.engine.FrameBuffer;"
+            + "up.edu.isgc.raytracer.objects.Object3D;up.edu.isgc.raytracer.objects.Sphere;up.edu.isgc.raytracer.objects.Triangle;up.edu.isgc.raytracer.objects.Polygon;"
+            + "up.edu.isgc.raytracer.objects.utility.Vector3D;up.edu.isgc.raytracer.objects.utility.Camera;"
+            + "up.edu.isgc.raytracer.lights.Light;up.edu.isgc.raytracer.lights.PointLight;up.edu.isgc.raytracer.lights.DirectionalLight;"
+            + "up.edu.isgc.raytracer.lights.AreaLight;up.edu.isgc.raytracer.lights.RectangleAreaLight;up.edu.isgc.raytracer.lights.SphereAreaLight;"
+            + "up.edu.isgc.raytracer.materials.Material;up.edu.isgc.raytracer.materials.LambertMaterial;up.edu.isgc.raytracer.materials.BlinnPhongMaterial;"
+            + "up.edu.isgc.raytracer.materials.ReflectiveMaterial;up.edu.isgc.raytracer.materials.RefractiveMaterial;"
+            + "up.edu.isgc.raytracer.tools.acceleration.AccelerationStructureType;up.edu.isgc.raytracer.tools.acceleration.BVHBuildQuality;"
+            + "up.edu.isgc.raytracer.tools.sampling.SamplerType;java.awt.Color;java.lang.Enum;java.lang.Boolean;java.lang.Object;"
+            + "java.util.ArrayList;java.util.Arrays$ArrayList;!*");
+
+    private final Raytracer raytracer;
+    private String bindAddress;
+    private int port;
+    private int tileSize;
+    private int tileTimeout;
+
+    /**
+     * class constructor, the coordinator listens on the loopback address
+     * @param raytracer the Raytracer with the configuration sent to the workers (its timeout is the timeout of the whole render)
+     * @param port the TCP port in which the coordinator waits for the workers
+     */
+    public RenderCoordinator(Raytracer raytracer, int port) {
+        this.raytracer = raytracer;
+        setBindAddress(DEFAULT_BIND_ADDRESS);
+        setPort(port);
+        setTileSize(32);
+        setTileTimeout(DEFAULT_TILE_TIMEOUT);
+    }
+
+    /**
+     * renders a scene with the workers and saves it with its the name and extension
+     * shows a progress log in the console
+     * @param scene the Scene to render (using the ray tracing algorithm)
+     */
+    public void raytraceScene(Scene scene) {
+        RenderStatistics statistics = new RenderStatistics();
+        FrameBuffer frameBuffer = renderScene(scene, statistics);
+        if (frameBuffer == null) return;
+        statistics.print(scene.getName());
+        raytracer.saveImage(frameBuffer, scene.getName(), scene.getExtension());
+    }
+
+    /**
+     * renders a scene into a frame buffer with the workers, the frame buffer is denoised by the coordinator at the end
+     * if the denoiser is used
+     * shows a progress log in the console
+     * @param scene the Scene to render (using the ray tracing algorithm)
+     * @param statistics the statistics of the render
+     * @return the frame buffer rendered or null if the scene can not be rendered, the address can not be used or the render exceeds the timeout
+     */
+    public FrameBuffer renderScene(Scene scene, RenderStatistics statistics) {
+        if (!raytracer.isRenderable(scene)) return null;
+        Camera mainCamera = scene.getCamera();
+        String sceneName = scene.getName();
+        byte[] sceneBytes;
+        try {
+            sceneBytes = serialize(scene);
+        } catch (IOException ex) {
+            System.out.println(new Date() + " !! the scene '" + sceneName + "' can not be serialized: " + ex.getMessage() + " !!");
+            return null;
+        }
+        String sceneHash = new ContentHash().add(sceneBytes).toHex();
+
+        List<Tile> tiles = Tile.split(mainCamera.getResolutionWidth(), mainCamera.getResolutionHeight(), getTileSize());
+        TileQueue queue = new TileQueue(tiles, new FrameBuffer(mainCamera.getResolutionWidth(), mainCamera.getResolutionHeight()));
+        List<Socket> workers = new ArrayList<>();
+        long startTime = System.nanoTime();
+        boolean timedOut = false;
+        try (ServerSocket serverSocket = new ServerSocket(getPort(), 0, InetAddress.getByName(getBindAddress()))) {
+            serverSocket.setSoTimeout(ACCEPT_TIMEOUT);
+            System.out.println(new Date() + " waiting for render workers on " + getBindAddress() + ":" + getPort() + " (" + tiles.size() + " tiles, " + sceneBytes.length + " bytes of scene)...");
+            int percentage = 0;
+            while (!queue.isFinished()) {
+                try {
+                    Socket socket = serverSocket.accept();
+                    synchronized (workers) {
+                        workers.add(socket);
+                    }
+                    Thread handler = new Thread(() -> serveWorker(socket, sceneHash, sceneBytes, queue), "render worker " + socket.getRemoteSocketAddress());
+                    handler.setDaemon(true);
+                    handler.start();
+                } catch (SocketTimeoutException ex) {
+                    // no new worker, only the progress is checked
+                }
+
+                int newPercentage = Math.round((float) queue.getFinishedCount() / tiles.size() * 100f);
+                if (percentage < newPercentage) {
+                    System.out.println(new Date() + " raytracing the scene '" + sceneName + "' with " + workers.size() + " workers: " + percentage + "%");
+                    percentage = newPercentage;
+                }
+                if ((System.nanoTime() - startTime) / 1000000L > raytracer.getTimeout()) {
+                    System.out.println("!! Execution Timeout - The raytracing of '" + sceneName + "' exceeded the time limit !!");
+                    timedOut = true;
+                    break;
+                }
+            }
+        } catch (IOException ex) {
+            System.out.println(new Date() + " !! the address " + getBindAddress() + ":" + getPort() + " can not be used: " + ex.getMessage() + " !!");
+            return null;
+        } finally {
+            queue.close();
+            if (!queue.isFinished()) closeWorkers(workers);
+        }
+        if (timedOut) return null;
+
+        System.out.println(new Date() + " raytracing the scene '" + sceneName + "': 100%");
+        statistics.putTime("trace time", System.nanoTime() - startTime);
+        statistics.put("samples per pixel", String.valueOf(raytracer.getSamplesPerPixel()));
+        statistics.put("tiles", String.valueOf(tiles.size()));
+        statistics.put("workers", String.valueOf(workers.size()));
+        statistics.put("tiles re-issued", String.valueOf(queue.getReissuedCount()));
+        statistics.put("scenes sent", String.valueOf(queue.getSentSceneCount()));
+
+        FrameBuffer frameBuffer = queue.getFrameBuffer();
+        if (raytracer.isUsingDenoiser()) {
+            System.out.println(new Date() + " denoising the scene '" + sceneName + "'...");
+            long denoiseStartTime = System.nanoTime();
+            frameBuffer = new Denoiser(raytracer.getDenoiserIterations()).denoise(frameBuffer);
+            statistics.putTime("denoise time", System.nanoTime() - denoiseStartTime);
+        }
+        return frameBuffer;
+    }
+
+    /**
+     * sends the configuration and the scene to a worker and hands out tiles to it until the image is finished, the tile
+     * being rendered is handed out again if the connection fails
+     * @param socket the connection with the worker
+     * @param sceneHash the content hash of the serialized scene
+     * @param sceneBytes the serialized scene
+     * @param queue the tiles of the render
+     */
+    private void serveWorker(Socket socket, String sceneHash, byte[] sceneBytes, TileQueue queue) {
+        Tile tile = null;
+        try (socket) {
+            socket.setSoTimeout(getTileTimeout());
+            ObjectOutputStream output = new ObjectOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            output.writeObject(sceneHash);
+            output.writeObject(raytracer);
+            output.flush();
+            ObjectInputStream input = new ObjectInputStream(new BufferedInputStream(socket.getInputStream()));
+            input.setObjectInputFilter(STREAM_FILTER);
+            if ((Boolean) input.readObject()) {
+                output.writeObject(sceneBytes);
+                output.flush();
+                queue.countSentScene();
+            }
+
+            while ((tile = queue.take()) != null) {
+                output.writeObject(tile);
+                output.flush();
+                queue.finish(tile, (FrameBuffer) input.readObject());
+                tile = null;
+            }
+            output.writeObject(null);
+            output.flush();
+        } catch (IOException | ClassNotFoundException | ClassCastException ex) {
+            System.out.println(new Date() + " !! lost the render worker " + socket.getRemoteSocketAddress() + ": " + ex + " !!");
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } finally {
+            if (tile != null) queue.reissue(tile);
+        }
+    }
+
+    /**
+     * closes the connections with the workers, so they stop rendering tiles of an unfinished render
+     * @param workers the connections with the workers
+     */
+    private static void closeWorkers(List<Socket> workers) {
+        synchronized (workers) {
+            for (Socket socket : workers) {
+                try {
+                    socket.close();
+                } catch (IOException ex) {
+                    // the connection is already closed
+                }
+            }
+        }
+    }
+
+    /**
+     * serializes a scene (with the triangles of its polygons)
+     * @param scene the Scene to serialize
+     * @return the bytes of the scene
+     * @throws IOException if an object of the scene can not be serialized
+     */
+    private static byte[] serialize(Scene scene) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream output = new ObjectOutputStream(bytes)) {
+            output.writeObject(scene);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Stores the tiles waiting for a worker and merges the frame buffers of the finished tiles, a tile is only merged once
+     * even if it is handed out again and both workers finish it
+     */
+    private static final class TileQueue {
+        private final LinkedBlockingDeque<Tile> pending;
+        private final boolean[] finished;
+        private final AtomicInteger finishedCount;
+        private final AtomicInteger reissuedCount;
+        private final AtomicInteger sentScenes;
+        private final FrameBuffer frameBuffer;
+        private volatile boolean closed;
+
+        /**
+         * class constructor
+         * @param tiles the tiles of the image
+         * @param frameBuffer the frame buffer of the whole image
+         */
+        private TileQueue(List<Tile> tiles, FrameBuffer frameBuffer) {
+            this.pending = new LinkedBlockingDeque<>(tiles);
+            this.finished = new boolean[tiles.size()];
+            this.finishedCount = new AtomicInteger();
+            this.reissuedCount = new AtomicInteger();
+            this.sentScenes = new AtomicInteger();
+            this.frameBuffer = frameBuffer;
+        }
+
+        /**
+         * waits for the next tile to render
+         * @return the tile or null if the image is finished or the render was stopped
+         * @throws InterruptedException if the thread is interrupted while it waits
+         */
+        private Tile take() throws InterruptedException {
+            while (!closed && !isFinished()) {
+                Tile tile = pending.poll(ACCEPT_TIMEOUT, TimeUnit.MILLISECONDS);
+                if (tile != null) return tile;
+            }
+            return null;
+        }
+
+        /**
+         * merges the frame buffer of a tile into the image
+         * @param tile the tile rendered
+         * @param block the frame buffer of the tile
+         * @throws InvalidObjectException if the frame buffer does not have the size of the tile
+         */
+        private synchronized void finish(Tile tile, FrameBuffer block) throws InvalidObjectException {
+            if (finished[tile.getIndex()]) return;
+            if (block.getWidth() != tile.getWidth() || block.getHeight() != tile.getHeight()) throw new InvalidObjectException("the frame buffer does not match the " + tile);
+            frameBuffer.setTile(tile, block);
+            finished[tile.getIndex()] = true;
+            finishedCount.incrementAndGet();
+        }
+
+        /**
+         * hands out a tile again, it is the next one taken by any worker
+         * @param tile the tile of a lost worker
+         */
+        private synchronized void reissue(Tile tile) {
+            if (finished[tile.getIndex()] || closed) return;
+            pending.addFirst(tile);
+            reissuedCount.incrementAndGet();
+        }
+
+        /**
+         * counts a worker that received the serialized scene (it did not have a scene with the same content hash)
+         */
+        private void countSentScene() {
+            sentScenes.incrementAndGet();
+        }
+
+        /**
+         * stops handing out tiles
+         */
+        private void close() {
+            closed = true;
+        }
+
+        /**
+         * class getter
+         * @return true if every tile is finished
+         */
+        private boolean isFinished() {
+            return finishedCount.get() == finished.length;
+        }
+
+        /**
+         * class getter
+         * @return the number of finished tiles
+         */
+        private int getFinishedCount() {
+            return finishedCount.get();
+        }
+
+        /**
+         * class getter
+         * @return the number of tiles handed out again
+         */
+        private int getReissuedCount() {
+            return reissuedCount.get();
+        }
+
+        /**
+         * class getter
+         * @return the number of workers that received the serialized scene
+         */
+        private int getSentSceneCount() {
+            return sentScenes.get();
+        }
+
+        /**
+         * class getter
+         * @return the frame buffer of the whole image
+         */
+        private FrameBuffer getFrameBuffer() {
+            return frameBuffer;
+        }
+    }
+
+    /**
+     * class getter
+     * @return the address of the network interface in which the coordinator waits for the workers
+     */
+    public String getBindAddress() {
+        return bindAddress;
+    }
+    /**
+     * class setter
+     * @param bindAddress the address of the network interface in which the coordinator waits for the workers to set
+     *                    (e.g. the address of the private network of the workers, 0.0.0.0 listens on every interface)
+     */
+    public void setBindAddress(String bindAddress) {
+        this.bindAddress = bindAddress;
+    }
+
+    /**
+     * class getter
+     * @return the TCP port in which the coordinator waits for the workers
+     */
+    public int getPort() {
+        return port;
+    }
+    /**
+     * class setter
+     * @param port the TCP port in which the coordinator waits for the workers to set
+     */
+    public void setPort(int port) {
+        this.port = port;
+    }
+
+    /**
+     * class getter
+     * @return the size in pixels of the tiles handed out to the workers
+     */
+    public int getTileSize() {
+        return tileSize;
+    }
+    /**
+     * class setter
+     * @param tileSize the size in pixels of the tiles handed out to the workers to set
+     */
+    public void setTileSize(int tileSize) {
+        this.tileSize = Math.max(tileSize, 1);
+    }
+
+    /**
+     * class getter
+     * @return the maximum time in ms a worker can take to render a tile before it is handed out again
+     */
+    public int getTileTimeout() {
+        return tileTimeout;
+    }
+    /**
+     * class setter
+     * @param tileTimeout the maximum time in ms a worker can take to render a tile before it is handed out again to set
+     */
+    public void setTileTimeout(int tileTimeout) {
+        this.tileTimeout = Math.max(tileTimeout, 0);
+    }
+
+}
@@ -0,0 +1,164 @@
+/*
+  [1968] - [2020] Centros Culturales de Mexico A.C / Universidad Panamericana
+  All Rights Reserved.
+ */
+package up.edu.isgc.raytracer.engine;
+
+
+import javax.imageio.ImageIO;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Stores a render requested to the render server: its scene and configuration, its state, its metrics and the encoded image
+ * The job is rendered by one thread of the server and followed by the threads that answer the requests, so its state is volatile
+ * The jobs are ordered by priority (and then by id) in the queue of the server
+ *
+ * @author Homar Cano, Jafet Rodríguez
+ */
+final class RenderJob implements Runnable, Comparable<RenderJob> {
+    /**
+     * The states of a job, in the order they happen
+     */
+    enum State {
+        QUEUED, RUNNING, FINISHED, FAILED, CANCELLED
+    }
+
+    private final int id;
+    private final Scene scene;
+    private final Raytracer raytracer;
+    private final TileScheduler scheduler;
+    private final int priority;
+    private final RenderStatistics statistics;
+    private final long submitTime;
+    private volatile State state;
+    private volatile long startTime;
+    private volatile long endTime;
+    private volatile byte[] image;
+    private volatile String error;
+
+    /**
+     * class constructor, the job is queued
+     * @param id the id of the job in its server
+     * @param scene the Scene to render
+     * @param raytracer the Raytracer used only by this job
+     * @param scheduler the tile scheduler shared by the jobs of the server
+     * @param priority the priority of the job, the jobs with a higher priority are rendered first
+     */
+    RenderJob(int id, Scene scene, Raytracer raytracer, TileScheduler scheduler, int priority) {
+        this.id = id;
+        this.scene = scene;
+        this.raytracer = raytracer;
+        this.scheduler = scheduler;
+        this.priority = priority;
+        this.statistics = new RenderStatistics();
+        this.submitTime = System.nanoTime();
+        this.state = State.QUEUED;
+    }
+
+    /**
+     * renders the scene with the tile scheduler and encodes the image as png, the frame buffer is not kept
+     */
+    @Override
+    public void run() {
+        startTime = System.nanoTime();
+        state = State.RUNNING;
+        try {
+            FrameBuffer frameBuffer = raytracer.renderScene(scene, statistics, scheduler, priority);
+            if (frameBuffer == null) throw new IllegalStateException("the render failed or exceeded the timeout");
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            ImageIO.write(frameBuffer.toImage(), "png", bytes);
+            image = bytes.toByteArray();
+            state = State.FINISHED;
+        } catch (IOException | RuntimeException ex) {
+            error = ex.toString();
+            state = State.FAILED;
+        } finally {
+            endTime = System.nanoTime();
+        }
+    }
+
+    /**
+     * marks the job as cancelled, it must be removed from the queue of the server before it starts
+     */
+    void cancel() {
+        state = State.CANCELLED;
+        endTime = System.nanoTime();
+    }
+
+    /**
+     * compares the order of two jobs in the queue: the higher priority first, then the lower id
+     * @param job the other job
+     * @return a negative value if this job goes first
+     */
+    @Override
+    public int compareTo(RenderJob job) {
+        if (priority != job.priority) return Integer.compare(job.priority, priority);
+        return Integer.compare(id, job.id);
+    }
+
+    /**
+     * collects the metrics of the job: state, progress, times in the queue and rendering and the statistics of the render
+     * @return the metrics by name
+     */
+    Map<String, String> getMetrics() {
+        Map<String, String> metrics = new LinkedHashMap<>();
+        State currentState = state;
+        long now = System.nanoTime();
+        metrics.put("id", String.valueOf(id));
+        metrics.put("scene", scene.getName());
+        metrics.put("state", currentState.toString());
+        metrics.put("progress", statistics.getProgress() + "%");
+        metrics.put("priority", String.valueOf(priority));
+        long queueEnd = startTime != 0L ? startTime : (endTime != 0L ? endTime : now);
+        metrics.put("queue time", String.format("%.2f ms", (queueEnd - submitTime) / 1e6));
+        if (startTime != 0L) metrics.put("render time", String.format("%.2f ms", ((endTime != 0L ? endTime : now) - startTime) / 1e6));
+        if (error != null) metrics.put("error", error);
+        metrics.putAll(statistics.toMap());
+        return metrics;
+    }
+
+    /**
+     * class getter
+     * @return true if the job will not change anymore
+     */
+    boolean isDone() {
+        State currentState = state;
+        return currentState == State.FINISHED || currentState == State.FAILED || currentState == State.CANCELLED;
+    }
+
+    /**
+     * class getter
+     * @return the id of the job in its server
+     */
+    int getId() {
+        return id;
+    }
+
+    /**
+     * class getter
+     * @return the state of the job
+     */
+    State getState() {
+        return state;
+    }
+
+    /**
+     * class getter
+     * @return the percentage of the render that is finished
+     */
+    int getProgress() {
+        return statistics.getProgress();
+    }
+
+    /**
+     * class getter
+     * @return the image encoded as png or null if the job is not finished
+     */
+    byte[] getImage() {
+        return image;
+    }
+
+}
@@ -0,0 +1,617 @@
+/*
+  [1968] - [2020] Centros Culturales de Mexico A.C / Universidad Panamericana
+  All Rights Reserved.
+ */
+package up.edu.isgc.raytracer.engine;
+
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Renders the scenes requested by HTTP in a long running process, so the JIT, the mesh cache and the thread pools stay
+ * warm between renders
+ * A job is created with POST /jobs?scene=name (a scene added to the server), the optional parameters samples, size,
+ * shadowBias and priority change the configuration of that job only (the samples and size are limited by the server)
+ * The jobs are queued by priority and a limited number of them is rendered at the same time; their tiles share the threads
+ * of the core budget through a tile scheduler, so a job with a higher priority (e.g. a preview) takes the threads from the
+ * others within the time of one tile; a job is rejected (503) when the queue is full
+ * GET /jobs lists the jobs, GET /jobs/{id} shows the metrics of a job, GET /jobs/{id}/progress streams its progress until it
+ * is done, GET /jobs/{id}/image downloads the png image and DELETE /jobs/{id} cancels a queued job
+ * The responses are JSON (except the progress, one line per change, and the image)
+ * The server listens on the loopback address by default, the requests are not authenticated
+ *
+ * @author Homar Cano, Jafet Rodríguez
+ */
+public class RenderServer {
+    /**
+     * constant for the time in ms between two checks of the progress of a streamed job
+     */
+    private static final int PROGRESS_INTERVAL = 100;
+    /**
+     * constant for the address in which the server listens by default (only the clients of the same machine can connect)
+     */
+    public static final String DEFAULT_BIND_ADDRESS = "127.0.0.1";
+    /**
+     * constant for the default maximum width and height in pixels of the image of a job
+     */
+    public static final int DEFAULT_MAX_IMAGE_SIZE = 2048;
+    /**
+     * constant for the default maximum samples per pixel of a job
+     */
+    public static final int DEFAULT_MAX_SAMPLES_PER_PIXEL = 64;
+
+    private final Raytracer raytracer;
+    private final Map<String, SceneFactory> scenes;
+    private final Map<Integer, RenderJob> jobs;
+    private final AtomicInteger nextJobId;
+    private String bindAddress;
+    private int port;
+    private int coreBudget;
+    private int maxConcurrentRenders;
+    private int queueCapacity;
+    private int maxRetainedJobs;
+    private int maxImageSize;
+    private int maxSamplesPerPixel;
+    private HttpServer httpServer;
+    private ExecutorService requestExecutor;
+    private ThreadPoolExecutor renderExecutor;
+    private TileScheduler scheduler;
+
+    /**
+     * class constructor, the server listens on the loopback address
+     * @param raytracer the Raytracer with the configuration of every job (each job uses a copy)
+     * @param port the TCP port of the server
+     */
+    public RenderServer(Raytracer raytracer, int port) {
+        this.raytracer = raytracer;
+        this.scenes = new ConcurrentHashMap<>();
+        this.jobs = new ConcurrentHashMap<>();
+        this.nextJobId = new AtomicInteger(1);
+        setBindAddress(DEFAULT_BIND_ADDRESS);
+        setPort(port);
+        setCoreBudget(raytracer.getNumberOfThreads());
+        setMaxConcurrentRenders(4);
+        setQueueCapacity(16);
+        setMaxRetainedJobs(64);
+        setMaxImageSize(DEFAULT_MAX_IMAGE_SIZE);
+        setMaxSamplesPerPixel(DEFAULT_MAX_SAMPLES_PER_PIXEL);
+    }
+
+    /**
+     * Driver function for the server, the sample scenes of Main can be requested by their name
+     * @param args the port and the core budget (by default the port and threads of Main)
+     * @throws IOException if the port can not be used
+     */
+    public static void main(String[] args) throws IOException {
+        Raytracer raytracer = new Raytracer(Main.N_THREADS, Main.RENDER_TIMEOUT, Main.LIGHT_FALLOFF_EXPONENT, Main.USE_CLIPPING_PLANES);
+        raytracer.setBVHBuildQuality(Main.BVH_BUILD_QUALITY);
+        raytracer.setAccelerationStructureType(Main.ACCELERATION_STRUCTURE);
+        raytracer.setLightContributionThreshold(Main.LIGHT_CONTRIBUTION_THRESHOLD);
+        raytracer.setSamplesPerPixel(Main.SAMPLES_PER_PIXEL);
+        raytracer.setSamplerType(Main.SAMPLER_TYPE);
+        raytracer.setTileSize(Main.TILE_SIZE);
+        RenderServer server = new RenderServer(raytracer, args.length > 0 ? Integer.parseInt(args[0]) : Main.RENDER_SERVER_PORT);
+        if (args.length > 1) server.setCoreBudget(Integer.parseInt(args[1]));
+        server.setBindAddress(Main.RENDER_SERVER_ADDRESS);
+        server.setMaxImageSize(Main.MAX_JOB_IMAGE_SIZE);
+        server.setMaxSamplesPerPixel(Main.MAX_JOB_SAMPLES_PER_PIXEL);
+        server.setMaxConcurrentRenders(Main.MAX_CONCURRENT_RENDERS);
+        server.setQueueCapacity(Main.RENDER_QUEUE_CAPACITY);
+        server.addMainScenes();
+        server.start();
+    }
+
+    /**
+     * adds the sample scenes of Main with the shadow bias used for each one
+     */
+    public void addMainScenes() {
+        addScene("SampleScene01", Main::createSampleScene01, 0.075d);
+        addScene("SampleScene02", Main::createSampleScene02, 0.0000001d);
+        addScene("SampleScene03", Main::createSampleScene03, 0.0005d);
+        addScene("SampleScene04", Main::createSampleScene04, 0.075d);
+        addScene("SampleScene05", Main::createSampleScene05, 0.0003d);
+        addScene("SampleScene06", Main::createSampleScene06, 0.075d);
+        addScene("Scene01", Main::createScene01, 0.0000001d);
+        addScene("Scene02", Main::createScene02, 0.0000001d);
+        addScene("Scene03", Main::createScene03, 0.0000001d);
+    }
+
+    /**
+     * adds a scene that can be requested by its name, a new scene is created for every job
+     * @param name the name used in the requests
+     * @param factory the function that creates the scene
+     * @param shadowBias the shadow bias used by the scene
+     */
+    public void addScene(String name, Supplier<Scene> factory, double shadowBias) {
+        scenes.put(name, new SceneFactory(factory, shadowBias));
+    }
+
+    /**
+     * starts the server, the requests are answered by other threads
+     * @throws IOException if the port can not be used
+     */
+    public synchronized void start() throws IOException {
+        if (httpServer != null) return;
+        renderExecutor = new ThreadPoolExecutor(getMaxConcurrentRenders(), getMaxConcurrentRenders(), 0L, TimeUnit.MILLISECONDS, new PriorityBlockingQueue<>());
+        scheduler = new TileScheduler(getCoreBudget());
+        requestExecutor = Executors.newCachedThreadPool();
+        httpServer = HttpServer.create(new InetSocketAddress(getBindAddress(), getPort()), 0);
+        httpServer.createContext("/jobs", this::handle);
+        httpServer.setExecutor(requestExecutor);
+        httpServer.start();
+        System.out.println(new Date() + " render server started on " + getBindAddress() + ":" + getPort() + " (" + getMaxConcurrentRenders() + " concurrent renders, "
+                + getCoreBudget() + " threads, " + getQueueCapacity() + " queued jobs)");
+    }
+
+    /**
+     * stops the server, the running jobs are stopped and the queued ones are cancelled
+     */
+    public synchronized void stop() {
+        if (httpServer == null) return;
+        httpServer.stop(0);
+        for (RenderJob job : jobs.values()) {
+            if (renderExecutor.remove(job)) job.cancel();
+        }
+        renderExecutor.shutdown();
+        scheduler.shutdown();
+        requestExecutor.shutdown();
+        httpServer = null;
+        System.out.println(new Date() + " render server stopped");
+    }
+
+    /**
+     * answers a request to /jobs
+     * @param exchange the request and its response
+     * @throws IOException if the response can not be sent
+     */
+    private void handle(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            String[] path = exchange.getRequestURI().getPath().split("/");
+            String method = exchange.getRequestMethod();
+            if (path.length == 2) {
+                if (method.equals("POST")) submit(exchange);
+                else if (method.equals("GET")) sendJson(exchange, 200, listJobs());
+                else sendError(exchange, 405, "method not allowed");
+                return;
+            }
+
+            RenderJob job;
+            try {
+                job = path.length <= 4 ? jobs.get(Integer.parseInt(path[2])) : null;
+            } catch (NumberFormatException ex) {
+                job = null;
+            }
+            if (job == null) {
+                sendError(exchange, 404, "unknown job");
+            } else if (path.length == 3 && method.equals("GET")) {
+                sendJson(exchange, 200, toJson(job.getMetrics()));
+            } else if (path.length == 3 && method.equals("DELETE")) {
+                if (cancel(job)) {
+                    sendJson(exchange, 200, toJson(job.getMetrics()));
+                } else {
+                    sendError(exchange, 409, "only queued jobs can be cancelled");
+                }
+            } else if (path.length == 4 && path[3].equals("progress") && method.equals("GET")) {
+                streamProgress(exchange, job);
+            } else if (path.length == 4 && path[3].equals("image") && method.equals("GET")) {
+                byte[] image = job.getImage();
+                if (image == null) {
+                    sendError(exchange, 409, "the job is " + job.getState());
+                } else {
+                    exchange.getResponseHeaders().set("Content-Type", "image/png");
+                    exchange.sendResponseHeaders(200, image.length);
+                    exchange.getResponseBody().write(image);
+                }
+            } else {
+                sendError(exchange, 404, "unknown resource");
+            }
+        } catch (IOException ex) {
+            System.out.println(new Date() + " !! the response to " + exchange.getRequestURI() + " failed: " + ex.getMessage() + " !!");
+        }
+    }
+
+    /**
+     * creates a job from the parameters of a request and queues it
+     * @param exchange the request and its response
+     * @throws IOException if the response can not be sent
+     */
+    private void submit(HttpExchange exchange) throws IOException {
+        Map<String, String> parameters = parseQuery(exchange.getRequestURI().getRawQuery());
+        Raytracer jobRaytracer = raytracer.copy();
+        Scene scene;
+        int priority;
+        try {
+            String sceneName = parameters.get("scene");
+            if (sceneName == null) throw new IllegalArgumentException("the scene parameter is needed");
+            SceneFactory factory = scenes.get(sceneName);
+            if (factory == null) {
+                sendError(exchange, 404, "unknown scene '" + sceneName + "'");
+                return;
+            }
+            int samples = parseInteger(parameters, "samples", 1, getMaxSamplesPerPixel(), jobRaytracer.getSamplesPerPixel());
+            int size = parseInteger(parameters, "size", 1, getMaxImageSize(), 0);
+            priority = parseInteger(parameters, "priority", Integer.MIN_VALUE, Integer.MAX_VALUE, 0);
+            double shadowBias = factory.getShadowBias();
+            if (parameters.containsKey("shadowBias")) {
+                shadowBias = Double.parseDouble(parameters.get("shadowBias"));
+                if (!(shadowBias >= 0d) || Double.isInfinite(shadowBias)) throw new IllegalArgumentException("the parameter 'shadowBias' must be a finite positive number");
+            }
+
+            scene = factory.create();
+            jobRaytracer.setSamplesPerPixel(samples);
+            jobRaytracer.setShadowBias(shadowBias);
+            if (size > 0 && scene.getCamera() != null) {
+                scene.getCamera().setResolutionWidth(size);
+                scene.getCamera().setResolutionHeight(size);
+            }
+        } catch (IllegalArgumentException ex) {
+            sendError(exchange, 400, "invalid job: " + ex.getMessage());
+            return;
+        }
+        if (scene.getCamera() != null && Math.max(scene.getCamera().getResolutionWidth(), scene.getCamera().getResolutionHeight()) > getMaxImageSize()) {
+            sendError(exchange, 400, "invalid job: the image of the scene is larger than " + getMaxImageSize() + " pixels");
+            return;
+        }
+        if (!jobRaytracer.isRenderable(scene)) {
+            sendError(exchange, 400, "the scene can not be rendered");
+            return;
+        }
+
+        RenderJob job;
+        synchronized (this) {
+            if (renderExecutor.getQueue().size() >= getQueueCapacity()) {
+                exchange.getResponseHeaders().set("Retry-After", "1");
+                sendError(exchange, 503, "the queue is full");
+                return;
+            }
+            job = new RenderJob(nextJobId.getAndIncrement(), scene, jobRaytracer, scheduler, priority);
+            jobs.put(job.getId(), job);
+            renderExecutor.execute(job);
+        }
+        removeOldJobs();
+        System.out.println(new Date() + " render server queued the job " + job.getId() + " ('" + scene.getName() + "')");
+        exchange.getResponseHeaders().set("Location", "/jobs/" + job.getId());
+        sendJson(exchange, 202, toJson(job.getMetrics()));
+    }
+
+    /**
+     * cancels a job if it is still queued, a running job is always finished
+     * @param job the job to cancel
+     * @return true if the job was cancelled
+     */
+    private synchronized boolean cancel(RenderJob job) {
+        if (!renderExecutor.remove(job)) return false;
+        job.cancel();
+        return true;
+    }
+
+    /**
+     * reads an integer parameter of a request
+     * @param parameters the decoded parameters of the request
+     * @param name the name of the parameter
+     * @param min the minimum value accepted
+     * @param max the maximum value accepted
+     * @param defaultValue the value used when the request does not have the parameter
+     * @return the value of the parameter
+     * @throws IllegalArgumentException if the parameter is not an integer between min and max
+     */
+    private static int parseInteger(Map<String, String> parameters, String name, int min, int max, int defaultValue) {
+        String text = parameters.get(name);
+        if (text == null) return defaultValue;
+        try {
+            int value = Integer.parseInt(text.trim());
+            if (value >= min && value <= max) return value;
+        } catch (NumberFormatException ex) {
+            // the same error as a value out of range
+        }
+        throw new IllegalArgumentException("the parameter '" + name + "' must be an integer between " + min + " and " + max);
+    }
+
+    /**
+     * sends the progress of a job (a line with the percentage every time it changes) until the job is done,
+     * the last line is its state
+     * @param exchange the request and its response
+     * @param job the job to follow
+     * @throws IOException if the response can not be sent
+     */
+    private static void streamProgress(HttpExchange exchange, RenderJob job) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+        exchange.sendResponseHeaders(200, 0);
+        OutputStream body = exchange.getResponseBody();
+        int progress = -1;
+        try {
+            while (!job.isDone()) {
+                if (job.getState() == RenderJob.State.RUNNING && job.getProgress() != progress) {
+                    progress = job.getProgress();
+                    body.write((progress + "%\n").getBytes(StandardCharsets.UTF_8));
+                    body.flush();
+                }
+                Thread.sleep(PROGRESS_INTERVAL);
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        body.write((job.getState() + "\n").getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * removes the oldest done jobs (and their images) when there are more than maxRetainedJobs jobs
+     */
+    private void removeOldJobs() {
+        List<Integer> ids = new ArrayList<>(jobs.keySet());
+        ids.sort(null);
+        int excess = ids.size() - getMaxRetainedJobs();
+        for (int i = 0; i < ids.size() && excess > 0; i++) {
+            RenderJob job = jobs.get(ids.get(i));
+            if (job != null && job.isDone()) {
+                jobs.remove(ids.get(i));
+                excess--;
+            }
+        }
+    }
+
+    /**
+     * creates the JSON list of the jobs with their ids, scenes, states and progress
+     * @return the JSON array
+     */
+    private String listJobs() {
+        List<Integer> ids = new ArrayList<>(jobs.keySet());
+        ids.sort(null);
+        List<String> list = new ArrayList<>();
+        for (int id : ids) {
+            RenderJob job = jobs.get(id);
+            if (job == null) continue;
+            Map<String, String> metrics = job.getMetrics();
+            Map<String, String> summary = new LinkedHashMap<>();
+            for (String name : new String[]{"id", "scene", "state", "progress"}) summary.put(name, metrics.get(name));
+            list.add(toJson(summary));
+        }
+        return "[" + String.join(",", list) + "]";
+    }
+
+    /**
+     * parses the parameters of a query
+     * @param query the raw query of a request (can be null)
+     * @return the decoded parameters by name
+     */
+    private static Map<String, String> parseQuery(String query) {
+        Map<String, String> parameters = new HashMap<>();
+        if (query == null) return parameters;
+        for (String parameter : query.split("&")) {
+            int separator = parameter.indexOf('=');
+            if (separator <= 0) continue;
+            parameters.put(URLDecoder.decode(parameter.substring(0, separator), StandardCharsets.UTF_8),
+                    URLDecoder.decode(parameter.substring(separator + 1), StandardCharsets.UTF_8));
+        }
+        return parameters;
+    }
+
+    /**
+     * converts values to a JSON object of strings
+     * @param values the values by name
+     * @return the JSON object
+     */
+    private static String toJson(Map<String, String> values) {
+        List<String> members = new ArrayList<>();
+        for (Map.Entry<String, String> entry : values.entrySet()) members.add(quote(entry.getKey()) + ":" + quote(entry.getValue()));
+        return "{" + String.join(",", members) + "}";
+    }
+
+    /**
+     * converts a text to a JSON string
+     * @param text the text
+     * @return the quoted and escaped text
+     */
+    private static String quote(String text) {
+        StringBuilder quoted = new StringBuilder("\"");
+        for (char character : String.valueOf(text).toCharArray()) {
+            if (character == '"' || character == '\\') quoted.append('\\').append(character);
+            else if (character < ' ') quoted.append(String.format("\\u%04x", (int) character));
+            else quoted.append(character);
+        }
+        return quoted.append('"').toString();
+    }
+
+    /**
+     * sends a JSON response
+     * @param exchange the request and its response
+     * @param status the HTTP status
+     * @param json the body
+     * @throws IOException if the response can not be sent
+     */
+    private static void sendJson(HttpExchange exchange, int status, String json) throws IOException {
+        byte[] body = json.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(status, body.length);
+        exchange.getResponseBody().write(body);
+    }
+
+    /**
+     * sends an error as a JSON response
+     * @param exchange the request and its response
+     * @param status the HTTP status
+     * @param message the description of the error
+     * @throws IOException if the response can not be sent
+     */
+    private static void sendError(HttpExchange exchange, int status, String message) throws IOException {
+        Map<String, String> error = new LinkedHashMap<>();
+        error.put("error", message);
+        sendJson(exchange, status, toJson(error));
+    }
+
+    /**
+     * Creates the scenes that can be requested by name and stores the shadow bias they need
+     */
+    private static final class SceneFactory {
+        private final Supplier<Scene> factory;
+        private final double shadowBias;
+
+        /**
+         * class constructor
+         * @param factory the function that creates the scene
+         * @param shadowBias the shadow bias used by the scene
+         */
+        private SceneFactory(Supplier<Scene> factory, double shadowBias) {
+            this.factory = factory;
+            this.shadowBias = shadowBias;
+        }
+
+        /**
+         * creates a new scene
+         * @return the scene
+         */
+        private Scene create() {
+            return factory.get();
+        }
+
+        /**
+         * class getter
+         * @return the shadow bias used by the scene
+         */
+        private double getShadowBias() {
+            return shadowBias;
+        }
+    }
+
+    /**
+     * class getter
+     * @return the address of the network interface in which the server listens
+     */
+    public String getBindAddress() {
+        return bindAddress;
+    }
+    /**
+     * class setter
+     * @param bindAddress the address of the network interface in which the server listens to set (used when the server starts)
+     */
+    public void setBindAddress(String bindAddress) {
+        this.bindAddress = bindAddress;
+    }
+
+    /**
+     * class getter
+     * @return the TCP port of the server
+     */
+    public int getPort() {
+        return port;
+    }
+    /**
+     * class setter
+     * @param port the TCP port of the server to set (used when the server starts)
+     */
+    public void setPort(int port) {
+        this.port = port;
+    }
+
+    /**
+     * class getter
+     * @return the number of threads of the tile scheduler, shared by the concurrent renders
+     */
+    public int getCoreBudget() {
+        return coreBudget;
+    }
+    /**
+     * class setter
+     * @param coreBudget the number of threads of the tile scheduler to set (used when the server starts)
+     */
+    public void setCoreBudget(int coreBudget) {
+        this.coreBudget = Math.max(coreBudget, 1);
+    }
+
+    /**
+     * class getter
+     * @return the maximum number of jobs rendered at the same time
+     */
+    public int getMaxConcurrentRenders() {
+        return maxConcurrentRenders;
+    }
+    /**
+     * class setter
+     * @param maxConcurrentRenders the maximum number of jobs rendered at the same time to set (used when the server starts)
+     */
+    public void setMaxConcurrentRenders(int maxConcurrentRenders) {
+        this.maxConcurrentRenders = Math.max(maxConcurrentRenders, 1);
+    }
+
+    /**
+     * class getter
+     * @return the maximum number of jobs waiting to be rendered, more jobs are rejected
+     */
+    public int getQueueCapacity() {
+        return queueCapacity;
+    }
+    /**
+     * class setter
+     * @param queueCapacity the maximum number of jobs waiting to be rendered to set (used when the server starts)
+     */
+    public void setQueueCapacity(int queueCapacity) {
+        this.queueCapacity = Math.max(queueCapacity, 1);
+    }
+
+    /**
+     * class getter
+     * @return the maximum number of jobs kept by the server, the oldest done jobs are removed first
+     */
+    public int getMaxRetainedJobs() {
+        return maxRetainedJobs;
+    }
+    /**
+     * class setter
+     * @param maxRetainedJobs the maximum number of jobs kept by the server to set
+     */
+    public void setMaxRetainedJobs(int maxRetainedJobs) {
+        this.maxRetainedJobs = Math.max(maxRetainedJobs, 1);
+    }
+
+    /**
+     * class getter
+     * @return the maximum width and height in pixels of the image of a job, larger jobs are rejected
+     */
+    public int getMaxImageSize() {
+        return maxImageSize;
+    }
+    /**
+     * class setter
+     * @param maxImageSize the maximum width and height in pixels of the image of a job to set
+     */
+    public void setMaxImageSize(int maxImageSize) {
+        this.maxImageSize = Math.max(maxImageSize, 1);
+    }
+
+    /**
+     * class getter
+     * @return the maximum samples per pixel of a job, larger values are rejected
+     */
+    public int getMaxSamplesPerPixel() {
+        return maxSamplesPerPixel;
+    }
+    /**
+     * class setter
+     * @param maxSamplesPerPixel the maximum samples per pixel of a job to set
+     */
+    public void setMaxSamplesPerPixel(int maxSamplesPerPixel) {
+        this.maxSamplesPerPixel = Math.max(maxSamplesPerPixel, 1);
+    }
+
+}
@@ -0,0 +1,131 @@
+/*
+  [1968] - [2020] Centros Culturales de Mexico A.C / Universidad Panamericana
+  All Rights Reserved.
+ */
+package up.edu.isgc.raytracer.engine;
+
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Collects the statistics of a single render such as build times, structure quality and ray counters
+ * Counters can be incremented from every render thread, the statistics are shown in the console when the render ends
+ * The progress of the render is also stored, so it can be followed from other threads (e.g. by the render server)
+ *
+ * @author Homar Cano, Jafet Rodríguez
+ */
+public class RenderStatistics {
+    private final Map<String, String> entries;
+    private final Map<String, LongAdder> counters;
+    private final List<String> counterNames;
+    private volatile int progress;
+
+    /**
+     * class constructor
+     */
+    public RenderStatistics() {
+        this.entries = new LinkedHashMap<>();
+        this.counters = new ConcurrentHashMap<>();
+        this.counterNames = new ArrayList<>();
+    }
+
+    /**
+     * stores a value shown in the statistics, a previous value with the same name is replaced
+     * @param name the name of the value
+     * @param value the value to show
+     */
+    public synchronized void put(String name, String value) {
+        entries.put(name, value);
+    }
+
+    /**
+     * gets a value shown in the statistics
+     * @param name the name of the value
+     * @return the value or null if it was not stored
+     */
+    public synchronized String get(String name) {
+        return entries.get(name);
+    }
+
+    /**
+     * stores a time shown in the statistics in milliseconds
+     * @param name the name of the time
+     * @param nanoseconds the time in nanoseconds
+     */
+    public void putTime(String name, long nanoseconds) {
+        put(name, String.format("%.2f ms", nanoseconds / 1e6));
+    }
+
+    /**
+     * gets (or creates) a thread safe counter, hot paths should keep the reference instead of calling this method per ray
+     * @param name the name of the counter
+     * @return the counter
+     */
+    public LongAdder getCounter(String name) {
+        LongAdder counter = counters.get(name);
+        if (counter == null) {
+            synchronized (this) {
+                counter = counters.get(name);
+                if (counter == null) {
+                    counter = new LongAdder();
+                    counters.put(name, counter);
+                    counterNames.add(name);
+                }
+            }
+        }
+        return counter;
+    }
+
+    /**
+     * class getter
+     * @param name the name of the counter
+     * @return the current value of the counter or 0 if it does not exist
+     */
+    public long getCount(String name) {
+        LongAdder counter = counters.get(name);
+        return counter == null ? 0L : counter.sum();
+    }
+
+    /**
+     * copies every value and the current value of every counter
+     * @return the values and counters by name, in the order they were added
+     */
+    public synchronized Map<String, String> toMap() {
+        Map<String, String> values = new LinkedHashMap<>(entries);
+        for (String name : counterNames) values.put(name, String.valueOf(counters.get(name).sum()));
+        return values;
+    }
+
+    /**
+     * shows all the statistics in the console
+     * @param sceneName the name of the scene rendered
+     */
+    public synchronized void print(String sceneName) {
+        System.out.println(new Date() + " render statistics of '" + sceneName + "':");
+        for (Map.Entry<String, String> entry : toMap().entrySet()) {
+            System.out.println("    " + entry.getKey() + ": " + entry.getValue());
+        }
+    }
+
+    /**
+     * class getter
+     * @return the percentage of the render that is finished
+     */
+    public int getProgress() {
+        return progress;
+    }
+    /**
+     * class setter
+     * @param progress the percentage of the render that is finished to set
+     */
+    public void setProgress(int progress) {
+        this.progress = Math.max(0, Math.min(progress, 100));
+    }
+
+}
@@ -0,0 +1,138 @@
+/*
+  [1968] - [2020] Centros Culturales de Mexico A.C / Universidad Panamericana
+  All Rights Reserved.
+ */
+package up.edu.isgc.raytracer.engine;
+
+
+import up.edu.isgc.raytracer.objects.utility.Vector3D;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.net.Socket;
+import java.util.Date;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Renders the tiles handed out by a render coordinator with the threads of this process
+ * The worker connects to the coordinator, compiles the scene it receives and renders tiles until the image is finished,
+ * then it connects again for the next render; it stops when the coordinator can not be reached for a while
+ * The last scene received is kept with its content hash, so a scene rendered again (e.g. with another configuration) is not sent again
+ * It must be run from the same folder as Main (the lighting bakes are read from the bakes/ folder)
+ *
+ * @author Homar Cano, Jafet Rodríguez
+ * @see RenderCoordinator
+ */
+public class RenderWorker {
+    /**
+     * constant for the number of consecutive failed connections before the worker stops
+     */
+    private static final int MAX_CONNECTION_ATTEMPTS = 50;
+    /**
+     * constant for the time in ms between two connection attempts
+     */
+    private static final int CONNECTION_RETRY_DELAY = 200;
+
+    private final String host;
+    private final int port;
+    private final ThreadPoolExecutor threadPool;
+    private String lastSceneHash;
+    private Scene lastScene;
+
+    /**
+     * class constructor
+     * @param host the name or address of the coordinator
+     * @param port the TCP port of the coordinator
+     * @param nThreads the number of threads used to render the pixels of each tile
+     */
+    public RenderWorker(String host, int port, int nThreads) {
+        this.host = host;
+        this.port = port;
+        this.threadPool = new ThreadPoolExecutor(nThreads, nThreads, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>());
+    }
+
+    /**
+     * Driver function for a worker
+     * @param args the host and port of the coordinator and the number of threads (by default the address, port and threads of Main)
+     */
+    public static void main(String[] args) {
+        String host = args.length > 0 ? args[0] : Main.COORDINATOR_ADDRESS;
+        int port = args.length > 1 ? Integer.parseInt(args[1]) : Main.COORDINATOR_PORT;
+        int nThreads = args.length > 2 ? Integer.parseInt(args[2]) : Main.N_THREADS;
+        System.out.println(new Date() + " render worker started (" + nThreads + " threads)");
+        new RenderWorker(host, port, nThreads).run();
+        System.out.println(new Date() + " render worker finished");
+    }
+
+    /**
+     * renders the tiles of every render of the coordinator, until it can not be reached for MAX_CONNECTION_ATTEMPTS attempts
+     */
+    public void run() {
+        int attempts = 0;
+        while (attempts < MAX_CONNECTION_ATTEMPTS) {
+            try (Socket socket = new Socket(host, port)) {
+                attempts = 0;
+                renderTiles(socket);
+            } catch (IOException | ClassNotFoundException | ClassCastException ex) {
+                attempts++;
+                try {
+                    Thread.sleep(CONNECTION_RETRY_DELAY);
+                } catch (InterruptedException interruptedException) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        threadPool.shutdownNow();
+    }
+
+    /**
+     * receives the configuration and the scene of a render and renders its tiles until the coordinator sends null
+     * @param socket the connection with the coordinator
+     * @throws IOException if the connection fails
+     * @throws ClassNotFoundException if the coordinator sends an unknown class
+     * @throws InterruptedException if the thread is interrupted while a tile is rendered
+     */
+    private void renderTiles(Socket socket) throws IOException, ClassNotFoundException, InterruptedException {
+        ObjectOutputStream output = new ObjectOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+        output.flush();
+        ObjectInputStream input = new ObjectInputStream(new BufferedInputStream(socket.getInputStream()));
+        input.setObjectInputFilter(RenderCoordinator.STREAM_FILTER);
+        String sceneHash = (String) input.readObject();
+        Raytracer raytracer = (Raytracer) input.readObject();
+        Scene scene = sceneHash.equals(lastSceneHash) ? lastScene : null;
+        output.writeObject(scene == null);
+        output.flush();
+        if (scene == null) {
+            try (ObjectInputStream sceneInput = new ObjectInputStream(new ByteArrayInputStream((byte[]) input.readObject()))) {
+                sceneInput.setObjectInputFilter(RenderCoordinator.STREAM_FILTER);
+                scene = (Scene) sceneInput.readObject();
+            }
+            lastSceneHash = sceneHash;
+            lastScene = scene;
+        }
+        System.out.println(new Date() + " rendering tiles of the scene '" + scene.getName() + "'...");
+
+        CompiledScene compiledScene = scene.compile(raytracer, new RenderStatistics());
+        Vector3D[][] screenPositions = compiledScene.getCamera().calculateScreenPositions();
+        int renderedTiles = 0;
+        Tile tile;
+        while ((tile = (Tile) input.readObject()) != null) {
+            output.writeObject(raytracer.renderTile(compiledScene, screenPositions, tile, threadPool));
+            output.flush();
+            output.reset();
+            renderedTiles++;
+        }
+        System.out.println(new Date() + " rendered " + renderedTiles + " tiles of the scene '" + scene.getName() + "'");
+    }
+
+}
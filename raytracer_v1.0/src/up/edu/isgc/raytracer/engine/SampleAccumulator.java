@@ -0,0 +1,276 @@
+/*
+  [1968] - [2020] Centros Culturales de Mexico A.C / Universidad Panamericana
+  All Rights Reserved.
+ */
+package up.edu.isgc.raytracer.engine;
+
+
+import java.awt.Color;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * Accumulates the samples of every pixel of a render with double precision: the sum of their colors, the sums used to
+ * calculate the variance of their luminance and the sums of their first hits (depth, normal and albedo)
+ * The samples of a pixel can be added over several passes (progressive rendering), the averages are converted to a
+ * frame buffer whenever they are needed
+ * Each pixel must only be written by one thread at a time
+ * The sums can be copied and written to a render checkpoint between passes, so a progressive render can be resumed
+ *
+ * @author Homar Cano, Jafet Rodríguez
+ */
+final class SampleAccumulator {
+    /**
+     * constant for the smallest luminance used to calculate the relative error (darker pixels use this value)
+     */
+    private static final double MIN_RELATIVE_LUMINANCE = 0.01d;
+
+    private final int originX;
+    private final int originY;
+    private final int width;
+    private final int height;
+    private final double[] colors;
+    private final double[] luminances;
+    private final double[] squaredLuminances;
+    private final int[] samples;
+    private final double[] depths;
+    private final double[] normals;
+    private final double[] albedos;
+    private final int[] hits;
+    private final int[] firstObjects;
+    private final boolean[] edges;
+
+    /**
+     * class constructor, creates an accumulator without samples for a whole image
+     * @param width the width in pixels
+     * @param height the height in pixels
+     */
+    SampleAccumulator(int width, int height) {
+        this(0, 0, width, height);
+    }
+
+    /**
+     * class constructor, creates an accumulator without samples for a block of an image (a tile), the pixels are still
+     * addressed with the coordinates of the image
+     * @param originX the column of the first pixel of the block
+     * @param originY the row of the first pixel of the block
+     * @param width the width in pixels
+     * @param height the height in pixels
+     */
+    SampleAccumulator(int originX, int originY, int width, int height) {
+        this.originX = originX;
+        this.originY = originY;
+        this.width = width;
+        this.height = height;
+        this.colors = new double[width * height * 3];
+        this.luminances = new double[width * height];
+        this.squaredLuminances = new double[width * height];
+        this.samples = new int[width * height];
+        this.depths = new double[width * height];
+        this.normals = new double[width * height * 3];
+        this.albedos = new double[width * height * 3];
+        this.hits = new int[width * height];
+        this.firstObjects = new int[width * height];
+        this.edges = new boolean[width * height];
+    }
+
+    /**
+     * adds a sample that hits nothing (black)
+     * @param x the column of the pixel
+     * @param y the row of the pixel
+     */
+    void addMiss(int x, int y) {
+        samples[(y - originY) * width + x - originX]++;
+    }
+
+    /**
+     * adds a sample that hits an object
+     * @param x the column of the pixel
+     * @param y the row of the pixel
+     * @param red the red value of the sample (from 0 to 1)
+     * @param green the green value of the sample (from 0 to 1)
+     * @param blue the blue value of the sample (from 0 to 1)
+     * @param objectId the id of the object hit by the primary ray
+     * @param depth the distance between the camera and the hit
+     * @param normalX the x value of the normalized normal of the hit
+     * @param normalY the y value of the normalized normal of the hit
+     * @param normalZ the z value of the normalized normal of the hit
+     * @param albedo the Color of the material of the hit
+     */
+    void addSample(int x, int y, double red, double green, double blue, int objectId, double depth, double normalX, double normalY, double normalZ, Color albedo) {
+        int pixel = (y - originY) * width + x - originX;
+        colors[pixel * 3] += red;
+        colors[pixel * 3 + 1] += green;
+        colors[pixel * 3 + 2] += blue;
+        double luminance = 0.2126d * red + 0.7152d * green + 0.0722d * blue;
+        luminances[pixel] += luminance;
+        squaredLuminances[pixel] += luminance * luminance;
+        samples[pixel]++;
+
+        if (hits[pixel] > 0 && firstObjects[pixel] != objectId) edges[pixel] = true;
+        firstObjects[pixel] = objectId;
+        depths[pixel] += depth;
+        normals[pixel * 3] += normalX;
+        normals[pixel * 3 + 1] += normalY;
+        normals[pixel * 3 + 2] += normalZ;
+        albedos[pixel * 3] += albedo.getRed() / 255d;
+        albedos[pixel * 3 + 1] += albedo.getGreen() / 255d;
+        albedos[pixel * 3 + 2] += albedo.getBlue() / 255d;
+        hits[pixel]++;
+    }
+
+    /**
+     * creates a copy of the sums of every pixel, so they can be written while the next pass adds samples to this accumulator
+     * @return the copy
+     */
+    SampleAccumulator copy() {
+        SampleAccumulator copy = new SampleAccumulator(originX, originY, width, height);
+        System.arraycopy(colors, 0, copy.colors, 0, colors.length);
+        System.arraycopy(luminances, 0, copy.luminances, 0, luminances.length);
+        System.arraycopy(squaredLuminances, 0, copy.squaredLuminances, 0, squaredLuminances.length);
+        System.arraycopy(samples, 0, copy.samples, 0, samples.length);
+        System.arraycopy(depths, 0, copy.depths, 0, depths.length);
+        System.arraycopy(normals, 0, copy.normals, 0, normals.length);
+        System.arraycopy(albedos, 0, copy.albedos, 0, albedos.length);
+        System.arraycopy(hits, 0, copy.hits, 0, hits.length);
+        System.arraycopy(firstObjects, 0, copy.firstObjects, 0, firstObjects.length);
+        System.arraycopy(edges, 0, copy.edges, 0, edges.length);
+        return copy;
+    }
+
+    /**
+     * writes the sums of every pixel with their exact values (used by the render checkpoints)
+     * @param output the stream where the sums are written
+     * @throws IOException if the sums could not be written
+     */
+    void write(DataOutputStream output) throws IOException {
+        output.writeInt(width);
+        output.writeInt(height);
+        for (double value : colors) output.writeDouble(value);
+        for (double value : luminances) output.writeDouble(value);
+        for (double value : squaredLuminances) output.writeDouble(value);
+        for (int value : samples) output.writeInt(value);
+        for (double value : depths) output.writeDouble(value);
+        for (double value : normals) output.writeDouble(value);
+        for (double value : albedos) output.writeDouble(value);
+        for (int value : hits) output.writeInt(value);
+        for (int value : firstObjects) output.writeInt(value);
+        for (boolean edge : edges) output.writeBoolean(edge);
+    }
+
+    /**
+     * replaces the sums of every pixel with sums written with write()
+     * @param input the stream where the sums are read
+     * @throws IOException if the sums could not be read or they have a different size
+     */
+    void read(DataInputStream input) throws IOException {
+        if (input.readInt() != width || input.readInt() != height) throw new IOException("the samples have a different size");
+        for (int i = 0; i < colors.length; i++) colors[i] = input.readDouble();
+        for (int i = 0; i < luminances.length; i++) luminances[i] = input.readDouble();
+        for (int i = 0; i < squaredLuminances.length; i++) squaredLuminances[i] = input.readDouble();
+        for (int i = 0; i < samples.length; i++) samples[i] = input.readInt();
+        for (int i = 0; i < depths.length; i++) depths[i] = input.readDouble();
+        for (int i = 0; i < normals.length; i++) normals[i] = input.readDouble();
+        for (int i = 0; i < albedos.length; i++) albedos[i] = input.readDouble();
+        for (int i = 0; i < hits.length; i++) hits[i] = input.readInt();
+        for (int i = 0; i < firstObjects.length; i++) firstObjects[i] = input.readInt();
+        for (int i = 0; i < edges.length; i++) edges[i] = input.readBoolean();
+    }
+
+    /**
+     * calculates the variance of the average luminance of a pixel
+     * @param pixel the pixel
+     * @return the variance (0 with less than two samples)
+     */
+    private double getVariance(int pixel) {
+        int count = samples[pixel];
+        if (count < 2) return 0d;
+        double mean = luminances[pixel] / count;
+        return Math.max(squaredLuminances[pixel] - count * mean * mean, 0d) / (count - 1) / count;
+    }
+
+    /**
+     * calculates the average relative error of the pixels, the standard deviation of the average luminance of each pixel
+     * divided by the average luminance (it gets smaller with the square root of the samples)
+     * @return the average relative error or positive infinity if the pixels have less than two samples
+     */
+    double getRelativeError() {
+        double error = 0d;
+        int count = 0;
+        for (int pixel = 0; pixel < samples.length; pixel++) {
+            if (samples[pixel] < 2) {
+                if (hits[pixel] > 0) return Double.POSITIVE_INFINITY;
+                continue;
+            }
+            error += Math.sqrt(getVariance(pixel)) / Math.max(luminances[pixel] / samples[pixel], MIN_RELATIVE_LUMINANCE);
+            count++;
+        }
+        return count == 0 ? 0d : error / count;
+    }
+
+    /**
+     * class getter
+     * @return the total number of samples of every pixel
+     */
+    long getSampleCount() {
+        long count = 0L;
+        for (int pixelSamples : samples) count += pixelSamples;
+        return count;
+    }
+
+    /**
+     * converts the averages of the samples to a frame buffer (with the size of the block), the pixels whose samples hit
+     * different objects (or miss some of them) are marked as edges
+     * @return the frame buffer
+     */
+    FrameBuffer toFrameBuffer() {
+        FrameBuffer frameBuffer = new FrameBuffer(width, height);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int pixel = y * width + x;
+                int count = samples[pixel];
+                if (count == 0) continue;
+                frameBuffer.setColor(x, y, (float) (colors[pixel * 3] / count), (float) (colors[pixel * 3 + 1] / count), (float) (colors[pixel * 3 + 2] / count));
+                frameBuffer.setVariance(x, y, (float) getVariance(pixel));
+                int pixelHits = hits[pixel];
+                if (pixelHits == 0) continue;
+
+                double normalLength = Math.sqrt(normals[pixel * 3] * normals[pixel * 3] + normals[pixel * 3 + 1] * normals[pixel * 3 + 1] + normals[pixel * 3 + 2] * normals[pixel * 3 + 2]);
+                if (normalLength == 0d) normalLength = 1d;
+                Color albedo = new Color(clamp(albedos[pixel * 3] / pixelHits), clamp(albedos[pixel * 3 + 1] / pixelHits), clamp(albedos[pixel * 3 + 2] / pixelHits));
+                frameBuffer.setFirstHit(x, y, (float) (depths[pixel] / pixelHits), (float) (normals[pixel * 3] / normalLength),
+                        (float) (normals[pixel * 3 + 1] / normalLength), (float) (normals[pixel * 3 + 2] / normalLength), albedo);
+                if (edges[pixel] || pixelHits < count) frameBuffer.setEdge(x, y);
+            }
+        }
+        return frameBuffer;
+    }
+
+    /**
+     * changes a given value to 1 or 0 if it is out of the range [0,1]
+     * @param value the value to change
+     * @return the valued changed if necessary
+     */
+    private static float clamp(double value) {
+        if (value < 0d) return 0f;
+        return (float) Math.min(value, 1d);
+    }
+
+    /**
+     * class getter
+     * @return the width in pixels
+     */
+    int getWidth() {
+        return width;
+    }
+
+    /**
+     * class getter
+     * @return the height in pixels
+     */
+    int getHeight() {
+        return height;
+    }
+
+}
@@ -0,0 +1,121 @@
+/*
+  [1968] - [2020] Centros Culturales de Mexico A.C / Universidad Panamericana
+  All Rights Reserved.
+ */
+package up.edu.isgc.raytracer.engine;
+
+
+import up.edu.isgc.raytracer.objects.utility.Camera;
+import up.edu.isgc.raytracer.tools.sampling.ISampler;
+import up.edu.isgc.raytracer.tools.sampling.SamplerType;
+
+import java.util.Date;
+
+/**
+ * Compares the convergence (error against samples per pixel) of every sampler type with plain random sampling
+ * First each sampler integrates two functions of the unit square in many pixels: a quarter disk (discontinuous, like a
+ * soft shadow) in the first two dimensions and in dimensions 10 and 11 (after other values are drawn), and a smooth gaussian;
+ * the root mean square error over the pixels is reported
+ * Then the scene with area lights is rendered with a single light chosen randomly per sample and compared against a
+ * reference with many samples, and the render is repeated with one thread to check that the image does not change
+ * It must be run from the same folder as Main (the .obj files are read from the objects/ folder)
+ *
+ * @author Homar Cano, Jafet Rodríguez
+ */
+public class SamplerBenchmark {
+    public static final int PIXELS = 64;
+    public static final int MAX_SAMPLES = 256;
+    public static final int IMAGE_SIZE = 100;
+    public static final int REFERENCE_SAMPLES = 256;
+    public static final int[] TEST_SAMPLES = {1, 4, 16, 64};
+
+    /**
+     * constant for the integral of the quarter disk in the unit square
+     */
+    private static final double DISK_INTEGRAL = Math.PI / 4d;
+    /**
+     * constant for the integral of exp(-x^2 - y^2) in the unit square ((sqrt(pi) / 2 * erf(1))^2)
+     */
+    private static final double GAUSSIAN_INTEGRAL = 0.5577462853510335d;
+
+    /**
+     * Driver function for the benchmark
+     * @param args unused
+     */
+    public static void main(String[] args) {
+        System.out.println(new Date() + " sampler benchmark started");
+        StringBuilder results = new StringBuilder(String.format("%-12s %8s %16s %16s %16s%n", "sampler", "spp", "disk RMSE", "disk RMSE (d10)", "gaussian RMSE"));
+        for (SamplerType type : SamplerType.values()) {
+            for (int samples = 1; samples <= MAX_SAMPLES; samples *= 4) {
+                results.append(String.format("%-12s %8d %16.6f %16.6f %16.6f%n", type, samples, integrate(type, samples, 0, false),
+                        integrate(type, samples, 10, false), integrate(type, samples, 0, true)));
+            }
+        }
+        System.out.print(results);
+
+        Raytracer raytracer = new Raytracer(Main.N_THREADS, Main.RENDER_TIMEOUT, Main.LIGHT_FALLOFF_EXPONENT, Main.USE_CLIPPING_PLANES);
+        raytracer.setShadowBias(0.075d);
+        raytracer.setMaxLightsPerHit(1);
+        Scene scene = Main.createSampleScene06();
+        scene.setCamera(new Camera(Main.CAMERA_POSITION, Main.FOV, Main.FOV, IMAGE_SIZE, IMAGE_SIZE, Main.FAR_CLIPPING_PLANE, Main.NEAR_CLIPPING_PLANE));
+        // the reference uses another seed, so its samples are not a continuation of the samples of the tested renders
+        raytracer.setSamplerType(SamplerType.SOBOL);
+        raytracer.setSamplerSeed(1);
+        raytracer.setSamplesPerPixel(REFERENCE_SAMPLES);
+        FrameBuffer reference = raytracer.renderScene(scene, new RenderStatistics());
+        raytracer.setSamplerSeed(0);
+
+        results = new StringBuilder(String.format("%-12s %8s %12s %12s%n", "sampler", "spp", "trace (ms)", "PSNR (dB)"));
+        for (SamplerType type : SamplerType.values()) {
+            raytracer.setSamplerType(type);
+            for (int samples : TEST_SAMPLES) {
+                raytracer.setSamplesPerPixel(samples);
+                long startTime = System.nanoTime();
+                FrameBuffer frameBuffer = raytracer.renderScene(scene, new RenderStatistics());
+                long traceTime = System.nanoTime() - startTime;
+                results.append(String.format("%-12s %8d %12.2f %12.2f%n", type, samples, traceTime / 1e6, frameBuffer.calculatePSNR(reference)));
+            }
+        }
+
+        raytracer.setSamplerType(Main.SAMPLER_TYPE);
+        raytracer.setSamplesPerPixel(TEST_SAMPLES[1]);
+        FrameBuffer multiThreaded = raytracer.renderScene(scene, new RenderStatistics());
+        raytracer.setNumberOfThreads(1);
+        FrameBuffer singleThreaded = raytracer.renderScene(scene, new RenderStatistics());
+        boolean reproducible = Double.isInfinite(singleThreaded.calculatePSNR(multiThreaded));
+        System.out.print(results);
+        System.out.println("the image is " + (reproducible ? "the same" : "different") + " with " + Main.N_THREADS + " and 1 threads");
+        System.out.println(new Date() + " sampler benchmark finished");
+    }
+
+    /**
+     * integrates a function of the unit square in every pixel with a sampler and measures the error
+     * @param type the type of sampler
+     * @param samples the number of samples per pixel
+     * @param dimension the first dimension used for the function, the previous ones are drawn and ignored
+     * @param smooth true to integrate the gaussian, false to integrate the quarter disk
+     * @return the root mean square error of the estimates of the pixels
+     */
+    private static double integrate(SamplerType type, int samples, int dimension, boolean smooth) {
+        ISampler sampler = type.create(0);
+        double[] point = new double[2];
+        double squaredError = 0d;
+        for (int y = 0; y < PIXELS; y++) {
+            for (int x = 0; x < PIXELS; x++) {
+                double estimate = 0d;
+                for (int sample = 0; sample < samples; sample++) {
+                    sampler.startPixelSample(x, y, sample);
+                    for (int skipped = 0; skipped < dimension; skipped++) sampler.get1D();
+                    sampler.get2D(point);
+                    double squaredRadius = point[0] * point[0] + point[1] * point[1];
+                    if (smooth) estimate += Math.exp(-squaredRadius);
+                    else if (squaredRadius < 1d) estimate += 1d;
+                }
+                double error = estimate / samples - (smooth ? GAUSSIAN_INTEGRAL : DISK_INTEGRAL);
+                squaredError += error * error;
+            }
+        }
+        return Math.sqrt(squaredError / (PIXELS * PIXELS));
+    }
+
+}
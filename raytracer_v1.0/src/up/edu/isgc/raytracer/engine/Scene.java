@@ -9,15 +9,18 @@ import up.edu.isgc.raytracer.lights.Light;
 import up.edu.isgc.raytracer.objects.Object3D;
 import up.edu.isgc.raytracer.objects.utility.Camera;
 
+import java.io.Serializable;
 import java.util.ArrayList;
 
 /**
  * Stores information for a scene such as the objects, lights and camera in it
  * Also has information like name and extension used when the scene is render and saved into a file
+ * The scene is serializable (with the triangles of its polygons), so it can be sent to the render workers
  *
  * @author Homar Cano, Jafet Rodríguez
  */
-public class Scene {
+public class Scene implements Serializable {
+    private static final long serialVersionUID = 1L;
     private ArrayList<Object3D> objects;
     private ArrayList<Light> lights;
     private Camera camera;
@@ -58,6 +61,17 @@ public class Scene {
         getObjects().add(object);
     }
 
+    /**
+     * creates an immutable snapshot of the scene ready to be rendered, the acceleration structures are built over copies of the objects
+     * changes to the scene after this call do not affect the snapshot
+     * @param raytracer the Raytracer with the configuration of the render (structure type, build quality, culling and light settings)
+     * @param statistics the statistics of the render (build times and structure quality are stored)
+     * @return the compiled scene
+     */
+    public CompiledScene compile(Raytracer raytracer, RenderStatistics statistics) {
+        return new CompiledScene(this, raytracer, statistics);
+    }
+
     /**
      * class getter
      * @return the main camera of the scene
@@ -0,0 +1,217 @@
+/*
+  [1968] - [2020] Centros Culturales de Mexico A.C / Universidad Panamericana
+  All Rights Reserved.
+ */
+package up.edu.isgc.raytracer.engine;
+
+
+import up.edu.isgc.raytracer.lights.Light;
+import up.edu.isgc.raytracer.materials.MaterialParameters;
+import up.edu.isgc.raytracer.objects.Object3D;
+import up.edu.isgc.raytracer.objects.utility.BoundingBox;
+import up.edu.isgc.raytracer.tools.utility.ContentHash;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * Hashes of the content of a render: the view (camera and configuration of the raytracer), the geometry of every object,
+ * every object with its material, every light and the whole render
+ * Two renders of the same view are compared object by object and light by light, an object or light changed when its hash
+ * is different in the same position of the scene, so the tiles of the previous render that can not see the changes are reused
+ * (see TileDependencies), it is shared by the render cache and the incremental renderer
+ *
+ * @author Homar Cano, Jafet Rodríguez
+ */
+final class SceneContent {
+    private final String hash;
+    private final String viewHash;
+    private final String[] geometryHashes;
+    private final String[] objectHashes;
+    private final String[] lightHashes;
+    private final boolean reusingTiles;
+    private final long hashTime;
+
+    /**
+     * class constructor
+     * @param hash the hash of the render (null if it is not known)
+     * @param viewHash the hash of the camera and the configuration of the raytracer (null if it is not known)
+     * @param geometryHashes the hash of the geometry of every object
+     * @param objectHashes the hash of the geometry and material of every object
+     * @param lightHashes the hash of every light
+     * @param reusingTiles true if the tiles of a previous render of the view can be reused
+     * @param hashTime the time in ns spent calculating the hashes
+     */
+    private SceneContent(String hash, String viewHash, String[] geometryHashes, String[] objectHashes, String[] lightHashes,
+                         boolean reusingTiles, long hashTime) {
+        this.hash = hash;
+        this.viewHash = viewHash;
+        this.geometryHashes = geometryHashes;
+        this.objectHashes = objectHashes;
+        this.lightHashes = lightHashes;
+        this.reusingTiles = reusingTiles;
+        this.hashTime = hashTime;
+    }
+
+    /**
+     * calculates the hashes of a render, the scene does not have to be compiled
+     * tiles are not reused with baked lighting, the irradiance cache or the caustic photon map, because they depend on the whole scene
+     * @param scene the Scene to render
+     * @param raytracer the Raytracer with the configuration of the render
+     * @param version the version of the format where the render is kept, it is part of the view hash
+     * @return the content of the render
+     */
+    static SceneContent of(Scene scene, Raytracer raytracer, int version) {
+        long startTime = System.nanoTime();
+        ContentHash view = new ContentHash().add(version);
+        raytracer.addToHash(view);
+        scene.getCamera().addToHash(view);
+        String viewHash = view.toHex();
+
+        List<Object3D> objects = scene.getObjects();
+        String[] geometryHashes = new String[objects.size()];
+        String[] objectHashes = new String[objects.size()];
+        ContentHash render = new ContentHash().add(viewHash).add(objects.size());
+        for (int id = 0; id < objects.size(); id++) {
+            Object3D object = objects.get(id);
+            ContentHash geometry = new ContentHash();
+            object.addToHash(geometry);
+            geometryHashes[id] = geometry.toHex();
+            ContentHash content = new ContentHash().add(geometryHashes[id]);
+            if (object.getMaterial() == null) content.add(false);
+            else new MaterialParameters(object.getMaterial()).addToHash(content.add(true));
+            objectHashes[id] = content.toHex();
+            render.add(objectHashes[id]);
+        }
+        List<Light> lights = scene.getLights();
+        String[] lightHashes = new String[lights.size()];
+        render.add(lights.size());
+        for (int i = 0; i < lights.size(); i++) {
+            ContentHash light = new ContentHash();
+            lights.get(i).addToHash(light);
+            lightHashes[i] = light.toHex();
+            render.add(lightHashes[i]);
+        }
+        boolean reusingTiles = !raytracer.isUsingBakedLighting() && !raytracer.isUsingIrradianceCache() && !raytracer.isUsingCausticPhotonMap();
+        return new SceneContent(render.toHex(), viewHash, geometryHashes, objectHashes, lightHashes, reusingTiles, System.nanoTime() - startTime);
+    }
+
+    /**
+     * copies the tiles of a previous render of the same view that can not be changed by the differences between both scenes
+     * @param previous the content of the previous render
+     * @param previousFrameBuffer the frame buffer of the previous render (before denoising)
+     * @param previousDependencies the dependencies of every tile of the previous render (null if a tile was not recorded)
+     * @param scene the CompiledScene of this render
+     * @param tiles the tiles of the image
+     * @param frameBuffer the frame buffer of the render
+     * @param finished the finished flag of every tile, the reused tiles are marked
+     * @param dependencies the dependencies of every tile, the dependencies of the reused tiles are copied
+     * @return the number of tiles reused
+     */
+    int reuseTiles(SceneContent previous, FrameBuffer previousFrameBuffer, TileDependencies[] previousDependencies, CompiledScene scene,
+                   List<Tile> tiles, FrameBuffer frameBuffer, boolean[] finished, TileDependencies[] dependencies) {
+        if (!reusingTiles || previousDependencies.length != tiles.size() || previousFrameBuffer.getWidth() != frameBuffer.getWidth()
+                || previousFrameBuffer.getHeight() != frameBuffer.getHeight()) return 0;
+        BitSet changedObjects = new BitSet();
+        List<BoundingBox> movedBoxes = new ArrayList<>();
+        for (int id = 0; id < Math.max(objectHashes.length, previous.objectHashes.length); id++) {
+            if (id < objectHashes.length && id < previous.objectHashes.length && objectHashes[id].equals(previous.objectHashes[id])) continue;
+            changedObjects.set(id);
+            if (id < objectHashes.length && (id >= previous.geometryHashes.length || !geometryHashes[id].equals(previous.geometryHashes[id]))) {
+                movedBoxes.add(scene.getObjectBoundingBox(id));
+            }
+        }
+        boolean lightsChanged = lightHashes.length != previous.lightHashes.length;
+        for (int i = 0; i < lightHashes.length && !lightsChanged; i++) lightsChanged = !lightHashes[i].equals(previous.lightHashes[i]);
+        BoundingBox[] boxes = movedBoxes.toArray(new BoundingBox[0]);
+
+        int reusedTiles = 0;
+        for (Tile tile : tiles) {
+            TileDependencies record = previousDependencies[tile.getIndex()];
+            if (record == null || finished[tile.getIndex()] || record.isAffected(changedObjects, boxes, lightsChanged)) continue;
+            frameBuffer.copyTile(tile, previousFrameBuffer);
+            finished[tile.getIndex()] = true;
+            dependencies[tile.getIndex()] = record;
+            reusedTiles++;
+        }
+        return reusedTiles;
+    }
+
+    /**
+     * writes the hashes of the objects and lights (used by the render cache)
+     * @param output the stream where the hashes are written
+     * @throws IOException if the hashes could not be written
+     */
+    void writeHashes(DataOutputStream output) throws IOException {
+        output.writeInt(objectHashes.length);
+        for (int id = 0; id < objectHashes.length; id++) {
+            output.writeUTF(geometryHashes[id]);
+            output.writeUTF(objectHashes[id]);
+        }
+        output.writeInt(lightHashes.length);
+        for (String lightHash : lightHashes) output.writeUTF(lightHash);
+    }
+
+    /**
+     * reads the hashes written with writeHashes(), the content read only can be the previous render of reuseTiles()
+     * @param input the stream where the hashes are read
+     * @return the content with the hashes of the objects and lights
+     * @throws IOException if the hashes could not be read
+     */
+    static SceneContent readHashes(DataInputStream input) throws IOException {
+        String[] geometryHashes = new String[input.readInt()];
+        String[] objectHashes = new String[geometryHashes.length];
+        for (int id = 0; id < geometryHashes.length; id++) {
+            geometryHashes[id] = input.readUTF();
+            objectHashes[id] = input.readUTF();
+        }
+        String[] lightHashes = new String[input.readInt()];
+        for (int i = 0; i < lightHashes.length; i++) lightHashes[i] = input.readUTF();
+        return new SceneContent(null, null, geometryHashes, objectHashes, lightHashes, true, 0L);
+    }
+
+    /**
+     * class getter
+     * @return the hash of the render
+     */
+    String getHash() {
+        return hash;
+    }
+
+    /**
+     * class getter
+     * @return the hash of the camera and the configuration of the raytracer
+     */
+    String getViewHash() {
+        return viewHash;
+    }
+
+    /**
+     * class getter
+     * @return the hash of the geometry of every object, the array is not copied
+     */
+    String[] getGeometryHashes() {
+        return geometryHashes;
+    }
+
+    /**
+     * class getter
+     * @return true if the tiles of a previous render of the view can be reused
+     */
+    boolean isReusingTiles() {
+        return reusingTiles;
+    }
+
+    /**
+     * class getter
+     * @return the time in ns spent calculating the hashes
+     */
+    long getHashTime() {
+        return hashTime;
+    }
+
+}
@@ -0,0 +1,201 @@
+/*
+  [1968] - [2020] Centros Culturales de Mexico A.C / Universidad Panamericana
+  All Rights Reserved.
+ */
+package up.edu.isgc.raytracer.engine;
+
+
+import up.edu.isgc.raytracer.objects.utility.Vector3D;
+
+import java.util.ArrayDeque;
+import java.util.List;
+
+/**
+ * Stores a render submitted to a tile scheduler: its pending tiles, the tiles being rendered and the frame buffer where the
+ * finished tiles are merged
+ * The tiles are taken by the threads of the scheduler and the job is waited by the thread that submitted it
+ *
+ * @author Homar Cano, Jafet Rodríguez
+ */
+final class ScheduledJob {
+    private final Raytracer raytracer;
+    private final CompiledScene scene;
+    private final Vector3D[][] screenPositions;
+    private final int priority;
+    private final ArrayDeque<Tile> pendingTiles;
+    private final int tileCount;
+    private final FrameBuffer frameBuffer;
+    private final long submitTime;
+    private int tilesInFlight;
+    private int finishedTiles;
+    private long lastDispatch;
+    private long firstDispatchTime;
+    private boolean cancelled;
+    private Throwable error;
+
+    /**
+     * class constructor
+     * @param raytracer the Raytracer that renders the tiles
+     * @param scene the CompiledScene to render
+     * @param screenPositions the screen positions of the camera of the scene
+     * @param tiles the tiles of the image
+     * @param priority the priority of the job
+     */
+    ScheduledJob(Raytracer raytracer, CompiledScene scene, Vector3D[][] screenPositions, List<Tile> tiles, int priority) {
+        this.raytracer = raytracer;
+        this.scene = scene;
+        this.screenPositions = screenPositions;
+        this.priority = priority;
+        this.pendingTiles = new ArrayDeque<>(tiles);
+        this.tileCount = tiles.size();
+        this.frameBuffer = new FrameBuffer(scene.getCamera().getResolutionWidth(), scene.getCamera().getResolutionHeight());
+        this.submitTime = System.nanoTime();
+    }
+
+    /**
+     * takes the next pending tile
+     * @param dispatch the number of tiles dispatched by the scheduler so far, used to give turns to the jobs
+     * @return the tile or null if the job has no pending tiles (it was cancelled)
+     */
+    synchronized Tile takeTile(long dispatch) {
+        if (pendingTiles.isEmpty()) return null;
+        if (firstDispatchTime == 0L) firstDispatchTime = System.nanoTime();
+        lastDispatch = dispatch;
+        tilesInFlight++;
+        return pendingTiles.poll();
+    }
+
+    /**
+     * renders a tile taken from this job and merges it into the frame buffer
+     * any failure of the tile (also an error like OutOfMemoryError or StackOverflowError) fails the job, the tile always
+     * leaves the tiles in flight so the job is done and the thread of the scheduler goes on with other jobs
+     * @param tile the tile
+     */
+    void renderTile(Tile tile) {
+        FrameBuffer block = null;
+        Throwable tileError = null;
+        try {
+            block = raytracer.renderTile(scene, screenPositions, tile);
+        } catch (Throwable ex) {
+            tileError = ex;
+        } finally {
+            synchronized (this) {
+                tilesInFlight--;
+                if (tileError != null) {
+                    if (error == null) error = tileError;
+                    pendingTiles.clear();
+                } else if (!cancelled) {
+                    frameBuffer.setTile(tile, block);
+                    finishedTiles++;
+                }
+                notifyAll();
+            }
+        }
+    }
+
+    /**
+     * waits until every tile is rendered, the job is cancelled or a tile fails
+     * @param timeout the maximum time to wait in ms
+     * @return true if the job is done
+     * @throws InterruptedException if the thread is interrupted while it waits
+     */
+    synchronized boolean await(long timeout) throws InterruptedException {
+        long end = System.nanoTime() + timeout * 1000000L;
+        while (!isDone()) {
+            long remaining = (end - System.nanoTime()) / 1000000L;
+            if (remaining <= 0L) return false;
+            wait(remaining);
+        }
+        return true;
+    }
+
+    /**
+     * removes the pending tiles, the tiles being rendered are finished but not merged
+     */
+    synchronized void cancel() {
+        cancelled = true;
+        pendingTiles.clear();
+        notifyAll();
+    }
+
+    /**
+     * class getter
+     * @return true if every tile is rendered, the job is cancelled or a tile failed, and no tile is being rendered
+     */
+    synchronized boolean isDone() {
+        return tilesInFlight == 0 && (finishedTiles == tileCount || cancelled || error != null);
+    }
+
+    /**
+     * class getter
+     * @return true if the job has tiles that are not rendered yet
+     */
+    synchronized boolean hasPendingTiles() {
+        return !pendingTiles.isEmpty();
+    }
+
+    /**
+     * class getter
+     * @return the number of tiles being rendered
+     */
+    synchronized int getTilesInFlight() {
+        return tilesInFlight;
+    }
+
+    /**
+     * class getter
+     * @return the number of the last tile dispatched by the scheduler to this job (0 if none)
+     */
+    synchronized long getLastDispatch() {
+        return lastDispatch;
+    }
+
+    /**
+     * class getter
+     * @return the time in ns between the submit and the first tile taken by a thread (0 if no tile was taken yet)
+     */
+    synchronized long getDispatchLatency() {
+        return firstDispatchTime == 0L ? 0L : firstDispatchTime - submitTime;
+    }
+
+    /**
+     * class getter
+     * @return the percentage of the tiles that are finished
+     */
+    synchronized int getProgress() {
+        return tileCount == 0 ? 100 : finishedTiles * 100 / tileCount;
+    }
+
+    /**
+     * class getter
+     * @return the error of a tile that failed or null
+     */
+    synchronized Throwable getError() {
+        return error;
+    }
+
+    /**
+     * class getter
+     * @return the number of tiles of the job
+     */
+    int getTileCount() {
+        return tileCount;
+    }
+
+    /**
+     * class getter
+     * @return the priority of the job
+     */
+    int getPriority() {
+        return priority;
+    }
+
+    /**
+     * class getter
+     * @return the frame buffer with the finished tiles
+     */
+    FrameBuffer getFrameBuffer() {
+        return frameBuffer;
+    }
+
+}
@@ -0,0 +1,165 @@
+/*
+  [1968] - [2020] Centros Culturales de Mexico A.C / Universidad Panamericana
+  All Rights Reserved.
+ */
+package up.edu.isgc.raytracer.engine;
+
+
+import up.edu.isgc.raytracer.objects.utility.Camera;
+import up.edu.isgc.raytracer.objects.utility.Vector3D;
+import up.edu.isgc.raytracer.tools.Intersection;
+
+import java.util.Arrays;
+
+/**
+ * Records the first hit of the center ray of every pixel of a frame of an animation (object, position and normal) with the
+ * number of frames its shading has been reused, so the next frame can reuse the shading of the pixels that still see the same point
+ * A hit of the next frame is moved back with its object to the previous frame and projected into the previous camera,
+ * the pixel found can be reused if it saw the same object at the same depth with the same normal, it is not an edge and its
+ * shading is not older than the max reuse age (the reflections and highlights change with the view, so they drift with the age)
+ *
+ * @author Homar Cano, Jafet Rodríguez
+ */
+final class TemporalHistory {
+    /**
+     * constant for the maximum difference between the depth of a reprojected hit and the depth of the previous pixel, relative to that depth
+     */
+    private static final double DEPTH_TOLERANCE = 0.02d;
+    /**
+     * constant for the minimum cosine between the normal of a reprojected hit and the normal of the previous pixel
+     */
+    private static final double NORMAL_TOLERANCE = 0.95d;
+
+    private final CompiledScene scene;
+    private final int width;
+    private final int height;
+    private final int[] objectIds;
+    private final double[] positions;
+    private final double[] normals;
+    private final int[] ages;
+    private FrameBuffer frameBuffer;
+
+    /**
+     * class constructor, creates the history of a frame without hits
+     * @param scene the CompiledScene of the frame
+     */
+    TemporalHistory(CompiledScene scene) {
+        this.scene = scene;
+        this.width = scene.getCamera().getResolutionWidth();
+        this.height = scene.getCamera().getResolutionHeight();
+        this.objectIds = new int[width * height];
+        Arrays.fill(objectIds, -1);
+        this.positions = new double[width * height * 3];
+        this.normals = new double[width * height * 3];
+        this.ages = new int[width * height];
+    }
+
+    /**
+     * records the first hit of the center ray of a pixel, every pixel is recorded by a single render thread
+     * @param x the column of the pixel
+     * @param y the row of the pixel
+     * @param hit the Intersection of the center ray or null if it hits nothing
+     * @param age the number of frames the shading of the pixel has been reused (0 if it was traced in this frame)
+     */
+    void record(int x, int y, Intersection hit, int age) {
+        int pixel = y * width + x;
+        ages[pixel] = age;
+        if (hit == null) return;
+        objectIds[pixel] = hit.getObjectId();
+        Vector3D position = hit.getPosition();
+        Vector3D normal = Vector3D.normalize(hit.getNormal());
+        positions[pixel * 3] = position.getX();
+        positions[pixel * 3 + 1] = position.getY();
+        positions[pixel * 3 + 2] = position.getZ();
+        normals[pixel * 3] = normal.getX();
+        normals[pixel * 3 + 1] = normal.getY();
+        normals[pixel * 3 + 2] = normal.getZ();
+    }
+
+    /**
+     * finds the pixel of this frame that saw the point hit by the center ray of a pixel of the next frame
+     * the point is moved back with the translation of its object between both frames and projected into the camera of this
+     * frame (the direction of the ray of a pixel is its screen position plus the camera position)
+     * @param current the CompiledScene of the next frame
+     * @param hit the Intersection of the center ray of the pixel in the next frame
+     * @param maxReuseAge the number of frames the shading of a pixel can be reused
+     * @return the index of the pixel (row * width + column) whose shading can be reused or -1 if it has to be traced
+     */
+    int findReusablePixel(CompiledScene current, Intersection hit, int maxReuseAge) {
+        if (frameBuffer == null || current.getObjectCount() != scene.getObjectCount()) return -1;
+        int objectId = hit.getObjectId();
+        Vector3D currentPosition = current.getObjectPosition(objectId);
+        Vector3D previousPosition = scene.getObjectPosition(objectId);
+        Vector3D position = hit.getPosition();
+        double x = position.getX() - (currentPosition.getX() - previousPosition.getX());
+        double y = position.getY() - (currentPosition.getY() - previousPosition.getY());
+        double z = position.getZ() - (currentPosition.getZ() - previousPosition.getZ());
+
+        Camera camera = scene.getCamera();
+        Vector3D cameraPosition = camera.getPosition();
+        double scale = (camera.getDefaultZ() + cameraPosition.getZ()) / (z - cameraPosition.getZ());
+        if (!(scale > 0d) || Double.isInfinite(scale)) return -1;
+        double screenX = scale * (x - cameraPosition.getX()) - cameraPosition.getX();
+        double screenY = scale * (y - cameraPosition.getY()) - cameraPosition.getY();
+        double[] limits = camera.calculateScreenLimits();
+        long column = Math.round((screenX - limits[0]) / ((limits[1] - limits[0]) / width));
+        long row = Math.round((limits[3] - screenY) / ((limits[3] - limits[2]) / height));
+        if (column < 0 || column >= width || row < 0 || row >= height) return -1;
+
+        int pixel = (int) row * width + (int) column;
+        if (objectIds[pixel] != objectId || ages[pixel] >= maxReuseAge || frameBuffer.getEdges()[pixel]) return -1;
+        double previousDepth = distance(positions[pixel * 3], positions[pixel * 3 + 1], positions[pixel * 3 + 2], cameraPosition);
+        double depth = distance(x, y, z, cameraPosition);
+        if (Math.abs(depth - previousDepth) > DEPTH_TOLERANCE * previousDepth) return -1;
+        Vector3D normal = Vector3D.normalize(hit.getNormal());
+        double cosine = normal.getX() * normals[pixel * 3] + normal.getY() * normals[pixel * 3 + 1] + normal.getZ() * normals[pixel * 3 + 2];
+        return cosine >= NORMAL_TOLERANCE ? pixel : -1;
+    }
+
+    /**
+     * calculates the distance between a point and a position
+     * @param x the x coordinate of the point
+     * @param y the y coordinate of the point
+     * @param z the z coordinate of the point
+     * @param position the position
+     * @return the distance
+     */
+    private static double distance(double x, double y, double z, Vector3D position) {
+        double dx = x - position.getX(), dy = y - position.getY(), dz = z - position.getZ();
+        return Math.sqrt(dx * dx + dy * dy + dz * dz);
+    }
+
+    /**
+     * class getter
+     * @param pixel the index of the pixel (row * width + column)
+     * @return the number of frames the shading of the pixel has been reused
+     */
+    int getAge(int pixel) {
+        return ages[pixel];
+    }
+
+    /**
+     * class getter
+     * @return the width of the frame in pixels
+     */
+    int getWidth() {
+        return width;
+    }
+
+    /**
+     * class getter
+     * @return the frame buffer of the frame (before denoising) or null if the frame is not finished
+     */
+    FrameBuffer getFrameBuffer() {
+        return frameBuffer;
+    }
+
+    /**
+     * class setter
+     * @param frameBuffer the frame buffer of the finished frame (before denoising), it must not change
+     */
+    void setFrameBuffer(FrameBuffer frameBuffer) {
+        this.frameBuffer = frameBuffer;
+    }
+
+}
@@ -0,0 +1,104 @@
+/*
+  [1968] - [2020] Centros Culturales de Mexico A.C / Universidad Panamericana
+  All Rights Reserved.
+ */
+package up.edu.isgc.raytracer.engine;
+
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Rectangular block of pixels of an image rendered as a unit (e.g. by a render worker)
+ * The tiles of an image are numbered row by row, so the index identifies a tile that is rendered more than once
+ *
+ * @author Homar Cano, Jafet Rodríguez
+ */
+public final class Tile implements Serializable {
+    private static final long serialVersionUID = 1L;
+    private final int index;
+    private final int x;
+    private final int y;
+    private final int width;
+    private final int height;
+
+    /**
+     * class constructor
+     * @param index the index of the tile in its image
+     * @param x the column of the first pixel of the tile
+     * @param y the row of the first pixel of the tile
+     * @param width the width in pixels
+     * @param height the height in pixels
+     */
+    public Tile(int index, int x, int y, int width, int height) {
+        this.index = index;
+        this.x = x;
+        this.y = y;
+        this.width = width;
+        this.height = height;
+    }
+
+    /**
+     * splits an image into square tiles, the tiles of the last row and column are cut to the size of the image
+     * @param width the width of the image in pixels
+     * @param height the height of the image in pixels
+     * @param tileSize the size of the tiles in pixels
+     * @return the tiles ordered row by row
+     */
+    public static List<Tile> split(int width, int height, int tileSize) {
+        List<Tile> tiles = new ArrayList<>();
+        for (int y = 0; y < height; y += tileSize) {
+            for (int x = 0; x < width; x += tileSize) {
+                tiles.add(new Tile(tiles.size(), x, y, Math.min(tileSize, width - x), Math.min(tileSize, height - y)));
+            }
+        }
+        return tiles;
+    }
+
+    /**
+     * class getter
+     * @return the index of the tile in its image
+     */
+    public int getIndex() {
+        return index;
+    }
+
+    /**
+     * class getter
+     * @return the column of the first pixel of the tile
+     */
+    public int getX() {
+        return x;
+    }
+
+    /**
+     * class getter
+     * @return the row of the first pixel of the tile
+     */
+    public int getY() {
+        return y;
+    }
+
+    /**
+     * class getter
+     * @return the width in pixels
+     */
+    public int getWidth() {
+        return width;
+    }
+
+    /**
+     * class getter
+     * @return the height in pixels
+     */
+    public int getHeight() {
+        return height;
+    }
+
+    @Override
+    public String toString() {
+        return "tile " + index + " (" + x + ", " + y + ", " + width + "x" + height + ")";
+    }
+
+}
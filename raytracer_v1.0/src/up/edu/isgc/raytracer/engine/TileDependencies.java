@@ -0,0 +1,276 @@
+/*
+  [1968] - [2020] Centros Culturales de Mexico A.C / Universidad Panamericana
+  All Rights Reserved.
+ */
+package up.edu.isgc.raytracer.engine;
+
+
+import up.edu.isgc.raytracer.objects.utility.BoundingBox;
+import up.edu.isgc.raytracer.objects.utility.Ray;
+import up.edu.isgc.raytracer.objects.utility.Vector3D;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.BitSet;
+
+/**
+ * Records what the rays of a tile touched while it was rendered: the objects they hit (or that blocked a shadow ray),
+ * if a point was shaded and the space crossed by the rays
+ * The rays are grouped in bundles (primary rays, secondary rays and the shadow rays of each light), each bundle keeps the box
+ * of its origins, the box of its directions and its longest ray, so a new or moved object can only change the tile if its
+ * bounding box can be reached by one of the bundles
+ * Every light adds its ambient and specular light to every shaded point (only its diffuse light is culled by distance),
+ * so the tile has to be rendered again if one of its objects changed, if a changed object can reach it or if it has a shaded
+ * point and a light changed, otherwise the pixels of the tile are exactly the same
+ *
+ * @author Homar Cano, Jafet Rodríguez
+ */
+final class TileDependencies {
+    private static final int PRIMARY_RAYS = 0;
+    private static final int SECONDARY_RAYS = 1;
+    private static final int SHADOW_RAYS = 2;
+
+    private final BitSet objects;
+    private boolean shaded;
+    private RayBundle[] bundles;
+
+    /**
+     * class constructor, creates an empty record
+     */
+    TileDependencies() {
+        this.objects = new BitSet();
+        this.bundles = new RayBundle[SHADOW_RAYS];
+    }
+
+    /**
+     * records a ray cast to find the closest object
+     * @param ray the Ray
+     * @param primaryCast true for primary rays
+     * @param objectId the id of the object hit or -1 if the ray hit nothing
+     * @param distance the distance of the hit
+     */
+    void addRay(Ray ray, boolean primaryCast, int objectId, double distance) {
+        if (objectId >= 0) objects.set(objectId);
+        getBundle(primaryCast ? PRIMARY_RAYS : SECONDARY_RAYS).add(ray, objectId >= 0 ? distance : Double.POSITIVE_INFINITY);
+    }
+
+    /**
+     * records a shadow ray, the whole ray is recorded even when it is blocked (the distance of the occluder is not calculated)
+     * @param ray the shadow Ray
+     * @param maxDistance the distance where the ray ends (the distance to the light sample or infinity)
+     * @param lightIndex the index of the light the ray goes to
+     * @param objectId the id of the object that blocked the ray or -1 if the light is visible
+     */
+    void addShadowRay(Ray ray, double maxDistance, int lightIndex, int objectId) {
+        if (objectId >= 0) objects.set(objectId);
+        getBundle(SHADOW_RAYS + lightIndex).add(ray, maxDistance);
+    }
+
+    /**
+     * records that a point was shaded, it is illuminated by every light of the scene
+     */
+    void addShadedPoint() {
+        shaded = true;
+    }
+
+    /**
+     * gets the bundle of a kind of rays, creating it the first time
+     * @param slot the kind of rays (primary, secondary or the shadow rays of a light)
+     * @return the bundle
+     */
+    private RayBundle getBundle(int slot) {
+        if (slot >= bundles.length) {
+            RayBundle[] grown = new RayBundle[Math.max(slot + 1, bundles.length * 2)];
+            System.arraycopy(bundles, 0, grown, 0, bundles.length);
+            bundles = grown;
+        }
+        if (bundles[slot] == null) bundles[slot] = new RayBundle();
+        return bundles[slot];
+    }
+
+    /**
+     * checks if a change in the scene can change the pixels of the tile
+     * @param changedObjects the ids of the objects that changed (with the ids of the objects removed or added)
+     * @param movedBoxes the bounding boxes of the objects whose geometry changed or that were added, in their new position
+     * @param lightsChanged true if a light changed, was removed or was added
+     * @return true if the tile has to be rendered again
+     */
+    boolean isAffected(BitSet changedObjects, BoundingBox[] movedBoxes, boolean lightsChanged) {
+        if (objects.intersects(changedObjects) || (shaded && lightsChanged)) return true;
+        for (BoundingBox box : movedBoxes) {
+            for (RayBundle bundle : bundles) {
+                if (bundle != null && bundle.reaches(box)) return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * class getter
+     * @return the ids of the objects touched by the rays of the tile, the set is not copied
+     */
+    BitSet getObjects() {
+        return objects;
+    }
+
+    /**
+     * writes the record (used by the render cache)
+     * @param output the stream where the record is written
+     * @throws IOException if the record could not be written
+     */
+    void write(DataOutputStream output) throws IOException {
+        writeBits(output, objects);
+        output.writeBoolean(shaded);
+        output.writeInt(bundles.length);
+        for (RayBundle bundle : bundles) {
+            output.writeBoolean(bundle != null);
+            if (bundle != null) bundle.write(output);
+        }
+    }
+
+    /**
+     * reads a record written with write()
+     * @param input the stream where the record is read
+     * @return the record
+     * @throws IOException if the record could not be read
+     */
+    static TileDependencies read(DataInputStream input) throws IOException {
+        TileDependencies dependencies = new TileDependencies();
+        dependencies.objects.or(readBits(input));
+        dependencies.shaded = input.readBoolean();
+        dependencies.bundles = new RayBundle[input.readInt()];
+        for (int i = 0; i < dependencies.bundles.length; i++) {
+            if (input.readBoolean()) dependencies.bundles[i] = RayBundle.read(input);
+        }
+        return dependencies;
+    }
+
+    /**
+     * writes a set of indices
+     * @param output the stream where the set is written
+     * @param bits the set
+     * @throws IOException if the set could not be written
+     */
+    private static void writeBits(DataOutputStream output, BitSet bits) throws IOException {
+        long[] words = bits.toLongArray();
+        output.writeInt(words.length);
+        for (long word : words) output.writeLong(word);
+    }
+
+    /**
+     * reads a set of indices written with writeBits()
+     * @param input the stream where the set is read
+     * @return the set
+     * @throws IOException if the set could not be read
+     */
+    private static BitSet readBits(DataInputStream input) throws IOException {
+        long[] words = new long[input.readInt()];
+        for (int i = 0; i < words.length; i++) words[i] = input.readLong();
+        return BitSet.valueOf(words);
+    }
+
+    /**
+     * Conservative bound of the space crossed by a group of rays: every ray starts inside the box of origins, its
+     * (normalized) direction is inside the box of directions and it is not longer than the longest ray
+     */
+    private static final class RayBundle {
+        private final double[] origins = {Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY,
+                Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY};
+        private final double[] directions = origins.clone();
+        private double length;
+
+        /**
+         * adds a ray to the bundle
+         * @param ray the Ray
+         * @param length the length of the ray (positive infinity if it does not stop)
+         */
+        void add(Ray ray, double length) {
+            Vector3D origin = ray.getOrigin();
+            Vector3D direction = ray.getDirection();
+            extend(origins, origin.getX(), origin.getY(), origin.getZ());
+            extend(directions, direction.getX(), direction.getY(), direction.getZ());
+            this.length = Math.max(this.length, length);
+        }
+
+        /**
+         * grows a box to contain a point
+         * @param box the box (minimum and maximum of each axis)
+         * @param x the x coordinate of the point
+         * @param y the y coordinate of the point
+         * @param z the z coordinate of the point
+         */
+        private static void extend(double[] box, double x, double y, double z) {
+            box[0] = Math.min(box[0], x);
+            box[1] = Math.min(box[1], y);
+            box[2] = Math.min(box[2], z);
+            box[3] = Math.max(box[3], x);
+            box[4] = Math.max(box[4], y);
+            box[5] = Math.max(box[5], z);
+        }
+
+        /**
+         * checks if a ray of the bundle can reach a box, each axis gives the distances where the interval of points
+         * of the bundle overlaps the box and the bundle can reach the box if the three intervals share a distance
+         * @param box the BoundingBox
+         * @return false only if no ray of the bundle can reach the box
+         */
+        boolean reaches(BoundingBox box) {
+            if (box.isEmpty()) return false;
+            double[] boxMin = {box.getMin().getX(), box.getMin().getY(), box.getMin().getZ()};
+            double[] boxMax = {box.getMax().getX(), box.getMax().getY(), box.getMax().getZ()};
+            double near = 0d;
+            double far = length;
+            for (int axis = 0; axis < 3 && near <= far; axis++) {
+                // the lowest point of the bundle in the axis must be under the box maximum: origin + t * direction <= max
+                double[] limits = solve(origins[axis], directions[axis], boxMax[axis]);
+                near = Math.max(near, limits[0]);
+                far = Math.min(far, limits[1]);
+                // and the highest point must be over the box minimum: -(origin + t * direction) <= -min
+                limits = solve(-origins[axis + 3], -directions[axis + 3], -boxMin[axis]);
+                near = Math.max(near, limits[0]);
+                far = Math.min(far, limits[1]);
+            }
+            return near <= far;
+        }
+
+        /**
+         * finds the distances t where start + t * slope is not greater than a limit
+         * @param start the value at t = 0
+         * @param slope the change per unit of distance
+         * @param limit the limit
+         * @return the first and last distance (empty when the first one is greater)
+         */
+        private static double[] solve(double start, double slope, double limit) {
+            if (slope == 0d) return start <= limit ? new double[]{Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY} : new double[]{1d, 0d};
+            double t = (limit - start) / slope;
+            return slope > 0d ? new double[]{Double.NEGATIVE_INFINITY, t} : new double[]{t, Double.POSITIVE_INFINITY};
+        }
+
+        /**
+         * writes the bundle
+         * @param output the stream where the bundle is written
+         * @throws IOException if the bundle could not be written
+         */
+        void write(DataOutputStream output) throws IOException {
+            for (double value : origins) output.writeDouble(value);
+            for (double value : directions) output.writeDouble(value);
+            output.writeDouble(length);
+        }
+
+        /**
+         * reads a bundle written with write()
+         * @param input the stream where the bundle is read
+         * @return the bundle
+         * @throws IOException if the bundle could not be read
+         */
+        static RayBundle read(DataInputStream input) throws IOException {
+            RayBundle bundle = new RayBundle();
+            for (int i = 0; i < bundle.origins.length; i++) bundle.origins[i] = input.readDouble();
+            for (int i = 0; i < bundle.directions.length; i++) bundle.directions[i] = input.readDouble();
+            bundle.length = input.readDouble();
+            return bundle;
+        }
+    }
+
+}
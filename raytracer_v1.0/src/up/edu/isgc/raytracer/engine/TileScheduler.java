@@ -0,0 +1,125 @@
+/*
+  [1968] - [2020] Centros Culturales de Mexico A.C / Universidad Panamericana
+  All Rights Reserved.
+ */
+package up.edu.isgc.raytracer.engine;
+
+
+import up.edu.isgc.raytracer.objects.utility.Vector3D;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Shares a fixed number of render threads between several renders (jobs) split in tiles
+ * Each thread renders one tile at a time and then takes the next tile of the job with the highest priority; jobs with the
+ * same priority get the threads in turns (the job with less tiles being rendered goes first), so every job advances
+ * A new job with a higher priority gets every thread within the time of one tile, the tiles already rendered by the jobs
+ * it interrupts are kept and those jobs continue with their next tiles once it is finished
+ *
+ * @author Homar Cano, Jafet Rodríguez
+ */
+public class TileScheduler {
+    private final List<ScheduledJob> jobs;
+    private final Thread[] threads;
+    private long dispatchedTiles;
+    private boolean shutdown;
+
+    /**
+     * class constructor, the threads are started and wait for jobs
+     * @param nThreads the number of render threads
+     */
+    public TileScheduler(int nThreads) {
+        this.jobs = new ArrayList<>();
+        this.threads = new Thread[Math.max(nThreads, 1)];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread(this::renderTiles, "tile scheduler " + i);
+            threads[i].setDaemon(true);
+            threads[i].start();
+        }
+    }
+
+    /**
+     * adds a job, its tiles are rendered by the threads of the scheduler
+     * @param raytracer the Raytracer that renders the tiles
+     * @param scene the CompiledScene to render
+     * @param screenPositions the screen positions of the camera of the scene
+     * @param tiles the tiles of the image
+     * @param priority the priority of the job, the jobs with a higher priority are rendered first
+     * @return the job, used to wait for it
+     */
+    synchronized ScheduledJob submit(Raytracer raytracer, CompiledScene scene, Vector3D[][] screenPositions, List<Tile> tiles, int priority) {
+        if (shutdown) throw new IllegalStateException("the scheduler is shut down");
+        ScheduledJob job = new ScheduledJob(raytracer, scene, screenPositions, tiles, priority);
+        if (job.hasPendingTiles()) {
+            jobs.add(job);
+            notifyAll();
+        }
+        return job;
+    }
+
+    /**
+     * stops the threads after their current tiles, the jobs that are not finished are cancelled
+     */
+    public synchronized void shutdown() {
+        shutdown = true;
+        for (ScheduledJob job : jobs) job.cancel();
+        jobs.clear();
+        notifyAll();
+    }
+
+    /**
+     * class getter
+     * @return the number of render threads
+     */
+    public int getNumberOfThreads() {
+        return threads.length;
+    }
+
+    /**
+     * renders tiles until the scheduler is shut down, the loop of every thread
+     */
+    private void renderTiles() {
+        while (true) {
+            ScheduledJob job;
+            Tile tile;
+            synchronized (this) {
+                while ((job = nextJob()) == null) {
+                    if (shutdown) return;
+                    try {
+                        wait();
+                    } catch (InterruptedException ex) {
+                        return;
+                    }
+                }
+                tile = job.takeTile(++dispatchedTiles);
+            }
+            if (tile != null) job.renderTile(tile);
+        }
+    }
+
+    /**
+     * chooses the job of the next tile: the highest priority, then the least tiles being rendered, then the job that
+     * waited more since its last tile
+     * the jobs without pending tiles (finished or cancelled) are removed
+     * @return the job or null if no job has pending tiles
+     */
+    private ScheduledJob nextJob() {
+        ScheduledJob next = null;
+        for (Iterator<ScheduledJob> iterator = jobs.iterator(); iterator.hasNext();) {
+            ScheduledJob job = iterator.next();
+            if (!job.hasPendingTiles()) {
+                iterator.remove();
+                continue;
+            }
+            if (next == null || job.getPriority() > next.getPriority()
+                    || (job.getPriority() == next.getPriority() && (job.getTilesInFlight() < next.getTilesInFlight()
+                    || (job.getTilesInFlight() == next.getTilesInFlight() && job.getLastDispatch() < next.getLastDispatch())))) {
+                next = job;
+            }
+        }
+        return next;
+    }
+
+}
@@ -0,0 +1,708 @@
+/*
+  [1968] - [2020] Centros Culturales de Mexico A.C / Universidad Panamericana
+  All Rights Reserved.
+ */
+package up.edu.isgc.raytracer.engine;
+
+
+import up.edu.isgc.raytracer.objects.Sphere;
+import up.edu.isgc.raytracer.objects.utility.Camera;
+import up.edu.isgc.raytracer.objects.utility.Ray;
+import up.edu.isgc.raytracer.objects.utility.Vector3D;
+import up.edu.isgc.raytracer.tools.IIntersectable;
+import up.edu.isgc.raytracer.tools.Intersection;
+
+import java.util.Arrays;
+import java.util.Date;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.IntStream;
+
+/**
+ * First hit of the ray through the center of every pixel found by rasterization instead of ray casting (hybrid visibility)
+ * Every primary ray starts in the camera, so the triangles of the visible polygons and a tessellation of the visible spheres
+ * are projected into the image and rasterized by scanlines in screen tiles (one tile per task, in parallel) into a buffer
+ * with the object id, triangle id, depth and barycentric coordinates of the closest fragment of every pixel
+ * The spheres are tessellated with a polyhedron that contains them, so their fragments cover every pixel they can cover and
+ * are never farther than the sphere, and the closest fragment of a different primitive is kept too
+ * A pixel is resolved with the buffer only if the exact intersection with the closest primitive (calculated like the ray cast
+ * does it) is closer than every other fragment and inside the clipping planes, so the hit is the same the ray cast finds; the
+ * pixels on an edge between primitives, at grazing angles or with ties are cast like before
+ *
+ * @author Homar Cano, Jafet Rodríguez
+ */
+final class VisibilityBuffer {
+    /**
+     * constant for the size in pixels of the tiles rasterized by each parallel task
+     */
+    private static final int TILE_SIZE = 32;
+    /**
+     * constant for the closest distance to the camera (relative to the distance of the screen) of the projected geometry
+     */
+    private static final double NEAR_PLANE = 0.001d;
+    /**
+     * constant for the margin of the barycentric coordinates of a covered pixel, larger than the margin of the triangle intersection
+     */
+    private static final double BARYCENTRIC_MARGIN = 0.000001d;
+    /**
+     * constant for the relative difference between two depths that can be ordered
+     */
+    private static final double DEPTH_TOLERANCE = 0.0000001d;
+    /**
+     * constant for the minimum cosine between a ray and the plane of a triangle, the depth of more grazing fragments is not reliable
+     */
+    private static final double GRAZING_COSINE = 0.0001d;
+    /**
+     * constant for the number of slices (longitude) of the tessellation of a sphere
+     */
+    private static final int SPHERE_SLICES = 32;
+    /**
+     * constant for the number of stacks (latitude) of the tessellation of a sphere
+     */
+    private static final int SPHERE_STACKS = 16;
+    /**
+     * constant with the tessellation of a sphere of radius 1 centered in the origin (9 values per triangle, counterclockwise
+     * from outside), scaled so every face is at least at distance 1 from the center
+     */
+    private static final double[] SPHERE_TESSELLATION = tessellateSphere();
+    /**
+     * constant for the distance between the center and the vertices of the tessellation of a sphere of radius 1
+     */
+    private static final double SPHERE_CIRCUMRADIUS = Math.sqrt(SPHERE_TESSELLATION[0] * SPHERE_TESSELLATION[0]
+            + SPHERE_TESSELLATION[1] * SPHERE_TESSELLATION[1] + SPHERE_TESSELLATION[2] * SPHERE_TESSELLATION[2]);
+
+    private final int width;
+    private final int height;
+    private final int[] objectIds;
+    private final int[] triangleIds;
+    private final double[] depths;
+    private final double[] barycentricU;
+    private final double[] barycentricV;
+    private final int[] secondObjectIds;
+    private final int[] secondTriangleIds;
+    private final double[] secondDepths;
+    private final boolean[] unresolved;
+    private final boolean useClippingPlanes;
+    private final double nearClippingPlane;
+    private final double farClippingPlane;
+    private final LongAdder resolvedHits;
+
+    /**
+     * class constructor, creates an empty buffer
+     * @param camera the Camera of the scene
+     * @param useClippingPlanes a boolean flag to determine if the hits outside the clipping planes of the camera are ignored
+     * @param statistics the statistics of the render
+     */
+    private VisibilityBuffer(Camera camera, boolean useClippingPlanes, RenderStatistics statistics) {
+        this.width = camera.getResolutionWidth();
+        this.height = camera.getResolutionHeight();
+        this.objectIds = new int[width * height];
+        this.triangleIds = new int[width * height];
+        this.depths = new double[width * height];
+        this.barycentricU = new double[width * height];
+        this.barycentricV = new double[width * height];
+        this.secondObjectIds = new int[width * height];
+        this.secondTriangleIds = new int[width * height];
+        this.secondDepths = new double[width * height];
+        this.unresolved = new boolean[width * height];
+        Arrays.fill(objectIds, -1);
+        Arrays.fill(secondObjectIds, -1);
+        Arrays.fill(depths, Double.POSITIVE_INFINITY);
+        Arrays.fill(secondDepths, Double.POSITIVE_INFINITY);
+        this.useClippingPlanes = useClippingPlanes;
+        this.nearClippingPlane = camera.getNearClippingPlane();
+        this.farClippingPlane = camera.getFarClippingPlane();
+        this.resolvedHits = statistics.getCounter("rasterized primary hits");
+    }
+
+    /**
+     * rasterizes the objects of a compiled scene visible to the camera into a visibility buffer
+     * @param scene the CompiledScene, its camera must not be null
+     * @param useClippingPlanes a boolean flag to determine if the hits outside the clipping planes of the camera are ignored
+     * @param statistics the statistics of the render, the size and rasterization time of the buffer are stored
+     * @return the visibility buffer or null if the scene can not be rasterized (the camera is inside a sphere or touches the geometry)
+     */
+    static VisibilityBuffer rasterize(CompiledScene scene, boolean useClippingPlanes, RenderStatistics statistics) {
+        long startTime = System.nanoTime();
+        Camera camera = scene.getCamera();
+        Projection projection = new Projection(camera);
+        if (projection.depthScale == 0d) return null;
+
+        int triangleCount = 0;
+        int sphereCount = 0;
+        for (int i = 0; i < scene.getVisibleObjectCount(); i++) {
+            IIntersectable object = scene.getObject(scene.getVisibleObject(i));
+            if (object instanceof CompiledMesh) {
+                triangleCount += ((CompiledMesh) object).getTriangleCount();
+            } else if (object instanceof Sphere) {
+                triangleCount += SPHERE_TESSELLATION.length / 9;
+                sphereCount++;
+            }
+        }
+        RasterTriangles triangles = new RasterTriangles(triangleCount);
+        for (int i = 0; i < scene.getVisibleObjectCount(); i++) {
+            int objectId = scene.getVisibleObject(i);
+            IIntersectable object = scene.getObject(objectId);
+            boolean projected = true;
+            if (object instanceof CompiledMesh) {
+                double[] vertices = ((CompiledMesh) object).getVertexArray();
+                for (int triangle = 0; projected && triangle < vertices.length / 9; triangle++) {
+                    projected = triangles.add(vertices, triangle * 9, objectId, triangle, false, projection);
+                }
+            } else if (object instanceof Sphere) {
+                Sphere sphere = (Sphere) object;
+                Vector3D center = sphere.getPosition();
+                double[] sphereCenter = {center.getX(), center.getY(), center.getZ()};
+                double[] facets = new double[SPHERE_TESSELLATION.length];
+                for (int value = 0; value < facets.length; value++) facets[value] = sphereCenter[value % 3] + SPHERE_TESSELLATION[value] * sphere.getRadius();
+                projected = Vector3D.magnitude(Vector3D.subtract(camera.getPosition(), center)) > SPHERE_CIRCUMRADIUS * sphere.getRadius();
+                for (int facet = 0; projected && facet < facets.length / 9; facet++) {
+                    projected = triangles.add(facets, facet * 9, objectId, -1, true, projection);
+                }
+            }
+            if (!projected) {
+                System.out.println(new Date() + " !! the scene '" + scene.getName() + "' can not be rasterized (the camera is too close to an object), its primary rays are cast !!");
+                return null;
+            }
+        }
+
+        VisibilityBuffer buffer = new VisibilityBuffer(camera, useClippingPlanes, statistics);
+        int columns = (buffer.width + TILE_SIZE - 1) / TILE_SIZE;
+        int rows = (buffer.height + TILE_SIZE - 1) / TILE_SIZE;
+        int[][] bins = triangles.bin(columns, rows, buffer.width, buffer.height);
+        IntStream.range(0, columns * rows).parallel().forEach(tile -> buffer.rasterizeTile(tile % columns * TILE_SIZE, tile / columns * TILE_SIZE, bins[tile], triangles, projection));
+
+        int covered = 0;
+        for (int pixel = 0; pixel < buffer.objectIds.length; pixel++) {
+            if (buffer.objectIds[pixel] >= 0 || buffer.unresolved[pixel]) covered++;
+        }
+        statistics.put("visibility buffer", triangles.screenCount + " screen triangles from " + triangleCount + " triangles (" + sphereCount
+                + " tessellated spheres), " + covered + " of " + buffer.objectIds.length + " pixels covered");
+        statistics.putTime("visibility buffer time", System.nanoTime() - startTime);
+        return buffer;
+    }
+
+    /**
+     * rasterizes the triangles binned to a tile of the buffer by scanlines, only the pixels of the tile are written so the
+     * tiles can be rasterized in parallel
+     * @param tileX the first column of the tile
+     * @param tileY the first row of the tile
+     * @param bin the screen triangles that overlap the tile
+     * @param triangles the projected triangles
+     * @param projection the projection of the camera
+     */
+    private void rasterizeTile(int tileX, int tileY, int[] bin, RasterTriangles triangles, Projection projection) {
+        int endX = Math.min(tileX + TILE_SIZE, width);
+        int endY = Math.min(tileY + TILE_SIZE, height);
+        double[] direction = new double[3];
+        double[][] edges = new double[3][3];
+        for (int screenTriangle : bin) {
+            int source = triangles.sources[screenTriangle];
+            double[] points = triangles.points;
+            int offset = screenTriangle * 6;
+            int minX = Math.max(tileX, (int) Math.floor(Math.min(points[offset], Math.min(points[offset + 2], points[offset + 4])) - 1d));
+            int maxX = Math.min(endX - 1, (int) Math.ceil(Math.max(points[offset], Math.max(points[offset + 2], points[offset + 4])) + 1d));
+            int minY = Math.max(tileY, (int) Math.floor(Math.min(points[offset + 1], Math.min(points[offset + 3], points[offset + 5])) - 1d));
+            int maxY = Math.min(endY - 1, (int) Math.ceil(Math.max(points[offset + 1], Math.max(points[offset + 3], points[offset + 5])) + 1d));
+            if (minX > maxX || minY > maxY) continue;
+            if (!setupEdges(points, offset, edges)) {
+                for (int y = minY; y <= maxY; y++) {
+                    for (int x = minX; x <= maxX; x++) unresolved[y * width + x] = true;
+                }
+                continue;
+            }
+
+            for (int y = minY; y <= maxY; y++) {
+                double spanStart = minX;
+                double spanEnd = maxX;
+                for (double[] edge : edges) {
+                    double limit = -1d - edge[1] * y - edge[2];
+                    if (edge[0] > 0d) spanStart = Math.max(spanStart, limit / edge[0]);
+                    else if (edge[0] < 0d) spanEnd = Math.min(spanEnd, limit / edge[0]);
+                    else if (limit > 0d) spanEnd = Double.NEGATIVE_INFINITY;
+                }
+                for (int x = (int) Math.ceil(spanStart); x <= spanEnd; x++) {
+                    projection.getDirection(x, y, direction);
+                    addFragment(y * width + x, source, direction, triangles, projection);
+                }
+            }
+        }
+    }
+
+    /**
+     * calculates the edge functions of a screen triangle as signed distances in pixels, positive inside the triangle
+     * @param points the projected points (x, y) of the screen triangles
+     * @param offset the index of the first value of the triangle
+     * @param edges the array where the coefficients (a, b, c) of the three edges are written
+     * @return false if the projected triangle is degenerate (seen from its side)
+     */
+    private static boolean setupEdges(double[] points, int offset, double[][] edges) {
+        double area = (points[offset + 2] - points[offset]) * (points[offset + 5] - points[offset + 1])
+                - (points[offset + 3] - points[offset + 1]) * (points[offset + 4] - points[offset]);
+        if (area == 0d || Double.isNaN(area)) return false;
+        double orientation = Math.signum(area);
+        for (int edge = 0; edge < 3; edge++) {
+            int start = offset + edge * 2;
+            int end = offset + ((edge + 1) % 3) * 2;
+            double a = -(points[end + 1] - points[start + 1]) * orientation;
+            double b = (points[end] - points[start]) * orientation;
+            double length = Math.sqrt(a * a + b * b);
+            if (length == 0d) return false;
+            edges[edge][0] = a / length;
+            edges[edge][1] = b / length;
+            edges[edge][2] = -(a * points[start] + b * points[start + 1]) / length;
+        }
+        return true;
+    }
+
+    /**
+     * intersects the ray of a pixel with the plane of a triangle and keeps the fragment if the triangle covers the pixel
+     * the two closest fragments of different primitives are kept, every fragment of a tessellated sphere is the same primitive
+     * @param pixel the index of the pixel
+     * @param source the index of the triangle
+     * @param direction the normalized direction of the ray of the pixel
+     * @param triangles the projected triangles
+     * @param projection the projection of the camera
+     */
+    private void addFragment(int pixel, int source, double[] direction, RasterTriangles triangles, Projection projection) {
+        double[] planes = triangles.planes;
+        int plane = source * 4;
+        double cosine = planes[plane] * direction[0] + planes[plane + 1] * direction[1] + planes[plane + 2] * direction[2];
+        if (Math.abs(cosine) < GRAZING_COSINE) {
+            unresolved[pixel] = true;
+            return;
+        }
+        double depth = planes[plane + 3] / cosine;
+        if (!(depth > 0d)) return;
+
+        double[] vertices = triangles.vertices;
+        int vertex = source * 9;
+        double pX = projection.originX + direction[0] * depth - vertices[vertex];
+        double pY = projection.originY + direction[1] * depth - vertices[vertex + 1];
+        double pZ = projection.originZ + direction[2] * depth - vertices[vertex + 2];
+        double[] basis = triangles.basis;
+        int base = source * 10;
+        double alongSecond = pX * basis[base] + pY * basis[base + 1] + pZ * basis[base + 2];
+        double alongThird = pX * basis[base + 3] + pY * basis[base + 4] + pZ * basis[base + 5];
+        double v = (basis[base + 9] * alongSecond - basis[base + 8] * alongThird) * basis[base + 6];
+        double u = (basis[base + 7] * alongThird - basis[base + 8] * alongSecond) * basis[base + 6];
+        if (u < -BARYCENTRIC_MARGIN || v < -BARYCENTRIC_MARGIN || u + v > 1d + BARYCENTRIC_MARGIN) return;
+
+        int objectId = triangles.objectIds[source];
+        int triangleId = triangles.triangleIds[source];
+        if (objectIds[pixel] == objectId && triangleIds[pixel] == triangleId) {
+            if (depth < depths[pixel]) setClosest(pixel, objectId, triangleId, depth, u, v);
+        } else if (secondObjectIds[pixel] == objectId && secondTriangleIds[pixel] == triangleId) {
+            if (depth < depths[pixel]) {
+                setSecond(pixel, objectIds[pixel], triangleIds[pixel], depths[pixel]);
+                setClosest(pixel, objectId, triangleId, depth, u, v);
+            } else if (depth < secondDepths[pixel]) {
+                secondDepths[pixel] = depth;
+            }
+        } else if (depth < depths[pixel]) {
+            setSecond(pixel, objectIds[pixel], triangleIds[pixel], depths[pixel]);
+            setClosest(pixel, objectId, triangleId, depth, u, v);
+        } else if (depth < secondDepths[pixel]) {
+            setSecond(pixel, objectId, triangleId, depth);
+        }
+    }
+
+    /**
+     * stores the closest fragment of a pixel
+     * @param pixel the index of the pixel
+     * @param objectId the id of the object
+     * @param triangleId the index of the triangle in the polygon (-1 for spheres)
+     * @param depth the distance from the camera
+     * @param u the barycentric coordinate of the third vertex
+     * @param v the barycentric coordinate of the second vertex
+     */
+    private void setClosest(int pixel, int objectId, int triangleId, double depth, double u, double v) {
+        objectIds[pixel] = objectId;
+        triangleIds[pixel] = triangleId;
+        depths[pixel] = depth;
+        barycentricU[pixel] = u;
+        barycentricV[pixel] = v;
+    }
+
+    /**
+     * stores the closest fragment of a pixel from a different primitive than the closest one
+     * @param pixel the index of the pixel
+     * @param objectId the id of the object
+     * @param triangleId the index of the triangle in the polygon (-1 for spheres)
+     * @param depth the distance from the camera
+     */
+    private void setSecond(int pixel, int objectId, int triangleId, double depth) {
+        secondObjectIds[pixel] = objectId;
+        secondTriangleIds[pixel] = triangleId;
+        secondDepths[pixel] = depth;
+    }
+
+    /**
+     * checks if the ray through the center of a pixel hits nothing, without casting it
+     * @param x the column of the pixel
+     * @param y the row of the pixel
+     * @return true if no object covers the pixel
+     */
+    boolean isEmpty(int x, int y) {
+        int pixel = y * width + x;
+        return objectIds[pixel] < 0 && !unresolved[pixel];
+    }
+
+    /**
+     * calculates the closest hit of the ray through the center of a pixel from its closest fragment, the intersection with
+     * the primitive of the fragment is calculated exactly like the ray cast does it and it is returned only if no other
+     * fragment can be closer and it is inside the clipping planes
+     * @param x the column of the pixel
+     * @param y the row of the pixel
+     * @param ray the primary Ray through the center of the pixel
+     * @param scene the CompiledScene rasterized
+     * @return the closest Intersection of the ray or null if the pixel can not be resolved with the buffer (it must be cast,
+     * see isEmpty() for the pixels without hits)
+     */
+    Intersection intersect(int x, int y, Ray ray, CompiledScene scene) {
+        int pixel = y * width + x;
+        int objectId = objectIds[pixel];
+        if (objectId < 0 || unresolved[pixel]) return null;
+        int triangleId = triangleIds[pixel];
+        if (triangleId >= 0 && (barycentricU[pixel] < 0d || barycentricV[pixel] < 0d || barycentricU[pixel] + barycentricV[pixel] > 1d)) return null;
+
+        Intersection intersection = triangleId >= 0 ? scene.intersectTriangle(objectId, triangleId, ray) : scene.intersect(objectId, ray);
+        if (intersection == null) return null;
+        double distance = intersection.getDistance();
+        if (!(distance > 0d) || distance < depths[pixel] * (1d - DEPTH_TOLERANCE) || secondDepths[pixel] <= distance * (1d + DEPTH_TOLERANCE)) return null;
+        if (useClippingPlanes && (distance <= nearClippingPlane * (1d + DEPTH_TOLERANCE) || distance >= farClippingPlane * (1d - DEPTH_TOLERANCE))) return null;
+        resolvedHits.increment();
+        return intersection;
+    }
+
+    /**
+     * creates the tessellation of a sphere of radius 1 (stacks and slices), the faces are outside the sphere
+     * @return the triangles of the tessellation (9 values per triangle)
+     */
+    private static double[] tessellateSphere() {
+        double[][] points = new double[(SPHERE_STACKS + 1) * SPHERE_SLICES][];
+        for (int stack = 0; stack <= SPHERE_STACKS; stack++) {
+            double polar = Math.PI * stack / SPHERE_STACKS;
+            for (int slice = 0; slice < SPHERE_SLICES; slice++) {
+                double azimuth = 2d * Math.PI * slice / SPHERE_SLICES;
+                points[stack * SPHERE_SLICES + slice] = new double[]{Math.sin(polar) * Math.cos(azimuth), Math.cos(polar), Math.sin(polar) * Math.sin(azimuth)};
+            }
+        }
+        double[] triangles = new double[(SPHERE_STACKS - 1) * SPHERE_SLICES * 2 * 9];
+        int count = 0;
+        for (int stack = 0; stack < SPHERE_STACKS; stack++) {
+            for (int slice = 0; slice < SPHERE_SLICES; slice++) {
+                double[] a = points[stack * SPHERE_SLICES + slice];
+                double[] b = points[(stack + 1) * SPHERE_SLICES + slice];
+                double[] c = points[(stack + 1) * SPHERE_SLICES + (slice + 1) % SPHERE_SLICES];
+                double[] d = points[stack * SPHERE_SLICES + (slice + 1) % SPHERE_SLICES];
+                if (stack < SPHERE_STACKS - 1) count = addFacet(triangles, count, a, b, c);
+                if (stack > 0) count = addFacet(triangles, count, a, c, d);
+            }
+        }
+        double closestFace = Double.POSITIVE_INFINITY;
+        for (int triangle = 0; triangle < count; triangle += 9) {
+            double[] normal = getNormal(triangles, triangle);
+            double length = Math.sqrt(normal[0] * normal[0] + normal[1] * normal[1] + normal[2] * normal[2]);
+            closestFace = Math.min(closestFace, (normal[0] * triangles[triangle] + normal[1] * triangles[triangle + 1] + normal[2] * triangles[triangle + 2]) / length);
+        }
+        double scale = (1d + DEPTH_TOLERANCE) / closestFace;
+        for (int value = 0; value < count; value++) triangles[value] *= scale;
+        return Arrays.copyOf(triangles, count);
+    }
+
+    /**
+     * adds a face of the tessellation of a sphere with its normal pointing outside
+     * @param triangles the triangles of the tessellation
+     * @param count the number of values already added
+     * @param a the first vertex
+     * @param b the second vertex
+     * @param c the third vertex
+     * @return the number of values added
+     */
+    private static int addFacet(double[] triangles, int count, double[] a, double[] b, double[] c) {
+        System.arraycopy(a, 0, triangles, count, 3);
+        System.arraycopy(b, 0, triangles, count + 3, 3);
+        System.arraycopy(c, 0, triangles, count + 6, 3);
+        double[] normal = getNormal(triangles, count);
+        if (normal[0] * a[0] + normal[1] * a[1] + normal[2] * a[2] < 0d) {
+            System.arraycopy(c, 0, triangles, count + 3, 3);
+            System.arraycopy(b, 0, triangles, count + 6, 3);
+        }
+        return count + 9;
+    }
+
+    /**
+     * calculates the (not normalized) normal of a triangle, the cross product of its edges from the first vertex
+     * @param vertices the flat array of vertices (9 values per triangle)
+     * @param offset the index of the first value of the triangle
+     * @return the normal (x, y, z)
+     */
+    private static double[] getNormal(double[] vertices, int offset) {
+        double e1X = vertices[offset + 3] - vertices[offset], e1Y = vertices[offset + 4] - vertices[offset + 1], e1Z = vertices[offset + 5] - vertices[offset + 2];
+        double e2X = vertices[offset + 6] - vertices[offset], e2Y = vertices[offset + 7] - vertices[offset + 1], e2Z = vertices[offset + 8] - vertices[offset + 2];
+        return new double[]{e1Y * e2Z - e1Z * e2Y, e1Z * e2X - e1X * e2Z, e1X * e2Y - e1Y * e2X};
+    }
+
+    /**
+     * Projection of the camera: the direction of the ray of a pixel is its screen position plus the camera position, so a point
+     * is projected into the screen where that direction points to it, the depth of a point is its distance along the z axis
+     * divided by the z of the directions
+     */
+    private static final class Projection {
+        private final double originX;
+        private final double originY;
+        private final double originZ;
+        private final double depthScale;
+        private final double minX;
+        private final double maxY;
+        private final double pixelWidth;
+        private final double pixelHeight;
+        private final double halfScreenWidth;
+        private final double halfScreenHeight;
+
+        /**
+         * class constructor
+         * @param camera the Camera projected
+         */
+        private Projection(Camera camera) {
+            Vector3D position = camera.getPosition();
+            double[] limits = camera.calculateScreenLimits();
+            this.originX = position.getX();
+            this.originY = position.getY();
+            this.originZ = position.getZ();
+            this.depthScale = camera.getDefaultZ() + originZ;
+            this.minX = limits[0];
+            this.maxY = limits[3];
+            this.pixelWidth = (limits[1] - limits[0]) / camera.getResolutionWidth();
+            this.pixelHeight = (limits[3] - limits[2]) / camera.getResolutionHeight();
+            this.halfScreenWidth = Math.max(Math.abs(limits[0]), Math.abs(limits[1])) + pixelWidth + Math.abs(originX);
+            this.halfScreenHeight = Math.max(Math.abs(limits[2]), Math.abs(limits[3])) + pixelHeight + Math.abs(originY);
+        }
+
+        /**
+         * calculates the normalized direction of the ray through the center of a pixel
+         * @param x the column of the pixel
+         * @param y the row of the pixel
+         * @param direction the array where the direction is written
+         */
+        private void getDirection(int x, int y, double[] direction) {
+            double dX = minX + pixelWidth * x + originX;
+            double dY = maxY - pixelHeight * y + originY;
+            double dZ = depthScale;
+            double length = Math.sqrt(dX * dX + dY * dY + dZ * dZ);
+            direction[0] = dX / length;
+            direction[1] = dY / length;
+            direction[2] = dZ / length;
+        }
+
+        /**
+         * calculates the depth of a point, positive in front of the camera (1 is the distance of the screen)
+         * @param z the z coordinate of the point
+         * @return the depth
+         */
+        private double getDepth(double z) {
+            return (z - originZ) / depthScale;
+        }
+    }
+
+    /**
+     * Triangles projected into the screen, clipped by the near plane (a clipped triangle becomes one or two screen triangles)
+     * Stores the vertices, plane (unit normal and distance to the camera) and barycentric basis (both edges from the first vertex,
+     * the inverse of the determinant and the dot products of the edges) of every triangle and the projected points of every screen triangle
+     */
+    private static final class RasterTriangles {
+        private final double[] vertices;
+        private final double[] planes;
+        private final double[] basis;
+        private final int[] objectIds;
+        private final int[] triangleIds;
+        private double[] points;
+        private int[] sources;
+        private int count;
+        private int screenCount;
+
+        /**
+         * class constructor
+         * @param capacity the maximum number of triangles
+         */
+        private RasterTriangles(int capacity) {
+            this.vertices = new double[capacity * 9];
+            this.planes = new double[capacity * 4];
+            this.basis = new double[capacity * 10];
+            this.objectIds = new int[capacity];
+            this.triangleIds = new int[capacity];
+            this.points = new double[Math.max(capacity, 1) * 6];
+            this.sources = new int[Math.max(capacity, 1)];
+        }
+
+        /**
+         * projects a triangle, the triangles behind the camera or facing away (only for closed surfaces) are skipped
+         * @param array the flat array with the vertices of the triangle
+         * @param offset the index of the first value of the triangle
+         * @param objectId the id of the object of the triangle
+         * @param triangleId the index of the triangle in the polygon (-1 for the faces of a sphere)
+         * @param closed a boolean flag to determine if the triangle is a face of a closed surface (its back faces are skipped)
+         * @param projection the projection of the camera
+         * @return false if a part of the triangle is so close to the camera that it can not be projected
+         */
+        private boolean add(double[] array, int offset, int objectId, int triangleId, boolean closed, Projection projection) {
+            double[] depths = new double[3];
+            double closest = Double.POSITIVE_INFINITY;
+            double farthest = Double.NEGATIVE_INFINITY;
+            for (int vertex = 0; vertex < 3; vertex++) {
+                depths[vertex] = projection.getDepth(array[offset + vertex * 3 + 2]);
+                closest = Math.min(closest, depths[vertex]);
+                farthest = Math.max(farthest, depths[vertex]);
+            }
+            if (!(farthest > 0d)) return true;
+            if (closest < NEAR_PLANE && touchesCamera(array, offset, projection)) return false;
+            if (!(farthest > NEAR_PLANE)) return true;
+
+            double[] normal = getNormal(array, offset);
+            double planeDistance = normal[0] * (array[offset] - projection.originX) + normal[1] * (array[offset + 1] - projection.originY)
+                    + normal[2] * (array[offset + 2] - projection.originZ);
+            double length = Math.sqrt(normal[0] * normal[0] + normal[1] * normal[1] + normal[2] * normal[2]);
+            if (length == 0d || (closed && planeDistance >= 0d)) return true;
+
+            int source = count++;
+            objectIds[source] = objectId;
+            triangleIds[source] = triangleId;
+            System.arraycopy(array, offset, vertices, source * 9, 9);
+            planes[source * 4] = normal[0] / length;
+            planes[source * 4 + 1] = normal[1] / length;
+            planes[source * 4 + 2] = normal[2] / length;
+            planes[source * 4 + 3] = planeDistance / length;
+            double e1X = array[offset + 3] - array[offset], e1Y = array[offset + 4] - array[offset + 1], e1Z = array[offset + 5] - array[offset + 2];
+            double e2X = array[offset + 6] - array[offset], e2Y = array[offset + 7] - array[offset + 1], e2Z = array[offset + 8] - array[offset + 2];
+            double firstLength = e1X * e1X + e1Y * e1Y + e1Z * e1Z;
+            double dot = e1X * e2X + e1Y * e2Y + e1Z * e2Z;
+            double secondLength = e2X * e2X + e2Y * e2Y + e2Z * e2Z;
+            double[] edges = {e1X, e1Y, e1Z, e2X, e2Y, e2Z, 1d / (firstLength * secondLength - dot * dot), firstLength, dot, secondLength};
+            System.arraycopy(edges, 0, basis, source * 10, edges.length);
+
+            double[] clipped = clip(array, offset, depths, projection);
+            for (int fan = 1; fan + 1 < clipped.length / 2; fan++) {
+                if (screenCount == sources.length) {
+                    points = Arrays.copyOf(points, points.length * 2);
+                    sources = Arrays.copyOf(sources, sources.length * 2);
+                }
+                int screenOffset = screenCount * 6;
+                points[screenOffset] = clipped[0];
+                points[screenOffset + 1] = clipped[1];
+                points[screenOffset + 2] = clipped[fan * 2];
+                points[screenOffset + 3] = clipped[fan * 2 + 1];
+                points[screenOffset + 4] = clipped[fan * 2 + 2];
+                points[screenOffset + 5] = clipped[fan * 2 + 3];
+                sources[screenCount++] = source;
+            }
+            return true;
+        }
+
+        /**
+         * checks if a triangle with a part closer than the near plane can be seen by the rays of the pixels in that part
+         * (the part in front of the camera and closer than the near plane is not projected), it is conservative: the box
+         * of the triangle is compared with the box of the screen scaled to the near plane
+         * @param array the flat array with the vertices of the triangle
+         * @param offset the index of the first value of the triangle
+         * @param projection the projection of the camera
+         * @return true if the triangle can be seen in front of the near plane
+         */
+        private static boolean touchesCamera(double[] array, int offset, Projection projection) {
+            double[] center = {projection.originX, projection.originY, projection.originZ};
+            double[] extent = {NEAR_PLANE * projection.halfScreenWidth, NEAR_PLANE * projection.halfScreenHeight, NEAR_PLANE * Math.abs(projection.depthScale)};
+            for (int axis = 0; axis < 3; axis++) {
+                double min = Math.min(array[offset + axis], Math.min(array[offset + 3 + axis], array[offset + 6 + axis]));
+                double max = Math.max(array[offset + axis], Math.max(array[offset + 3 + axis], array[offset + 6 + axis]));
+                if (max < center[axis] - extent[axis] || min > center[axis] + extent[axis]) return false;
+            }
+            return true;
+        }
+
+        /**
+         * clips a triangle by the near plane and projects the vertices of the clipped polygon into the screen (in pixels)
+         * @param array the flat array with the vertices of the triangle
+         * @param offset the index of the first value of the triangle
+         * @param depths the depth of every vertex
+         * @param projection the projection of the camera
+         * @return the projected points (x, y) of the clipped polygon, 3 or 4 points
+         */
+        private static double[] clip(double[] array, int offset, double[] depths, Projection projection) {
+            double[] polygon = new double[8];
+            int count = 0;
+            for (int vertex = 0; vertex < 3; vertex++) {
+                int next = (vertex + 1) % 3;
+                int start = offset + vertex * 3;
+                int end = offset + next * 3;
+                if (depths[vertex] >= NEAR_PLANE) count = project(array[start], array[start + 1], depths[vertex], polygon, count, projection);
+                if ((depths[vertex] >= NEAR_PLANE) != (depths[next] >= NEAR_PLANE)) {
+                    double t = (NEAR_PLANE - depths[vertex]) / (depths[next] - depths[vertex]);
+                    count = project(array[start] + (array[end] - array[start]) * t, array[start + 1] + (array[end + 1] - array[start + 1]) * t,
+                            NEAR_PLANE, polygon, count, projection);
+                }
+            }
+            return Arrays.copyOf(polygon, count);
+        }
+
+        /**
+         * projects a point into the screen, in pixels (the center of the pixel (i, j) is projected to (i, j))
+         * @param x the x coordinate of the point
+         * @param y the y coordinate of the point
+         * @param depth the depth of the point
+         * @param polygon the array where the projected point is added
+         * @param count the number of values already added
+         * @param projection the projection of the camera
+         * @return the number of values added
+         */
+        private static int project(double x, double y, double depth, double[] polygon, int count, Projection projection) {
+            double screenX = (x - projection.originX) / depth - projection.originX;
+            double screenY = (y - projection.originY) / depth - projection.originY;
+            polygon[count] = (screenX - projection.minX) / projection.pixelWidth;
+            polygon[count + 1] = (projection.maxY - screenY) / projection.pixelHeight;
+            return count + 2;
+        }
+
+        /**
+         * sorts the screen triangles into the tiles their bounds overlap (with a margin of one pixel)
+         * @param columns the number of columns of tiles
+         * @param rows the number of rows of tiles
+         * @param width the width of the buffer in pixels
+         * @param height the height of the buffer in pixels
+         * @return the screen triangles of every tile
+         */
+        private int[][] bin(int columns, int rows, int width, int height) {
+            int[] counts = new int[columns * rows];
+            int[] ranges = new int[screenCount * 4];
+            for (int triangle = 0; triangle < screenCount; triangle++) {
+                int offset = triangle * 6;
+                double minX = Math.min(points[offset], Math.min(points[offset + 2], points[offset + 4])) - 1d;
+                double maxX = Math.max(points[offset], Math.max(points[offset + 2], points[offset + 4])) + 1d;
+                double minY = Math.min(points[offset + 1], Math.min(points[offset + 3], points[offset + 5])) - 1d;
+                double maxY = Math.max(points[offset + 1], Math.max(points[offset + 3], points[offset + 5])) + 1d;
+                if (!(maxX >= 0d && minX < width && maxY >= 0d && minY < height)) {
+                    ranges[triangle * 4 + 3] = -1;
+                    continue;
+                }
+                ranges[triangle * 4] = (int) Math.max(0d, minX) / TILE_SIZE;
+                ranges[triangle * 4 + 1] = (int) Math.min(width - 1d, maxX) / TILE_SIZE;
+                ranges[triangle * 4 + 2] = (int) Math.max(0d, minY) / TILE_SIZE;
+                ranges[triangle * 4 + 3] = (int) Math.min(height - 1d, maxY) / TILE_SIZE;
+                for (int row = ranges[triangle * 4 + 2]; row <= ranges[triangle * 4 + 3]; row++) {
+                    for (int column = ranges[triangle * 4]; column <= ranges[triangle * 4 + 1]; column++) counts[row * columns + column]++;
+                }
+            }
+            int[][] bins = new int[columns * rows][];
+            for (int tile = 0; tile < bins.length; tile++) bins[tile] = new int[counts[tile]];
+            Arrays.fill(counts, 0);
+            for (int triangle = 0; triangle < screenCount; triangle++) {
+                for (int row = ranges[triangle * 4 + 2]; row <= ranges[triangle * 4 + 3]; row++) {
+                    for (int column = ranges[triangle * 4]; column <= ranges[triangle * 4 + 1]; column++) {
+                        int tile = row * columns + column;
+                        bins[tile][counts[tile]++] = triangle;
+                    }
+                }
+            }
+            return bins;
+        }
+    }
+
+}
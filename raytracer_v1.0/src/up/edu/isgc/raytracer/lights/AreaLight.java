@@ -0,0 +1,127 @@
+/*
+  [1968] - [2020] Centros Culturales de Mexico A.C / Universidad Panamericana
+  All Rights Reserved.
+ */
+package up.edu.isgc.raytracer.lights;
+
+
+import up.edu.isgc.raytracer.objects.utility.Vector3D;
+import up.edu.isgc.raytracer.tools.utility.ContentHash;
+
+import java.awt.Color;
+import java.util.Random;
+
+/**
+ * Stores information for a light with a surface, it is shaded as a point light in its center but its shadows are soft
+ * The visible part of the light is estimated with stratified shadow rays: a few probes are cast first and the rest of the samples
+ * are only cast when the probes disagree (the point is in the penumbra)
+ *
+ * @author Homar Cano, Jafet Rodríguez
+ */
+public abstract class AreaLight extends PointLight {
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * constant for the maximum number of probe samples
+     */
+    private static final int MAX_PROBE_SAMPLES = 4;
+
+    private int samples;
+
+    /**
+     * class constructor
+     * @param position the position of the center of the light
+     * @param color the color of the light (used to create the material)
+     * @param intensity the intensity of the light
+     * @param samples the number of shadow rays used in the penumbra
+     */
+    public AreaLight(Vector3D position, Color color, float intensity, int samples) {
+        super(position, color, intensity);
+        setSamples(samples);
+    }
+
+    /**
+     * calculates a point of the surface of the light
+     * @param u the first coordinate of the point in the unit square
+     * @param v the second coordinate of the point in the unit square
+     * @return the position of the point
+     */
+    protected abstract Vector3D getSurfacePoint(double u, double v);
+
+    /**
+     * class getter
+     * @return the maximum distance between the center of the light and its surface
+     */
+    public abstract double getExtent();
+
+    /**
+     * calculates a point of the light inside a stratum of a grid over the unit square, jittered randomly
+     * @param sample the index of the sample, each sample uses a different stratum of the light
+     * @param sampleCount the total number of samples (and strata)
+     * @param random the random number generator used to jitter the sample inside its stratum
+     * @return the position of the sample
+     */
+    @Override
+    public Vector3D getSamplePosition(int sample, int sampleCount, Random random) {
+        double u = random.nextDouble();
+        return getSamplePosition(sample, sampleCount, u, random.nextDouble());
+    }
+
+    /**
+     * calculates a point of the light inside a stratum of a grid over the unit square
+     * @param sample the index of the sample, each sample uses a different stratum of the light
+     * @param sampleCount the total number of samples (and strata)
+     * @param u the first coordinate of the point inside its stratum (from 0 to 1)
+     * @param v the second coordinate of the point inside its stratum (from 0 to 1)
+     * @return the position of the sample
+     */
+    @Override
+    public Vector3D getSamplePosition(int sample, int sampleCount, double u, double v) {
+        int columns = (int) Math.ceil(Math.sqrt(sampleCount));
+        int rows = (sampleCount + columns - 1) / columns;
+        return getSurfacePoint(((sample % columns) + u) / columns, ((sample / columns) + v) / rows);
+    }
+
+    /**
+     * the influence of the light is the influence of its center extended by the size of the light
+     * @param falloffExponent the exponent used to evaluate the light intensity according to the distance
+     * @param threshold the minimum intensity that is considered a contribution
+     * @return the influence radius or positive infinity if the light never falls under the threshold
+     */
+    @Override
+    public double getInfluenceRadius(float falloffExponent, double threshold) {
+        return super.getInfluenceRadius(falloffExponent, threshold) + getExtent();
+    }
+
+    @Override
+    public void addToHash(ContentHash hash) {
+        super.addToHash(hash);
+        hash.add(getSamples());
+    }
+
+    @Override
+    public int getShadowSamples() {
+        return getSamples();
+    }
+
+    @Override
+    public int getProbeSamples() {
+        return Math.min(MAX_PROBE_SAMPLES, getSamples());
+    }
+
+    /**
+     * class getter
+     * @return the number of shadow rays used in the penumbra
+     */
+    public int getSamples() {
+        return samples;
+    }
+    /**
+     * class setter
+     * @param samples the number of shadow rays used in the penumbra to set (at least 1)
+     */
+    public void setSamples(int samples) {
+        this.samples = Math.max(samples, 1);
+    }
+
+}
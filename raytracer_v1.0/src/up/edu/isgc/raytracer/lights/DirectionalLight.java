@@ -7,6 +7,7 @@ package up.edu.isgc.raytracer.lights;
 
 import up.edu.isgc.raytracer.objects.utility.Vector3D;
 import up.edu.isgc.raytracer.tools.Intersection;
+import up.edu.isgc.raytracer.tools.utility.ContentHash;
 
 import java.awt.Color;
 
@@ -17,6 +18,7 @@ import java.awt.Color;
  * @author Homar Cano, Jafet Rodríguez
  */
 public class DirectionalLight extends Light {
+    private static final long serialVersionUID = 1L;
     private Vector3D direction;
 
     /**
@@ -41,6 +43,38 @@ public class DirectionalLight extends Light {
         return Math.max(Vector3D.dotProduct(intersection.getNormal(), Vector3D.scalarMultiplication(getDirection(), -1.0d)), 0.0d);
     }
 
+    /**
+     * the intensity of a directional light is not attenuated with the distance
+     * @param point the point illuminated by the light
+     * @return always 1
+     */
+    @Override
+    public double getFalloffDistance(Vector3D point) {
+        return 1d;
+    }
+
+    /**
+     * the intensity of a directional light is not attenuated, so it reaches every point
+     * @param falloffExponent the exponent used to evaluate the light intensity according to the distance
+     * @param threshold the minimum intensity that is considered a contribution
+     * @return always positive infinity
+     */
+    @Override
+    public double getInfluenceRadius(float falloffExponent, double threshold) {
+        return Double.POSITIVE_INFINITY;
+    }
+
+    @Override
+    public void addToHash(ContentHash hash) {
+        super.addToHash(hash);
+        hash.add(getDirection());
+    }
+
+    @Override
+    public Light copy() {
+        return new DirectionalLight(Vector3D.clone(getPosition()), Vector3D.clone(getDirection()), getColor(), getIntensity());
+    }
+
     /**
      * class getter
      * @return the direction of the light
@@ -9,8 +9,10 @@ import up.edu.isgc.raytracer.objects.Object3D;
 import up.edu.isgc.raytracer.objects.utility.Vector3D;
 import up.edu.isgc.raytracer.materials.LambertMaterial;
 import up.edu.isgc.raytracer.tools.Intersection;
+import up.edu.isgc.raytracer.tools.utility.ContentHash;
 
 import java.awt.Color;
+import java.util.Random;
 
 /**
  * Stores information for a generic light such as position, material and intensity
@@ -19,6 +21,7 @@ import java.awt.Color;
  * @author Homar Cano, Jafet Rodríguez
  */
 public abstract class Light extends Object3D {
+    private static final long serialVersionUID = 1L;
     private float intensity;
 
     /**
@@ -39,6 +42,80 @@ public abstract class Light extends Object3D {
      */
     public abstract double getLambertianSurfaceValue(Intersection intersection);
 
+    /**
+     * calculates the distance used to attenuate the light intensity in a given point
+     * @param point the point illuminated by the light
+     * @return the distance between the point and the light
+     */
+    public double getFalloffDistance(Vector3D point) {
+        return Vector3D.magnitude(Vector3D.subtract(point, getPosition()));
+    }
+
+    /**
+     * calculates the distance where the attenuated intensity of the light falls under a given threshold
+     * farther points receive less than the threshold and can ignore the light
+     * @param falloffExponent the exponent used to evaluate the light intensity according to the distance
+     * @param threshold the minimum intensity that is considered a contribution
+     * @return the influence radius or positive infinity if the light never falls under the threshold
+     */
+    public double getInfluenceRadius(float falloffExponent, double threshold) {
+        if (falloffExponent <= 0f || threshold <= 0d) return Double.POSITIVE_INFINITY;
+        return Math.pow(Math.max(getIntensity(), 0f) / threshold, 1d / falloffExponent);
+    }
+
+    /**
+     * class getter
+     * @return the number of shadow rays used to find the visible part of the light, 1 for lights without area
+     */
+    public int getShadowSamples() {
+        return 1;
+    }
+
+    /**
+     * class getter
+     * @return the number of shadow rays cast before deciding if more samples are needed, 1 for lights without area
+     */
+    public int getProbeSamples() {
+        return 1;
+    }
+
+    /**
+     * calculates a point of the light used as the target of a shadow ray
+     * @param sample the index of the sample, each sample uses a different stratum of the light
+     * @param sampleCount the total number of samples (and strata)
+     * @param random the random number generator used to jitter the sample inside its stratum
+     * @return the position of the sample, the position of the light for lights without area
+     */
+    public Vector3D getSamplePosition(int sample, int sampleCount, Random random) {
+        return getPosition();
+    }
+
+    /**
+     * calculates a point of the light used as the target of a shadow ray with given values instead of a random generator
+     * @param sample the index of the sample, each sample uses a different stratum of the light
+     * @param sampleCount the total number of samples (and strata)
+     * @param u the first coordinate of the point inside its stratum (from 0 to 1)
+     * @param v the second coordinate of the point inside its stratum (from 0 to 1)
+     * @return the position of the sample, the position of the light for lights without area
+     */
+    public Vector3D getSamplePosition(int sample, int sampleCount, double u, double v) {
+        return getPosition();
+    }
+
+    /**
+     * adds the content of the light to a hash, used to know if the baked lighting of a scene is still valid
+     * @param hash the hash where the content is added
+     */
+    public void addToHash(ContentHash hash) {
+        hash.add(getClass().getName()).add(getPosition()).add(getColor()).add(getIntensity());
+    }
+
+    /**
+     * creates an independent copy of the light, changes to the light do not affect the copy
+     * @return the copy of the light
+     */
+    public abstract Light copy();
+
     /**
      * class getter
      * @return the intensity of the light
@@ -0,0 +1,117 @@
+/*
+  [1968] - [2020] Centros Culturales de Mexico A.C / Universidad Panamericana
+  All Rights Reserved.
+ */
+package up.edu.isgc.raytracer.lights;
+
+
+import up.edu.isgc.raytracer.objects.utility.BoundingBox;
+import up.edu.isgc.raytracer.objects.utility.Vector3D;
+import up.edu.isgc.raytracer.tools.acceleration.BVH;
+import up.edu.isgc.raytracer.tools.acceleration.BVHBuildQuality;
+import up.edu.isgc.raytracer.tools.acceleration.LinearBVHBuilder;
+
+import java.util.Arrays;
+
+/**
+ * Finds the lights that can illuminate a point in the scene
+ * Every light has an influence radius (where its attenuated intensity falls under a threshold), the lights with a finite radius
+ * are stored in a bounding volume hierarchy over their influence spheres, the rest of them illuminate every point
+ *
+ * @author Homar Cano, Jafet Rodríguez
+ */
+public final class LightTree {
+    private final Light[] lights;
+    private final double[] influenceRadii;
+    private final int[] globalLights;
+    private final int[] localLights;
+    private final BVH hierarchy;
+
+    /**
+     * class constructor
+     * @param lights the lights of the scene, the index of each light is used in the results
+     * @param falloffExponent the exponent used to evaluate the light intensity according to the distance
+     * @param threshold the minimum intensity that is considered a contribution (0 to never cull a light)
+     */
+    public LightTree(Light[] lights, float falloffExponent, double threshold) {
+        this.lights = lights;
+        this.influenceRadii = new double[lights.length];
+        int[] global = new int[lights.length];
+        int[] local = new int[lights.length];
+        int globalCount = 0;
+        int localCount = 0;
+        for (int i = 0; i < lights.length; i++) {
+            influenceRadii[i] = lights[i].getInfluenceRadius(falloffExponent, threshold);
+            if (influenceRadii[i] == Double.POSITIVE_INFINITY) global[globalCount++] = i;
+            else local[localCount++] = i;
+        }
+        this.globalLights = Arrays.copyOf(global, globalCount);
+        this.localLights = Arrays.copyOf(local, localCount);
+
+        BoundingBox[] boxes = new BoundingBox[localCount];
+        for (int i = 0; i < localCount; i++) {
+            Vector3D position = lights[localLights[i]].getPosition();
+            double radius = influenceRadii[localLights[i]];
+            Vector3D extent = new Vector3D(radius, radius, radius);
+            boxes[i] = new BoundingBox(Vector3D.subtract(position, extent), Vector3D.add(position, extent));
+        }
+        this.hierarchy = new LinearBVHBuilder(BVHBuildQuality.FAST).build(boxes);
+    }
+
+    /**
+     * finds the lights whose influence reaches a point, sorted by light index (the same order of the scene)
+     * @param point the point to illuminate
+     * @param result the array where the light indices are stored (it must have space for every light)
+     * @return the number of light indices stored
+     */
+    public int gatherLights(Vector3D point, int[] result) {
+        int count = 0;
+        if (localLights.length > 0) {
+            int candidates = hierarchy.queryPoint(point.getX(), point.getY(), point.getZ(), result);
+            for (int i = 0; i < candidates; i++) {
+                int light = localLights[result[i]];
+                if (lights[light].getFalloffDistance(point) <= influenceRadii[light]) result[count++] = light;
+            }
+        }
+        for (int light : globalLights) result[count++] = light;
+        if (count > 1 && localLights.length > 0) Arrays.sort(result, 0, count);
+        return count;
+    }
+
+    /**
+     * checks if the influence of a light reaches a point, only the attenuated (diffuse) light of a light that reaches
+     * the point is a contribution
+     * @param lightIndex the index of the light
+     * @param point the point to illuminate
+     * @return true if the point is inside the influence radius of the light
+     */
+    public boolean reaches(int lightIndex, Vector3D point) {
+        return influenceRadii[lightIndex] == Double.POSITIVE_INFINITY || lights[lightIndex].getFalloffDistance(point) <= influenceRadii[lightIndex];
+    }
+
+    /**
+     * class getter
+     * @return the total number of lights
+     */
+    public int getLightCount() {
+        return lights.length;
+    }
+
+    /**
+     * class getter
+     * @param lightIndex the index of the light
+     * @return the influence radius of the light or positive infinity if it illuminates every point
+     */
+    public double getInfluenceRadius(int lightIndex) {
+        return influenceRadii[lightIndex];
+    }
+
+    /**
+     * creates a short description of the tree shown in the render statistics
+     * @return the summary of the tree
+     */
+    public String getSummary() {
+        return String.format("%d lights, %d global, %d local (%d nodes)", lights.length, globalLights.length, localLights.length, hierarchy.getNodeCount());
+    }
+
+}
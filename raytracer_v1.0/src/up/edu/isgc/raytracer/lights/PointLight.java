@@ -17,6 +17,7 @@ import java.awt.Color;
  * @author Homar Cano, Jafet Rodríguez
  */
 public class PointLight extends Light {
+    private static final long serialVersionUID = 1L;
 
     /**
      * class constructor
@@ -38,4 +39,9 @@ public class PointLight extends Light {
         return Math.max(Vector3D.dotProduct(intersection.getNormal(), Vector3D.normalize(Vector3D.subtract(getPosition(), intersection.getPosition()))), 0.0);
     }
 
+    @Override
+    public Light copy() {
+        return new PointLight(Vector3D.clone(getPosition()), getColor(), getIntensity());
+    }
+
 }
@@ -0,0 +1,91 @@
+/*
+  [1968] - [2020] Centros Culturales de Mexico A.C / Universidad Panamericana
+  All Rights Reserved.
+ */
+package up.edu.isgc.raytracer.lights;
+
+
+import up.edu.isgc.raytracer.objects.utility.Vector3D;
+import up.edu.isgc.raytracer.tools.utility.ContentHash;
+
+import java.awt.Color;
+
+/**
+ * Stores information for a rectangular area light such as its center, edges, material and intensity
+ * The rectangle is centered in the position of the light and spanned by two edge vectors
+ *
+ * @author Homar Cano, Jafet Rodríguez
+ */
+public class RectangleAreaLight extends AreaLight {
+    private static final long serialVersionUID = 1L;
+    private Vector3D edgeU;
+    private Vector3D edgeV;
+
+    /**
+     * class constructor
+     * @param position the position of the center of the light
+     * @param edgeU the first edge of the rectangle
+     * @param edgeV the second edge of the rectangle
+     * @param color the color of the light (used to create the material)
+     * @param intensity the intensity of the light
+     * @param samples the number of shadow rays used in the penumbra
+     */
+    public RectangleAreaLight(Vector3D position, Vector3D edgeU, Vector3D edgeV, Color color, float intensity, int samples) {
+        super(position, color, intensity, samples);
+        setEdgeU(edgeU);
+        setEdgeV(edgeV);
+    }
+
+    @Override
+    protected Vector3D getSurfacePoint(double u, double v) {
+        Vector3D offset = Vector3D.add(Vector3D.scalarMultiplication(getEdgeU(), u - 0.5d), Vector3D.scalarMultiplication(getEdgeV(), v - 0.5d));
+        return Vector3D.add(getPosition(), offset);
+    }
+
+    @Override
+    public double getExtent() {
+        return Math.max(Vector3D.magnitude(Vector3D.add(getEdgeU(), getEdgeV())), Vector3D.magnitude(Vector3D.subtract(getEdgeU(), getEdgeV()))) / 2d;
+    }
+
+    @Override
+    public void addToHash(ContentHash hash) {
+        super.addToHash(hash);
+        hash.add(getEdgeU()).add(getEdgeV());
+    }
+
+    @Override
+    public Light copy() {
+        return new RectangleAreaLight(Vector3D.clone(getPosition()), Vector3D.clone(getEdgeU()), Vector3D.clone(getEdgeV()), getColor(), getIntensity(), getSamples());
+    }
+
+    /**
+     * class getter
+     * @return the first edge of the rectangle
+     */
+    public Vector3D getEdgeU() {
+        return edgeU;
+    }
+    /**
+     * class setter
+     * @param edgeU the first edge of the rectangle to set
+     */
+    public void setEdgeU(Vector3D edgeU) {
+        this.edgeU = edgeU;
+    }
+
+    /**
+     * class getter
+     * @return the second edge of the rectangle
+     */
+    public Vector3D getEdgeV() {
+        return edgeV;
+    }
+    /**
+     * class setter
+     * @param edgeV the second edge of the rectangle to set
+     */
+    public void setEdgeV(Vector3D edgeV) {
+        this.edgeV = edgeV;
+    }
+
+}
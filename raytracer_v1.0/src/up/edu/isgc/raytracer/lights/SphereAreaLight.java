@@ -0,0 +1,82 @@
+/*
+  [1968] - [2020] Centros Culturales de Mexico A.C / Universidad Panamericana
+  All Rights Reserved.
+ */
+package up.edu.isgc.raytracer.lights;
+
+
+import up.edu.isgc.raytracer.objects.utility.Vector3D;
+import up.edu.isgc.raytracer.tools.utility.ContentHash;
+
+import java.awt.Color;
+
+/**
+ * Stores information for a spherical area light such as its center, radius, material and intensity
+ * The samples are distributed uniformly over the surface of the sphere
+ *
+ * @author Homar Cano, Jafet Rodríguez
+ */
+public class SphereAreaLight extends AreaLight {
+    private static final long serialVersionUID = 1L;
+    private double radius;
+
+    /**
+     * class constructor
+     * @param position the position of the center of the light
+     * @param radius the radius of the sphere
+     * @param color the color of the light (used to create the material)
+     * @param intensity the intensity of the light
+     * @param samples the number of shadow rays used in the penumbra
+     */
+    public SphereAreaLight(Vector3D position, double radius, Color color, float intensity, int samples) {
+        super(position, color, intensity, samples);
+        setRadius(radius);
+    }
+
+    /**
+     * maps the unit square to the sphere keeping the same area for every stratum (uniform height and angle)
+     * @param u the first coordinate of the point in the unit square
+     * @param v the second coordinate of the point in the unit square
+     * @return the position of the point
+     */
+    @Override
+    protected Vector3D getSurfacePoint(double u, double v) {
+        double z = 1d - 2d * u;
+        double ringRadius = Math.sqrt(Math.max(0d, 1d - z * z));
+        double angle = 2d * Math.PI * v;
+        Vector3D offset = new Vector3D(ringRadius * Math.cos(angle), ringRadius * Math.sin(angle), z);
+        return Vector3D.add(getPosition(), Vector3D.scalarMultiplication(offset, getRadius()));
+    }
+
+    @Override
+    public double getExtent() {
+        return getRadius();
+    }
+
+    @Override
+    public void addToHash(ContentHash hash) {
+        super.addToHash(hash);
+        hash.add(getRadius());
+    }
+
+    @Override
+    public Light copy() {
+        return new SphereAreaLight(Vector3D.clone(getPosition()), getRadius(), getColor(), getIntensity(), getSamples());
+    }
+
+    /**
+     * class getter
+     * @return the radius of the sphere
+     */
+    public double getRadius() {
+        return radius;
+    }
+    /**
+     * class setter
+     * @param radius the radius of the sphere to set
+     */
+    public void setRadius(double radius) {
+        this.radius = radius;
+    }
+
+}
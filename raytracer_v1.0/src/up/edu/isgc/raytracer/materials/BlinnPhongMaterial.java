@@ -13,6 +13,7 @@ import java.awt.Color;
  * @author Homar Cano
  */
 public class BlinnPhongMaterial extends Material {
+    private static final long serialVersionUID = 1L;
     private double ambientCoefficient;
     private double diffuseCoefficient;
     private double specularCoefficient;
@@ -13,6 +13,7 @@ import java.awt.Color;
  * @author Homar Cano
  */
 public class LambertMaterial extends Material {
+    private static final long serialVersionUID = 1L;
 
     /**
      * class constructor
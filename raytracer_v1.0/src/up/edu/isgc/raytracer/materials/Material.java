@@ -6,13 +6,15 @@ package up.edu.isgc.raytracer.materials;
 
 
 import java.awt.Color;
+import java.io.Serializable;
 
 /**
  * Stores information for a generic material such as the Color
  *
  * @author Homar Cano
  */
-public abstract class Material {
+public abstract class Material implements Serializable {
+    private static final long serialVersionUID = 1L;
     private Color color;
 
     /**
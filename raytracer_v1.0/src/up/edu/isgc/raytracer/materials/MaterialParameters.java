@@ -0,0 +1,154 @@
+/*
+  [1968] - [2020] Centros Culturales de Mexico A.C / Universidad Panamericana
+  All Rights Reserved.
+ */
+package up.edu.isgc.raytracer.materials;
+
+
+import up.edu.isgc.raytracer.tools.utility.ContentHash;
+
+import java.awt.Color;
+
+/**
+ * Stores an immutable copy of the parameters of a Material, used while rendering so the materials are never read from the scene
+ * Materials without Blinn-Phong coefficients use the default values of the shading model (only diffuse)
+ *
+ * @author Homar Cano, Jafet Rodríguez
+ */
+public final class MaterialParameters {
+    private final Color color;
+    private final double ambientCoefficient;
+    private final double diffuseCoefficient;
+    private final double specularCoefficient;
+    private final double shininess;
+    private final boolean lambertian;
+    private final boolean reflective;
+    private final double reflectionCoefficient;
+    private final boolean refractive;
+    private final double refractionCoefficient;
+    private final double refractionMultiplier;
+
+    /**
+     * class constructor, copies the current values of a material
+     * @param material the Material to copy
+     */
+    public MaterialParameters(Material material) {
+        this.color = material.getColor();
+        if (material instanceof BlinnPhongMaterial) {
+            BlinnPhongMaterial blinnPhongMaterial = (BlinnPhongMaterial) material;
+            this.ambientCoefficient = blinnPhongMaterial.getAmbientCoefficient();
+            this.diffuseCoefficient = blinnPhongMaterial.getDiffuseCoefficient();
+            this.specularCoefficient = blinnPhongMaterial.getSpecularCoefficient();
+            this.shininess = blinnPhongMaterial.getShininess();
+        } else {
+            this.ambientCoefficient = 0d;
+            this.diffuseCoefficient = 1d;
+            this.specularCoefficient = 0d;
+            this.shininess = 0d;
+        }
+        this.lambertian = material instanceof LambertMaterial;
+        this.reflective = material instanceof ReflectiveMaterial;
+        this.reflectionCoefficient = reflective ? ((ReflectiveMaterial) material).getReflectionCoefficient() : 0d;
+        this.refractive = material instanceof RefractiveMaterial;
+        this.refractionCoefficient = refractive ? ((RefractiveMaterial) material).getRefractionCoefficient() : 0d;
+        this.refractionMultiplier = refractive ? ((RefractiveMaterial) material).getRefractionMultiplier() : 0d;
+    }
+
+    /**
+     * adds every parameter to a hash, used to know if a cached render is still valid
+     * @param hash the hash where the content is added
+     */
+    public void addToHash(ContentHash hash) {
+        hash.add(color).add(ambientCoefficient).add(diffuseCoefficient).add(specularCoefficient).add(shininess).add(lambertian)
+                .add(reflective).add(reflectionCoefficient).add(refractive).add(refractionCoefficient).add(refractionMultiplier);
+    }
+
+    /**
+     * class getter
+     * @return the material color
+     */
+    public Color getColor() {
+        return color;
+    }
+
+    /**
+     * class getter
+     * @return the ambient coefficient
+     */
+    public double getAmbientCoefficient() {
+        return ambientCoefficient;
+    }
+
+    /**
+     * class getter
+     * @return the diffuse coefficient
+     */
+    public double getDiffuseCoefficient() {
+        return diffuseCoefficient;
+    }
+
+    /**
+     * class getter
+     * @return the specular coefficient
+     */
+    public double getSpecularCoefficient() {
+        return specularCoefficient;
+    }
+
+    /**
+     * class getter
+     * @return the shininess value
+     */
+    public double getShininess() {
+        return shininess;
+    }
+
+    /**
+     * class getter
+     * @return boolean flag if the material is a purely diffuse LambertMaterial
+     */
+    public boolean isLambertian() {
+        return lambertian;
+    }
+
+    /**
+     * class getter
+     * @return boolean flag if the material reflects the scene
+     */
+    public boolean isReflective() {
+        return reflective;
+    }
+
+    /**
+     * class getter
+     * @return the reflection coefficient, 0 for materials that are not reflective
+     */
+    public double getReflectionCoefficient() {
+        return reflectionCoefficient;
+    }
+
+    /**
+     * class getter
+     * @return boolean flag if the material refracts the scene
+     */
+    public boolean isRefractive() {
+        return refractive;
+    }
+
+    /**
+     * class getter
+     * @return the refraction coefficient, 0 for materials that are not refractive
+     */
+    public double getRefractionCoefficient() {
+        return refractionCoefficient;
+    }
+
+    /**
+     * class getter
+     * @return the refraction multiplier, 0 for materials that are not refractive
+     */
+    public double getRefractionMultiplier() {
+        return refractionMultiplier;
+    }
+
+}
@@ -13,6 +13,7 @@ import java.awt.Color;
  * @author Homar Cano
  */
 public class ReflectiveMaterial extends BlinnPhongMaterial {
+    private static final long serialVersionUID = 1L;
     private double reflectionCoefficient;
 
     /**
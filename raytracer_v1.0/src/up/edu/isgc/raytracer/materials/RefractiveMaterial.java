@@ -13,6 +13,7 @@ import java.awt.Color;
  * @author Homar Cano
  */
 public class RefractiveMaterial extends BlinnPhongMaterial {
+    private static final long serialVersionUID = 1L;
     private double refractionCoefficient;
     private double refractionMultiplier;
 
@@ -7,26 +7,45 @@ package up.edu.isgc.raytracer.objects;
 
 import up.edu.isgc.raytracer.materials.Material;
 import up.edu.isgc.raytracer.objects.utility.Vector3D;
+import up.edu.isgc.raytracer.tools.utility.ContentHash;
 
 import java.awt.Color;
+import java.io.Serializable;
 
 /**
- * Stores information for a general 3D object such as position and material
+ * Stores information for a general 3D object such as position, material and visibility flags
+ * The flags control if the object blocks shadow rays, if shadows are calculated on its surface and if primary rays can hit it
  *
  * @author Homar Cano, Jafet Rodríguez
  */
-public abstract class Object3D {
+public abstract class Object3D implements Serializable {
+    private static final long serialVersionUID = 1L;
     private Vector3D position;
     private Material material;
+    private boolean castsShadows;
+    private boolean receivesShadows;
+    private boolean visibleToCamera;
 
     /**
-     * class constructor
+     * class constructor, the object casts and receives shadows and is visible to the camera
      * @param position the position of the object
      * @param material the Material of the object
      */
     public Object3D(Vector3D position, Material material) {
         setMaterial(material);
         setPosition(position);
+        setCastsShadows(true);
+        setReceivesShadows(true);
+        setVisibleToCamera(true);
+    }
+
+    /**
+     * adds the geometry of the object to a hash: its kind, position and flags (the material is not added),
+     * used to know if a cached render is still valid
+     * @param hash the hash where the content is added
+     */
+    public void addToHash(ContentHash hash) {
+        hash.add(getClass().getName()).add(getPosition()).add(isCastingShadows()).add(isReceivingShadows()).add(isVisibleToCamera());
     }
 
     /**
@@ -74,4 +93,49 @@ public abstract class Object3D {
         this.material = material;
     }
 
+    /**
+     * class getter
+     * @return boolean flag if the object blocks shadow rays
+     */
+    public boolean isCastingShadows() {
+        return castsShadows;
+    }
+    /**
+     * class setter
+     * @param castsShadows boolean flag for blocking shadow rays to set
+     */
+    public void setCastsShadows(boolean castsShadows) {
+        this.castsShadows = castsShadows;
+    }
+
+    /**
+     * class getter
+     * @return boolean flag if shadow rays are cast from the surface of the object
+     */
+    public boolean isReceivingShadows() {
+        return receivesShadows;
+    }
+    /**
+     * class setter
+     * @param receivesShadows boolean flag for casting shadow rays from the surface of the object to set
+     */
+    public void setReceivesShadows(boolean receivesShadows) {
+        this.receivesShadows = receivesShadows;
+    }
+
+    /**
+     * class getter
+     * @return boolean flag if primary rays can hit the object (reflection and refraction rays always can)
+     */
+    public boolean isVisibleToCamera() {
+        return visibleToCamera;
+    }
+    /**
+     * class setter
+     * @param visibleToCamera boolean flag for being hit by primary rays to set
+     */
+    public void setVisibleToCamera(boolean visibleToCamera) {
+        this.visibleToCamera = visibleToCamera;
+    }
+
 }
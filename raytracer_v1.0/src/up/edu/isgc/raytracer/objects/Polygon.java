@@ -6,11 +6,17 @@ package up.edu.isgc.raytracer.objects;
 
 
 import up.edu.isgc.raytracer.materials.Material;
+import up.edu.isgc.raytracer.objects.utility.BoundingBox;
 import up.edu.isgc.raytracer.objects.utility.Ray;
 import up.edu.isgc.raytracer.objects.utility.Vector3D;
+import up.edu.isgc.raytracer.tools.HitRecord;
+import up.edu.isgc.raytracer.tools.IBoundable;
 import up.edu.isgc.raytracer.tools.Intersection;
-import up.edu.isgc.raytracer.tools.utility.Barycentric;
+import up.edu.isgc.raytracer.tools.acceleration.AccelerationStructureType;
+import up.edu.isgc.raytracer.tools.acceleration.BVHBuildQuality;
+import up.edu.isgc.raytracer.tools.acceleration.IAccelerationStructure;
 import up.edu.isgc.raytracer.tools.IIntersectable;
+import up.edu.isgc.raytracer.tools.utility.ContentHash;
 import up.edu.isgc.raytracer.tools.utility.ObjFileReader;
 
 import java.util.Arrays;
@@ -24,8 +30,10 @@ import java.util.Set;
  *
  * @author Homar Cano, Jafet Rodríguez
  */
-public class Polygon extends Object3D implements IIntersectable {
+public class Polygon extends Object3D implements IIntersectable, IBoundable {
+    private static final long serialVersionUID = 1L;
     private List<Triangle> triangleMesh;
+    private transient IAccelerationStructure accelerationStructure;
 
     /**
      * class constructor
@@ -38,38 +46,120 @@ public class Polygon extends Object3D implements IIntersectable {
         setTriangleMesh(Objects.requireNonNull(ObjFileReader.readObjFile(objFile)));
     }
 
+    /**
+     * builds an acceleration structure over the triangle mesh, used by getObjectIntersection() from now on
+     * @param type the type of acceleration structure to build
+     * @param quality the build preset used by bounding volume hierarchies (build time against trace quality)
+     * @return the acceleration structure built
+     */
+    public IAccelerationStructure buildAccelerationStructure(AccelerationStructureType type, BVHBuildQuality quality) {
+        List<Triangle> triangles = getTriangleMesh();
+        BoundingBox[] boxes = new BoundingBox[triangles.size()];
+        for (int i = 0; i < boxes.length; i++) boxes[i] = triangles.get(i).getBoundingBox();
+        setAccelerationStructure(type.build(boxes, quality));
+        return getAccelerationStructure();
+    }
+
     /**
      * calculates a ray-object intersection with a given ray
+     * uses the acceleration structure of the mesh if it was built, otherwise every triangle is tested
+     * only the distance and barycentric coordinates are stored while searching, the position and normal are calculated once for the closest hit
      * @param ray the ray used to calculate the intersection
      * @return the intersection between the ray and the object or null if the intersection does not exists
      */
     @Override
     public Intersection getObjectIntersection(Ray ray) {
-        double distance = -1;
-        Vector3D normal = Vector3D.ZERO();
-        Vector3D position = Vector3D.ZERO();
-        Object3D obj = null;
-        for (Triangle triangle : getTriangleMesh()) {
-            Intersection intersection = triangle.getObjectIntersection(ray);
-
-            if (intersection != null && intersection.getDistance() > 0 && (intersection.getDistance() < distance || distance < 0)) {
-                normal = Vector3D.ZERO();
-                distance = intersection.getDistance();
-                position = Vector3D.add(ray.getOrigin(), Vector3D.scalarMultiplication(ray.getDirection(), distance));
-                double[] uVw = Barycentric.CalculateBarycentricCoordinates(position, triangle);
-                obj = intersection.getObject();
-                Vector3D[] normals = triangle.getNormals();
-                for(int i = 0; i < uVw.length; i++) {
-                    normal = Vector3D.add(normal, Vector3D.scalarMultiplication(normals[i], uVw[i]));
-                }
-            }
+        Vector3D origin = ray.getOrigin();
+        Vector3D direction = ray.getDirection();
+        HitRecord hit = new HitRecord();
+        IAccelerationStructure structure = getAccelerationStructure();
+        if (structure != null) {
+            structure.intersect(ray, hit, (triangleIndex, triangleRay, record) -> intersectTriangle(triangleIndex, origin, direction, record));
+        } else {
+            for (int i = 0; i < getTriangleMesh().size(); i++) intersectTriangle(i, origin, direction, hit);
         }
 
-        if (distance == -1) {
+        if (!hit.hasHit()) {
             return null;
         }
 
-        return new Intersection(distance, position, normal, this);
+        Triangle triangle = getTriangleMesh().get(hit.getPrimitiveIndex());
+        Vector3D position = Vector3D.add(origin, Vector3D.scalarMultiplication(direction, hit.getDistance()));
+        Vector3D normal = triangle.interpolateNormal(hit.getU(), hit.getV());
+        return new Intersection(hit.getDistance(), position, normal, this);
+    }
+
+    /**
+     * checks if a ray hits any triangle of the mesh, the search stops with the first hit found and no position or normal is calculated
+     * @param ray the ray used to calculate the intersection
+     * @param maxDistance the distance where the ray ends, hits at that distance or farther are ignored
+     * @return true if the ray hits the polygon before the max distance
+     */
+    @Override
+    public boolean isOccluded(Ray ray, double maxDistance) {
+        Vector3D origin = ray.getOrigin();
+        Vector3D direction = ray.getDirection();
+        HitRecord hit = new HitRecord();
+        hit.setDistance(maxDistance);
+        IAccelerationStructure structure = getAccelerationStructure();
+        if (structure != null) {
+            return structure.isOccluded(ray, hit, (triangleIndex, triangleRay, record) -> intersectTriangle(triangleIndex, origin, direction, record));
+        }
+        for (int i = 0; i < getTriangleMesh().size(); i++) {
+            if (intersectTriangle(i, origin, direction, hit)) return true;
+        }
+        return false;
+    }
+
+    /**
+     * tests a single triangle of the mesh and stores its index if it is the closest hit
+     * @param triangleIndex the index of the triangle in the mesh
+     * @param origin the origin of the ray
+     * @param direction the normalized direction of the ray
+     * @param hit the record of the closest hit
+     * @return true if the triangle is closer than the hit stored in the record
+     */
+    private boolean intersectTriangle(int triangleIndex, Vector3D origin, Vector3D direction, HitRecord hit) {
+        if (!getTriangleMesh().get(triangleIndex).intersect(origin, direction, hit)) return false;
+        hit.setPrimitiveIndex(triangleIndex);
+        return true;
+    }
+
+    /**
+     * calculates the axis aligned box that contains every triangle of the mesh
+     * @return the bounding box of the polygon
+     */
+    @Override
+    public BoundingBox getBoundingBox() {
+        BoundingBox box = BoundingBox.EMPTY();
+        for (Triangle triangle : getTriangleMesh()) box = BoundingBox.union(box, triangle.getBoundingBox());
+        return box;
+    }
+
+    /**
+     * adds the geometry of the polygon to a hash, every vertex and normal of the mesh read from its .obj file is added
+     * @param hash the hash where the content is added
+     */
+    @Override
+    public void addToHash(ContentHash hash) {
+        super.addToHash(hash);
+        hash.add(getTriangleMesh().size());
+        for (Triangle triangle : getTriangleMesh()) triangle.addVerticesToHash(hash);
+    }
+
+    /**
+     * class getter
+     * @return the acceleration structure of the mesh or null if it has not been built
+     */
+    public IAccelerationStructure getAccelerationStructure() {
+        return accelerationStructure;
+    }
+    /**
+     * class setter
+     * @param accelerationStructure the acceleration structure of the mesh to set
+     */
+    public void setAccelerationStructure(IAccelerationStructure accelerationStructure) {
+        this.accelerationStructure = accelerationStructure;
     }
 
     /**
@@ -101,6 +191,7 @@ public class Polygon extends Object3D implements IIntersectable {
         }
 
         this.triangleMesh = Arrays.asList(triangleMesh);
+        setAccelerationStructure(null);
     }
 
 }
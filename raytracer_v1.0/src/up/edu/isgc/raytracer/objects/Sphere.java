@@ -6,17 +6,21 @@ package up.edu.isgc.raytracer.objects;
 
 
 import up.edu.isgc.raytracer.materials.Material;
+import up.edu.isgc.raytracer.objects.utility.BoundingBox;
 import up.edu.isgc.raytracer.objects.utility.Ray;
 import up.edu.isgc.raytracer.objects.utility.Vector3D;
+import up.edu.isgc.raytracer.tools.IBoundable;
 import up.edu.isgc.raytracer.tools.IIntersectable;
 import up.edu.isgc.raytracer.tools.Intersection;
+import up.edu.isgc.raytracer.tools.utility.ContentHash;
 
 /**
  * Stores the information for a sphere such as radius, position and material
  *
  * @author Homar Cano, Jafet Rodríguez
  */
-public class Sphere extends Object3D implements IIntersectable {
+public class Sphere extends Object3D implements IIntersectable, IBoundable {
+    private static final long serialVersionUID = 1L;
     private double radius;
 
     /**
@@ -63,6 +67,22 @@ public class Sphere extends Object3D implements IIntersectable {
         return new Intersection(distance, position, normal, this);
     }
 
+    /**
+     * calculates the axis aligned box that contains the sphere
+     * @return the bounding box of the sphere
+     */
+    @Override
+    public BoundingBox getBoundingBox() {
+        Vector3D radius = new Vector3D(getRadius(), getRadius(), getRadius());
+        return new BoundingBox(Vector3D.subtract(getPosition(), radius), Vector3D.add(getPosition(), radius));
+    }
+
+    @Override
+    public void addToHash(ContentHash hash) {
+        super.addToHash(hash);
+        hash.add(getRadius());
+    }
+
     /**
      * class getter
      * @return the sphere radius
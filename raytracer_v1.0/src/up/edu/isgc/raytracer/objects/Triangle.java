@@ -5,17 +5,26 @@
 package up.edu.isgc.raytracer.objects;
 
 
+import up.edu.isgc.raytracer.objects.utility.BoundingBox;
 import up.edu.isgc.raytracer.objects.utility.Ray;
 import up.edu.isgc.raytracer.objects.utility.Vector3D;
+import up.edu.isgc.raytracer.tools.HitRecord;
+import up.edu.isgc.raytracer.tools.IBoundable;
 import up.edu.isgc.raytracer.tools.IIntersectable;
 import up.edu.isgc.raytracer.tools.Intersection;
+import up.edu.isgc.raytracer.tools.utility.ContentHash;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
 
 /**
  * Stores the information for a triangle such as vertices and normals
  *
  * @author Homar Cano, Jafet Rodríguez
  */
-public class Triangle extends Object3D implements IIntersectable {
+public class Triangle extends Object3D implements IIntersectable, IBoundable {
+    private static final long serialVersionUID = 1L;
+
     /**
      * private constant used as margin of error
      */
@@ -37,6 +46,35 @@ public class Triangle extends Object3D implements IIntersectable {
         else setNormals(normals[0], normals[1], normals[2]);
     }
 
+    /**
+     * copies a triangle mesh (without its positions and materials), the vertices and normals shared by several triangles
+     * are also shared by their copies, so the copy can be moved like the original one
+     * @param mesh the triangles to copy
+     * @return the copied triangles
+     */
+    public static Triangle[] copyMesh(Triangle[] mesh) {
+        Map<Vector3D, Vector3D> copies = new IdentityHashMap<>();
+        Triangle[] copy = new Triangle[mesh.length];
+        for (int i = 0; i < mesh.length; i++) {
+            copy[i] = new Triangle(copyVectors(mesh[i].vertices, copies), mesh[i].normals == null ? null : copyVectors(mesh[i].normals, copies));
+        }
+        return copy;
+    }
+
+    /**
+     * copies an array of vectors, a vector already copied is reused
+     * @param vectors the vectors to copy (null values are kept)
+     * @param copies the copy of every vector already copied
+     * @return the copied vectors
+     */
+    private static Vector3D[] copyVectors(Vector3D[] vectors, Map<Vector3D, Vector3D> copies) {
+        Vector3D[] copy = new Vector3D[vectors.length];
+        for (int i = 0; i < vectors.length; i++) {
+            if (vectors[i] != null) copy[i] = copies.computeIfAbsent(vectors[i], Vector3D::clone);
+        }
+        return copy;
+    }
+
     /**
      * function that calculates a ray-triangle intersection (only distance) with a given ray
      * @param ray the ray used to calculate the intersection
@@ -67,6 +105,71 @@ public class Triangle extends Object3D implements IIntersectable {
         return new Intersection(t, null, null, this);
     }
 
+    /**
+     * calculates a ray-triangle intersection without creating any object, only the distance and barycentric coordinates are stored
+     * it accepts the same hits as getObjectIntersection() in front of the origin (distance greater than 0)
+     * the barycentric weights of the vertices A, B and C are (1 - u - v, v, u)
+     * @param origin the origin of the ray
+     * @param direction the normalized direction of the ray
+     * @param hit the record of the closest hit, it is only updated if the triangle is closer
+     * @return true if the triangle is closer than the hit stored in the record
+     * @see <a href="https://cadxfem.org/inf/Fast%20MinimumStorage%20RayTriangle%20Intersection.pdf">Moller-Trumbore intersection algorithm</a>
+     */
+    public boolean intersect(Vector3D origin, Vector3D direction, HitRecord hit) {
+        Vector3D[] vertices = getVertices();
+        Vector3D a = vertices[0];
+        double v2v0X = vertices[2].getX() - a.getX(), v2v0Y = vertices[2].getY() - a.getY(), v2v0Z = vertices[2].getZ() - a.getZ();
+        double v1v0X = vertices[1].getX() - a.getX(), v1v0Y = vertices[1].getY() - a.getY(), v1v0Z = vertices[1].getZ() - a.getZ();
+        double directionX = direction.getX(), directionY = direction.getY(), directionZ = direction.getZ();
+
+        double pX = (directionY * v1v0Z) - (directionZ * v1v0Y);
+        double pY = (directionZ * v1v0X) - (directionX * v1v0Z);
+        double pZ = (directionX * v1v0Y) - (directionY * v1v0X);
+        double invertedDeterminant = 1.0 / ((v2v0X * pX) + (v2v0Y * pY) + (v2v0Z * pZ));
+
+        double tX = origin.getX() - a.getX(), tY = origin.getY() - a.getY(), tZ = origin.getZ() - a.getZ();
+        double u = ((tX * pX) + (tY * pY) + (tZ * pZ)) * invertedDeterminant;
+        if (u < 0 || u > 1) return false;
+
+        double qX = (tY * v2v0Z) - (tZ * v2v0Y);
+        double qY = (tZ * v2v0X) - (tX * v2v0Z);
+        double qZ = (tX * v2v0Y) - (tY * v2v0X);
+        double v = ((directionX * qX) + (directionY * qY) + (directionZ * qZ)) * invertedDeterminant;
+        if (v < 0 || (u + v) > (1.0 + EPSILON)) return false;
+
+        double t = ((qX * v1v0X) + (qY * v1v0Y) + (qZ * v1v0Z)) * invertedDeterminant;
+        if (!(t > 0) || t >= hit.getDistance()) return false;
+        hit.setDistance(t);
+        hit.setU(u);
+        hit.setV(v);
+        return true;
+    }
+
+    /**
+     * interpolates the vertex normals with the barycentric coordinates of a hit
+     * @param u the barycentric coordinate of the vertex C
+     * @param v the barycentric coordinate of the vertex B
+     * @return the shading normal (not normalized)
+     */
+    public Vector3D interpolateNormal(double u, double v) {
+        Vector3D[] normals = getNormals();
+        double w = 1.0 - u - v;
+        return new Vector3D(normals[0].getX() * w + normals[1].getX() * v + normals[2].getX() * u,
+                normals[0].getY() * w + normals[1].getY() * v + normals[2].getY() * u,
+                normals[0].getZ() * w + normals[1].getZ() * v + normals[2].getZ() * u);
+    }
+
+    /**
+     * calculates the axis aligned box that contains the three vertices of the triangle
+     * @return the bounding box of the triangle
+     */
+    @Override
+    public BoundingBox getBoundingBox() {
+        BoundingBox box = BoundingBox.EMPTY();
+        for (Vector3D vertex : getVertices()) box = BoundingBox.union(box, vertex);
+        return box;
+    }
+
     /**
      * class getter
      * @return the normal of the face formed by the triangle
@@ -122,6 +225,22 @@ public class Triangle extends Object3D implements IIntersectable {
         if (normals.length == 3) this.normals = normals;
     }
 
+    @Override
+    public void addToHash(ContentHash hash) {
+        super.addToHash(hash);
+        addVerticesToHash(hash);
+    }
+
+    /**
+     * adds the vertices and normals of the triangle to a hash (used by the polygons that contain the triangle)
+     * @param hash the hash where the content is added
+     */
+    void addVerticesToHash(ContentHash hash) {
+        for (Vector3D vertex : vertices) hash.add(vertex);
+        hash.add(normals != null);
+        if (normals != null) for (Vector3D normal : normals) hash.add(normal);
+    }
+
     /**
      * class getter
      * @return the vertex array of the triangle
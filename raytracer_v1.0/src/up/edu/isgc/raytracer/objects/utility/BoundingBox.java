@@ -0,0 +1,123 @@
+/*
+  [1968] - [2020] Centros Culturales de Mexico A.C / Universidad Panamericana
+  All Rights Reserved.
+ */
+package up.edu.isgc.raytracer.objects.utility;
+
+/**
+ * Stores an axis aligned bounding box with its minimum and maximum corners
+ * Has methods for common box operations such as union, centroid and surface area
+ *
+ * @author Homar Cano, Jafet Rodríguez
+ */
+public class BoundingBox {
+    private Vector3D min;
+    private Vector3D max;
+
+    /**
+     * class constructor
+     * @param min the corner with the minimum x, y, z coordinates
+     * @param max the corner with the maximum x, y, z coordinates
+     */
+    public BoundingBox(Vector3D min, Vector3D max) {
+        setMin(min);
+        setMax(max);
+    }
+
+    /**
+     * returns a new empty box, the union of an empty box with any other box is the other box
+     * @return an empty BoundingBox
+     */
+    public static BoundingBox EMPTY() {
+        return new BoundingBox(new Vector3D(Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY),
+                new Vector3D(Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY));
+    }
+
+    /**
+     * calculates the smallest box that contains two given boxes
+     * @param boxA the A box
+     * @param boxB the B box
+     * @return the union of A and B
+     */
+    public static BoundingBox union(BoundingBox boxA, BoundingBox boxB) {
+        Vector3D min = new Vector3D(Math.min(boxA.getMin().getX(), boxB.getMin().getX()), Math.min(boxA.getMin().getY(), boxB.getMin().getY()), Math.min(boxA.getMin().getZ(), boxB.getMin().getZ()));
+        Vector3D max = new Vector3D(Math.max(boxA.getMax().getX(), boxB.getMax().getX()), Math.max(boxA.getMax().getY(), boxB.getMax().getY()), Math.max(boxA.getMax().getZ(), boxB.getMax().getZ()));
+        return new BoundingBox(min, max);
+    }
+
+    /**
+     * calculates the smallest box that contains a given box and a given point
+     * @param box the box to expand
+     * @param point the point to include
+     * @return the box expanded
+     */
+    public static BoundingBox union(BoundingBox box, Vector3D point) {
+        return union(box, new BoundingBox(point, point));
+    }
+
+    /**
+     * checks if the box contains at least one point
+     * @return true if the box is empty
+     */
+    public boolean isEmpty() {
+        return getMin().getX() > getMax().getX() || getMin().getY() > getMax().getY() || getMin().getZ() > getMax().getZ();
+    }
+
+    /**
+     * calculates the center of the box
+     * @return the centroid of the box
+     */
+    public Vector3D getCentroid() {
+        return Vector3D.scalarMultiplication(Vector3D.add(getMin(), getMax()), 0.5d);
+    }
+
+    /**
+     * calculates the surface area of the box (used by the surface area heuristic)
+     * @return the surface area of the box or 0 if the box is empty
+     */
+    public double getSurfaceArea() {
+        if (isEmpty()) return 0d;
+        Vector3D extent = Vector3D.subtract(getMax(), getMin());
+        return 2d * (extent.getX() * extent.getY() + extent.getY() * extent.getZ() + extent.getZ() * extent.getX());
+    }
+
+    /**
+     * changes the default String conversion of a box and formats it to "[min, max]"
+     * @return the String of a box formatted
+     */
+    @Override
+    public String toString() {
+        return "[" + getMin() + ", " + getMax() + "]";
+    }
+
+    /**
+     * class getter
+     * @return the minimum corner
+     */
+    public Vector3D getMin() {
+        return min;
+    }
+    /**
+     * class setter
+     * @param min the minimum corner to set
+     */
+    public void setMin(Vector3D min) {
+        this.min = min;
+    }
+
+    /**
+     * class getter
+     * @return the maximum corner
+     */
+    public Vector3D getMax() {
+        return max;
+    }
+    /**
+     * class setter
+     * @param max the maximum corner to set
+     */
+    public void setMax(Vector3D max) {
+        this.max = max;
+    }
+
+}
@@ -6,11 +6,13 @@ package up.edu.isgc.raytracer.objects.utility;
 
 
 import up.edu.isgc.raytracer.objects.Object3D;
+import up.edu.isgc.raytracer.tools.utility.ContentHash;
 
 /**
  * Stores information for a camera such as position, FOV, resolution, and a close uo value (defaultZ)
  */
 public class Camera extends Object3D {
+    private static final long serialVersionUID = 1L;
     private double[] fieldOfView = new double[2];
     private int[] resolution;
     private double defaultZ = 15d;
@@ -33,11 +35,52 @@ public class Camera extends Object3D {
         setClippingPlanes(new double[]{farClippingPlane, nearClippingPlane});
     }
 
+    /**
+     * creates an independent copy of the camera, changes to the camera do not affect the copy
+     * @return the copy of the camera
+     */
+    public Camera copy() {
+        Camera camera = new Camera(Vector3D.clone(getPosition()), getFieldOfViewHorizontal(), getFieldOfViewVertical(),
+                getResolutionWidth(), getResolutionHeight(), getFarClippingPlane(), getNearClippingPlane());
+        camera.setDefaultZ(getDefaultZ());
+        return camera;
+    }
+
+    @Override
+    public void addToHash(ContentHash hash) {
+        super.addToHash(hash);
+        hash.add(getFieldOfView()).add(getResolutionWidth()).add(getResolutionHeight()).add(getDefaultZ()).add(getClippingPlanes());
+    }
+
     /**
      * calculates where all the rays should point to according to the resolution, FOV and close up values
      * @return a bi-dimensional array with all the positions, each position represents a pixel in the image
      */
     public Vector3D[][] calculateScreenPositions() {
+        double[] limits = calculateScreenLimits();
+        double minX = limits[0];
+        double maxX = limits[1];
+        double minY = limits[2];
+        double maxY = limits[3];
+
+        Vector3D[][] positions = new Vector3D[getResolutionWidth()][getResolutionHeight()];
+        double posZ = getDefaultZ();
+        for(int x = 0; x < positions.length; x++){
+            for(int y = 0; y < positions[x].length; y++){
+                double posX = minX + (((maxX - minX) / (double) getResolutionWidth()) * x);
+                double posY = maxY - (((maxY - minY) / (double) getResolutionHeight()) * y);
+                positions[x][y] = new Vector3D(posX, posY, posZ);
+            }
+        }
+        return positions;
+    }
+
+    /**
+     * calculates the limits of the screen according to the FOV and close up values
+     * every screen position is inside these limits
+     * @return an array with the limits (minX, maxX, minY, maxY)
+     */
+    public double[] calculateScreenLimits() {
         double angleMaxX = 90 - (getFieldOfViewHorizontal() / 2f);
         double radiusMaxX = getDefaultZ() / Math.cos(Math.toRadians(angleMaxX));
 
@@ -50,16 +93,7 @@ public class Camera extends Object3D {
         double maxY = Math.sin(Math.toRadians(angleMaxY)) * radiusMaxY;
         double minY = -maxY;
 
-        Vector3D[][] positions = new Vector3D[getResolutionWidth()][getResolutionHeight()];
-        double posZ = getDefaultZ();
-        for(int x = 0; x < positions.length; x++){
-            for(int y = 0; y < positions[x].length; y++){
-                double posX = minX + (((maxX - minX) / (double) getResolutionWidth()) * x);
-                double posY = maxY - (((maxY - minY) / (double) getResolutionHeight()) * y);
-                positions[x][y] = new Vector3D(posX, posY, posZ);
-            }
-        }
-        return positions;
+        return new double[]{minX, maxX, minY, maxY};
     }
 
     /**
@@ -0,0 +1,161 @@
+/*
+  [1968] - [2020] Centros Culturales de Mexico A.C / Universidad Panamericana
+  All Rights Reserved.
+ */
+package up.edu.isgc.raytracer.objects.utility;
+
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Stores the volume that can be reached by the primary rays of a camera
+ * The side planes pass through the camera position and the corners of the screen (the same directions used by the primary rays)
+ * The clipping planes are distances from the camera position, the same distances checked by the ray cast
+ *
+ * @author Homar Cano, Jafet Rodríguez
+ */
+public class Frustum {
+    /**
+     * constant for a small tolerance used to never cull boxes that touch the frustum
+     */
+    private static final double EPSILON = 0.000000001d;
+
+    private Vector3D apex;
+    private Vector3D[] planeNormals;
+    private double nearDistance;
+    private double farDistance;
+
+    /**
+     * class constructor
+     * @param camera the Camera that casts the primary rays
+     * @param useClippingPlanes a boolean flag used to determine if the clipping planes of the camera limit the frustum
+     */
+    public Frustum(Camera camera, boolean useClippingPlanes) {
+        setApex(Vector3D.clone(camera.getPosition()));
+        setPlaneNormals(calculatePlaneNormals(camera));
+        setNearDistance(useClippingPlanes ? camera.getNearClippingPlane() : Double.NEGATIVE_INFINITY);
+        setFarDistance(useClippingPlanes ? camera.getFarClippingPlane() : Double.POSITIVE_INFINITY);
+    }
+
+    /**
+     * calculates the inward normals of the side planes, the primary ray directions are the screen positions plus the camera position
+     * if the screen passes through the camera position there is no pyramid and the side planes are not used
+     * @param camera the Camera that casts the primary rays
+     * @return the normals of the side planes
+     */
+    private Vector3D[] calculatePlaneNormals(Camera camera) {
+        double[] limits = camera.calculateScreenLimits();
+        Vector3D position = camera.getPosition();
+        double z = camera.getDefaultZ() + position.getZ();
+        if (Math.abs(z) < EPSILON) return new Vector3D[0];
+
+        Vector3D[] corners = new Vector3D[]{
+                new Vector3D(limits[0] + position.getX(), limits[2] + position.getY(), z),
+                new Vector3D(limits[1] + position.getX(), limits[2] + position.getY(), z),
+                new Vector3D(limits[1] + position.getX(), limits[3] + position.getY(), z),
+                new Vector3D(limits[0] + position.getX(), limits[3] + position.getY(), z)};
+        Vector3D center = Vector3D.ZERO();
+        for (Vector3D corner : corners) center = Vector3D.add(center, corner);
+
+        List<Vector3D> normals = new ArrayList<>();
+        for (int i = 0; i < corners.length; i++) {
+            Vector3D normal = Vector3D.crossProduct(corners[i], corners[(i + 1) % corners.length]);
+            if (Vector3D.magnitude(normal) < EPSILON) continue;
+            if (Vector3D.dotProduct(normal, center) < 0) normal = Vector3D.scalarMultiplication(normal, -1);
+            normals.add(Vector3D.normalize(normal));
+        }
+        return normals.toArray(new Vector3D[0]);
+    }
+
+    /**
+     * checks if a box is at least partially inside the frustum (the test is conservative, some boxes outside can be accepted)
+     * @param box the box to check
+     * @return false only if no primary ray can hit something inside the box
+     */
+    public boolean intersects(BoundingBox box) {
+        if (box.isEmpty()) return false;
+        Vector3D min = box.getMin();
+        Vector3D max = box.getMax();
+
+        for (Vector3D normal : getPlaneNormals()) {
+            double x = (normal.getX() >= 0 ? max.getX() : min.getX()) - getApex().getX();
+            double y = (normal.getY() >= 0 ? max.getY() : min.getY()) - getApex().getY();
+            double z = (normal.getZ() >= 0 ? max.getZ() : min.getZ()) - getApex().getZ();
+            if (normal.getX() * x + normal.getY() * y + normal.getZ() * z < -EPSILON) return false;
+        }
+
+        double closestX = Math.max(min.getX(), Math.min(getApex().getX(), max.getX())) - getApex().getX();
+        double closestY = Math.max(min.getY(), Math.min(getApex().getY(), max.getY())) - getApex().getY();
+        double closestZ = Math.max(min.getZ(), Math.min(getApex().getZ(), max.getZ())) - getApex().getZ();
+        double closestDistance = Math.sqrt(closestX * closestX + closestY * closestY + closestZ * closestZ);
+        if (closestDistance >= getFarDistance() + EPSILON) return false;
+
+        double farthestX = Math.max(Math.abs(min.getX() - getApex().getX()), Math.abs(max.getX() - getApex().getX()));
+        double farthestY = Math.max(Math.abs(min.getY() - getApex().getY()), Math.abs(max.getY() - getApex().getY()));
+        double farthestZ = Math.max(Math.abs(min.getZ() - getApex().getZ()), Math.abs(max.getZ() - getApex().getZ()));
+        double farthestDistance = Math.sqrt(farthestX * farthestX + farthestY * farthestY + farthestZ * farthestZ);
+        return farthestDistance > getNearDistance() - EPSILON;
+    }
+
+    /**
+     * class getter
+     * @return the position of the camera
+     */
+    public Vector3D getApex() {
+        return apex;
+    }
+    /**
+     * class setter
+     * @param apex the position of the camera to set
+     */
+    public void setApex(Vector3D apex) {
+        this.apex = apex;
+    }
+
+    /**
+     * class getter
+     * @return the inward normals of the side planes
+     */
+    public Vector3D[] getPlaneNormals() {
+        return planeNormals;
+    }
+    /**
+     * class setter
+     * @param planeNormals the inward normals of the side planes to set
+     */
+    public void setPlaneNormals(Vector3D[] planeNormals) {
+        this.planeNormals = planeNormals;
+    }
+
+    /**
+     * class getter
+     * @return the near clipping distance
+     */
+    public double getNearDistance() {
+        return nearDistance;
+    }
+    /**
+     * class setter
+     * @param nearDistance the near clipping distance to set
+     */
+    public void setNearDistance(double nearDistance) {
+        this.nearDistance = nearDistance;
+    }
+
+    /**
+     * class getter
+     * @return the far clipping distance
+     */
+    public double getFarDistance() {
+        return farDistance;
+    }
+    /**
+     * class setter
+     * @param farDistance the far clipping distance to set
+     */
+    public void setFarDistance(double farDistance) {
+        this.farDistance = farDistance;
+    }
+
+}
@@ -40,17 +40,17 @@ public class Ray {
 
     /**
      * class getter
-     * @return the ray direction
+     * @return the ray direction (normalized), the returned vector must not be modified
      */
     public Vector3D getDirection() {
-        return Vector3D.normalize(this.direction);
+        return this.direction;
     }
     /**
-     * class setter
+     * class setter, the direction is normalized once when it is set
      * @param direction the ray direction to set
      */
     public void setDirection(Vector3D direction) {
-        this.direction = direction;
+        this.direction = Vector3D.normalize(direction);
     }
 
 }
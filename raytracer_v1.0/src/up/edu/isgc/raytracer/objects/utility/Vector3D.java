@@ -4,6 +4,9 @@
  */
 package up.edu.isgc.raytracer.objects.utility;
 
+
+import java.io.Serializable;
+
 /**
  * Represents a vector in a 3D space with x, y, z coordinates
  * Has methods for vectors operations such as addition, subtraction, scalar multiplication, cross product and dot product
@@ -11,7 +14,8 @@ package up.edu.isgc.raytracer.objects.utility;
  *
  * @author Homar Cano, Jafet Rodríguez
  */
-public class Vector3D {
+public class Vector3D implements Serializable {
+    private static final long serialVersionUID = 1L;
     private double x;
     private double y;
     private double z;
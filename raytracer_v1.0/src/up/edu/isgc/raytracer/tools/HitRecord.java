@@ -0,0 +1,123 @@
+/*
+  [1968] - [2020] Centros Culturales de Mexico A.C / Universidad Panamericana
+  All Rights Reserved.
+ */
+package up.edu.isgc.raytracer.tools;
+
+
+/**
+ * Stores the minimum information of the closest hit found while traversing an acceleration structure
+ * The information stored is distance, object index, primitive index and the barycentric coordinates (u, v) of triangles,
+ * the full Intersection is only built once the traversal has finished
+ *
+ * @author Homar Cano, Jafet Rodríguez
+ */
+public class HitRecord {
+    private double distance;
+    private int objectIndex;
+    private int primitiveIndex;
+    private double u;
+    private double v;
+
+    /**
+     * class constructor, creates an empty record (no hit and infinite distance)
+     */
+    public HitRecord() {
+        reset();
+    }
+
+    /**
+     * clears the record so it can be reused for another ray
+     */
+    public void reset() {
+        setDistance(Double.POSITIVE_INFINITY);
+        setObjectIndex(-1);
+        setPrimitiveIndex(-1);
+        setU(0d);
+        setV(0d);
+    }
+
+    /**
+     * checks if the record stores a hit
+     * @return true if a hit was recorded
+     */
+    public boolean hasHit() {
+        return getDistance() != Double.POSITIVE_INFINITY;
+    }
+
+    /**
+     * class getter
+     * @return the distance of the closest hit
+     */
+    public double getDistance() {
+        return distance;
+    }
+    /**
+     * class setter
+     * @param distance the distance of the closest hit to set
+     */
+    public void setDistance(double distance) {
+        this.distance = distance;
+    }
+
+    /**
+     * class getter
+     * @return the index of the object hit
+     */
+    public int getObjectIndex() {
+        return objectIndex;
+    }
+    /**
+     * class setter
+     * @param objectIndex the index of the object hit to set
+     */
+    public void setObjectIndex(int objectIndex) {
+        this.objectIndex = objectIndex;
+    }
+
+    /**
+     * class getter
+     * @return the index of the primitive (triangle) hit inside the object
+     */
+    public int getPrimitiveIndex() {
+        return primitiveIndex;
+    }
+    /**
+     * class setter
+     * @param primitiveIndex the index of the primitive hit to set
+     */
+    public void setPrimitiveIndex(int primitiveIndex) {
+        this.primitiveIndex = primitiveIndex;
+    }
+
+    /**
+     * class getter
+     * @return the barycentric coordinate of the third vertex of the triangle hit
+     */
+    public double getU() {
+        return u;
+    }
+    /**
+     * class setter
+     * @param u the barycentric coordinate of the third vertex to set
+     */
+    public void setU(double u) {
+        this.u = u;
+    }
+
+    /**
+     * class getter
+     * @return the barycentric coordinate of the second vertex of the triangle hit
+     */
+    public double getV() {
+        return v;
+    }
+    /**
+     * class setter
+     * @param v the barycentric coordinate of the second vertex to set
+     */
+    public void setV(double v) {
+        this.v = v;
+    }
+
+}
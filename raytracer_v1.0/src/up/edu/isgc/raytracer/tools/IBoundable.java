@@ -0,0 +1,22 @@
+/*
+  [1968] - [2020] Centros Culturales de Mexico A.C / Universidad Panamericana
+  All Rights Reserved.
+ */
+package up.edu.isgc.raytracer.tools;
+
+
+import up.edu.isgc.raytracer.objects.utility.BoundingBox;
+
+/**
+ * Interface that gives the ability to calculate the axis aligned bounding box of a 3D object
+ *
+ * @author Homar Cano, Jafet Rodríguez
+ */
+public interface IBoundable {
+    /**
+     * method expected to calculate the smallest axis aligned box that contains the object
+     *
+     * @return the BoundingBox of the object
+     */
+    BoundingBox getBoundingBox();
+}
@@ -20,4 +20,51 @@ public interface IIntersectable {
      * @return the Intersection object calculated
      */
     Intersection getObjectIntersection(Ray ray);
+
+    /**
+     * checks if a ray hits the object in front of its origin, used by shadow rays that only need to know if there is a hit
+     *
+     * @param ray the ray used to calculate the intersection
+     * @return true if the ray hits the object
+     */
+    default boolean isOccluded(Ray ray) {
+        return isOccluded(ray, Double.POSITIVE_INFINITY);
+    }
+
+    /**
+     * checks if a ray hits the object in front of its origin and closer than a distance (e.g. the distance to a light sample)
+     * objects can override it to skip the calculation of the position and normal
+     *
+     * @param ray the ray used to calculate the intersection
+     * @param maxDistance the distance where the ray ends, hits at that distance or farther are ignored
+     * @return true if the ray hits the object before the max distance
+     */
+    default boolean isOccluded(Ray ray, double maxDistance) {
+        Intersection intersection = getObjectIntersection(ray);
+        return intersection != null && intersection.getDistance() >= 0 && intersection.getDistance() < maxDistance;
+    }
+
+    /**
+     * finds a primitive of the object hit by a ray in front of its origin, used to remember the last occluder of a light
+     * objects made of a single primitive return 0 when they are hit
+     *
+     * @param ray the ray used to calculate the intersection
+     * @param maxDistance the distance where the ray ends, hits at that distance or farther are ignored
+     * @return the index of the primitive hit or -1 if the ray does not hit the object
+     */
+    default int findOccluder(Ray ray, double maxDistance) {
+        return isOccluded(ray, maxDistance) ? 0 : -1;
+    }
+
+    /**
+     * checks if a ray hits a single primitive of the object, it accepts exactly the same hits as isOccluded()
+     *
+     * @param primitiveIndex the index of the primitive returned by findOccluder()
+     * @param ray the ray used to calculate the intersection
+     * @param maxDistance the distance where the ray ends, hits at that distance or farther are ignored
+     * @return true if the ray hits the primitive before the max distance
+     */
+    default boolean isOccludedBy(int primitiveIndex, Ray ray, double maxDistance) {
+        return isOccluded(ray, maxDistance);
+    }
 }
@@ -10,7 +10,8 @@ import up.edu.isgc.raytracer.objects.utility.Vector3D;
 
 /**
  * Stores the information of an intersection between a ray and an object
- * The information stored is distance, normal, position and the 3D object
+ * The information stored is distance, normal, position, the 3D object and its id in a compiled scene
+ * Intersections with triangle meshes also store the triangle index and its barycentric coordinates (u, v)
  *
  * @author Homar Cano, Jafet Rodríguez
  */
@@ -19,6 +20,10 @@ public class Intersection {
     private Vector3D normal;
     private Vector3D position;
     private Object3D object;
+    private int objectId;
+    private int primitiveIndex;
+    private double u;
+    private double v;
 
     /**
      * class constructor
@@ -32,6 +37,8 @@ public class Intersection {
         setPosition(position);
         setNormal(normal);
         setObject(object);
+        setObjectId(-1);
+        setPrimitiveIndex(-1);
     }
 
     /**
@@ -95,4 +102,64 @@ public class Intersection {
         this.object = object;
     }
 
+    /**
+     * class getter
+     * @return the id of the object intersected in the compiled scene or -1 if it was not calculated with a compiled scene
+     */
+    public int getObjectId() {
+        return objectId;
+    }
+    /**
+     * class setter
+     * @param objectId the id of the object intersected to set
+     */
+    public void setObjectId(int objectId) {
+        this.objectId = objectId;
+    }
+
+    /**
+     * class getter
+     * @return the index of the triangle intersected or -1 if the object is not a triangle mesh
+     */
+    public int getPrimitiveIndex() {
+        return primitiveIndex;
+    }
+    /**
+     * class setter
+     * @param primitiveIndex the index of the triangle intersected to set
+     */
+    public void setPrimitiveIndex(int primitiveIndex) {
+        this.primitiveIndex = primitiveIndex;
+    }
+
+    /**
+     * class getter
+     * @return the barycentric coordinate of the third vertex of the triangle intersected
+     */
+    public double getU() {
+        return u;
+    }
+    /**
+     * class setter
+     * @param u the barycentric coordinate of the third vertex to set
+     */
+    public void setU(double u) {
+        this.u = u;
+    }
+
+    /**
+     * class getter
+     * @return the barycentric coordinate of the second vertex of the triangle intersected
+     */
+    public double getV() {
+        return v;
+    }
+    /**
+     * class setter
+     * @param v the barycentric coordinate of the second vertex to set
+     */
+    public void setV(double v) {
+        this.v = v;
+    }
+
 }
@@ -0,0 +1,42 @@
+/*
+  [1968] - [2020] Centros Culturales de Mexico A.C / Universidad Panamericana
+  All Rights Reserved.
+ */
+package up.edu.isgc.raytracer.tools.acceleration;
+
+
+import up.edu.isgc.raytracer.objects.utility.BoundingBox;
+
+/**
+ * Types of acceleration structure available for each render
+ * <ul>
+ *  <li>BVH: bounding volume hierarchy, the best general choice</li>
+ *  <li>GRID: uniform grid, builds in linear time and is fast for evenly populated scenes</li>
+ *  <li>TWO_LEVEL_GRID: grid whose crowded cells have a nested grid, for scenes with uneven density</li>
+ * </ul>
+ *
+ * @author Homar Cano, Jafet Rodríguez
+ */
+public enum AccelerationStructureType {
+    BVH,
+    GRID,
+    TWO_LEVEL_GRID;
+
+    /**
+     * builds an acceleration structure of this type
+     * @param boxes the bounding box of every primitive, the primitive index is the array index
+     * @param quality the build preset used by the bounding volume hierarchies
+     * @return the acceleration structure built
+     */
+    public IAccelerationStructure build(BoundingBox[] boxes, BVHBuildQuality quality) {
+        switch (this) {
+            case GRID:
+                return new UniformGrid(boxes, 1);
+            case TWO_LEVEL_GRID:
+                return new UniformGrid(boxes, 2);
+            default:
+                return new LinearBVHBuilder(quality).build(boxes);
+        }
+    }
+
+}
@@ -0,0 +1,348 @@
+/*
+  [1968] - [2020] Centros Culturales de Mexico A.C / Universidad Panamericana
+  All Rights Reserved.
+ */
+package up.edu.isgc.raytracer.tools.acceleration;
+
+
+import up.edu.isgc.raytracer.objects.utility.BoundingBox;
+import up.edu.isgc.raytracer.objects.utility.Ray;
+import up.edu.isgc.raytracer.objects.utility.Vector3D;
+import up.edu.isgc.raytracer.tools.HitRecord;
+
+/**
+ * Bounding volume hierarchy stored in flat arrays (depth first order)
+ * The left child of an interior node is always the next node, so only the right child index is stored
+ * Leaves store the offset of their first primitive and the number of primitives they contain
+ *
+ * @author Homar Cano, Jafet Rodríguez
+ */
+public class BVH implements IAccelerationStructure {
+    /**
+     * cost constants of the surface area heuristic, relative to the cost of a ray-primitive test
+     */
+    public static final double TRAVERSAL_COST = 1.2d;
+    public static final double INTERSECTION_COST = 1d;
+
+    /**
+     * maximum depth supported by the traversal stack
+     */
+    private static final int STACK_SIZE = 128;
+
+    private final double[] nodeBounds;
+    private final int[] nodeOffsets;
+    private final int[] nodeCounts;
+    private final int[] primitiveIndices;
+    private long buildTime;
+    private String builderName;
+
+    /**
+     * class constructor
+     * @param nodeBounds the bounds of every node (minX, minY, minZ, maxX, maxY, maxZ)
+     * @param nodeOffsets the right child index for interior nodes or the first primitive offset for leaves
+     * @param nodeCounts the number of primitives of each leaf, 0 for interior nodes
+     * @param primitiveIndices the primitive indices referenced by the leaves
+     */
+    public BVH(double[] nodeBounds, int[] nodeOffsets, int[] nodeCounts, int[] primitiveIndices) {
+        this.nodeBounds = nodeBounds;
+        this.nodeOffsets = nodeOffsets;
+        this.nodeCounts = nodeCounts;
+        this.primitiveIndices = primitiveIndices;
+        setBuilderName("BVH");
+    }
+
+    @Override
+    public boolean intersect(Ray ray, HitRecord hit, IPrimitiveIntersector intersector) {
+        return traverse(ray, hit, intersector, false);
+    }
+
+    @Override
+    public boolean isOccluded(Ray ray, HitRecord hit, IPrimitiveIntersector intersector) {
+        return traverse(ray, hit, intersector, true);
+    }
+
+    /**
+     * traverses the hierarchy visiting the closest child first and skipping the nodes farther than the closest hit
+     * @param ray the ray used to calculate the intersection
+     * @param hit the record of the closest hit
+     * @param intersector the function used to test a primitive
+     * @param anyHit a boolean flag to stop with the first hit found (used with shadow rays)
+     * @return true if a closer hit was found
+     */
+    private boolean traverse(Ray ray, HitRecord hit, IPrimitiveIntersector intersector, boolean anyHit) {
+        if (getNodeCount() == 0) return false;
+        Vector3D origin = ray.getOrigin();
+        Vector3D direction = ray.getDirection();
+        double originX = origin.getX(), originY = origin.getY(), originZ = origin.getZ();
+        double inverseX = 1d / direction.getX(), inverseY = 1d / direction.getY(), inverseZ = 1d / direction.getZ();
+
+        int[] nodeStack = new int[STACK_SIZE];
+        double[] distanceStack = new double[STACK_SIZE];
+        int stackSize = 0;
+        boolean found = false;
+
+        int node = 0;
+        double nodeDistance = entryDistance(0, originX, originY, originZ, inverseX, inverseY, inverseZ, hit.getDistance());
+        if (nodeDistance == Double.POSITIVE_INFINITY) return false;
+
+        while (true) {
+            int count = nodeCounts[node];
+            if (count > 0) {
+                int first = nodeOffsets[node];
+                for (int i = first; i < first + count; i++) {
+                    if (intersector.intersect(primitiveIndices[i], ray, hit)) {
+                        found = true;
+                        if (anyHit) return true;
+                    }
+                }
+            } else {
+                int left = node + 1;
+                int right = nodeOffsets[node];
+                double leftDistance = entryDistance(left, originX, originY, originZ, inverseX, inverseY, inverseZ, hit.getDistance());
+                double rightDistance = entryDistance(right, originX, originY, originZ, inverseX, inverseY, inverseZ, hit.getDistance());
+                if (leftDistance <= rightDistance) {
+                    if (rightDistance != Double.POSITIVE_INFINITY) {
+                        nodeStack[stackSize] = right;
+                        distanceStack[stackSize++] = rightDistance;
+                    }
+                    if (leftDistance != Double.POSITIVE_INFINITY) {
+                        node = left;
+                        continue;
+                    }
+                } else {
+                    if (leftDistance != Double.POSITIVE_INFINITY) {
+                        nodeStack[stackSize] = left;
+                        distanceStack[stackSize++] = leftDistance;
+                    }
+                    node = right;
+                    continue;
+                }
+            }
+
+            node = -1;
+            while (stackSize > 0) {
+                stackSize--;
+                if (distanceStack[stackSize] <= hit.getDistance()) {
+                    node = nodeStack[stackSize];
+                    break;
+                }
+            }
+            if (node < 0) return found;
+        }
+    }
+
+    /**
+     * creates a hierarchy with the same nodes over moved primitives, the bounds of every node are calculated again from the
+     * bottom (children always come after their parent) so the refit takes linear time
+     * the quality of the hierarchy is kept when the primitives move together (e.g. a translated mesh) and gets worse when they
+     * move apart, so a structure that is refit again and again should be built again from time to time
+     * @param boxes the new bounding box of every primitive, the primitive index is the array index
+     * @return the refitted hierarchy, this one is not modified
+     */
+    @Override
+    public BVH refit(BoundingBox[] boxes) {
+        if (boxes.length != primitiveIndices.length) throw new IllegalArgumentException("a hierarchy of " + primitiveIndices.length + " primitives can not be refit with " + boxes.length + " boxes");
+        long startTime = System.nanoTime();
+        double[] bounds = new double[nodeBounds.length];
+        for (int node = getNodeCount() - 1; node >= 0; node--) {
+            int index = node * 6;
+            for (int axis = 0; axis < 3; axis++) {
+                bounds[index + axis] = Double.POSITIVE_INFINITY;
+                bounds[index + axis + 3] = Double.NEGATIVE_INFINITY;
+            }
+            if (nodeCounts[node] > 0) {
+                int first = nodeOffsets[node];
+                for (int i = first; i < first + nodeCounts[node]; i++) {
+                    BoundingBox box = boxes[primitiveIndices[i]];
+                    double[] min = {box.getMin().getX(), box.getMin().getY(), box.getMin().getZ()};
+                    double[] max = {box.getMax().getX(), box.getMax().getY(), box.getMax().getZ()};
+                    for (int axis = 0; axis < 3; axis++) {
+                        bounds[index + axis] = Math.min(bounds[index + axis], min[axis]);
+                        bounds[index + axis + 3] = Math.max(bounds[index + axis + 3], max[axis]);
+                    }
+                }
+            } else {
+                int left = (node + 1) * 6;
+                int right = nodeOffsets[node] * 6;
+                for (int axis = 0; axis < 3; axis++) {
+                    bounds[index + axis] = Math.min(bounds[left + axis], bounds[right + axis]);
+                    bounds[index + axis + 3] = Math.max(bounds[left + axis + 3], bounds[right + axis + 3]);
+                }
+            }
+        }
+        BVH bvh = new BVH(bounds, nodeOffsets, nodeCounts, primitiveIndices);
+        bvh.setBuildTime(System.nanoTime() - startTime);
+        bvh.setBuilderName(getBuilderName().endsWith(" (refit)") ? getBuilderName() : getBuilderName() + " (refit)");
+        return bvh;
+    }
+
+    /**
+     * finds the primitives of every leaf whose box contains a point, the boxes of the primitives must still be checked by the caller
+     * @param x the x coordinate of the point
+     * @param y the y coordinate of the point
+     * @param z the z coordinate of the point
+     * @param result the array where the primitive indices are stored (it must have space for every primitive)
+     * @return the number of primitive indices stored
+     */
+    public int queryPoint(double x, double y, double z, int[] result) {
+        if (getNodeCount() == 0) return 0;
+        int[] nodeStack = new int[STACK_SIZE];
+        int stackSize = 0;
+        int count = 0;
+        nodeStack[stackSize++] = 0;
+        while (stackSize > 0) {
+            int node = nodeStack[--stackSize];
+            int index = node * 6;
+            if (x < nodeBounds[index] || y < nodeBounds[index + 1] || z < nodeBounds[index + 2]
+                    || x > nodeBounds[index + 3] || y > nodeBounds[index + 4] || z > nodeBounds[index + 5]) continue;
+            if (nodeCounts[node] > 0) {
+                int first = nodeOffsets[node];
+                for (int i = first; i < first + nodeCounts[node]; i++) result[count++] = primitiveIndices[i];
+            } else {
+                nodeStack[stackSize++] = nodeOffsets[node];
+                nodeStack[stackSize++] = node + 1;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * calculates the distance where a ray enters the box of a node (slab method)
+     * @param node the node index
+     * @param originX the x coordinate of the ray origin
+     * @param originY the y coordinate of the ray origin
+     * @param originZ the z coordinate of the ray origin
+     * @param inverseX the inverse of the x component of the ray direction
+     * @param inverseY the inverse of the y component of the ray direction
+     * @param inverseZ the inverse of the z component of the ray direction
+     * @param maxDistance the maximum distance accepted
+     * @return the entry distance (never negative) or positive infinity if the ray misses the box
+     */
+    private double entryDistance(int node, double originX, double originY, double originZ, double inverseX, double inverseY, double inverseZ, double maxDistance) {
+        int index = node * 6;
+        double near = 0d;
+        double far = maxDistance;
+
+        double t1 = (nodeBounds[index] - originX) * inverseX;
+        double t2 = (nodeBounds[index + 3] - originX) * inverseX;
+        if (t1 > t2) { double swap = t1; t1 = t2; t2 = swap; }
+        if (t1 > near) near = t1;
+        if (t2 < far) far = t2;
+
+        t1 = (nodeBounds[index + 1] - originY) * inverseY;
+        t2 = (nodeBounds[index + 4] - originY) * inverseY;
+        if (t1 > t2) { double swap = t1; t1 = t2; t2 = swap; }
+        if (t1 > near) near = t1;
+        if (t2 < far) far = t2;
+
+        t1 = (nodeBounds[index + 2] - originZ) * inverseZ;
+        t2 = (nodeBounds[index + 5] - originZ) * inverseZ;
+        if (t1 > t2) { double swap = t1; t1 = t2; t2 = swap; }
+        if (t1 > near) near = t1;
+        if (t2 < far) far = t2;
+
+        return near <= far ? near : Double.POSITIVE_INFINITY;
+    }
+
+    /**
+     * calculates the surface area heuristic cost of the hierarchy, relative to the area of the root
+     * lower values mean fewer expected box and primitive tests per ray
+     * @return the SAH cost of the tree
+     */
+    public double getSAHCost() {
+        if (getNodeCount() == 0) return 0d;
+        double rootArea = nodeArea(0);
+        if (rootArea <= 0d) return 0d;
+        double cost = 0d;
+        for (int node = 0; node < getNodeCount(); node++) {
+            if (nodeCounts[node] > 0) cost += INTERSECTION_COST * nodeCounts[node] * nodeArea(node);
+            else cost += TRAVERSAL_COST * nodeArea(node);
+        }
+        return cost / rootArea;
+    }
+
+    /**
+     * calculates the maximum depth of the hierarchy
+     * @return the depth of the deepest leaf (the root has depth 1)
+     */
+    public int getDepth() {
+        if (getNodeCount() == 0) return 0;
+        int[] depths = new int[getNodeCount()];
+        depths[0] = 1;
+        int maxDepth = 1;
+        for (int node = 0; node < getNodeCount(); node++) {
+            maxDepth = Math.max(maxDepth, depths[node]);
+            if (nodeCounts[node] == 0) {
+                depths[node + 1] = depths[node] + 1;
+                depths[nodeOffsets[node]] = depths[node] + 1;
+            }
+        }
+        return maxDepth;
+    }
+
+    /**
+     * calculates the surface area of a node box
+     * @param node the node index
+     * @return the surface area of the node
+     */
+    private double nodeArea(int node) {
+        int index = node * 6;
+        double x = nodeBounds[index + 3] - nodeBounds[index];
+        double y = nodeBounds[index + 4] - nodeBounds[index + 1];
+        double z = nodeBounds[index + 5] - nodeBounds[index + 2];
+        return 2d * (x * y + y * z + z * x);
+    }
+
+    /**
+     * class getter
+     * @return the bounds of the root node or an empty box if the hierarchy is empty
+     */
+    public BoundingBox getBoundingBox() {
+        if (getNodeCount() == 0) return BoundingBox.EMPTY();
+        return new BoundingBox(new Vector3D(nodeBounds[0], nodeBounds[1], nodeBounds[2]), new Vector3D(nodeBounds[3], nodeBounds[4], nodeBounds[5]));
+    }
+
+    @Override
+    public String getSummary() {
+        int leaves = 0;
+        for (int count : nodeCounts) if (count > 0) leaves++;
+        return String.format("%s, %d primitives, %d nodes, %d leaves, depth %d, SAH cost %.2f, built in %.2f ms",
+                getBuilderName(), primitiveIndices.length, getNodeCount(), leaves, getDepth(), getSAHCost(), getBuildTime() / 1e6);
+    }
+
+    /**
+     * class getter
+     * @return the total number of nodes
+     */
+    public int getNodeCount() {
+        return nodeCounts.length;
+    }
+
+    @Override
+    public long getBuildTime() {
+        return buildTime;
+    }
+    /**
+     * class setter
+     * @param buildTime the build time in nanoseconds to set
+     */
+    public void setBuildTime(long buildTime) {
+        this.buildTime = buildTime;
+    }
+
+    /**
+     * class getter
+     * @return the name of the builder used to create the hierarchy
+     */
+    public String getBuilderName() {
+        return builderName;
+    }
+    /**
+     * class setter
+     * @param builderName the name of the builder to set
+     */
+    public void setBuilderName(String builderName) {
+        this.builderName = builderName;
+    }
+
+}
@@ -0,0 +1,39 @@
+/*
+  [1968] - [2020] Centros Culturales de Mexico A.C / Universidad Panamericana
+  All Rights Reserved.
+ */
+package up.edu.isgc.raytracer.tools.acceleration;
+
+
+/**
+ * Build presets for the bounding volume hierarchies, trading build time against trace quality
+ * <ul>
+ *  <li>FAST: plain linear BVH (Morton codes), best for previews and animations</li>
+ *  <li>OPTIMIZED: linear BVH followed by treelet restructuring passes, best for final renders</li>
+ * </ul>
+ *
+ * @author Homar Cano, Jafet Rodríguez
+ */
+public enum BVHBuildQuality {
+    FAST(0),
+    OPTIMIZED(3);
+
+    private final int treeletPasses;
+
+    /**
+     * enum constructor
+     * @param treeletPasses the number of treelet optimization passes done after the linear build
+     */
+    BVHBuildQuality(int treeletPasses) {
+        this.treeletPasses = treeletPasses;
+    }
+
+    /**
+     * class getter
+     * @return the number of treelet optimization passes
+     */
+    public int getTreeletPasses() {
+        return treeletPasses;
+    }
+
+}
@@ -0,0 +1,61 @@
+/*
+  [1968] - [2020] Centros Culturales de Mexico A.C / Universidad Panamericana
+  All Rights Reserved.
+ */
+package up.edu.isgc.raytracer.tools.acceleration;
+
+
+import up.edu.isgc.raytracer.objects.utility.BoundingBox;
+import up.edu.isgc.raytracer.objects.utility.Ray;
+import up.edu.isgc.raytracer.tools.HitRecord;
+
+/**
+ * Interface for the spatial structures used to avoid testing every primitive against every ray
+ * The structures only store primitive indices, the primitives themselves are tested through an IPrimitiveIntersector
+ *
+ * @author Homar Cano, Jafet Rodríguez
+ */
+public interface IAccelerationStructure {
+    /**
+     * method expected to find the closest primitive hit by a ray
+     *
+     * @param ray the ray used to calculate the intersection
+     * @param hit the record where the closest hit is stored, only hits closer than its distance are accepted
+     * @param intersector the function used to test a primitive
+     * @return true if a closer hit was found
+     */
+    boolean intersect(Ray ray, HitRecord hit, IPrimitiveIntersector intersector);
+
+    /**
+     * method expected to find any primitive hit by a ray, the search stops with the first hit
+     *
+     * @param ray the ray used to calculate the intersection
+     * @param hit the record where the hit is stored, only hits closer than its distance are accepted
+     * @param intersector the function used to test a primitive
+     * @return true if any hit was found
+     */
+    boolean isOccluded(Ray ray, HitRecord hit, IPrimitiveIntersector intersector);
+
+    /**
+     * method expected to create the structure of the same primitives after they moved, keeping the topology of the structure
+     * and only updating its bounds when it can (refit) instead of building it again
+     *
+     * @param boxes the new bounding box of every primitive, the primitive index is the array index (same primitive count)
+     * @return the structure over the moved primitives
+     */
+    IAccelerationStructure refit(BoundingBox[] boxes);
+
+    /**
+     * method expected to return the time it took to build the structure
+     *
+     * @return the build time in nanoseconds
+     */
+    long getBuildTime();
+
+    /**
+     * method expected to describe the quality of the structure (used in the render statistics)
+     *
+     * @return a short summary of the structure
+     */
+    String getSummary();
+}
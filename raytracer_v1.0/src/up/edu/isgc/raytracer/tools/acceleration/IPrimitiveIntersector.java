@@ -0,0 +1,26 @@
+/*
+  [1968] - [2020] Centros Culturales de Mexico A.C / Universidad Panamericana
+  All Rights Reserved.
+ */
+package up.edu.isgc.raytracer.tools.acceleration;
+
+
+import up.edu.isgc.raytracer.objects.utility.Ray;
+import up.edu.isgc.raytracer.tools.HitRecord;
+
+/**
+ * Interface used by the acceleration structures to test a single primitive (triangle or object) against a ray
+ *
+ * @author Homar Cano, Jafet Rodríguez
+ */
+public interface IPrimitiveIntersector {
+    /**
+     * method expected to test a primitive and update the record only if the hit found is closer than the one stored
+     *
+     * @param primitiveIndex the index of the primitive to test
+     * @param ray the ray used to calculate the intersection
+     * @param hit the record of the closest hit found so far
+     * @return true if the record was updated with a closer hit
+     */
+    boolean intersect(int primitiveIndex, Ray ray, HitRecord hit);
+}
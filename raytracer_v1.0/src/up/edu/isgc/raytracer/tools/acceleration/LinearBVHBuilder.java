@@ -0,0 +1,590 @@
+/*
+  [1968] - [2020] Centros Culturales de Mexico A.C / Universidad Panamericana
+  All Rights Reserved.
+ */
+package up.edu.isgc.raytracer.tools.acceleration;
+
+
+import up.edu.isgc.raytracer.objects.utility.BoundingBox;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.stream.IntStream;
+
+/**
+ * Builds a linear bounding volume hierarchy (LBVH) on the ForkJoin pool
+ * <ol>
+ *  <li>Morton codes are calculated for the centroid of every primitive</li>
+ *  <li>The codes are sorted with a parallel radix sort</li>
+ *  <li>Every interior node of the radix tree is emitted in parallel</li>
+ *  <li>Boxes are fitted bottom-up in parallel</li>
+ *  <li>Optionally, treelets of the tree are restructured to minimize their surface area heuristic cost</li>
+ *  <li>The tree is flattened, collapsing small subtrees into leaves</li>
+ * </ol>
+ *
+ * @author Homar Cano, Jafet Rodríguez
+ * @see <a href="https://research.nvidia.com/publication/2012-06_maximizing-parallelism-construction-bvhs-octrees-and-k-d-trees">Maximizing Parallelism in the Construction of BVHs, Octrees, and k-d Trees</a>
+ * @see <a href="https://research.nvidia.com/publication/2013-07_fast-parallel-construction-high-quality-bounding-volume-hierarchies">Fast Parallel Construction of High-Quality Bounding Volume Hierarchies</a>
+ */
+public class LinearBVHBuilder {
+    /**
+     * bits used per axis in the Morton codes (63 bits in total)
+     */
+    private static final int MORTON_BITS = 21;
+    /**
+     * bits sorted by each pass of the radix sort
+     */
+    private static final int RADIX_BITS = 8;
+    /**
+     * number of leaves of each treelet, the optimal topology of a treelet is found by brute force
+     */
+    private static final int TREELET_SIZE = 7;
+    /**
+     * subtrees with fewer leaves are optimized in the current thread instead of being forked
+     */
+    private static final int PARALLEL_THRESHOLD = 2048;
+    /**
+     * relative padding added to the primitive boxes, so hits on the edges of flat primitives are never lost
+     */
+    private static final double BOUNDS_PADDING = 1e-7d;
+
+    private int treeletPasses;
+    private int maxLeafSize;
+
+    private int primitiveCount;
+    private double[] primitiveBounds;
+    private int[] sortedPrimitives;
+    private long[] sortedCodes;
+    private int[] leftChildren;
+    private int[] rightChildren;
+    private int[] parents;
+    private double[] bounds;
+    private double[] costs;
+    private int[] leafCounts;
+
+    /**
+     * class constructor
+     * @param treeletPasses the number of treelet optimization passes (0 for a plain LBVH)
+     * @param maxLeafSize the maximum number of primitives in a leaf
+     */
+    public LinearBVHBuilder(int treeletPasses, int maxLeafSize) {
+        setTreeletPasses(treeletPasses);
+        setMaxLeafSize(maxLeafSize);
+    }
+
+    /**
+     * class constructor
+     * @param quality the build preset used
+     */
+    public LinearBVHBuilder(BVHBuildQuality quality) {
+        this(quality.getTreeletPasses(), 4);
+    }
+
+    /**
+     * builds a hierarchy for the given primitive boxes
+     * @param boxes the bounding box of every primitive, the primitive index is the array index
+     * @return the hierarchy built
+     */
+    public synchronized BVH build(BoundingBox[] boxes) {
+        long startTime = System.nanoTime();
+        primitiveCount = boxes.length;
+        if (primitiveCount == 0) {
+            BVH bvh = new BVH(new double[0], new int[0], new int[0], new int[0]);
+            bvh.setBuildTime(System.nanoTime() - startTime);
+            return bvh;
+        }
+
+        primitiveBounds = new double[primitiveCount * 6];
+        IntStream.range(0, primitiveCount).parallel().forEach(i -> storePaddedBox(boxes[i], i));
+
+        computeAndSortMortonCodes();
+        emitHierarchy();
+        fitBounds();
+        for (int pass = 0; pass < getTreeletPasses(); pass++) {
+            ForkJoinPool.commonPool().invoke(new TreeletOptimization(0));
+        }
+        BVH bvh = flatten();
+        bvh.setBuildTime(System.nanoTime() - startTime);
+        bvh.setBuilderName(getTreeletPasses() > 0 ? "LBVH + " + getTreeletPasses() + " treelet passes" : "LBVH");
+
+        primitiveBounds = null;
+        sortedPrimitives = null;
+        sortedCodes = null;
+        leftChildren = rightChildren = parents = leafCounts = null;
+        bounds = costs = null;
+        return bvh;
+    }
+
+    /**
+     * stores the box of a primitive with a small padding
+     * @param box the box of the primitive
+     * @param primitive the primitive index
+     */
+    private void storePaddedBox(BoundingBox box, int primitive) {
+        double[] values = {box.getMin().getX(), box.getMin().getY(), box.getMin().getZ(), box.getMax().getX(), box.getMax().getY(), box.getMax().getZ()};
+        double extent = Math.max(values[3] - values[0], Math.max(values[4] - values[1], values[5] - values[2]));
+        double padding = BOUNDS_PADDING * extent + BOUNDS_PADDING * Math.max(Math.abs(values[0]), Math.max(Math.abs(values[1]), Math.abs(values[2])));
+        for (int axis = 0; axis < 3; axis++) {
+            primitiveBounds[primitive * 6 + axis] = values[axis] - padding;
+            primitiveBounds[primitive * 6 + axis + 3] = values[axis + 3] + padding;
+        }
+    }
+
+    /**
+     * calculates the Morton code of every primitive centroid and sorts the primitives by code
+     */
+    private void computeAndSortMortonCodes() {
+        double[] centroidBounds = {Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY};
+        for (int i = 0; i < primitiveCount; i++) {
+            for (int axis = 0; axis < 3; axis++) {
+                double centroid = centroid(i, axis);
+                centroidBounds[axis] = Math.min(centroidBounds[axis], centroid);
+                centroidBounds[axis + 3] = Math.max(centroidBounds[axis + 3], centroid);
+            }
+        }
+
+        long[] codes = new long[primitiveCount];
+        int[] primitives = new int[primitiveCount];
+        double scale = (1 << MORTON_BITS) - 1;
+        IntStream.range(0, primitiveCount).parallel().forEach(i -> {
+            long code = 0L;
+            for (int axis = 0; axis < 3; axis++) {
+                double extent = centroidBounds[axis + 3] - centroidBounds[axis];
+                double normalized = extent > 0d ? (centroid(i, axis) - centroidBounds[axis]) / extent : 0.5d;
+                code |= expandBits((long) (normalized * scale)) << (2 - axis);
+            }
+            codes[i] = code;
+            primitives[i] = i;
+        });
+
+        radixSort(codes, primitives);
+        sortedCodes = codes;
+        sortedPrimitives = primitives;
+    }
+
+    /**
+     * calculates the centroid of a primitive in a given axis
+     * @param primitive the primitive index
+     * @param axis the axis (0 = x, 1 = y, 2 = z)
+     * @return the centroid coordinate
+     */
+    private double centroid(int primitive, int axis) {
+        return 0.5d * (primitiveBounds[primitive * 6 + axis] + primitiveBounds[primitive * 6 + axis + 3]);
+    }
+
+    /**
+     * spreads the lower 21 bits of a value so there are two zero bits between each one
+     * @param value the value to expand
+     * @return the value expanded
+     */
+    private static long expandBits(long value) {
+        value &= 0x1fffffL;
+        value = (value | value << 32) & 0x1f00000000ffffL;
+        value = (value | value << 16) & 0x1f0000ff0000ffL;
+        value = (value | value << 8) & 0x100f00f00f00f00fL;
+        value = (value | value << 4) & 0x10c30c30c30c30c3L;
+        value = (value | value << 2) & 0x1249249249249249L;
+        return value;
+    }
+
+    /**
+     * sorts the keys (and their values) with a parallel least significant digit radix sort
+     * each pass builds one histogram per chunk in parallel, then every chunk scatters its keys in parallel
+     * @param keys the Morton codes to sort
+     * @param values the primitive index of every code
+     */
+    private static void radixSort(long[] keys, int[] values) {
+        int length = keys.length;
+        int chunks = Math.max(1, Math.min(length / 4096, ForkJoinPool.getCommonPoolParallelism() * 4));
+        int chunkSize = (length + chunks - 1) / chunks;
+        int buckets = 1 << RADIX_BITS;
+        long[] keyBuffer = new long[length];
+        int[] valueBuffer = new int[length];
+        long[] sourceKeys = keys, targetKeys = keyBuffer;
+        int[] sourceValues = values, targetValues = valueBuffer;
+
+        for (int shift = 0; shift < 64; shift += RADIX_BITS) {
+            final int digitShift = shift;
+            final long[] fromKeys = sourceKeys, toKeys = targetKeys;
+            final int[] fromValues = sourceValues, toValues = targetValues;
+            int[][] histograms = new int[chunks][buckets];
+            IntStream.range(0, chunks).parallel().forEach(chunk -> {
+                int end = Math.min(length, (chunk + 1) * chunkSize);
+                for (int i = chunk * chunkSize; i < end; i++) histograms[chunk][(int) (fromKeys[i] >>> digitShift) & (buckets - 1)]++;
+            });
+
+            int offset = 0;
+            boolean sameDigit = false;
+            for (int bucket = 0; bucket < buckets; bucket++) {
+                int bucketTotal = 0;
+                for (int chunk = 0; chunk < chunks; chunk++) {
+                    int count = histograms[chunk][bucket];
+                    histograms[chunk][bucket] = offset;
+                    offset += count;
+                    bucketTotal += count;
+                }
+                if (bucketTotal == length) sameDigit = true;
+            }
+            if (sameDigit) continue;
+
+            IntStream.range(0, chunks).parallel().forEach(chunk -> {
+                int[] positions = histograms[chunk];
+                int end = Math.min(length, (chunk + 1) * chunkSize);
+                for (int i = chunk * chunkSize; i < end; i++) {
+                    int position = positions[(int) (fromKeys[i] >>> digitShift) & (buckets - 1)]++;
+                    toKeys[position] = fromKeys[i];
+                    toValues[position] = fromValues[i];
+                }
+            });
+            sourceKeys = toKeys;
+            targetKeys = fromKeys;
+            sourceValues = toValues;
+            targetValues = fromValues;
+        }
+
+        if (sourceKeys != keys) {
+            System.arraycopy(sourceKeys, 0, keys, 0, length);
+            System.arraycopy(sourceValues, 0, values, 0, length);
+        }
+    }
+
+    /**
+     * emits the binary radix tree of the sorted codes, every interior node is found independently in parallel
+     * interior nodes use the indices [0, n - 2] and leaves the indices [n - 1, 2n - 2]
+     */
+    private void emitHierarchy() {
+        int nodes = 2 * primitiveCount - 1;
+        leftChildren = new int[nodes];
+        rightChildren = new int[nodes];
+        parents = new int[nodes];
+        parents[0] = -1;
+        Arrays.fill(leftChildren, primitiveCount - 1, nodes, -1);
+        Arrays.fill(rightChildren, primitiveCount - 1, nodes, -1);
+
+        IntStream.range(0, primitiveCount - 1).parallel().forEach(i -> {
+            int direction = delta(i, i + 1) - delta(i, i - 1) > 0 ? 1 : -1;
+            int minimumDelta = delta(i, i - direction);
+            int maxLength = 2;
+            while (delta(i, i + maxLength * direction) > minimumDelta) maxLength *= 2;
+            int length = 0;
+            for (int step = maxLength / 2; step >= 1; step /= 2) {
+                if (delta(i, i + (length + step) * direction) > minimumDelta) length += step;
+            }
+            int j = i + length * direction;
+
+            int nodeDelta = delta(i, j);
+            int split = 0;
+            int divisor = 2;
+            for (int step = (length + divisor - 1) / divisor; ; step = (length + divisor - 1) / divisor) {
+                if (delta(i, i + (split + step) * direction) > nodeDelta) split += step;
+                if (step <= 1) break;
+                divisor *= 2;
+            }
+            int gamma = i + split * direction + Math.min(direction, 0);
+
+            int left = Math.min(i, j) == gamma ? primitiveCount - 1 + gamma : gamma;
+            int right = Math.max(i, j) == gamma + 1 ? primitiveCount + gamma : gamma + 1;
+            leftChildren[i] = left;
+            rightChildren[i] = right;
+            parents[left] = i;
+            parents[right] = i;
+        });
+    }
+
+    /**
+     * calculates the length of the common prefix of two sorted codes, ties are broken with the position
+     * @param i the first position
+     * @param j the second position
+     * @return the common prefix length or -1 if j is out of range
+     */
+    private int delta(int i, int j) {
+        if (j < 0 || j >= primitiveCount) return -1;
+        long codeI = sortedCodes[i], codeJ = sortedCodes[j];
+        if (codeI == codeJ) return 64 + Integer.numberOfLeadingZeros(i ^ j);
+        return Long.numberOfLeadingZeros(codeI ^ codeJ);
+    }
+
+    /**
+     * fits the boxes, SAH costs and leaf counts bottom-up, one path from each leaf in parallel
+     * the first thread that reaches an interior node stops, the second one (with both children ready) continues
+     */
+    private void fitBounds() {
+        int nodes = 2 * primitiveCount - 1;
+        bounds = new double[nodes * 6];
+        costs = new double[nodes];
+        leafCounts = new int[nodes];
+        AtomicIntegerArray visits = new AtomicIntegerArray(Math.max(primitiveCount - 1, 1));
+
+        IntStream.range(0, primitiveCount).parallel().forEach(leaf -> {
+            int node = primitiveCount - 1 + leaf;
+            System.arraycopy(primitiveBounds, sortedPrimitives[leaf] * 6, bounds, node * 6, 6);
+            leafCounts[node] = 1;
+            costs[node] = BVH.INTERSECTION_COST * area(node);
+            node = parents[node];
+            while (node >= 0 && visits.getAndIncrement(node) == 1) {
+                updateNode(node);
+                node = parents[node];
+            }
+        });
+    }
+
+    /**
+     * recalculates the box, cost and leaf count of an interior node from its children
+     * @param node the interior node index
+     */
+    private void updateNode(int node) {
+        int left = leftChildren[node], right = rightChildren[node];
+        for (int axis = 0; axis < 3; axis++) {
+            bounds[node * 6 + axis] = Math.min(bounds[left * 6 + axis], bounds[right * 6 + axis]);
+            bounds[node * 6 + axis + 3] = Math.max(bounds[left * 6 + axis + 3], bounds[right * 6 + axis + 3]);
+        }
+        leafCounts[node] = leafCounts[left] + leafCounts[right];
+        costs[node] = BVH.TRAVERSAL_COST * area(node) + costs[left] + costs[right];
+    }
+
+    /**
+     * calculates the surface area of a node box
+     * @param node the node index
+     * @return the surface area
+     */
+    private double area(int node) {
+        int index = node * 6;
+        double x = bounds[index + 3] - bounds[index];
+        double y = bounds[index + 4] - bounds[index + 1];
+        double z = bounds[index + 5] - bounds[index + 2];
+        return 2d * (x * y + y * z + z * x);
+    }
+
+    /**
+     * checks if a node of the radix tree is a leaf
+     * @param node the node index
+     * @return true if the node is a leaf
+     */
+    private boolean isLeaf(int node) {
+        return node >= primitiveCount - 1;
+    }
+
+    /**
+     * post-order pass over the tree that restructures the treelet rooted at every interior node
+     * independent subtrees are optimized in parallel
+     */
+    private class TreeletOptimization extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final int root;
+
+        TreeletOptimization(int root) {
+            this.root = root;
+        }
+
+        @Override
+        protected void compute() {
+            optimize(root);
+        }
+
+        private void optimize(int node) {
+            if (isLeaf(node)) return;
+            int left = leftChildren[node], right = rightChildren[node];
+            if (leafCounts[node] > PARALLEL_THRESHOLD) {
+                invokeAll(new TreeletOptimization(left), new TreeletOptimization(right));
+            } else {
+                optimize(left);
+                optimize(right);
+            }
+            updateNode(node);
+            if (leafCounts[node] >= 3) restructureTreelet(node);
+        }
+    }
+
+    /**
+     * finds the topology with minimum SAH cost for the treelet rooted at a given node and rebuilds it
+     * the treelet is grown by expanding the leaf with the largest surface area
+     * @param root the root of the treelet
+     */
+    private void restructureTreelet(int root) {
+        int[] treeletLeaves = new int[TREELET_SIZE];
+        int[] treeletNodes = new int[TREELET_SIZE - 1];
+        treeletLeaves[0] = leftChildren[root];
+        treeletLeaves[1] = rightChildren[root];
+        treeletNodes[0] = root;
+        int leafTotal = 2;
+        int nodeTotal = 1;
+
+        while (leafTotal < TREELET_SIZE) {
+            int largest = -1;
+            double largestArea = -1d;
+            for (int i = 0; i < leafTotal; i++) {
+                if (!isLeaf(treeletLeaves[i]) && area(treeletLeaves[i]) > largestArea) {
+                    largestArea = area(treeletLeaves[i]);
+                    largest = i;
+                }
+            }
+            if (largest < 0) break;
+            int expanded = treeletLeaves[largest];
+            treeletNodes[nodeTotal++] = expanded;
+            treeletLeaves[largest] = leftChildren[expanded];
+            treeletLeaves[leafTotal++] = rightChildren[expanded];
+        }
+        if (leafTotal < 3) return;
+
+        int subsets = 1 << leafTotal;
+        double[] subsetBounds = new double[subsets * 6];
+        double[] subsetCosts = new double[subsets];
+        int[] subsetPartitions = new int[subsets];
+        for (int subset = 1; subset < subsets; subset++) {
+            int lowest = Integer.numberOfTrailingZeros(subset);
+            int rest = subset & (subset - 1);
+            int leafNode = treeletLeaves[lowest];
+            for (int axis = 0; axis < 3; axis++) {
+                double minimum = bounds[leafNode * 6 + axis], maximum = bounds[leafNode * 6 + axis + 3];
+                if (rest != 0) {
+                    minimum = Math.min(minimum, subsetBounds[rest * 6 + axis]);
+                    maximum = Math.max(maximum, subsetBounds[rest * 6 + axis + 3]);
+                }
+                subsetBounds[subset * 6 + axis] = minimum;
+                subsetBounds[subset * 6 + axis + 3] = maximum;
+            }
+            if (rest == 0) {
+                subsetCosts[subset] = costs[leafNode];
+                continue;
+            }
+
+            double bestCost = Double.POSITIVE_INFINITY;
+            int bestPartition = 0;
+            int lowestBit = subset & -subset;
+            for (int partition = (subset - 1) & subset; partition > 0; partition = (partition - 1) & subset) {
+                if ((partition & lowestBit) == 0) continue;
+                double cost = subsetCosts[partition] + subsetCosts[subset ^ partition];
+                if (cost < bestCost) {
+                    bestCost = cost;
+                    bestPartition = partition;
+                }
+            }
+            double x = subsetBounds[subset * 6 + 3] - subsetBounds[subset * 6];
+            double y = subsetBounds[subset * 6 + 4] - subsetBounds[subset * 6 + 1];
+            double z = subsetBounds[subset * 6 + 5] - subsetBounds[subset * 6 + 2];
+            subsetCosts[subset] = BVH.TRAVERSAL_COST * 2d * (x * y + y * z + z * x) + bestCost;
+            subsetPartitions[subset] = bestPartition;
+        }
+
+        if (subsetCosts[subsets - 1] >= costs[root] * (1d - 1e-9d)) return;
+        int[] nextNode = {1};
+        rebuildTreelet(subsets - 1, root, treeletLeaves, treeletNodes, subsetPartitions, nextNode);
+    }
+
+    /**
+     * rebuilds a treelet recursively reusing its interior nodes
+     * @param subset the subset of treelet leaves under the node
+     * @param node the interior node index used for the subset
+     * @param treeletLeaves the leaves of the treelet
+     * @param treeletNodes the interior nodes of the treelet
+     * @param partitions the optimal partition of each subset
+     * @param nextNode the index of the next free interior node
+     */
+    private void rebuildTreelet(int subset, int node, int[] treeletLeaves, int[] treeletNodes, int[] partitions, int[] nextNode) {
+        int[] children = {partitions[subset], subset ^ partitions[subset]};
+        int[] childNodes = new int[2];
+        for (int i = 0; i < 2; i++) {
+            if (Integer.bitCount(children[i]) == 1) {
+                childNodes[i] = treeletLeaves[Integer.numberOfTrailingZeros(children[i])];
+            } else {
+                childNodes[i] = treeletNodes[nextNode[0]++];
+                rebuildTreelet(children[i], childNodes[i], treeletLeaves, treeletNodes, partitions, nextNode);
+            }
+            parents[childNodes[i]] = node;
+        }
+        leftChildren[node] = childNodes[0];
+        rightChildren[node] = childNodes[1];
+        updateNode(node);
+    }
+
+    /**
+     * writes the tree in depth first order, subtrees are collapsed into a leaf when it is cheaper for the SAH
+     * @return the flat hierarchy
+     */
+    private BVH flatten() {
+        int maxNodes = 2 * primitiveCount - 1;
+        double[] nodeBounds = new double[maxNodes * 6];
+        int[] nodeOffsets = new int[maxNodes];
+        int[] nodeCounts = new int[maxNodes];
+        int[] primitiveIndices = new int[primitiveCount];
+        int[] counters = {0, 0};
+
+        int[] stack = new int[maxNodes];
+        int[] parentStack = new int[maxNodes];
+        int stackSize = 0;
+        stack[stackSize] = 0;
+        parentStack[stackSize++] = -1;
+
+        while (stackSize > 0) {
+            stackSize--;
+            int node = stack[stackSize];
+            int parent = parentStack[stackSize];
+            int flatNode = counters[0]++;
+            if (parent >= 0) nodeOffsets[parent] = flatNode;
+            System.arraycopy(bounds, node * 6, nodeBounds, flatNode * 6, 6);
+
+            boolean collapse = isLeaf(node) || (leafCounts[node] <= getMaxLeafSize() && BVH.INTERSECTION_COST * leafCounts[node] * area(node) <= costs[node]);
+            if (collapse) {
+                nodeOffsets[flatNode] = counters[1];
+                nodeCounts[flatNode] = leafCounts[node];
+                collectPrimitives(node, primitiveIndices, counters);
+            } else {
+                stack[stackSize] = rightChildren[node];
+                parentStack[stackSize++] = flatNode;
+                stack[stackSize] = leftChildren[node];
+                parentStack[stackSize++] = -1;
+            }
+        }
+
+        int nodes = counters[0];
+        return new BVH(Arrays.copyOf(nodeBounds, nodes * 6), Arrays.copyOf(nodeOffsets, nodes), Arrays.copyOf(nodeCounts, nodes), primitiveIndices);
+    }
+
+    /**
+     * appends the primitives under a node to the primitive index array
+     * @param node the node index
+     * @param primitiveIndices the primitive index array
+     * @param counters the node and primitive counters
+     */
+    private void collectPrimitives(int node, int[] primitiveIndices, int[] counters) {
+        if (isLeaf(node)) {
+            primitiveIndices[counters[1]++] = sortedPrimitives[node - (primitiveCount - 1)];
+            return;
+        }
+        collectPrimitives(leftChildren[node], primitiveIndices, counters);
+        collectPrimitives(rightChildren[node], primitiveIndices, counters);
+    }
+
+    /**
+     * class getter
+     * @return the number of treelet optimization passes
+     */
+    public int getTreeletPasses() {
+        return treeletPasses;
+    }
+    /**
+     * class setter
+     * @param treeletPasses the number of treelet optimization passes to set
+     */
+    public void setTreeletPasses(int treeletPasses) {
+        this.treeletPasses = Math.max(0, treeletPasses);
+    }
+
+    /**
+     * class getter
+     * @return the maximum number of primitives in a leaf
+     */
+    public int getMaxLeafSize() {
+        return maxLeafSize;
+    }
+    /**
+     * class setter
+     * @param maxLeafSize the maximum number of primitives in a leaf to set
+     */
+    public void setMaxLeafSize(int maxLeafSize) {
+        this.maxLeafSize = Math.max(1, maxLeafSize);
+    }
+
+}
@@ -0,0 +1,399 @@
+/*
+  [1968] - [2020] Centros Culturales de Mexico A.C / Universidad Panamericana
+  All Rights Reserved.
+ */
+package up.edu.isgc.raytracer.tools.acceleration;
+
+
+import up.edu.isgc.raytracer.objects.utility.BoundingBox;
+import up.edu.isgc.raytracer.objects.utility.Ray;
+import up.edu.isgc.raytracer.objects.utility.Vector3D;
+import up.edu.isgc.raytracer.tools.HitRecord;
+
+/**
+ * Uniform grid acceleration structure traversed with a 3D-DDA, built in linear time
+ * Each cell stores the primitives whose box overlaps it (compact arrays), primitives spanning several cells are
+ * only tested once per ray thanks to a per-thread mailbox
+ * With more than one level, the cells with too many primitives store a nested grid (two-level grid) so scenes with
+ * uneven density do not end up with overcrowded cells
+ *
+ * @author Homar Cano, Jafet Rodríguez
+ * @see <a href="http://www.cse.yorku.ca/~amana/research/grid.pdf">A Fast Voxel Traversal Algorithm for Ray Tracing</a>
+ * @see <a href="https://graphics.cg.uni-saarland.de/papers/kalojanov-2011-twolevelgrids.pdf">Two-Level Grids for Ray Tracing on GPUs</a>
+ */
+public class UniformGrid implements IAccelerationStructure {
+    /**
+     * number of cells per primitive of the top level grid
+     */
+    private static final double TOP_LEVEL_DENSITY = 3d;
+    /**
+     * number of cells per primitive of the nested grids (two-level grid)
+     */
+    private static final double NESTED_DENSITY = 2d;
+    /**
+     * cells with more primitives than this value get a nested grid (if there are levels left)
+     */
+    private static final int NESTED_GRID_THRESHOLD = 8;
+    /**
+     * maximum number of cells per axis
+     */
+    private static final int MAX_RESOLUTION = 128;
+    /**
+     * relative padding added to the primitive boxes, so hits on cell boundaries are never lost
+     */
+    private static final double BOUNDS_PADDING = 1e-7d;
+
+    private final double[] gridBounds;
+    private final int[] resolution;
+    private final double[] cellSize;
+    private final int[] cellStarts;
+    private final int[] cellPrimitives;
+    private final UniformGrid[] nestedGrids;
+    private final int levels;
+    private final int primitiveCount;
+    private final ThreadLocal<Mailbox> mailboxes;
+    private long buildTime;
+
+    /**
+     * stores the last ray that tested each primitive, so primitives are not tested twice by the same ray
+     */
+    private static class Mailbox {
+        private final int[] rayStamps;
+        private int currentRay;
+
+        Mailbox(int primitives) {
+            rayStamps = new int[primitives];
+        }
+
+        int nextRay() {
+            if (++currentRay == Integer.MAX_VALUE) {
+                java.util.Arrays.fill(rayStamps, 0);
+                currentRay = 1;
+            }
+            return currentRay;
+        }
+    }
+
+    /**
+     * class constructor, builds a grid over all the given primitive boxes
+     * @param boxes the bounding box of every primitive, the primitive index is the array index
+     * @param levels 1 for a uniform grid, 2 for a two-level grid
+     */
+    public UniformGrid(BoundingBox[] boxes, int levels) {
+        long startTime = System.nanoTime();
+        double[] paddedBoxes = new double[boxes.length * 6];
+        int[] primitives = new int[boxes.length];
+        double[] bounds = {Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY};
+        for (int i = 0; i < boxes.length; i++) {
+            storePaddedBox(boxes[i], paddedBoxes, i);
+            primitives[i] = i;
+            for (int axis = 0; axis < 3; axis++) {
+                bounds[axis] = Math.min(bounds[axis], paddedBoxes[i * 6 + axis]);
+                bounds[axis + 3] = Math.max(bounds[axis + 3], paddedBoxes[i * 6 + axis + 3]);
+            }
+        }
+        this.primitiveCount = boxes.length;
+        this.levels = Math.max(1, levels);
+        this.gridBounds = bounds;
+        this.resolution = new int[3];
+        this.cellSize = new double[3];
+        int cells = computeResolution(boxes.length, TOP_LEVEL_DENSITY);
+        this.cellStarts = new int[cells + 1];
+        this.cellPrimitives = fillCells(paddedBoxes, primitives, cells);
+        this.nestedGrids = this.levels > 1 ? buildNestedGrids(paddedBoxes, cells) : null;
+        this.mailboxes = ThreadLocal.withInitial(() -> new Mailbox(primitiveCount));
+        this.buildTime = System.nanoTime() - startTime;
+    }
+
+    /**
+     * class constructor for a nested grid over some primitives, clipped to the bounds of its parent cell
+     * @param paddedBoxes the padded boxes of all the primitives
+     * @param primitives the primitives inside the parent cell
+     * @param bounds the bounds of the nested grid
+     * @param levels the levels left
+     */
+    private UniformGrid(double[] paddedBoxes, int[] primitives, double[] bounds, int levels) {
+        this.primitiveCount = paddedBoxes.length / 6;
+        this.levels = levels;
+        this.gridBounds = bounds;
+        this.resolution = new int[3];
+        this.cellSize = new double[3];
+        int cells = computeResolution(primitives.length, NESTED_DENSITY);
+        this.cellStarts = new int[cells + 1];
+        this.cellPrimitives = fillCells(paddedBoxes, primitives, cells);
+        this.nestedGrids = levels > 1 ? buildNestedGrids(paddedBoxes, cells) : null;
+        this.mailboxes = null;
+    }
+
+    /**
+     * stores the box of a primitive with a small padding
+     * @param box the box of the primitive
+     * @param paddedBoxes the array of padded boxes
+     * @param primitive the primitive index
+     */
+    private static void storePaddedBox(BoundingBox box, double[] paddedBoxes, int primitive) {
+        double[] values = {box.getMin().getX(), box.getMin().getY(), box.getMin().getZ(), box.getMax().getX(), box.getMax().getY(), box.getMax().getZ()};
+        double extent = Math.max(values[3] - values[0], Math.max(values[4] - values[1], values[5] - values[2]));
+        double padding = BOUNDS_PADDING * extent + BOUNDS_PADDING * Math.max(Math.abs(values[0]), Math.max(Math.abs(values[1]), Math.abs(values[2])));
+        for (int axis = 0; axis < 3; axis++) {
+            paddedBoxes[primitive * 6 + axis] = values[axis] - padding;
+            paddedBoxes[primitive * 6 + axis + 3] = values[axis + 3] + padding;
+        }
+    }
+
+    /**
+     * chooses the number of cells per axis so the cells are close to cubes and there are about density * n cells
+     * @param primitives the number of primitives in the grid
+     * @param density the number of cells per primitive
+     * @return the total number of cells
+     */
+    private int computeResolution(int primitives, double density) {
+        double[] extents = new double[3];
+        double maxExtent = 0d;
+        for (int axis = 0; axis < 3; axis++) {
+            extents[axis] = Math.max(0d, gridBounds[axis + 3] - gridBounds[axis]);
+            maxExtent = Math.max(maxExtent, extents[axis]);
+        }
+        if (primitives == 0 || maxExtent == 0d) {
+            for (int axis = 0; axis < 3; axis++) {
+                resolution[axis] = 1;
+                cellSize[axis] = Math.max(extents[axis], Double.MIN_NORMAL);
+            }
+            return 1;
+        }
+        double volume = 1d;
+        for (int axis = 0; axis < 3; axis++) volume *= Math.max(extents[axis], maxExtent * 1e-3d);
+        double cellsPerUnit = Math.cbrt(density * primitives / volume);
+        int cells = 1;
+        for (int axis = 0; axis < 3; axis++) {
+            resolution[axis] = (int) Math.max(1, Math.min(MAX_RESOLUTION, Math.round(extents[axis] * cellsPerUnit)));
+            cellSize[axis] = extents[axis] > 0d ? extents[axis] / resolution[axis] : Double.MIN_NORMAL;
+            cells *= resolution[axis];
+        }
+        return cells;
+    }
+
+    /**
+     * stores every primitive in the cells overlapped by its box (counting pass, prefix sum and filling pass)
+     * @param paddedBoxes the padded boxes of all the primitives
+     * @param primitives the primitives to store
+     * @param cells the total number of cells
+     * @return the primitive indices of every cell, cell i uses the range [cellStarts[i], cellStarts[i + 1])
+     */
+    private int[] fillCells(double[] paddedBoxes, int[] primitives, int cells) {
+        int[] range = new int[6];
+        for (int primitive : primitives) {
+            cellRange(paddedBoxes, primitive, range);
+            for (int z = range[2]; z <= range[5]; z++)
+                for (int y = range[1]; y <= range[4]; y++)
+                    for (int x = range[0]; x <= range[3]; x++) cellStarts[cellIndex(x, y, z) + 1]++;
+        }
+        for (int cell = 0; cell < cells; cell++) cellStarts[cell + 1] += cellStarts[cell];
+
+        int[] cellPrimitives = new int[cellStarts[cells]];
+        int[] positions = new int[cells];
+        System.arraycopy(cellStarts, 0, positions, 0, cells);
+        for (int primitive : primitives) {
+            cellRange(paddedBoxes, primitive, range);
+            for (int z = range[2]; z <= range[5]; z++)
+                for (int y = range[1]; y <= range[4]; y++)
+                    for (int x = range[0]; x <= range[3]; x++) cellPrimitives[positions[cellIndex(x, y, z)]++] = primitive;
+        }
+        return cellPrimitives;
+    }
+
+    /**
+     * builds a nested grid for every cell with too many primitives
+     * @param paddedBoxes the padded boxes of all the primitives
+     * @param cells the total number of cells
+     * @return the nested grid of every cell (null for the cells that keep a plain primitive list)
+     */
+    private UniformGrid[] buildNestedGrids(double[] paddedBoxes, int cells) {
+        UniformGrid[] grids = new UniformGrid[cells];
+        for (int z = 0; z < resolution[2]; z++) {
+            for (int y = 0; y < resolution[1]; y++) {
+                for (int x = 0; x < resolution[0]; x++) {
+                    int cell = cellIndex(x, y, z);
+                    int count = cellStarts[cell + 1] - cellStarts[cell];
+                    if (count <= NESTED_GRID_THRESHOLD) continue;
+                    int[] primitives = new int[count];
+                    System.arraycopy(cellPrimitives, cellStarts[cell], primitives, 0, count);
+                    int[] cellCoordinates = {x, y, z};
+                    double[] bounds = new double[6];
+                    for (int axis = 0; axis < 3; axis++) {
+                        double cellMin = gridBounds[axis] + cellCoordinates[axis] * cellSize[axis];
+                        double cellMax = cellCoordinates[axis] == resolution[axis] - 1 ? gridBounds[axis + 3] : cellMin + cellSize[axis];
+                        double primitivesMin = Double.POSITIVE_INFINITY, primitivesMax = Double.NEGATIVE_INFINITY;
+                        for (int primitive : primitives) {
+                            primitivesMin = Math.min(primitivesMin, paddedBoxes[primitive * 6 + axis]);
+                            primitivesMax = Math.max(primitivesMax, paddedBoxes[primitive * 6 + axis + 3]);
+                        }
+                        bounds[axis] = Math.max(cellMin, primitivesMin);
+                        bounds[axis + 3] = Math.min(cellMax, primitivesMax);
+                    }
+                    grids[cell] = new UniformGrid(paddedBoxes, primitives, bounds, levels - 1);
+                }
+            }
+        }
+        return grids;
+    }
+
+    /**
+     * calculates the range of cells overlapped by a primitive box
+     * @param paddedBoxes the padded boxes of all the primitives
+     * @param primitive the primitive index
+     * @param range the array where the range (minX, minY, minZ, maxX, maxY, maxZ) is written
+     */
+    private void cellRange(double[] paddedBoxes, int primitive, int[] range) {
+        for (int axis = 0; axis < 3; axis++) {
+            range[axis] = cellCoordinate(paddedBoxes[primitive * 6 + axis], axis);
+            range[axis + 3] = cellCoordinate(paddedBoxes[primitive * 6 + axis + 3], axis);
+        }
+    }
+
+    /**
+     * calculates the cell coordinate of a position in a given axis, clamped to the grid
+     * @param position the position in the axis
+     * @param axis the axis (0 = x, 1 = y, 2 = z)
+     * @return the cell coordinate
+     */
+    private int cellCoordinate(double position, int axis) {
+        int coordinate = (int) Math.floor((position - gridBounds[axis]) / cellSize[axis]);
+        return Math.max(0, Math.min(resolution[axis] - 1, coordinate));
+    }
+
+    /**
+     * calculates the index of a cell in the flat cell arrays
+     * @param x the x cell coordinate
+     * @param y the y cell coordinate
+     * @param z the z cell coordinate
+     * @return the cell index
+     */
+    private int cellIndex(int x, int y, int z) {
+        return x + resolution[0] * (y + resolution[1] * z);
+    }
+
+    @Override
+    public boolean intersect(Ray ray, HitRecord hit, IPrimitiveIntersector intersector) {
+        Mailbox mailbox = mailboxes.get();
+        return traverse(ray, ray.getOrigin(), ray.getDirection(), 0d, Double.POSITIVE_INFINITY, hit, intersector, false, mailbox, mailbox.nextRay());
+    }
+
+    @Override
+    public boolean isOccluded(Ray ray, HitRecord hit, IPrimitiveIntersector intersector) {
+        Mailbox mailbox = mailboxes.get();
+        return traverse(ray, ray.getOrigin(), ray.getDirection(), 0d, Double.POSITIVE_INFINITY, hit, intersector, true, mailbox, mailbox.nextRay());
+    }
+
+    /**
+     * walks the cells pierced by a segment of the ray in order (3D-DDA)
+     * the walk stops as soon as the closest hit is inside the current cell
+     * @param ray the ray used to calculate the intersection
+     * @param origin the ray origin
+     * @param direction the normalized ray direction
+     * @param start the distance where the segment starts
+     * @param end the distance where the segment ends
+     * @param hit the record of the closest hit
+     * @param intersector the function used to test a primitive
+     * @param anyHit a boolean flag to stop with the first hit found (used with shadow rays)
+     * @param mailbox the mailbox of the current thread
+     * @param rayStamp the stamp of the current ray in the mailbox
+     * @return true if a closer hit was found
+     */
+    private boolean traverse(Ray ray, Vector3D origin, Vector3D direction, double start, double end, HitRecord hit, IPrimitiveIntersector intersector, boolean anyHit, Mailbox mailbox, int rayStamp) {
+        if (cellPrimitives.length == 0) return false;
+        double[] o = {origin.getX(), origin.getY(), origin.getZ()};
+        double[] d = {direction.getX(), direction.getY(), direction.getZ()};
+
+        double near = start, far = Math.min(end, hit.getDistance());
+        for (int axis = 0; axis < 3; axis++) {
+            double inverse = 1d / d[axis];
+            double t1 = (gridBounds[axis] - o[axis]) * inverse;
+            double t2 = (gridBounds[axis + 3] - o[axis]) * inverse;
+            if (t1 > t2) { double swap = t1; t1 = t2; t2 = swap; }
+            if (t1 > near) near = t1;
+            if (t2 < far) far = t2;
+        }
+        if (near > far) return false;
+
+        int[] cell = new int[3];
+        int[] step = new int[3];
+        double[] nextCrossing = new double[3];
+        double[] crossingDelta = new double[3];
+        for (int axis = 0; axis < 3; axis++) {
+            cell[axis] = cellCoordinate(o[axis] + d[axis] * near, axis);
+            if (d[axis] > 0d) {
+                step[axis] = 1;
+                nextCrossing[axis] = (gridBounds[axis] + (cell[axis] + 1) * cellSize[axis] - o[axis]) / d[axis];
+                crossingDelta[axis] = cellSize[axis] / d[axis];
+            } else if (d[axis] < 0d) {
+                step[axis] = -1;
+                nextCrossing[axis] = (gridBounds[axis] + cell[axis] * cellSize[axis] - o[axis]) / d[axis];
+                crossingDelta[axis] = -cellSize[axis] / d[axis];
+            } else {
+                step[axis] = 0;
+                nextCrossing[axis] = Double.POSITIVE_INFINITY;
+                crossingDelta[axis] = Double.POSITIVE_INFINITY;
+            }
+        }
+
+        boolean found = false;
+        double cellEntry = near;
+        while (true) {
+            int axis = nextCrossing[0] < nextCrossing[1] ? (nextCrossing[0] < nextCrossing[2] ? 0 : 2) : (nextCrossing[1] < nextCrossing[2] ? 1 : 2);
+            double cellExit = Math.min(nextCrossing[axis], far);
+            int index = cellIndex(cell[0], cell[1], cell[2]);
+
+            UniformGrid nestedGrid = nestedGrids != null ? nestedGrids[index] : null;
+            if (nestedGrid != null) {
+                if (nestedGrid.traverse(ray, origin, direction, cellEntry, cellExit, hit, intersector, anyHit, mailbox, rayStamp)) {
+                    found = true;
+                    if (anyHit) return true;
+                }
+            } else {
+                for (int i = cellStarts[index]; i < cellStarts[index + 1]; i++) {
+                    int primitive = cellPrimitives[i];
+                    if (mailbox.rayStamps[primitive] == rayStamp) continue;
+                    mailbox.rayStamps[primitive] = rayStamp;
+                    if (intersector.intersect(primitive, ray, hit)) {
+                        found = true;
+                        if (anyHit) return true;
+                    }
+                }
+            }
+
+            if (hit.getDistance() <= cellExit || nextCrossing[axis] > far) return found;
+            cell[axis] += step[axis];
+            if (cell[axis] < 0 || cell[axis] >= resolution[axis]) return found;
+            cellEntry = nextCrossing[axis];
+            nextCrossing[axis] += crossingDelta[axis];
+        }
+    }
+
+    /**
+     * builds the grid again over the moved primitives, the cells of a grid depend on the bounds of all the primitives so
+     * they can not be refit
+     * @param boxes the new bounding box of every primitive, the primitive index is the array index
+     * @return the new grid
+     */
+    @Override
+    public UniformGrid refit(BoundingBox[] boxes) {
+        return new UniformGrid(boxes, levels);
+    }
+
+    @Override
+    public String getSummary() {
+        int nested = 0;
+        if (nestedGrids != null) for (UniformGrid grid : nestedGrids) if (grid != null) nested++;
+        String name = levels > 1 ? "two-level grid" : "uniform grid";
+        return String.format("%s, %d primitives, %dx%dx%d cells, %d nested grids, %.2f references per primitive, built in %.2f ms",
+                name, primitiveCount, resolution[0], resolution[1], resolution[2], nested,
+                primitiveCount > 0 ? (double) cellPrimitives.length / primitiveCount : 0d, getBuildTime() / 1e6);
+    }
+
+    @Override
+    public long getBuildTime() {
+        return buildTime;
+    }
+
+}
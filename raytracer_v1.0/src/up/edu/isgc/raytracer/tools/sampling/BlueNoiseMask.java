@@ -0,0 +1,143 @@
+/*
+  [1968] - [2020] Centros Culturales de Mexico A.C / Universidad Panamericana
+  All Rights Reserved.
+ */
+package up.edu.isgc.raytracer.tools.sampling;
+
+
+import java.util.Random;
+
+/**
+ * Tileable blue noise mask generated once with the void and cluster method: starting from a few random points, each new
+ * point is placed in the largest void (the pixel with the lowest energy) and its rank is its value, so the points of
+ * any threshold are evenly spread and the values of neighbouring pixels are very different
+ * The energy of a pixel is the sum of a gaussian of its toroidal distance to every point, updated incrementally
+ *
+ * @author Homar Cano, Jafet Rodríguez
+ * @see <a href="https://doi.org/10.1117/12.152707">The void-and-cluster method for dither array generation</a>
+ */
+final class BlueNoiseMask {
+    /**
+     * constant for the size of the mask (a power of two)
+     */
+    private static final int SIZE = 64;
+    /**
+     * constant for the standard deviation in pixels of the gaussian used to calculate the energy
+     */
+    private static final double SIGMA = 1.5d;
+    /**
+     * constant for the fraction of pixels of the initial random points
+     */
+    private static final double INITIAL_FRACTION = 0.1d;
+    /**
+     * constant for the values of the mask, one per pixel (row by row)
+     */
+    private static final float[] VALUES = generate(0x5eed);
+
+    /**
+     * class constructor, it is not used
+     */
+    private BlueNoiseMask() {
+    }
+
+    /**
+     * class getter
+     * @param x the column of the pixel, the mask is repeated in both axes
+     * @param y the row of the pixel, the mask is repeated in both axes
+     * @return the value of the pixel in the range [0,1)
+     */
+    static double getValue(int x, int y) {
+        return VALUES[(y & (SIZE - 1)) * SIZE + (x & (SIZE - 1))];
+    }
+
+    /**
+     * generates the mask
+     * @param seed the seed of the initial random points
+     * @return the values of the mask
+     */
+    private static float[] generate(int seed) {
+        int pixels = SIZE * SIZE;
+        double[] kernel = new double[pixels];
+        for (int dy = 0; dy < SIZE; dy++) {
+            for (int dx = 0; dx < SIZE; dx++) {
+                int x = Math.min(dx, SIZE - dx);
+                int y = Math.min(dy, SIZE - dy);
+                kernel[dy * SIZE + dx] = Math.exp(-(x * x + y * y) / (2d * SIGMA * SIGMA));
+            }
+        }
+
+        boolean[] points = new boolean[pixels];
+        double[] energy = new double[pixels];
+        Random random = new Random(seed);
+        int initialPoints = (int) (pixels * INITIAL_FRACTION);
+        for (int count = 0; count < initialPoints; ) {
+            int pixel = random.nextInt(pixels);
+            if (points[pixel]) continue;
+            togglePoint(points, energy, kernel, pixel);
+            count++;
+        }
+        // moves the point of the tightest cluster to the largest void until it is already there
+        for (int iteration = 0; iteration < pixels; iteration++) {
+            int cluster = findExtreme(points, energy, true);
+            togglePoint(points, energy, kernel, cluster);
+            int largestVoid = findExtreme(points, energy, false);
+            togglePoint(points, energy, kernel, largestVoid);
+            if (cluster == largestVoid) break;
+        }
+
+        int[] ranks = new int[pixels];
+        boolean[] initialPattern = points.clone();
+        double[] initialEnergy = energy.clone();
+        for (int rank = initialPoints - 1; rank >= 0; rank--) {
+            int cluster = findExtreme(points, energy, true);
+            togglePoint(points, energy, kernel, cluster);
+            ranks[cluster] = rank;
+        }
+        points = initialPattern;
+        energy = initialEnergy;
+        for (int rank = initialPoints; rank < pixels; rank++) {
+            int largestVoid = findExtreme(points, energy, false);
+            togglePoint(points, energy, kernel, largestVoid);
+            ranks[largestVoid] = rank;
+        }
+
+        float[] values = new float[pixels];
+        for (int pixel = 0; pixel < pixels; pixel++) values[pixel] = (ranks[pixel] + 0.5f) / pixels;
+        return values;
+    }
+
+    /**
+     * adds or removes a point and updates the energy of every pixel
+     * @param points the flag of every pixel that has a point
+     * @param energy the energy of every pixel
+     * @param kernel the gaussian of every toroidal offset
+     * @param pixel the pixel of the point
+     */
+    private static void togglePoint(boolean[] points, double[] energy, double[] kernel, int pixel) {
+        points[pixel] = !points[pixel];
+        double sign = points[pixel] ? 1d : -1d;
+        int pointX = pixel % SIZE;
+        int pointY = pixel / SIZE;
+        for (int y = 0; y < SIZE; y++) {
+            int row = ((y - pointY) & (SIZE - 1)) * SIZE;
+            for (int x = 0; x < SIZE; x++) energy[y * SIZE + x] += sign * kernel[row + ((x - pointX) & (SIZE - 1))];
+        }
+    }
+
+    /**
+     * finds the tightest cluster (the point with the highest energy) or the largest void (the empty pixel with the lowest energy)
+     * @param points the flag of every pixel that has a point
+     * @param energy the energy of every pixel
+     * @param cluster true to find the tightest cluster, false to find the largest void
+     * @return the pixel found
+     */
+    private static int findExtreme(boolean[] points, double[] energy, boolean cluster) {
+        int best = -1;
+        for (int pixel = 0; pixel < points.length; pixel++) {
+            if (points[pixel] != cluster) continue;
+            if (best < 0 || (cluster ? energy[pixel] > energy[best] : energy[pixel] < energy[best])) best = pixel;
+        }
+        return best;
+    }
+
+}
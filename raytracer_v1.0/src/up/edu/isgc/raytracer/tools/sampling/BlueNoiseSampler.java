@@ -0,0 +1,53 @@
+/*
+  [1968] - [2020] Centros Culturales de Mexico A.C / Universidad Panamericana
+  All Rights Reserved.
+ */
+package up.edu.isgc.raytracer.tools.sampling;
+
+
+/**
+ * Sampler that shares one Owen scrambled Sobol sequence between every pixel and shifts it per pixel by the value of a
+ * blue noise mask (Cranley-Patterson rotation), each dimension reads the mask with a different offset
+ * Neighbouring pixels get very different shifts, so with few samples per pixel the error is spread as high frequency
+ * noise (easier to filter and less visible) and it still converges like the Sobol sequence
+ *
+ * @author Homar Cano, Jafet Rodríguez
+ * @see <a href="https://www.arnoldrenderer.com/research/dither_abstract.pdf">Blue-noise Dithered Sampling</a>
+ */
+public class BlueNoiseSampler extends PixelSampler {
+
+    /**
+     * class constructor
+     * @param seed the seed of the sampler
+     */
+    public BlueNoiseSampler(int seed) {
+        super(seed);
+    }
+
+    @Override
+    protected double sample1D(int dimension) {
+        int dimensionSeed = hash(dimension, getSeed());
+        int index = owenScramble(getSampleIndex(), dimensionSeed);
+        return shift(toUnit(owenScramble(SobolSampler.sobol0(index), hash(1, dimensionSeed))), hash(3, dimensionSeed));
+    }
+
+    @Override
+    protected void sample2D(int dimension, double[] sample) {
+        int dimensionSeed = hash(dimension, getSeed());
+        int index = owenScramble(getSampleIndex(), dimensionSeed);
+        sample[0] = shift(toUnit(owenScramble(SobolSampler.sobol0(index), hash(1, dimensionSeed))), hash(3, dimensionSeed));
+        sample[1] = shift(toUnit(owenScramble(SobolSampler.sobol1(index), hash(2, dimensionSeed))), hash(4, dimensionSeed));
+    }
+
+    /**
+     * shifts a value by the blue noise value of the current pixel, the mask is offset by a hash
+     * @param value the value to shift
+     * @param offset the hash used to offset the mask
+     * @return the shifted value in the range [0,1)
+     */
+    private double shift(double value, int offset) {
+        double shifted = value + BlueNoiseMask.getValue(getPixelX() + offset, getPixelY() + (offset >>> 16));
+        return shifted >= 1d ? shifted - 1d : shifted;
+    }
+
+}
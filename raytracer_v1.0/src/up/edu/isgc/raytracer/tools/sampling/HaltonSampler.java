@@ -0,0 +1,85 @@
+/*
+  [1968] - [2020] Centros Culturales de Mexico A.C / Universidad Panamericana
+  All Rights Reserved.
+ */
+package up.edu.isgc.raytracer.tools.sampling;
+
+
+/**
+ * Sampler of the Halton sequence, each dimension is the radical inverse of the sample index in a different prime base
+ * The sequence is shifted randomly per pixel and dimension (Cranley-Patterson rotation), so the pixels do not share
+ * the same pattern; the dimensions after the last prime of the table use independent random values, because the
+ * sequence needs too many samples to be uniform in large bases
+ *
+ * @author Homar Cano, Jafet Rodríguez
+ * @see <a href="https://www.pbr-book.org/3ed-2018/Sampling_and_Reconstruction/The_Halton_Sampler">The Halton Sampler</a>
+ */
+public class HaltonSampler extends PixelSampler {
+    /**
+     * constant for the bases of the dimensions (the first prime numbers)
+     */
+    private static final int[] PRIMES = calculatePrimes(32);
+
+    /**
+     * class constructor
+     * @param seed the seed of the sampler
+     */
+    public HaltonSampler(int seed) {
+        super(seed);
+    }
+
+    @Override
+    protected double sample1D(int dimension) {
+        int dimensionSeed = hash(dimension, getPixelSeed());
+        if (dimension >= PRIMES.length) return toUnit(hash(getSampleIndex(), dimensionSeed));
+        double value = radicalInverse(getSampleIndex(), PRIMES[dimension]) + toUnit(dimensionSeed);
+        return value >= 1d ? value - 1d : value;
+    }
+
+    @Override
+    protected void sample2D(int dimension, double[] sample) {
+        sample[0] = sample1D(dimension);
+        sample[1] = sample1D(dimension + 1);
+    }
+
+    /**
+     * calculates the radical inverse of an index, its digits in a base mirrored around the decimal point
+     * @param index the index (a negative index is read as unsigned)
+     * @param base the base
+     * @return a value in the range [0,1)
+     */
+    private static double radicalInverse(int index, int base) {
+        long remaining = index & 0xffffffffL;
+        double inverseBase = 1d / base;
+        double factor = inverseBase;
+        double value = 0d;
+        while (remaining > 0L) {
+            value += (remaining % base) * factor;
+            remaining /= base;
+            factor *= inverseBase;
+        }
+        return Math.min(value, 1d - 0x1p-53);
+    }
+
+    /**
+     * calculates the first prime numbers
+     * @param count the number of prime numbers
+     * @return the prime numbers in ascending order
+     */
+    private static int[] calculatePrimes(int count) {
+        int[] primes = new int[count];
+        int found = 0;
+        for (int candidate = 2; found < count; candidate++) {
+            boolean prime = true;
+            for (int i = 0; i < found && primes[i] * primes[i] <= candidate; i++) {
+                if (candidate % primes[i] == 0) {
+                    prime = false;
+                    break;
+                }
+            }
+            if (prime) primes[found++] = candidate;
+        }
+        return primes;
+    }
+
+}
@@ -0,0 +1,41 @@
+/*
+  [1968] - [2020] Centros Culturales de Mexico A.C / Universidad Panamericana
+  All Rights Reserved.
+ */
+package up.edu.isgc.raytracer.tools.sampling;
+
+
+/**
+ * Interface for the generators of the sample values used by the renders (anti aliasing, area lights, light selection, paths)
+ * The values of a sample only depend on the seed of the sampler, the pixel, the index of the sample and the dimension
+ * (the number of values already drawn for that sample), so a render gives the same image whatever the number of threads
+ * or the order of the pixels
+ * A sampler is not thread safe, each render thread uses its own one; drawing values does not allocate memory
+ *
+ * @author Homar Cano, Jafet Rodríguez
+ */
+public interface ISampler {
+    /**
+     * method expected to start a new sample, the next value drawn is the first dimension of the sample
+     *
+     * @param x the column of the pixel
+     * @param y the row of the pixel
+     * @param sampleIndex the index of the sample in the pixel
+     */
+    void startPixelSample(int x, int y, int sampleIndex);
+
+    /**
+     * method expected to draw the value of the next dimension of the sample
+     *
+     * @return a value in the range [0,1)
+     */
+    double get1D();
+
+    /**
+     * method expected to draw the values of the next two dimensions of the sample, both values are distributed together
+     * (e.g. the points of a pixel or of an area light)
+     *
+     * @param sample the array where the two values in the range [0,1) are stored
+     */
+    void get2D(double[] sample);
+}
@@ -0,0 +1,157 @@
+/*
+  [1968] - [2020] Centros Culturales de Mexico A.C / Universidad Panamericana
+  All Rights Reserved.
+ */
+package up.edu.isgc.raytracer.tools.sampling;
+
+
+/**
+ * Base of the samplers, keeps the pixel, sample index and dimension of the current sample and provides the hash functions
+ * used to derive the values from them (no random number generator is kept, so the values never depend on the drawing order
+ * of other pixels)
+ *
+ * @author Homar Cano, Jafet Rodríguez
+ */
+abstract class PixelSampler implements ISampler {
+    private final int seed;
+    private int pixelX;
+    private int pixelY;
+    private int pixelSeed;
+    private int sampleIndex;
+    private int dimension;
+
+    /**
+     * class constructor
+     * @param seed the seed of the sampler
+     */
+    PixelSampler(int seed) {
+        this.seed = seed;
+    }
+
+    @Override
+    public void startPixelSample(int x, int y, int sampleIndex) {
+        this.pixelX = x;
+        this.pixelY = y;
+        this.pixelSeed = hash(y, hash(x, seed));
+        this.sampleIndex = sampleIndex;
+        this.dimension = 0;
+    }
+
+    @Override
+    public double get1D() {
+        return sample1D(dimension++);
+    }
+
+    @Override
+    public void get2D(double[] sample) {
+        sample2D(dimension, sample);
+        dimension += 2;
+    }
+
+    /**
+     * method expected to calculate the value of a dimension of the current sample
+     * @param dimension the dimension
+     * @return a value in the range [0,1)
+     */
+    protected abstract double sample1D(int dimension);
+
+    /**
+     * method expected to calculate the values of two consecutive dimensions of the current sample
+     * @param dimension the first dimension
+     * @param sample the array where the two values in the range [0,1) are stored
+     */
+    protected abstract void sample2D(int dimension, double[] sample);
+
+    /**
+     * mixes the bits of a value so that every bit of the result depends on every bit of the value
+     * @param value the value to mix
+     * @return the mixed value
+     * @see <a href="https://nullprogram.com/blog/2018/07/31/">Prospecting for Hash Functions</a>
+     */
+    static int mix(int value) {
+        value ^= value >>> 16;
+        value *= 0x7feb352d;
+        value ^= value >>> 15;
+        value *= 0x846ca68b;
+        value ^= value >>> 16;
+        return value;
+    }
+
+    /**
+     * hashes a value with a seed
+     * @param value the value to hash
+     * @param seed the seed
+     * @return the hash
+     */
+    static int hash(int value, int seed) {
+        return mix(value ^ mix(seed ^ 0x9e3779b9));
+    }
+
+    /**
+     * applies a nested uniform (Owen) scramble to the bits of a value, every bit is flipped randomly depending on the
+     * more significant bits, so the stratification of a sequence in base 2 is kept
+     * @param value the value to scramble, read as a fraction with its most significant bit first
+     * @param seed the seed of the scramble
+     * @return the scrambled value
+     * @see <a href="https://jcgt.org/published/0009/04/01/">Practical Hash-based Owen Scrambling</a>
+     */
+    static int owenScramble(int value, int seed) {
+        int x = Integer.reverse(value);
+        x += seed;
+        x ^= x * 0x6c50b47c;
+        x ^= x * 0xb82f1e52;
+        x ^= x * 0xc7afe638;
+        x ^= x * 0x8d22f6e6;
+        return Integer.reverse(x);
+    }
+
+    /**
+     * converts the bits of a value to a fraction
+     * @param bits the value, read as a fraction with its most significant bit first
+     * @return a value in the range [0,1)
+     */
+    static double toUnit(int bits) {
+        return (bits & 0xffffffffL) * 0x1p-32;
+    }
+
+    /**
+     * class getter
+     * @return the seed of the sampler
+     */
+    int getSeed() {
+        return seed;
+    }
+
+    /**
+     * class getter
+     * @return the column of the current pixel
+     */
+    int getPixelX() {
+        return pixelX;
+    }
+
+    /**
+     * class getter
+     * @return the row of the current pixel
+     */
+    int getPixelY() {
+        return pixelY;
+    }
+
+    /**
+     * class getter
+     * @return the hash of the seed and the current pixel
+     */
+    int getPixelSeed() {
+        return pixelSeed;
+    }
+
+    /**
+     * class getter
+     * @return the index of the current sample in its pixel
+     */
+    int getSampleIndex() {
+        return sampleIndex;
+    }
+
+}
@@ -0,0 +1,35 @@
+/*
+  [1968] - [2020] Centros Culturales de Mexico A.C / Universidad Panamericana
+  All Rights Reserved.
+ */
+package up.edu.isgc.raytracer.tools.sampling;
+
+
+/**
+ * Sampler of independent uniform values, each one is the hash of the pixel, the sample index and the dimension
+ * It has the convergence of plain random sampling and is used as the reference of the other samplers
+ *
+ * @author Homar Cano, Jafet Rodríguez
+ */
+public class RandomSampler extends PixelSampler {
+
+    /**
+     * class constructor
+     * @param seed the seed of the sampler
+     */
+    public RandomSampler(int seed) {
+        super(seed);
+    }
+
+    @Override
+    protected double sample1D(int dimension) {
+        return toUnit(hash(getSampleIndex(), hash(dimension, getPixelSeed())));
+    }
+
+    @Override
+    protected void sample2D(int dimension, double[] sample) {
+        sample[0] = sample1D(dimension);
+        sample[1] = sample1D(dimension + 1);
+    }
+
+}
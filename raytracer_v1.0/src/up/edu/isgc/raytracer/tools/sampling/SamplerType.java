@@ -0,0 +1,44 @@
+/*
+  [1968] - [2020] Centros Culturales de Mexico A.C / Universidad Panamericana
+  All Rights Reserved.
+ */
+package up.edu.isgc.raytracer.tools.sampling;
+
+
+/**
+ * Types of sampler available for each render
+ * <ul>
+ *  <li>RANDOM: independent hashed random values, the reference for the other samplers</li>
+ *  <li>HALTON: Halton sequence with a random shift per pixel and dimension</li>
+ *  <li>SOBOL: Owen scrambled Sobol sequence padded by dimension pairs, the best general choice</li>
+ *  <li>BLUE_NOISE: Owen scrambled Sobol sequence shared by every pixel and shifted by a blue noise mask, so the remaining
+ *  error with few samples per pixel is spread as fine grain instead of clumps</li>
+ * </ul>
+ *
+ * @author Homar Cano, Jafet Rodríguez
+ */
+public enum SamplerType {
+    RANDOM,
+    HALTON,
+    SOBOL,
+    BLUE_NOISE;
+
+    /**
+     * creates a sampler of this type
+     * @param seed the seed of the sampler, samplers with the same type and seed draw the same values
+     * @return the sampler created
+     */
+    public ISampler create(int seed) {
+        switch (this) {
+            case RANDOM:
+                return new RandomSampler(seed);
+            case HALTON:
+                return new HaltonSampler(seed);
+            case BLUE_NOISE:
+                return new BlueNoiseSampler(seed);
+            default:
+                return new SobolSampler(seed);
+        }
+    }
+
+}
@@ -0,0 +1,64 @@
+/*
+  [1968] - [2020] Centros Culturales de Mexico A.C / Universidad Panamericana
+  All Rights Reserved.
+ */
+package up.edu.isgc.raytracer.tools.sampling;
+
+
+/**
+ * Sampler of the Sobol sequence with hash based Owen scrambling
+ * Each 1D or 2D draw uses the first one or two dimensions of the sequence (a (0,2) sequence in base 2) with its own scramble
+ * and its own shuffle of the sample indices, seeded by the pixel and the dimension (padding), so any number of dimensions
+ * is available without tables of direction numbers and the first 2^k samples of every draw are stratified
+ *
+ * @author Homar Cano, Jafet Rodríguez
+ * @see <a href="https://jcgt.org/published/0009/04/01/">Practical Hash-based Owen Scrambling</a>
+ */
+public class SobolSampler extends PixelSampler {
+
+    /**
+     * class constructor
+     * @param seed the seed of the sampler
+     */
+    public SobolSampler(int seed) {
+        super(seed);
+    }
+
+    @Override
+    protected double sample1D(int dimension) {
+        int dimensionSeed = hash(dimension, getPixelSeed());
+        int index = owenScramble(getSampleIndex(), dimensionSeed);
+        return toUnit(owenScramble(sobol0(index), hash(1, dimensionSeed)));
+    }
+
+    @Override
+    protected void sample2D(int dimension, double[] sample) {
+        int dimensionSeed = hash(dimension, getPixelSeed());
+        int index = owenScramble(getSampleIndex(), dimensionSeed);
+        sample[0] = toUnit(owenScramble(sobol0(index), hash(1, dimensionSeed)));
+        sample[1] = toUnit(owenScramble(sobol1(index), hash(2, dimensionSeed)));
+    }
+
+    /**
+     * calculates the first dimension of the Sobol sequence (the van der Corput sequence)
+     * @param index the index of the point
+     * @return the bits of the value, most significant first
+     */
+    static int sobol0(int index) {
+        return Integer.reverse(index);
+    }
+
+    /**
+     * calculates the second dimension of the Sobol sequence (generator matrix of the polynomial x + 1)
+     * @param index the index of the point
+     * @return the bits of the value, most significant first
+     */
+    static int sobol1(int index) {
+        int value = 0;
+        for (int direction = 1 << 31; index != 0; index >>>= 1, direction ^= direction >>> 1) {
+            if ((index & 1) != 0) value ^= direction;
+        }
+        return value;
+    }
+
+}
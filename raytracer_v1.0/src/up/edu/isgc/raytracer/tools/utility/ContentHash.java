@@ -0,0 +1,140 @@
+/*
+  [1968] - [2020] Centros Culturales de Mexico A.C / Universidad Panamericana
+  All Rights Reserved.
+ */
+package up.edu.isgc.raytracer.tools.utility;
+
+
+import up.edu.isgc.raytracer.objects.utility.Vector3D;
+
+import java.awt.Color;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Utility class used to calculate a SHA-256 hash of the content of a scene (numbers, vectors, colors and names)
+ * Two scenes with the same content always have the same hash, so it is used to know if a file saved on disk is still valid
+ *
+ * @author Homar Cano, Jafet Rodríguez
+ */
+public final class ContentHash {
+    private final MessageDigest digest;
+    private final byte[] buffer;
+
+    /**
+     * class constructor, creates an empty hash
+     */
+    public ContentHash() {
+        try {
+            this.digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException nsae) {
+            throw new IllegalStateException("SHA-256 is not available", nsae);
+        }
+        this.buffer = new byte[8];
+    }
+
+    /**
+     * adds an integer to the hash
+     * @param value the value to add
+     * @return this hash
+     */
+    public ContentHash add(int value) {
+        return add((long) value);
+    }
+
+    /**
+     * adds a long to the hash
+     * @param value the value to add
+     * @return this hash
+     */
+    public ContentHash add(long value) {
+        for (int i = 0; i < 8; i++) buffer[i] = (byte) (value >>> (56 - i * 8));
+        digest.update(buffer, 0, 8);
+        return this;
+    }
+
+    /**
+     * adds a double to the hash using its exact bits
+     * @param value the value to add
+     * @return this hash
+     */
+    public ContentHash add(double value) {
+        return add(Double.doubleToLongBits(value));
+    }
+
+    /**
+     * adds a boolean to the hash
+     * @param value the value to add
+     * @return this hash
+     */
+    public ContentHash add(boolean value) {
+        digest.update((byte) (value ? 1 : 0));
+        return this;
+    }
+
+    /**
+     * adds every value of an array to the hash
+     * @param values the values to add
+     * @return this hash
+     */
+    public ContentHash add(double[] values) {
+        add(values.length);
+        for (double value : values) add(value);
+        return this;
+    }
+
+    /**
+     * adds every byte of an array to the hash
+     * @param values the bytes to add
+     * @return this hash
+     */
+    public ContentHash add(byte[] values) {
+        add(values.length);
+        digest.update(values);
+        return this;
+    }
+
+    /**
+     * adds a vector to the hash
+     * @param vector the vector to add (null is also valid)
+     * @return this hash
+     */
+    public ContentHash add(Vector3D vector) {
+        if (vector == null) return add(false);
+        add(true);
+        return add(vector.getX()).add(vector.getY()).add(vector.getZ());
+    }
+
+    /**
+     * adds a color to the hash
+     * @param color the color to add (null is also valid)
+     * @return this hash
+     */
+    public ContentHash add(Color color) {
+        return add(color == null ? 0L : 0x100000000L | (color.getRGB() & 0xFFFFFFFFL));
+    }
+
+    /**
+     * adds a text to the hash
+     * @param text the text to add
+     * @return this hash
+     */
+    public ContentHash add(String text) {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        add(bytes.length);
+        digest.update(bytes);
+        return this;
+    }
+
+    /**
+     * finishes the hash, no values can be added after calling this method
+     * @return the hash as a hexadecimal text
+     */
+    public String toHex() {
+        StringBuilder hex = new StringBuilder();
+        for (byte value : digest.digest()) hex.append(String.format("%02x", value));
+        return hex.toString();
+    }
+
+}
@@ -9,6 +9,7 @@ import up.edu.isgc.raytracer.objects.Triangle;
 import up.edu.isgc.raytracer.objects.utility.Vector3D;
 
 import java.io.BufferedReader;
+import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
 import java.util.ArrayList;
@@ -18,19 +19,48 @@ import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Utility class used to read an .obj file and get its triangle mesh
+ * The meshes read are kept in memory (until their file changes), so a long running program (e.g. the render server) only
+ * reads each file once and every object gets a copy of the mesh
  *
  * @author Jafet Rodríguez
  */
 public abstract class ObjFileReader {
+    private static final Map<String, MeshFile> meshCache = new ConcurrentHashMap<>();
+
     /**
-     * reads an .obj and gets the triangle mesh of the object
+     * reads an .obj and gets the triangle mesh of the object, the mesh is copied from the cache if the file did not change
      * @param filename the name of the .obj file with out extension
      * @return the triangle mesh of the object in array form or null if something goes wrong
      */
     public static Triangle[] readObjFile(String filename) {
+        long lastModified = new File("objects/" + filename + ".obj").lastModified();
+        MeshFile meshFile = meshCache.get(filename);
+        if (meshFile == null || meshFile.lastModified != lastModified) {
+            Triangle[] triangles = parseObjFile(filename);
+            if (triangles == null) return null;
+            meshFile = new MeshFile(lastModified, triangles);
+            meshCache.put(filename, meshFile);
+        }
+        return Triangle.copyMesh(meshFile.triangles);
+    }
+
+    /**
+     * removes every mesh from the cache
+     */
+    public static void clearCache() {
+        meshCache.clear();
+    }
+
+    /**
+     * reads an .obj and gets the triangle mesh of the object
+     * @param filename the name of the .obj file with out extension
+     * @return the triangle mesh of the object in array form or null if something goes wrong
+     */
+    private static Triangle[] parseObjFile(String filename) {
         try {
             BufferedReader reader = new BufferedReader(new FileReader("objects/" + filename + ".obj"));
 
@@ -176,4 +206,22 @@ public abstract class ObjFileReader {
         return null;
     }
 
+    /**
+     * Stores the mesh of a file (never modified, only copied) and the time the file was modified
+     */
+    private static final class MeshFile {
+        private final long lastModified;
+        private final Triangle[] triangles;
+
+        /**
+         * class constructor
+         * @param lastModified the time the file was modified
+         * @param triangles the mesh of the file
+         */
+        private MeshFile(long lastModified, Triangle[] triangles) {
+            this.lastModified = lastModified;
+            this.triangles = triangles;
+        }
+    }
+
 }
@@ -0,0 +1,87 @@
+/*
+  [1968] - [2020] Centros Culturales de Mexico A.C / Universidad Panamericana
+  All Rights Reserved.
+ */
+package up.edu.isgc.raytracer.engine;
+
+
+import up.edu.isgc.raytracer.objects.utility.Camera;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Date;
+
+/**
+ * Checks the checkpoints of the ray tracer: a render stopped by its timeout keeps its checkpoint, the next render of the
+ * same scene resumes its tiles (even with another number of threads) and its image is the same as a render without checkpoints
+ * A render with another number of samples per pixel must not resume the tiles of the checkpoint
+ * It must be run from the same folder as Main (the .obj files are read from the objects/ folder)
+ *
+ * @author Homar Cano, Jafet Rodríguez
+ */
+public class CheckpointCheck {
+    public static final int IMAGE_SIZE = 128;
+    public static final int SAMPLES_PER_PIXEL = 16;
+    public static final int TILE_SIZE = 16;
+    public static final int CHECKPOINT_INTERVAL = 50;
+
+    /**
+     * Driver function for the check, it throws an exception if a render is not resumed from its checkpoint
+     * @param args unused
+     * @throws IOException if the checkpoint of a previous check can not be deleted
+     */
+    public static void main(String[] args) throws IOException {
+        System.out.println(new Date() + " checkpoint check started");
+        Scene scene = Main.createSampleScene06();
+        scene.setCamera(new Camera(Main.CAMERA_POSITION, Main.FOV, Main.FOV, IMAGE_SIZE, IMAGE_SIZE, Main.FAR_CLIPPING_PLANE, Main.NEAR_CLIPPING_PLANE));
+        File checkpointFile = new File("checkpoints/" + scene.getName() + ".checkpoint");
+        if (checkpointFile.exists() && !checkpointFile.delete()) throw new IOException("the checkpoint '" + checkpointFile.getPath() + "' can not be deleted");
+        Raytracer raytracer = new Raytracer(Main.N_THREADS, Main.RENDER_TIMEOUT, Main.LIGHT_FALLOFF_EXPONENT, Main.USE_CLIPPING_PLANES);
+        raytracer.setShadowBias(0.075d);
+        raytracer.setMaxLightsPerHit(1);
+        raytracer.setSamplesPerPixel(SAMPLES_PER_PIXEL);
+        raytracer.setTileSize(TILE_SIZE);
+        int tiles = Tile.split(IMAGE_SIZE, IMAGE_SIZE, TILE_SIZE).size();
+
+        raytracer.renderScene(scene, new RenderStatistics());
+        long startTime = System.nanoTime();
+        FrameBuffer reference = raytracer.renderScene(scene, new RenderStatistics());
+        int stopTime = (int) Math.max((System.nanoTime() - startTime) / 1000000L / 2L, 4L * CHECKPOINT_INTERVAL);
+        raytracer.setCheckpointInterval(CHECKPOINT_INTERVAL);
+
+        stopRender(raytracer, scene, checkpointFile, stopTime);
+        raytracer.setNumberOfThreads(Math.max(Main.N_THREADS / 2, 1));
+        RenderStatistics statistics = new RenderStatistics();
+        FrameBuffer frameBuffer = raytracer.renderScene(scene, statistics);
+        String resumed = statistics.get("resumed tiles");
+        if (resumed == null || resumed.startsWith("0 ")) throw new IllegalStateException("the render was not resumed: " + resumed + " tiles");
+        if (!Double.isInfinite(frameBuffer.calculatePSNR(reference))) throw new IllegalStateException("the resumed render is different from the render without checkpoints");
+        if (checkpointFile.exists()) throw new IllegalStateException("the checkpoint of the finished render was not deleted");
+
+        stopRender(raytracer, scene, checkpointFile, stopTime);
+        raytracer.setSamplesPerPixel(SAMPLES_PER_PIXEL / 2);
+        statistics = new RenderStatistics();
+        raytracer.renderScene(scene, statistics);
+        if (!("0 of " + tiles).equals(statistics.get("resumed tiles"))) {
+            throw new IllegalStateException("a render with other samples per pixel resumed " + statistics.get("resumed tiles") + " tiles");
+        }
+        System.out.println(new Date() + " checkpoint check passed");
+    }
+
+    /**
+     * renders a scene with a timeout that stops it before it is finished, its checkpoint must be kept
+     * @param raytracer the raytracer with checkpoints
+     * @param scene the Scene to render
+     * @param checkpointFile the file of the checkpoint of the scene
+     * @param stopTime the timeout in ms of the render
+     */
+    private static void stopRender(Raytracer raytracer, Scene scene, File checkpointFile, int stopTime) {
+        int timeout = raytracer.getTimeout();
+        raytracer.setTimeout(stopTime);
+        FrameBuffer frameBuffer = raytracer.renderScene(scene, new RenderStatistics());
+        raytracer.setTimeout(timeout);
+        if (frameBuffer != null) throw new IllegalStateException("the render finished before its timeout of " + stopTime + " ms");
+        if (!checkpointFile.isFile()) throw new IllegalStateException("the stopped render did not keep its checkpoint");
+    }
+
+}
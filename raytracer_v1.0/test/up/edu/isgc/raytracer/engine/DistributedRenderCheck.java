@@ -0,0 +1,103 @@
+/*
+  [1968] - [2020] Centros Culturales de Mexico A.C / Universidad Panamericana
+  All Rights Reserved.
+ */
+package up.edu.isgc.raytracer.engine;
+
+
+import up.edu.isgc.raytracer.objects.utility.Camera;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.ServerSocket;
+import java.nio.charset.StandardCharsets;
+import java.util.Date;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Checks the distributed render: a render coordinator on the loopback address with render workers started as other
+ * processes, the first worker is killed while it renders a tile, its tile must be handed out again to the second worker
+ * and the merged image must be the same as a render with the threads of the raytracer
+ * It must be run from the same folder as Main (the .obj files are read from the objects/ folder)
+ *
+ * @author Homar Cano, Jafet Rodríguez
+ */
+public class DistributedRenderCheck {
+    public static final int IMAGE_SIZE = 128;
+    public static final int SAMPLES_PER_PIXEL = 16;
+    public static final int TILE_SIZE = 16;
+    public static final int WORKER_THREADS = 2;
+    public static final long KILL_DELAY = 500L;
+
+    /**
+     * Driver function for the check, it throws an exception if the tile of the killed worker is lost or the image changes
+     * @param args unused
+     * @throws IOException if a worker can not be started
+     * @throws InterruptedException if the check is interrupted while it waits for the render
+     * @throws ExecutionException if the coordinator fails
+     */
+    public static void main(String[] args) throws IOException, InterruptedException, ExecutionException {
+        System.out.println(new Date() + " distributed render check started");
+        Scene scene = Main.createSampleScene06();
+        scene.setCamera(new Camera(Main.CAMERA_POSITION, Main.FOV, Main.FOV, IMAGE_SIZE, IMAGE_SIZE, Main.FAR_CLIPPING_PLANE, Main.NEAR_CLIPPING_PLANE));
+        Raytracer raytracer = new Raytracer(Main.N_THREADS, Main.RENDER_TIMEOUT, Main.LIGHT_FALLOFF_EXPONENT, Main.USE_CLIPPING_PLANES);
+        raytracer.setShadowBias(0.075d);
+        raytracer.setMaxLightsPerHit(1);
+        raytracer.setSamplesPerPixel(SAMPLES_PER_PIXEL);
+        FrameBuffer reference = raytracer.renderScene(scene, new RenderStatistics());
+
+        int port;
+        try (ServerSocket freePort = new ServerSocket(0)) {
+            port = freePort.getLocalPort();
+        }
+        RenderCoordinator coordinator = new RenderCoordinator(raytracer, port);
+        coordinator.setBindAddress(Main.COORDINATOR_ADDRESS);
+        coordinator.setTileSize(TILE_SIZE);
+        RenderStatistics statistics = new RenderStatistics();
+        CompletableFuture<FrameBuffer> render = CompletableFuture.supplyAsync(() -> coordinator.renderScene(scene, statistics));
+
+        Process killedWorker = startWorker(port, false);
+        Process worker = null;
+        try {
+            BufferedReader output = new BufferedReader(new InputStreamReader(killedWorker.getInputStream(), StandardCharsets.UTF_8));
+            String line;
+            while ((line = output.readLine()) != null && !line.contains("rendering tiles")) {
+                System.out.println(line);
+            }
+            if (line == null) throw new IllegalStateException("the first worker finished before it received the scene");
+            Thread.sleep(KILL_DELAY);
+            killedWorker.destroyForcibly().waitFor();
+            worker = startWorker(port, true);
+            FrameBuffer frameBuffer = render.get();
+            if (frameBuffer == null) throw new IllegalStateException("the distributed render was not finished");
+            if ("0".equals(statistics.get("tiles re-issued"))) throw new IllegalStateException("the tile of the killed worker was not handed out again");
+            if (!Double.isInfinite(frameBuffer.calculatePSNR(reference))) {
+                throw new IllegalStateException("the distributed render is different from the render with the threads of the raytracer");
+            }
+        } finally {
+            killedWorker.destroyForcibly();
+            if (worker != null) worker.destroyForcibly();
+        }
+        System.out.println(new Date() + " distributed render check passed (" + statistics.get("tiles re-issued") + " tiles re-issued)");
+    }
+
+    /**
+     * starts a render worker in another process with the classes of this one
+     * @param port the TCP port of the coordinator
+     * @param showOutput true if the output of the worker goes to the console, otherwise it is read by the check
+     * @return the process of the worker
+     * @throws IOException if the process can not be started
+     */
+    private static Process startWorker(int port, boolean showOutput) throws IOException {
+        String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+        ProcessBuilder builder = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"), RenderWorker.class.getName(),
+                Main.COORDINATOR_ADDRESS, String.valueOf(port), String.valueOf(WORKER_THREADS));
+        builder.redirectErrorStream(true);
+        if (showOutput) builder.redirectOutput(ProcessBuilder.Redirect.INHERIT);
+        return builder.start();
+    }
+
+}
@@ -0,0 +1,140 @@
+/*
+  [1968] - [2020] Centros Culturales de Mexico A.C / Universidad Panamericana
+  All Rights Reserved.
+ */
+package up.edu.isgc.raytracer.engine;
+
+
+import up.edu.isgc.raytracer.objects.utility.Camera;
+import up.edu.isgc.raytracer.objects.utility.Vector3D;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Checks the frame sequence: the spheres of the sample scene 02 move in every frame, the structures over the objects are
+ * refit between the rebuild intervals and every frame (saved as pfm to keep its float colors) must be the same image as
+ * a render of the scene with the objects at the position of the frame
+ * It must be run from the same folder as Main (the .obj files are read from the objects/ folder, the frames are saved in images/)
+ *
+ * @author Homar Cano, Jafet Rodríguez
+ */
+public class FrameSequenceCheck {
+    public static final int IMAGE_SIZE = 96;
+    public static final int FRAME_COUNT = 6;
+    public static final int STRUCTURE_REBUILD_INTERVAL = 4;
+
+    /**
+     * Driver function for the check, it throws an exception if a frame is not refit or it is different from a full render
+     * @param args unused
+     * @throws IOException if a frame can not be read
+     */
+    public static void main(String[] args) throws IOException {
+        System.out.println(new Date() + " frame sequence check started");
+        Raytracer raytracer = new Raytracer(Main.N_THREADS, Main.RENDER_TIMEOUT, Main.LIGHT_FALLOFF_EXPONENT, Main.USE_CLIPPING_PLANES);
+        raytracer.setShadowBias(0.0000001d);
+        Scene scene = createScene(-1);
+        scene.setExtension("pfm");
+        FrameSequence sequence = new FrameSequence(raytracer, scene, FRAME_COUNT);
+        sequence.setStructureRebuildInterval(STRUCTURE_REBUILD_INTERVAL);
+        sequence.setTransform(scene.getObjects().get(0), FrameSequenceCheck::getRedTranslation);
+        sequence.setTransform(scene.getObjects().get(1), FrameSequenceCheck::getGreenTranslation);
+        List<RenderStatistics> frames = sequence.render();
+        if (frames.size() != FRAME_COUNT) throw new IllegalStateException("only " + frames.size() + " of " + FRAME_COUNT + " frames were rendered");
+
+        for (int frame = 0; frame < FRAME_COUNT; frame++) {
+            String structures = frame % STRUCTURE_REBUILD_INTERVAL == 0 ? "built" : "refit";
+            if (!structures.equals(frames.get(frame).get("scene structures"))) {
+                throw new IllegalStateException("the structures of the frame " + frame + " were " + frames.get(frame).get("scene structures") + " instead of " + structures);
+            }
+            FrameBuffer frameBuffer = readPFM(new File("images", sequence.getFrameName(frame) + ".pfm"));
+            FrameBuffer reference = raytracer.renderScene(createScene(frame), new RenderStatistics());
+            if (!Double.isInfinite(frameBuffer.calculatePSNR(reference))) {
+                throw new IllegalStateException("the frame " + frame + " is different from the render of the scene (PSNR " + frameBuffer.calculatePSNR(reference) + ")");
+            }
+        }
+        System.out.println(new Date() + " frame sequence check passed");
+    }
+
+    /**
+     * creates the sample scene 02 with its spheres at their position in a frame
+     * @param frame the index of the frame or -1 for the positions of the scene
+     * @return the scene
+     */
+    private static Scene createScene(int frame) {
+        Scene scene = Main.createSampleScene02();
+        scene.setCamera(new Camera(Main.CAMERA_POSITION, Main.FOV, Main.FOV, IMAGE_SIZE, IMAGE_SIZE, Main.FAR_CLIPPING_PLANE, Main.NEAR_CLIPPING_PLANE));
+        if (frame >= 0) {
+            scene.getObjects().get(0).setPosition(Vector3D.add(scene.getObjects().get(0).getPosition(), getRedTranslation(frame)));
+            scene.getObjects().get(1).setPosition(Vector3D.add(scene.getObjects().get(1).getPosition(), getGreenTranslation(frame)));
+        }
+        return scene;
+    }
+
+    /**
+     * calculates the translation of the red sphere, it moves to the right
+     * @param frame the index of the frame
+     * @return the translation
+     */
+    private static Vector3D getRedTranslation(int frame) {
+        return new Vector3D(0.5d * frame, 0d, 0d);
+    }
+
+    /**
+     * calculates the translation of the green sphere, it moves up and away from the camera
+     * @param frame the index of the frame
+     * @return the translation
+     */
+    private static Vector3D getGreenTranslation(int frame) {
+        return new Vector3D(0d, 0.25d * frame, 0.5d * frame);
+    }
+
+    /**
+     * reads the float colors of a pfm saved by the image encoder (the rows of a pfm go from the bottom to the top)
+     * @param file the pfm file
+     * @return the frame buffer with the colors of the pfm
+     * @throws IOException if the file can not be read
+     */
+    private static FrameBuffer readPFM(File file) throws IOException {
+        try (DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            String header = readLine(input);
+            String[] size = readLine(input).split(" ");
+            readLine(input);
+            if (!"PF".equals(header)) throw new IOException("the file '" + file.getPath() + "' is not a color pfm");
+            int width = Integer.parseInt(size[0]);
+            int height = Integer.parseInt(size[1]);
+            byte[] bytes = new byte[width * height * 3 * 4];
+            input.readFully(bytes);
+            ByteBuffer data = ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+            FrameBuffer frameBuffer = new FrameBuffer(width, height);
+            for (int y = height - 1; y >= 0; y--) {
+                for (int x = 0; x < width; x++) frameBuffer.setColor(x, y, data.getFloat(), data.getFloat(), data.getFloat());
+            }
+            return frameBuffer;
+        }
+    }
+
+    /**
+     * reads a line of the header of a pfm
+     * @param input the stream of the pfm
+     * @return the line without its end
+     * @throws IOException if the file can not be read
+     */
+    private static String readLine(DataInputStream input) throws IOException {
+        StringBuilder line = new StringBuilder();
+        int character;
+        while ((character = input.read()) != '\n') {
+            if (character < 0) throw new IOException("the header of the pfm is not complete");
+            line.append((char) character);
+        }
+        return line.toString();
+    }
+
+}
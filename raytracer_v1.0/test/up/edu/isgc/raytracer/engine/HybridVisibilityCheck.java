@@ -0,0 +1,68 @@
+/*
+  [1968] - [2020] Centros Culturales de Mexico A.C / Universidad Panamericana
+  All Rights Reserved.
+ */
+package up.edu.isgc.raytracer.engine;
+
+
+import up.edu.isgc.raytracer.objects.utility.Camera;
+
+import java.util.Date;
+import java.util.function.Supplier;
+
+/**
+ * Checks the hybrid visibility: every sample scene rendered with the first hits rasterized into the visibility buffer must
+ * be the same image as the render with ray traced primary rays, with the cameras of Main (the silhouettes of the spheres and
+ * the polygons) and with clipping planes that cut the spheres and the floor
+ * It must be run from the same folder as Main (the .obj files are read from the objects/ folder)
+ *
+ * @author Homar Cano, Jafet Rodríguez
+ */
+public class HybridVisibilityCheck {
+    public static final int IMAGE_SIZE = 160;
+    public static final double CLIPPED_NEAR_PLANE = 7.5d;
+    public static final double CLIPPED_FAR_PLANE = 10.5d;
+
+    /**
+     * Driver function for the check, it throws an exception if the hybrid visibility changes a pixel
+     * @param args unused
+     */
+    public static void main(String[] args) {
+        System.out.println(new Date() + " hybrid visibility check started");
+        check(Main::createSampleScene01, 0.075d);
+        check(Main::createSampleScene02, 0.0000001d);
+        check(Main::createSampleScene03, 0.0005d);
+        check(Main::createSampleScene04, 0.075d);
+        check(Main::createSampleScene05, 0.0003d);
+        check(Main::createSampleScene06, 0.075d);
+        check(Main::createScene02, 0.0000001d);
+        System.out.println(new Date() + " hybrid visibility check passed");
+    }
+
+    /**
+     * renders a scene with and without the hybrid visibility, with the near and far planes of Main and with planes that
+     * clip its objects
+     * @param createScene the function that creates the scene
+     * @param shadowBias the shadow bias of the scene
+     */
+    private static void check(Supplier<Scene> createScene, double shadowBias) {
+        Raytracer raytracer = new Raytracer(Main.N_THREADS, Main.RENDER_TIMEOUT, Main.LIGHT_FALLOFF_EXPONENT, true);
+        raytracer.setShadowBias(shadowBias);
+        Raytracer hybridRaytracer = raytracer.copy();
+        hybridRaytracer.setUseHybridVisibility(true);
+        for (double[] planes : new double[][]{{Main.NEAR_CLIPPING_PLANE, Main.FAR_CLIPPING_PLANE}, {CLIPPED_NEAR_PLANE, CLIPPED_FAR_PLANE}}) {
+            Scene scene = createScene.get();
+            scene.setCamera(new Camera(Main.CAMERA_POSITION, Main.FOV, Main.FOV, IMAGE_SIZE, IMAGE_SIZE, planes[1], planes[0]));
+            if (scene.compile(hybridRaytracer, new RenderStatistics()).getVisibilityBuffer() == null) {
+                throw new IllegalStateException("the scene '" + scene.getName() + "' was compiled without the visibility buffer");
+            }
+            FrameBuffer reference = raytracer.renderScene(scene, new RenderStatistics());
+            FrameBuffer frameBuffer = hybridRaytracer.renderScene(scene, new RenderStatistics());
+            if (!Double.isInfinite(frameBuffer.calculatePSNR(reference))) {
+                throw new IllegalStateException("the scene '" + scene.getName() + "' with the clipping planes " + planes[0] + " and " + planes[1]
+                        + " is different with the hybrid visibility (PSNR " + frameBuffer.calculatePSNR(reference) + ")");
+            }
+        }
+    }
+
+}
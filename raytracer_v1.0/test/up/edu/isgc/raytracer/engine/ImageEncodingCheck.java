@@ -0,0 +1,103 @@
+/*
+  [1968] - [2020] Centros Culturales de Mexico A.C / Universidad Panamericana
+  All Rights Reserved.
+ */
+package up.edu.isgc.raytracer.engine;
+
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.Date;
+import java.util.Random;
+import java.util.zip.Deflater;
+
+/**
+ * Checks the image encoder: the png written by the parallel encoder must decode with ImageIO to the same pixels for
+ * images of one band and of many bands, with noise (every filter is used) and with flat areas, at every compression level,
+ * and the pfm must keep the float colors of the frame buffer
+ *
+ * @author Homar Cano, Jafet Rodríguez
+ */
+public class ImageEncodingCheck {
+    public static final int[][] IMAGE_SIZES = {{1, 1}, {7, 3}, {320, 240}, {1001, 777}};
+
+    /**
+     * Driver function for the check, it throws an exception if an image does not decode to the pixels that were encoded
+     * @param args unused
+     * @throws IOException if an image can not be encoded or decoded
+     */
+    public static void main(String[] args) throws IOException {
+        System.out.println(new Date() + " image encoding check started");
+        ImageEncoder encoder = new ImageEncoder(Runtime.getRuntime().availableProcessors());
+        Random random = new Random(1);
+        for (int[] size : IMAGE_SIZES) {
+            BufferedImage image = createImage(size[0], size[1], random);
+            for (int level : new int[]{Deflater.DEFAULT_COMPRESSION, Deflater.NO_COMPRESSION, Deflater.BEST_SPEED, Deflater.BEST_COMPRESSION}) {
+                encoder.setCompressionLevel(level);
+                ByteArrayOutputStream png = new ByteArrayOutputStream();
+                encoder.writePNG(image, png);
+                BufferedImage decoded = ImageIO.read(new ByteArrayInputStream(png.toByteArray()));
+                if (decoded == null || decoded.getWidth() != image.getWidth() || decoded.getHeight() != image.getHeight()) {
+                    throw new IllegalStateException("the " + size[0] + "x" + size[1] + " png can not be decoded");
+                }
+                for (int y = 0; y < image.getHeight(); y++) {
+                    for (int x = 0; x < image.getWidth(); x++) {
+                        if ((decoded.getRGB(x, y) & 0xFFFFFF) != (image.getRGB(x, y) & 0xFFFFFF)) {
+                            throw new IllegalStateException("the pixel (" + x + ", " + y + ") of the " + size[0] + "x" + size[1] + " png changed with the compression level " + level);
+                        }
+                    }
+                }
+            }
+
+            FrameBuffer frameBuffer = new FrameBuffer(size[0], size[1]);
+            for (int y = 0; y < size[1]; y++) {
+                for (int x = 0; x < size[0]; x++) frameBuffer.setColor(x, y, random.nextFloat() * 4f, random.nextFloat(), -random.nextFloat());
+            }
+            ByteArrayOutputStream pfm = new ByteArrayOutputStream();
+            encoder.writePFM(frameBuffer, pfm);
+            checkPFM(frameBuffer, pfm.toByteArray());
+        }
+        System.out.println(new Date() + " image encoding check passed");
+    }
+
+    /**
+     * creates an image with noise in its upper half and flat bands of color in its lower half
+     * @param width the width of the image
+     * @param height the height of the image
+     * @param random the random generator of the noise
+     * @return the image
+     */
+    private static BufferedImage createImage(int width, int height, Random random) {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) image.setRGB(x, y, y < height / 2 ? random.nextInt() : (y / 16 * 0x102030 + x / 32 * 0x030201) & 0xFFFFFF);
+        }
+        return image;
+    }
+
+    /**
+     * checks that a pfm has the size and the float colors of a frame buffer (the rows of a pfm go from the bottom to the top)
+     * @param frameBuffer the frame buffer that was encoded
+     * @param pfm the bytes of the pfm
+     */
+    private static void checkPFM(FrameBuffer frameBuffer, byte[] pfm) {
+        int width = frameBuffer.getWidth();
+        int height = frameBuffer.getHeight();
+        byte[] header = ("PF\n" + width + " " + height + "\n-1.0\n").getBytes(StandardCharsets.US_ASCII);
+        if (pfm.length != header.length + width * height * 3 * 4) throw new IllegalStateException("the " + width + "x" + height + " pfm has " + pfm.length + " bytes");
+        ByteBuffer data = ByteBuffer.wrap(pfm, header.length, pfm.length - header.length).order(ByteOrder.LITTLE_ENDIAN);
+        float[] colors = frameBuffer.getColors();
+        for (int y = height - 1; y >= 0; y--) {
+            for (int i = y * width * 3; i < (y + 1) * width * 3; i++) {
+                if (Float.compare(data.getFloat(), colors[i]) != 0) throw new IllegalStateException("the color " + i + " of the " + width + "x" + height + " pfm changed");
+            }
+        }
+    }
+
+}
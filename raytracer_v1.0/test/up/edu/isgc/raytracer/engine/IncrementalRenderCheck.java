@@ -0,0 +1,87 @@
+/*
+  [1968] - [2020] Centros Culturales de Mexico A.C / Universidad Panamericana
+  All Rights Reserved.
+ */
+package up.edu.isgc.raytracer.engine;
+
+
+import up.edu.isgc.raytracer.lights.PointLight;
+import up.edu.isgc.raytracer.materials.ReflectiveMaterial;
+import up.edu.isgc.raytracer.objects.Object3D;
+import up.edu.isgc.raytracer.objects.utility.Camera;
+import up.edu.isgc.raytracer.objects.utility.Vector3D;
+
+import java.awt.Color;
+import java.util.Date;
+import java.util.function.Consumer;
+
+/**
+ * Checks the incremental renderer: the first render traces every tile, a render without edits traces none, an edit of a
+ * material, a position or a light traces only some tiles (a new light retraces every tile with a shaded point) and a new
+ * camera traces every tile again, every image must be the same as a full render of the edited scene
+ * It must be run from the same folder as Main (the .obj files are read from the objects/ folder)
+ *
+ * @author Homar Cano, Jafet Rodríguez
+ */
+public class IncrementalRenderCheck {
+    public static final int IMAGE_SIZE = 96;
+    public static final int TILE_SIZE = 16;
+
+    /**
+     * Driver function for the check, it throws an exception if an edit retraces the wrong tiles or changes the image
+     * @param args unused
+     */
+    public static void main(String[] args) {
+        System.out.println(new Date() + " incremental render check started");
+        Raytracer raytracer = new Raytracer(Main.N_THREADS, Main.RENDER_TIMEOUT, Main.LIGHT_FALLOFF_EXPONENT, Main.USE_CLIPPING_PLANES);
+        raytracer.setShadowBias(0.0005d);
+        raytracer.setLightContributionThreshold(Main.LIGHT_CONTRIBUTION_THRESHOLD);
+        raytracer.setTileSize(TILE_SIZE);
+        Scene scene = Main.createSampleScene03();
+        scene.setCamera(new Camera(Main.CAMERA_POSITION, Main.FOV, Main.FOV, IMAGE_SIZE, IMAGE_SIZE, Main.FAR_CLIPPING_PLANE, Main.NEAR_CLIPPING_PLANE));
+        IncrementalRenderer renderer = new IncrementalRenderer(raytracer, scene);
+        int tiles = Tile.split(IMAGE_SIZE, IMAGE_SIZE, TILE_SIZE).size();
+
+        check(tiles + " of " + tiles, render(raytracer, renderer, edited -> { }), "first render");
+        check("0 of " + tiles, render(raytracer, renderer, edited -> { }), "same scene");
+        String retraced = render(raytracer, renderer, edited -> edited.getObjects().get(0).setMaterial(new ReflectiveMaterial(Color.ORANGE, 0.05d, 0.25d, 0.75d, 600d, 0.15d)));
+        if (retraced.startsWith("0 ") || retraced.equals(tiles + " of " + tiles)) throw new IllegalStateException("new material in a sphere: " + retraced + " tiles retraced");
+        retraced = render(raytracer, renderer, edited -> {
+            Object3D sphere = edited.getObjects().get(1);
+            sphere.setPosition(Vector3D.add(sphere.getPosition(), new Vector3D(0.25d, 0.25d, 0d)));
+        });
+        if (retraced.startsWith("0 ") || retraced.equals(tiles + " of " + tiles)) throw new IllegalStateException("moved sphere: " + retraced + " tiles retraced");
+        retraced = render(raytracer, renderer, edited -> edited.addLight(new PointLight(new Vector3D(-2.5d, 3d, 6d), Color.WHITE, 0.5f)));
+        if (retraced.startsWith("0 ")) throw new IllegalStateException("new light: no tiles retraced");
+        check(tiles + " of " + tiles, render(raytracer, renderer, edited -> edited.setCamera(new Camera(new Vector3D(0.5d, 0d, -8d), Main.FOV, Main.FOV,
+                IMAGE_SIZE, IMAGE_SIZE, Main.FAR_CLIPPING_PLANE, Main.NEAR_CLIPPING_PLANE))), "new camera");
+        System.out.println(new Date() + " incremental render check passed");
+    }
+
+    /**
+     * edits the scene of the incremental renderer and renders it incrementally and with a full render, both images must be the same
+     * @param raytracer the Raytracer of the incremental renderer
+     * @param renderer the incremental renderer
+     * @param edit the change made to the scene
+     * @return the tiles retraced by the incremental render
+     */
+    private static String render(Raytracer raytracer, IncrementalRenderer renderer, Consumer<Scene> edit) {
+        edit.accept(renderer.getScene());
+        RenderStatistics statistics = new RenderStatistics();
+        FrameBuffer frameBuffer = renderer.render(statistics);
+        FrameBuffer reference = raytracer.renderScene(renderer.getScene(), new RenderStatistics());
+        if (!Double.isInfinite(frameBuffer.calculatePSNR(reference))) throw new IllegalStateException("the incremental render is different from the full render");
+        return statistics.get("retraced tiles");
+    }
+
+    /**
+     * checks the tiles retraced by a render
+     * @param expected the tiles that must be retraced
+     * @param retraced the tiles retraced
+     * @param name the name of the render
+     */
+    private static void check(String expected, String retraced, String name) {
+        if (!expected.equals(retraced)) throw new IllegalStateException(name + ": " + retraced + " tiles retraced instead of " + expected);
+    }
+
+}
@@ -0,0 +1,119 @@
+/*
+  [1968] - [2020] Centros Culturales de Mexico A.C / Universidad Panamericana
+  All Rights Reserved.
+ */
+package up.edu.isgc.raytracer.engine;
+
+
+import up.edu.isgc.raytracer.lights.PointLight;
+import up.edu.isgc.raytracer.materials.ReflectiveMaterial;
+import up.edu.isgc.raytracer.objects.Object3D;
+import up.edu.isgc.raytracer.objects.utility.Camera;
+import up.edu.isgc.raytracer.objects.utility.Vector3D;
+
+import java.awt.Color;
+import java.io.File;
+import java.io.IOException;
+import java.util.Date;
+import java.util.function.Consumer;
+
+/**
+ * Checks the render cache: a scene without changes is read from the cache, an edited scene reuses the tiles that the
+ * changes can not reach and every image is the same as a render of the same scene without the cache
+ * At the end the maximum size of the cache is reduced, only the least recently used renders can be evicted (the view files stay)
+ * It must be run from the same folder as Main (the .obj files are read from the objects/ folder), the cache/ folder is emptied
+ *
+ * @author Homar Cano, Jafet Rodríguez
+ */
+public class RenderCacheCheck {
+    public static final int IMAGE_SIZE = 96;
+    public static final int TILE_SIZE = 16;
+    public static final long CACHE_SIZE = 64L * 1024L * 1024L;
+
+    /**
+     * Driver function for the check, it throws an exception if the cache does not work
+     * @param args unused
+     * @throws IOException if the cache folder can not be cleaned
+     */
+    public static void main(String[] args) throws IOException {
+        System.out.println(new Date() + " render cache check started");
+        File folder = new File("cache");
+        File[] files = folder.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (!file.delete()) throw new IOException("the file '" + file.getPath() + "' can not be deleted");
+            }
+        }
+        Raytracer raytracer = new Raytracer(Main.N_THREADS, Main.RENDER_TIMEOUT, Main.LIGHT_FALLOFF_EXPONENT, Main.USE_CLIPPING_PLANES);
+        raytracer.setShadowBias(0.0005d);
+        raytracer.setLightContributionThreshold(Main.LIGHT_CONTRIBUTION_THRESHOLD);
+        raytracer.setTileSize(TILE_SIZE);
+        raytracer.setRenderCacheSize(CACHE_SIZE);
+        int tiles = Tile.split(IMAGE_SIZE, IMAGE_SIZE, TILE_SIZE).size();
+
+        check("0 of " + tiles, render(raytracer, scene -> { }), "first render");
+        check("all", render(raytracer, scene -> { }), "same scene");
+        String reused = render(raytracer, scene -> scene.getObjects().get(0).setMaterial(new ReflectiveMaterial(Color.ORANGE, 0.05d, 0.25d, 0.75d, 600d, 0.15d)));
+        if (reused.startsWith("0 ") || reused.equals(tiles + " of " + tiles)) throw new IllegalStateException("new material in a sphere: " + reused + " tiles reused");
+        render(raytracer, scene -> {
+            Object3D sphere = scene.getObjects().get(1);
+            sphere.setPosition(Vector3D.add(sphere.getPosition(), new Vector3D(0.25d, 0.25d, 0d)));
+        });
+        render(raytracer, scene -> scene.addLight(new PointLight(new Vector3D(-2.5d, 3d, 6d), Color.WHITE, 0.5f)));
+        check("all", render(raytracer, scene -> { }), "first scene again");
+
+        raytracer.setTileSize(TILE_SIZE * 2);
+        check("0 of " + Tile.split(IMAGE_SIZE, IMAGE_SIZE, TILE_SIZE * 2).size(), render(raytracer, scene -> { }), "new tile size");
+        raytracer.setTileSize(TILE_SIZE);
+
+        File[] views = folder.listFiles((directory, name) -> name.endsWith(".view"));
+        raytracer.setRenderCacheSize(1L);
+        render(raytracer, scene -> scene.getLights().get(0).setIntensity(6f));
+        File[] renders = folder.listFiles((directory, name) -> name.endsWith(".render"));
+        if (renders == null || renders.length != 0) throw new IllegalStateException("the renders were not evicted");
+        for (File view : views) {
+            if (!view.isFile()) throw new IllegalStateException("the view file '" + view.getName() + "' was evicted");
+        }
+        if (folder.listFiles((directory, name) -> name.endsWith(".tmp")).length != 0) throw new IllegalStateException("a temporary file was left in the cache");
+        System.out.println(new Date() + " render cache check passed");
+    }
+
+    /**
+     * creates the scene used by the check (the spheres, teapot and floor of the sample scene 03)
+     * @param edit the change made to the scene
+     * @return the scene
+     */
+    private static Scene createScene(Consumer<Scene> edit) {
+        Scene scene = Main.createSampleScene03();
+        scene.setCamera(new Camera(Main.CAMERA_POSITION, Main.FOV, Main.FOV, IMAGE_SIZE, IMAGE_SIZE, Main.FAR_CLIPPING_PLANE, Main.NEAR_CLIPPING_PLANE));
+        edit.accept(scene);
+        return scene;
+    }
+
+    /**
+     * renders an edited scene without and with the cache, both images must be the same
+     * @param raytracer the raytracer with the render cache
+     * @param edit the change made to the scene
+     * @return the tiles reused from the cache
+     */
+    private static String render(Raytracer raytracer, Consumer<Scene> edit) {
+        Raytracer uncached = raytracer.copy();
+        uncached.setRenderCacheSize(0L);
+        FrameBuffer reference = uncached.renderScene(createScene(edit), new RenderStatistics());
+        RenderStatistics statistics = new RenderStatistics();
+        FrameBuffer frameBuffer = raytracer.renderScene(createScene(edit), statistics);
+        if (!Double.isInfinite(frameBuffer.calculatePSNR(reference))) throw new IllegalStateException("the cached render is different from the render without the cache");
+        return statistics.get("reused tiles");
+    }
+
+    /**
+     * checks the tiles reused by a render
+     * @param expected the tiles that must be reused
+     * @param reused the tiles reused
+     * @param name the name of the render
+     */
+    private static void check(String expected, String reused, String name) {
+        if (!expected.equals(reused)) throw new IllegalStateException(name + ": " + reused + " tiles reused instead of " + expected);
+    }
+
+}
@@ -0,0 +1,108 @@
+/*
+  [1968] - [2020] Centros Culturales de Mexico A.C / Universidad Panamericana
+  All Rights Reserved.
+ */
+package up.edu.isgc.raytracer.engine;
+
+
+import up.edu.isgc.raytracer.objects.utility.Camera;
+import up.edu.isgc.raytracer.objects.utility.Vector3D;
+
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Checks the tile scheduler with a single render thread: a preview with a higher priority sent in the middle of a long
+ * final render gets the thread after the tile in flight (the final does not finish more tiles until the preview is done),
+ * no tile of the final is lost and both images are the same as renders with the threads of the raytracer
+ * A job whose tiles fail must be done with its error and the thread must go on rendering the next jobs
+ * It must be run from the same folder as Main (the .obj files are read from the objects/ folder)
+ *
+ * @author Homar Cano, Jafet Rodríguez
+ */
+public class TileSchedulerCheck {
+    public static final int FINAL_SIZE = 160;
+    public static final int FINAL_SAMPLES = 16;
+    public static final int PREVIEW_SIZE = 64;
+    public static final int TILE_SIZE = 16;
+    public static final long JOB_TIMEOUT = 600000L;
+
+    /**
+     * Driver function for the check, it throws an exception if the preview does not preempt the final render
+     * @param args unused
+     * @throws InterruptedException if the check is interrupted while it waits for a job
+     */
+    public static void main(String[] args) throws InterruptedException {
+        System.out.println(new Date() + " tile scheduler check started");
+        TileScheduler scheduler = new TileScheduler(1);
+        Raytracer finalRaytracer = new Raytracer(Main.N_THREADS, Main.RENDER_TIMEOUT, Main.LIGHT_FALLOFF_EXPONENT, Main.USE_CLIPPING_PLANES);
+        finalRaytracer.setShadowBias(0.075d);
+        finalRaytracer.setMaxLightsPerHit(1);
+        finalRaytracer.setSamplesPerPixel(FINAL_SAMPLES);
+        finalRaytracer.setTileSize(TILE_SIZE);
+        Scene finalScene = createScene(Main.createSampleScene06(), FINAL_SIZE);
+        Raytracer previewRaytracer = new Raytracer(Main.N_THREADS, Main.RENDER_TIMEOUT, Main.LIGHT_FALLOFF_EXPONENT, Main.USE_CLIPPING_PLANES);
+        previewRaytracer.setShadowBias(0.075d);
+        previewRaytracer.setTileSize(TILE_SIZE);
+        Scene previewScene = createScene(Main.createSampleScene01(), PREVIEW_SIZE);
+
+        CompiledScene compiledPreview = previewScene.compile(previewRaytracer, new RenderStatistics());
+        ScheduledJob finalJob = submit(scheduler, finalRaytracer, finalScene.compile(finalRaytracer, new RenderStatistics()), 0);
+        while (finalJob.getProgress() < 5) Thread.sleep(1L);
+        int progress = finalJob.getProgress();
+        ScheduledJob previewJob = submit(scheduler, previewRaytracer, compiledPreview, 10);
+        check(previewJob.await(JOB_TIMEOUT), "the preview was not finished");
+        int tilesDuringPreview = (finalJob.getProgress() - progress) * finalJob.getTileCount() / 100;
+        if (tilesDuringPreview > 1 || finalJob.isDone()) {
+            throw new IllegalStateException("the final render finished " + tilesDuringPreview + " tiles while the preview with a higher priority was waiting");
+        }
+        check(finalJob.await(JOB_TIMEOUT) && finalJob.getError() == null, "the final render was not finished");
+        check(Double.isInfinite(finalJob.getFrameBuffer().calculatePSNR(finalRaytracer.renderScene(finalScene, new RenderStatistics()))),
+                "the final render of the scheduler is different from the render with the threads of the raytracer");
+        check(Double.isInfinite(previewJob.getFrameBuffer().calculatePSNR(previewRaytracer.renderScene(previewScene, new RenderStatistics()))),
+                "the preview of the scheduler is different from the render with the threads of the raytracer");
+
+        List<Tile> tiles = Tile.split(PREVIEW_SIZE, PREVIEW_SIZE, TILE_SIZE);
+        ScheduledJob failedJob = scheduler.submit(previewRaytracer, compiledPreview, null, tiles, 0);
+        check(failedJob.await(JOB_TIMEOUT) && failedJob.getError() != null, "the job without screen positions did not fail");
+        ScheduledJob nextJob = submit(scheduler, previewRaytracer, compiledPreview, 0);
+        check(nextJob.await(JOB_TIMEOUT) && nextJob.getError() == null, "the scheduler stopped rendering after a failed job");
+        scheduler.shutdown();
+        System.out.println(new Date() + " tile scheduler check passed");
+    }
+
+    /**
+     * sets the camera of a scene
+     * @param scene the Scene
+     * @param size the width and height of the image
+     * @return the scene
+     */
+    private static Scene createScene(Scene scene, int size) {
+        scene.setCamera(new Camera(Main.CAMERA_POSITION, Main.FOV, Main.FOV, size, size, Main.FAR_CLIPPING_PLANE, Main.NEAR_CLIPPING_PLANE));
+        return scene;
+    }
+
+    /**
+     * sends every tile of a compiled scene to the scheduler
+     * @param scheduler the tile scheduler
+     * @param raytracer the Raytracer that renders the tiles
+     * @param scene the CompiledScene to render
+     * @param priority the priority of the job
+     * @return the job
+     */
+    private static ScheduledJob submit(TileScheduler scheduler, Raytracer raytracer, CompiledScene scene, int priority) {
+        Camera camera = scene.getCamera();
+        Vector3D[][] screenPositions = camera.calculateScreenPositions();
+        return scheduler.submit(raytracer, scene, screenPositions, Tile.split(camera.getResolutionWidth(), camera.getResolutionHeight(), raytracer.getTileSize()), priority);
+    }
+
+    /**
+     * checks a condition of the scheduler
+     * @param condition the condition
+     * @param message the message of the exception if the condition is false
+     */
+    private static void check(boolean condition, String message) {
+        if (!condition) throw new IllegalStateException(message);
+    }
+
+}